@@ -0,0 +1,19 @@
+package com.bioid.authenticator;
+
+import android.app.Application;
+
+import com.bioid.authenticator.base.network.ConnectionManager;
+
+/**
+ * Does set up the process wide state before any activity is created.
+ */
+public final class AuthenticatorApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // makes sure all requests are using pooled keep-alive connections
+        ConnectionManager.init();
+    }
+}
@@ -1,5 +1,6 @@
 package com.bioid.authenticator.base.camera;
 
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
@@ -11,13 +12,20 @@ import android.util.Size;
 
 import com.bioid.authenticator.base.annotations.Rotation;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Class which provides helper methods to deal with CameraCharacteristics.
  * Because {@link CameraCharacteristics} and {@link StreamConfigurationMap} are final this is helper is also useful for testing.
+ * <p>
+ * The characteristics of a camera do not change, they are requested only once per camera because every request is an IPC
+ * to the camera service.
  */
 class CameraCharacteristicsHelper {
 
     private final CameraManager manager;
+    private final Map<String, CameraCharacteristics> characteristicsCache = new HashMap<>();
 
     public CameraCharacteristicsHelper(CameraManager manager) {
         this.manager = manager;
@@ -44,6 +52,18 @@ class CameraCharacteristicsHelper {
         return configurationMap.getOutputSizes(SurfaceTexture.class);
     }
 
+    /**
+     * Returns the available output sizes for YUV_420_888 ImageReaders from the
+     * {@link CameraCharacteristics#SCALER_STREAM_CONFIGURATION_MAP} characteristic.
+     *
+     * @throws CameraException if the sizes could not be determined
+     */
+    @Nullable
+    public Size[] getYuvOutputSizes(@NonNull String cameraId) {
+        StreamConfigurationMap configurationMap = getOrThrow(cameraId, CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return configurationMap.getOutputSizes(ImageFormat.YUV_420_888);
+    }
+
     /**
      * Returns the {@link CameraCharacteristics#SENSOR_ORIENTATION} characteristic.
      *
@@ -64,10 +84,38 @@ class CameraCharacteristicsHelper {
         return getOrThrow(cameraId, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
     }
 
+    /**
+     * Returns the {@link CameraCharacteristics#STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES} characteristic.
+     *
+     * @throws CameraException if the characteristic could not be determined
+     */
+    @NonNull
+    public int[] getAvailableFaceDetectModes(@NonNull String cameraId) {
+        return getOrThrow(cameraId, CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES);
+    }
+
+    /**
+     * Returns the {@link CameraCharacteristics#STATISTICS_INFO_MAX_FACE_COUNT} characteristic.
+     *
+     * @throws CameraException if the characteristic could not be determined
+     */
+    public int getMaxFaceCount(@NonNull String cameraId) {
+        return getOrThrow(cameraId, CameraCharacteristics.STATISTICS_INFO_MAX_FACE_COUNT);
+    }
+
+    /**
+     * Returns the {@link CameraCharacteristics#SENSOR_INFO_TIMESTAMP_SOURCE} characteristic.
+     *
+     * @throws CameraException if the characteristic could not be determined
+     */
+    public int getTimestampSource(@NonNull String cameraId) {
+        return getOrThrow(cameraId, CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+    }
+
     @NonNull
     private <T> T getOrThrow(@NonNull String cameraId, @NonNull CameraCharacteristics.Key<T> key) {
         try {
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            CameraCharacteristics characteristics = getCameraCharacteristics(cameraId);
 
             T value = characteristics.get(key);
 
@@ -76,8 +124,21 @@ class CameraCharacteristicsHelper {
             } else {
                 return value;
             }
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            // IllegalArgumentException is thrown for unknown camera IDs (e.g. a camera which was stored on another device)
             throw new CameraException(e);
         }
     }
+
+    @NonNull
+    private CameraCharacteristics getCameraCharacteristics(@NonNull String cameraId) throws CameraAccessException {
+        synchronized (characteristicsCache) {
+            CameraCharacteristics characteristics = characteristicsCache.get(cameraId);
+            if (characteristics == null) {
+                characteristics = manager.getCameraCharacteristics(cameraId);
+                characteristicsCache.put(cameraId, characteristics);
+            }
+            return characteristics;
+        }
+    }
 }
@@ -0,0 +1,246 @@
+package com.bioid.authenticator.base.camera;
+
+import android.Manifest;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+import android.support.annotation.VisibleForTesting;
+import android.view.Surface;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Opens and closes the front-facing camera and its preview session without blocking the calling thread.
+ * <p>
+ * Every Camera2 operation (including {@link CameraDevice#close()} which is very slow on some devices) is executed on the
+ * camera thread, the state of the camera is only accessed on this thread.
+ * Requests which do not fit the current state anymore are ignored, e.g. a camera which finished opening after it was
+ * already requested to be closed is closed right away.
+ * The listener is notified on the main thread.
+ */
+@SuppressWarnings("MissingPermission")
+public final class CameraController {
+
+    /**
+     * Callbacks which are executed on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * The camera is open, the preview can be started with {@link #startPreview(CameraDevice, List, List, FaceStatistics)}.
+         */
+        void onCameraOpened(@NonNull CameraDevice camera);
+
+        /**
+         * The camera could not be opened or was disconnected, the camera is already closed.
+         */
+        void onCameraError(@NonNull CameraException e);
+    }
+
+    @VisibleForTesting
+    enum State {
+        CLOSED,
+        OPENING,
+        OPENED,
+        STARTING_PREVIEW,
+        PREVIEWING
+    }
+
+    private final LoggingHelper log;
+    private final CameraHelper cameraHelper;
+    private final Handler cameraHandler;
+    private final Executor cameraThread;
+    private final Executor mainThread;
+    private final Listener listener;
+
+    // only accessed on the camera thread
+    @VisibleForTesting
+    State state = State.CLOSED;
+    @Nullable
+    private CameraDevice camera;
+    @Nullable
+    private CameraCaptureSession previewSession;
+    private int session;  // incremented by every open and close, callbacks of previous sessions are ignored
+
+    /**
+     * @param cameraHandler handler of the camera thread (see {@link CameraThread#getHandler()})
+     */
+    public CameraController(@NonNull CameraHelper cameraHelper, @NonNull Handler cameraHandler, @NonNull Listener listener) {
+        this(LoggingHelperFactory.create(CameraController.class), cameraHelper, cameraHandler, cameraHandler::post,
+                new Handler(Looper.getMainLooper())::post, listener);
+    }
+
+    @VisibleForTesting
+    CameraController(LoggingHelper log, CameraHelper cameraHelper, Handler cameraHandler, Executor cameraThread,
+                     Executor mainThread, Listener listener) {
+        this.log = log;
+        this.cameraHelper = cameraHelper;
+        this.cameraHandler = cameraHandler;
+        this.cameraThread = cameraThread;
+        this.mainThread = mainThread;
+        this.listener = listener;
+    }
+
+    /**
+     * Does open the front-facing camera, {@link Listener#onCameraOpened(CameraDevice)} is called as soon as the camera is ready.
+     * Nothing does happen if the camera is already open or opening.
+     */
+    @AnyThread
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void open() {
+        cameraThread.execute(this::openOnCameraThread);
+    }
+
+    /**
+     * Does start the preview session with the given output surfaces.
+     * Nothing does happen if the given camera was closed in the meantime.
+     *
+     * @param previewSurfaces will receive each image from the preview stream
+     * @param stillSurfaces   will only receive images which are requested with {@link #captureStill(Surface, Runnable)}
+     * @param faceStatistics  will receive the faces detected by the camera (null to disable the face detection of the camera)
+     */
+    @AnyThread
+    public void startPreview(@NonNull final CameraDevice camera, @NonNull final List<Surface> previewSurfaces,
+                             @NonNull final List<Surface> stillSurfaces, @Nullable final FaceStatistics faceStatistics) {
+        cameraThread.execute(() -> startPreviewOnCameraThread(camera, previewSurfaces, stillSurfaces, faceStatistics));
+    }
+
+    /**
+     * Does capture a single image to one of the still surfaces of the preview session.
+     * The image is delivered to the surface, if this is not possible (e.g. the preview is not running) onFailed is called on
+     * the main thread instead.
+     */
+    @AnyThread
+    public void captureStill(@NonNull final Surface surface, @NonNull final Runnable onFailed) {
+        cameraThread.execute(() -> captureStillOnCameraThread(surface, onFailed));
+    }
+
+    /**
+     * Does close the preview session and the camera.
+     * Requests which are executed afterwards (e.g. closing an ImageReader on the camera thread) can rely on the camera being closed.
+     */
+    @AnyThread
+    public void close() {
+        cameraThread.execute(this::closeOnCameraThread);
+    }
+
+    private void openOnCameraThread() {
+        if (state != State.CLOSED) {
+            log.d("camera is already %s", state);
+            return;
+        }
+
+        state = State.OPENING;
+        final int openedSession = ++session;
+        try {
+            cameraHelper.openFrontFacingCamera(new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice openedCamera) {
+                    if (openedSession != session) {
+                        // the camera was closed while it was opening
+                        openedCamera.close();
+                        return;
+                    }
+
+                    camera = openedCamera;
+                    state = State.OPENED;
+                    mainThread.execute(() -> listener.onCameraOpened(openedCamera));
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice disconnectedCamera) {
+                    failed(openedSession, disconnectedCamera, new CameraException(
+                            "camera " + disconnectedCamera.getId() + " disconnected"));
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice failedCamera, int error) {
+                    failed(openedSession, failedCamera, new CameraException(
+                            "error " + error + " for camera " + failedCamera.getId() + " occurred"));
+                }
+            }, cameraHandler);
+        } catch (CameraException e) {
+            state = State.CLOSED;
+            notifyError(e);
+        }
+    }
+
+    private void failed(int failedSession, @NonNull CameraDevice failedCamera, @NonNull CameraException e) {
+        if (failedSession != session) {
+            // camera of a previous session which is already closed
+            failedCamera.close();
+            return;
+        }
+
+        camera = failedCamera;  // the camera must be closed even if it did fail while opening
+        closeOnCameraThread();
+        notifyError(e);
+    }
+
+    private void startPreviewOnCameraThread(@NonNull final CameraDevice previewCamera, @NonNull List<Surface> previewSurfaces,
+                                            @NonNull List<Surface> stillSurfaces, @Nullable FaceStatistics faceStatistics) {
+        if (state != State.OPENED || previewCamera != camera) {
+            log.d("ignoring request to start the preview because the camera is %s", state);
+            return;
+        }
+
+        state = State.STARTING_PREVIEW;
+        try {
+            cameraHelper.startCameraPreview(previewCamera, previewSurfaces, stillSurfaces, faceStatistics, startedSession -> {
+                if (state != State.STARTING_PREVIEW || previewCamera != camera) {
+                    startedSession.close();  // the camera was closed in the meantime
+                    return;
+                }
+
+                previewSession = startedSession;
+                state = State.PREVIEWING;
+            }, cameraHandler);
+        } catch (CameraException e) {
+            closeOnCameraThread();
+            notifyError(e);
+        }
+    }
+
+    private void captureStillOnCameraThread(@NonNull Surface surface, @NonNull final Runnable onFailed) {
+        if (state != State.PREVIEWING || previewSession == null || camera == null) {
+            log.d("ignoring request to capture a still because the camera is %s", state);
+            mainThread.execute(onFailed);
+            return;
+        }
+
+        try {
+            cameraHelper.captureStill(previewSession, camera, surface, () -> mainThread.execute(onFailed), cameraHandler);
+        } catch (CameraException e) {
+            log.w("capturing still failed: %s", e.getMessage());
+            mainThread.execute(onFailed);
+        }
+    }
+
+    private void closeOnCameraThread() {
+        // It is important to close the CameraCaptureSession before closing the CameraDevice.
+        // Not doing so does lead to very slow CameraDevice.close() operations on some devices like for example the Samsung Galaxy S6.
+        if (previewSession != null) {
+            previewSession.close();
+            previewSession = null;
+        }
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+        state = State.CLOSED;
+        session++;
+    }
+
+    private void notifyError(@NonNull final CameraException e) {
+        mainThread.execute(() -> listener.onCameraError(e));
+    }
+}
@@ -1,6 +1,7 @@
 package com.bioid.authenticator.base.camera;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -8,8 +9,9 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
-import android.media.ImageReader;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
@@ -24,10 +26,9 @@ import com.bioid.authenticator.base.functional.Consumer;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import static java.util.Arrays.asList;
-
 /**
  * Wrapper around the Camera2 API to expose a higher level interface.
  * It is the callers responsibility to ensure that the permission to access the camera is granted.
@@ -35,21 +36,28 @@ import static java.util.Arrays.asList;
 @SuppressWarnings("MissingPermission")
 final public class CameraHelper {
 
+    // e.g. 320x240, smaller images do not contain enough details for the face detection
+    private static final int MIN_DETECTION_WIDTH = 320;
+
     private final LoggingHelper log;
     private final CameraManager manager;
     private final CameraCharacteristicsHelper cameraCharacteristicsHelper;
+    private final CameraPreferences preferences;
 
-    public CameraHelper(CameraManager manager) {
+    public CameraHelper(@NonNull Context ctx) {
         this.log = LoggingHelperFactory.create(CameraHelper.class);
-        this.manager = manager;
+        this.manager = (CameraManager) ctx.getSystemService(Context.CAMERA_SERVICE);
         this.cameraCharacteristicsHelper = new CameraCharacteristicsHelper(manager);
+        this.preferences = new CameraPreferences(ctx);
     }
 
     @VisibleForTesting
-    CameraHelper(LoggingHelper log, CameraManager manager, CameraCharacteristicsHelper cameraCharacteristicsHelper) {
+    CameraHelper(LoggingHelper log, CameraManager manager, CameraCharacteristicsHelper cameraCharacteristicsHelper,
+                 CameraPreferences preferences) {
         this.log = log;
         this.manager = manager;
         this.cameraCharacteristicsHelper = cameraCharacteristicsHelper;
+        this.preferences = preferences;
     }
 
     /**
@@ -57,10 +65,11 @@ final public class CameraHelper {
      * Make sure to close the camera object which is returned within the callback!
      *
      * @param callback set of callback functions which are called when the opening process completed
+     * @param handler  the callback functions are running on the thread of this handler
      * @throws CameraException if the camera could not be opened
      */
     @RequiresPermission(Manifest.permission.CAMERA)
-    public void openFrontFacingCamera(@NonNull CameraDevice.StateCallback callback) {
+    public void openFrontFacingCamera(@NonNull CameraDevice.StateCallback callback, @NonNull Handler handler) {
         try {
 
             String cameraId = getFrontFacingCameraId();
@@ -69,7 +78,7 @@ final public class CameraHelper {
             }
             logSupportedHardwareLevel(cameraId);
 
-            manager.openCamera(cameraId, callback, null);
+            manager.openCamera(cameraId, callback, handler);
 
         } catch (CameraAccessException e) {
             throw new CameraException(e);
@@ -95,47 +104,80 @@ final public class CameraHelper {
         log.d("using camera with supported hardware level: %s", hardwareLevelName);
     }
 
+    /**
+     * Does reuse the camera of the last app start if it is still a front-facing camera, otherwise the cameras are enumerated.
+     */
     @Nullable
     private String getFrontFacingCameraId() throws CameraAccessException {
+        String storedCameraId = preferences.getFrontFacingCameraId();
+        if (storedCameraId != null && isFrontFacing(storedCameraId)) {
+            return storedCameraId;
+        }
+
         for (String cameraId : manager.getCameraIdList()) {
-            try {
-                if (cameraCharacteristicsHelper.getLensFacing(cameraId) == CameraCharacteristics.LENS_FACING_FRONT) {
-                    return cameraId;
-                }
-            } catch (CameraException e) {
-                // could not determine lens facing characteristic -> continue
+            if (isFrontFacing(cameraId)) {
+                preferences.setFrontFacingCameraId(cameraId);
+                return cameraId;
             }
         }
         return null;
     }
 
+    private boolean isFrontFacing(@NonNull String cameraId) {
+        try {
+            return cameraCharacteristicsHelper.getLensFacing(cameraId) == CameraCharacteristics.LENS_FACING_FRONT;
+        } catch (CameraException e) {
+            // could not determine lens facing characteristic (e.g. the camera does not exist)
+            return false;
+        }
+    }
+
     /**
-     * Starts a camera preview on the given TextureView.
-     * Make sure to close the CameraCaptureSession which is returned within the callback!
+     * Does prepare the given TextureView for displaying the preview stream.
+     * Must be called on the main thread before the preview is started.
      *
-     * @param camera                  camera to use for preview
      * @param textureView             where the preview is displayed
      * @param previewSize             size of the images within the preview stream
      * @param deviceOrientation       the actual orientation of the device
      * @param relativeDisplayRotation the rotation of the device relative to the native orientation
-     * @param imageReader             will receive each image from the preview stream
+     * @return the surface the preview stream has to be rendered to
+     * @throws CameraException if the TextureView is not ready yet
+     */
+    @NonNull
+    public Surface configurePreview(@NonNull ProportionalTextureView textureView, @NonNull Size previewSize,
+                                    @ConfigurationOrientation int deviceOrientation, @SurfaceRotation int relativeDisplayRotation) {
+        configureTextureView(textureView, deviceOrientation, relativeDisplayRotation, previewSize);
+        return new Surface(textureView.getSurfaceTexture());
+    }
+
+    /**
+     * Starts a camera preview which is rendered to the given surfaces.
+     * Make sure to close the CameraCaptureSession which is returned within the callback!
+     *
+     * @param camera                  camera to use for preview
+     * @param previewSurfaces         will receive each image from the preview stream (e.g. the preview and an ImageReader)
+     * @param stillSurfaces           will only receive images which are requested with
+     *                                {@link #captureStill(CameraCaptureSession, CameraDevice, Surface, Runnable, Handler)}
+     * @param faceStatistics          will receive the faces detected by the camera (see {@link #createFaceStatistics(CameraDevice)}),
+     *                                can be null to disable the face detection of the camera
      * @param onPreviewSessionStarted callback which can be used to obtain a reference to the open CameraCaptureSession
+     *                                (runs on the thread of the handler)
+     * @param handler                 the session callbacks are running on the thread of this handler
      * @throws CameraException if the preview could not be started
      */
-    public void startCameraPreview(@NonNull final CameraDevice camera, @NonNull ProportionalTextureView textureView,
-                                   @NonNull Size previewSize, @ConfigurationOrientation int deviceOrientation,
-                                   @SurfaceRotation int relativeDisplayRotation,
-                                   @NonNull final ImageReader imageReader,
-                                   @NonNull final Consumer<CameraCaptureSession> onPreviewSessionStarted) {
-        try {
-            configureTextureView(textureView, deviceOrientation, relativeDisplayRotation, previewSize);
+    public void startCameraPreview(@NonNull final CameraDevice camera, @NonNull final List<Surface> previewSurfaces,
+                                   @NonNull List<Surface> stillSurfaces, @Nullable final FaceStatistics faceStatistics,
+                                   @NonNull final Consumer<CameraCaptureSession> onPreviewSessionStarted,
+                                   @NonNull final Handler handler) {
+        List<Surface> outputs = new ArrayList<>(previewSurfaces);
+        outputs.addAll(stillSurfaces);
 
-            final List<Surface> surfaces = asList(new Surface(textureView.getSurfaceTexture()), imageReader.getSurface());
-            camera.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+        try {
+            camera.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
                     try {
-                        setupCaptureRequestForPreview(session, camera, surfaces);
+                        setupCaptureRequestForPreview(session, camera, previewSurfaces, faceStatistics, handler);
                     } catch (CameraException e) {
                         // Do not throw exception in this case because code is running asynchronously which would lead to app crash!
                         log.e("onConfigured failed: %s", e.getMessage());
@@ -148,9 +190,47 @@ final public class CameraHelper {
                     // Do not throw exception in this case because code is running asynchronously which would lead to app crash!
                     log.e("configuring capture session for preview failed");
                 }
-            }, null);
+            }, handler);
 
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalStateException e) {
+            throw new CameraException(e);
+        }
+    }
+
+    /**
+     * Does capture a single image to the given surface while the preview keeps running.
+     *
+     * @param previewSession the running preview session
+     * @param camera         camera of the preview session
+     * @param surface        one of the still surfaces the preview session was started with
+     * @param onFailed       called on the thread of the handler if no image will be delivered to the surface
+     * @param handler        the capture callbacks are running on the thread of this handler
+     * @throws CameraException if the capture could not be requested
+     */
+    public void captureStill(@NonNull CameraCaptureSession previewSession, @NonNull CameraDevice camera,
+                             @NonNull Surface surface, @NonNull final Runnable onFailed, @NonNull Handler handler) {
+        try {
+            CaptureRequest.Builder stillRequestBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            stillRequestBuilder.addTarget(surface);
+            stillRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+            previewSession.capture(stillRequestBuilder.build(), new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    log.w("capturing still failed with reason %d", failure.getReason());
+                    onFailed.run();
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    log.w("buffer of still %d was lost", frameNumber);
+                    onFailed.run();
+                }
+            }, handler);
+
+        } catch (CameraAccessException | IllegalStateException e) {
             throw new CameraException(e);
         }
     }
@@ -182,18 +262,23 @@ final public class CameraHelper {
 
     /**
      * does setup the repeating capture request for taking images for the preview
+     * (including the face detection of the camera if face statistics are given)
      */
     @VisibleForTesting
     void setupCaptureRequestForPreview(@NonNull CameraCaptureSession previewSession, @NonNull CameraDevice camera,
-                                       @NonNull List<Surface> surfaces) {
+                                       @NonNull List<Surface> surfaces, @Nullable FaceStatistics faceStatistics,
+                                       @NonNull Handler handler) {
         try {
             CaptureRequest.Builder previewRequestBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             for (Surface surface : surfaces) {
                 previewRequestBuilder.addTarget(surface);
             }
             previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            if (faceStatistics != null) {
+                previewRequestBuilder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, faceStatistics.getFaceDetectMode());
+            }
 
-            previewSession.setRepeatingRequest(previewRequestBuilder.build(), null, null);
+            previewSession.setRepeatingRequest(previewRequestBuilder.build(), faceStatistics, handler);
 
         } catch (CameraAccessException | IllegalStateException e) {
             throw new CameraException(e);
@@ -202,6 +287,7 @@ final public class CameraHelper {
 
     /**
      * Chooses an appropriate size for the images within the preview stream.
+     * The size which was chosen last time is reused as long as the camera does still provide it.
      *
      * @param camera camera to get available preview sizes
      * @return the preview size to use
@@ -210,25 +296,92 @@ final public class CameraHelper {
     @NonNull
     public Size selectPreviewSize(@NonNull CameraDevice camera) {
 
-        Size[] previewSizes = cameraCharacteristicsHelper.getPreviewOutputSizes(camera.getId());
+        String cameraId = camera.getId();
+        Size[] previewSizes = cameraCharacteristicsHelper.getPreviewOutputSizes(cameraId);
         if (previewSizes == null || previewSizes.length == 0) {
             throw new CameraException("camera did not provide any preview size");
         }
 
-        // preferably the preview has a size of 640x480 to save bandwidth while being large enough for the backend to be acceptable
-        for (Size imageSize : previewSizes) {
-            if (imageSize.getWidth() == 640 && imageSize.getHeight() == 480) {
-                return imageSize;
+        Size storedPreviewSize = preferences.getPreviewSize(cameraId);
+        if (storedPreviewSize != null) {
+            Size previewSize = findPreviewSize(previewSizes, storedPreviewSize.getWidth(), storedPreviewSize.getHeight());
+            if (previewSize != null) {
+                return previewSize;
+            }
+        }
+
+        Size previewSize = choosePreviewSize(previewSizes);
+        preferences.setPreviewSize(cameraId, previewSize);
+        return previewSize;
+    }
+
+    /**
+     * Chooses a smaller size for the images which are only used for the face and motion detection.
+     * The images within the preview stream are then only captured on demand (e.g. for uploading them).
+     * <p>
+     * Three streams (preview, small and large YUV_420_888) are only guaranteed for devices with full hardware support.
+     *
+     * @param camera      camera to get available sizes
+     * @param previewSize size of the images within the preview stream
+     * @return the detection size to use or null if the images within the preview stream have to be used for the detection
+     * @throws CameraException if the available sizes could not be determined
+     */
+    @Nullable
+    public Size selectDetectionSize(@NonNull CameraDevice camera, @NonNull Size previewSize) {
+
+        String cameraId = camera.getId();
+        int hardwareLevel = cameraCharacteristicsHelper.getSupportedHardwareLevel(cameraId);
+        if (hardwareLevel != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+                && hardwareLevel != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            return null;
+        }
+
+        Size[] yuvSizes = cameraCharacteristicsHelper.getYuvOutputSizes(cameraId);
+        if (yuvSizes == null) {
+            return null;
+        }
+
+        // the smallest size with the aspect ratio of the preview which is still large enough to detect faces reliably
+        Size detectionSize = null;
+        for (Size size : yuvSizes) {
+            boolean sameAspectRatio = (long) size.getWidth() * previewSize.getHeight()
+                    == (long) size.getHeight() * previewSize.getWidth();
+            boolean largeEnough = size.getWidth() >= MIN_DETECTION_WIDTH;
+            boolean smallerThanPreview = size.getWidth() < previewSize.getWidth();
+            if (sameAspectRatio && largeEnough && smallerThanPreview
+                    && (detectionSize == null || size.getWidth() < detectionSize.getWidth())) {
+                detectionSize = size;
             }
         }
+        return detectionSize;
+    }
+
+    @NonNull
+    private Size choosePreviewSize(@NonNull Size[] previewSizes) {
+        // preferably the preview has a size of 640x480 to save bandwidth while being large enough for the backend to be acceptable
+        Size preferredSize = findPreviewSize(previewSizes, 640, 480);
+        if (preferredSize != null) {
+            return preferredSize;
+        }
 
         // fallback to first one which might not be optimal
         log.w("preferred preview size of 640x480 is not available, using %s", previewSizes[0]);
         return previewSizes[0];
     }
 
+    @Nullable
+    private Size findPreviewSize(@NonNull Size[] previewSizes, int width, int height) {
+        for (Size imageSize : previewSizes) {
+            if (imageSize.getWidth() == width && imageSize.getHeight() == height) {
+                return imageSize;
+            }
+        }
+        return null;
+    }
+
     /**
      * Determines the rotation of images taken by the camera. Takes sensor and device rotation into account.
+     * The sensor rotation is cached, the result should nevertheless only be computed when the display rotation changes.
      *
      * @param camera                  to get the sensor rotation
      * @param relativeDisplayRotation rotation of the device relative to the native orientation
@@ -245,6 +398,62 @@ final public class CameraHelper {
         return (relativeDisplayRotationInDegrees + sensorRotation) % 360;
     }
 
+    /**
+     * Does create the statistics for the faces the camera itself does detect within the preview frames.
+     * The simple face detection mode is preferred because it is the cheapest one and does report everything that is needed.
+     *
+     * @param camera to get the supported face detection modes
+     * @return null if the camera does not support face detection
+     */
+    @Nullable
+    public FaceStatistics createFaceStatistics(@NonNull CameraDevice camera) {
+        String cameraId = camera.getId();
+        try {
+            if (cameraCharacteristicsHelper.getMaxFaceCount(cameraId) <= 0) {
+                return null;
+            }
+
+            int[] availableModes = cameraCharacteristicsHelper.getAvailableFaceDetectModes(cameraId);
+            int faceDetectMode;
+            if (contains(availableModes, CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE)) {
+                faceDetectMode = CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE;
+            } else if (contains(availableModes, CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_FULL)) {
+                faceDetectMode = CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_FULL;
+            } else {
+                return null;
+            }
+
+            log.d("using face detection mode %d of the camera", faceDetectMode);
+            return new FaceStatistics(faceDetectMode);
+
+        } catch (CameraException e) {
+            // could not determine the face detection characteristics -> face detection in software only
+            return null;
+        }
+    }
+
+    private static boolean contains(@NonNull int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does check if the timestamps of the images taken by the camera are using the time base of
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+     * Otherwise the timestamps can only be compared with each other.
+     *
+     * @param camera to get the timestamp source
+     * @throws CameraException if the timestamp source could not be determined
+     */
+    public boolean hasRealtimeTimestamps(@NonNull CameraDevice camera) {
+        return cameraCharacteristicsHelper.getTimestampSource(camera.getId())
+                == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
     @Rotation
     private int surfaceRotationConstantToRotationDegrees(@SurfaceRotation int surfaceRotationConstant) {
         switch (surfaceRotationConstant) {
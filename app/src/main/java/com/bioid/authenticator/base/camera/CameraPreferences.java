@@ -0,0 +1,54 @@
+package com.bioid.authenticator.base.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+
+/**
+ * Does persist the camera selection across app starts so that the cameras do not have to be enumerated again.
+ * The stored values are only hints, the caller has to verify that they are still valid for the device.
+ */
+class CameraPreferences {
+
+    private static final String PREFERENCES_NAME = "camera";
+    private static final String KEY_FRONT_FACING_CAMERA_ID = "front_facing_camera_id";
+    private static final String KEY_PREVIEW_WIDTH = "preview_width_";
+    private static final String KEY_PREVIEW_HEIGHT = "preview_height_";
+
+    private final SharedPreferences preferences;
+
+    CameraPreferences(@NonNull Context ctx) {
+        this.preferences = ctx.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the ID of the front-facing camera which was used last time or null if there is none.
+     */
+    @Nullable
+    String getFrontFacingCameraId() {
+        return preferences.getString(KEY_FRONT_FACING_CAMERA_ID, null);
+    }
+
+    void setFrontFacingCameraId(@NonNull String cameraId) {
+        preferences.edit().putString(KEY_FRONT_FACING_CAMERA_ID, cameraId).apply();
+    }
+
+    /**
+     * Returns the preview size which was selected last time for the given camera or null if there is none.
+     */
+    @Nullable
+    Size getPreviewSize(@NonNull String cameraId) {
+        int width = preferences.getInt(KEY_PREVIEW_WIDTH + cameraId, 0);
+        int height = preferences.getInt(KEY_PREVIEW_HEIGHT + cameraId, 0);
+        return width > 0 && height > 0 ? new Size(width, height) : null;
+    }
+
+    void setPreviewSize(@NonNull String cameraId, @NonNull Size previewSize) {
+        preferences.edit()
+                .putInt(KEY_PREVIEW_WIDTH + cameraId, previewSize.getWidth())
+                .putInt(KEY_PREVIEW_HEIGHT + cameraId, previewSize.getHeight())
+                .apply();
+    }
+}
@@ -0,0 +1,62 @@
+package com.bioid.authenticator.base.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+/**
+ * Dedicated thread for the callbacks of the Camera2 API and the ImageReader (e.g. acquiring the preview frames).
+ * Keeps the main thread free for the preview and animations while frames are delivered at camera frame rate.
+ * <p>
+ * Code running on the camera thread must not touch any views, results have to be posted to the main thread.
+ */
+public final class CameraThread {
+
+    private HandlerThread thread;
+    private Handler handler;
+
+    /**
+     * Does start the thread, calling this method on an already started thread has no effect.
+     */
+    @MainThread
+    public void start() {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new HandlerThread("camera", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Does stop the thread after the already posted callbacks are executed.
+     * Calling this method on a thread which is not started has no effect.
+     */
+    @MainThread
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+    }
+
+    /**
+     * Returns the handler which has to be passed to the Camera2 API and the ImageReader.
+     *
+     * @throws IllegalStateException if the thread is not started
+     */
+    @NonNull
+    @MainThread
+    public Handler getHandler() {
+        if (handler == null) {
+            throw new IllegalStateException("camera thread is not started");
+        }
+        return handler;
+    }
+}
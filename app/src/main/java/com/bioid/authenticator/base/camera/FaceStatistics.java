@@ -0,0 +1,242 @@
+package com.bioid.authenticator.base.camera;
+
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.graphics.Rect;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.Face;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.annotations.Rotation;
+import com.bioid.authenticator.base.image.FaceBounds;
+
+import java.util.Arrays;
+
+/**
+ * Collects the number of faces the camera itself did detect within the latest preview frames
+ * (see {@link CaptureResult#STATISTICS_FACES}) and the bounds of the largest face.
+ * <p>
+ * The camera reports the faces at almost no cost, therefore these statistics can replace a face detection in software.
+ * The frames are identified by their timestamp which is the same for the capture result and the image.
+ * <p>
+ * The camera reports the bounds within the active pixel array of the sensor, they are stored relative to the crop region
+ * of the frame (see {@link CaptureResult#SCALER_CROP_REGION}) and mapped onto the image when they are requested.
+ * <p>
+ * This class is thread-safe, the capture callbacks are running on the camera thread.
+ */
+public class FaceStatistics extends CameraCaptureSession.CaptureCallback {
+
+    /**
+     * Returned by {@link #getFaceCount(long)} if the camera did not report the faces for the frame (yet).
+     */
+    public static final int UNKNOWN_FACE_COUNT = -1;
+
+    // the capture results of older frames are not needed because such frames are dropped by the frame pipeline
+    private static final int MAX_FRAMES = 16;
+
+    // faces with a lower score are likely false positives (see Face#getScore())
+    private static final int MIN_FACE_SCORE = 50;
+
+    private final int faceDetectMode;
+
+    // ring buffer of the latest frames, a frame is added as soon as the capture starts
+    private final long[] frameNumbers = new long[MAX_FRAMES];
+    private final long[] timestamps = new long[MAX_FRAMES];
+    private final int[] faceCounts = new int[MAX_FRAMES];
+    // bounds of the largest face relative to the crop region (null if unknown) and the aspect ratio of the crop region
+    private final FaceBounds[] sensorFaceBounds = new FaceBounds[MAX_FRAMES];
+    private final float[] cropAspectRatios = new float[MAX_FRAMES];
+    private int next;
+
+    /**
+     * @param faceDetectMode one of the {@link CameraCharacteristics#STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES}
+     *                       which is not {@link CameraCharacteristics#STATISTICS_FACE_DETECT_MODE_OFF}
+     */
+    FaceStatistics(int faceDetectMode) {
+        this.faceDetectMode = faceDetectMode;
+        Arrays.fill(frameNumbers, -1L);
+        Arrays.fill(faceCounts, UNKNOWN_FACE_COUNT);
+    }
+
+    /**
+     * Returns the mode which has to be set for {@link CaptureRequest#STATISTICS_FACE_DETECT_MODE}.
+     */
+    int getFaceDetectMode() {
+        return faceDetectMode;
+    }
+
+    /**
+     * Returns the number of faces the camera did detect within the frame with the given timestamp
+     * or {@link #UNKNOWN_FACE_COUNT} if the faces for this frame are not known.
+     */
+    @AnyThread
+    public synchronized int getFaceCount(long timestamp) {
+        int i = indexOf(timestamp);
+        return i < 0 ? UNKNOWN_FACE_COUNT : faceCounts[i];
+    }
+
+    /**
+     * Returns the bounds of the largest face the camera did detect within the frame with the given timestamp.
+     *
+     * @param timestamp   of the frame
+     * @param imageWidth  width of the image as captured (not rotated)
+     * @param imageHeight height of the image as captured (not rotated)
+     * @param rotation    clockwise rotation which has to be applied to the image to display it upright
+     * @return the bounds relative to the rotated image or null if the camera did not report a face for the frame
+     */
+    @Nullable
+    @AnyThread
+    public FaceBounds getFaceBounds(long timestamp, int imageWidth, int imageHeight, @Rotation int rotation) {
+        FaceBounds bounds;
+        float cropAspectRatio;
+        synchronized (this) {
+            int i = indexOf(timestamp);
+            if (i < 0 || sensorFaceBounds[i] == null) {
+                return null;
+            }
+            bounds = sensorFaceBounds[i];
+            cropAspectRatio = cropAspectRatios[i];
+        }
+        return toImageBounds(bounds, cropAspectRatio, imageWidth, imageHeight, rotation);
+    }
+
+    private int indexOf(long timestamp) {
+        for (int i = 0; i < MAX_FRAMES; i++) {
+            if (frameNumbers[i] >= 0 && timestamps[i] == timestamp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Does map the bounds from the crop region of the sensor onto the rotated image.
+     * <p>
+     * If the aspect ratio of the image does not match the crop region, the image does cover the center of the crop region.
+     * The image itself is not mirrored (even for front facing cameras), therefore only the rotation has to be applied.
+     */
+    @VisibleForTesting
+    @NonNull
+    static FaceBounds toImageBounds(@NonNull FaceBounds bounds, float cropAspectRatio, int imageWidth, int imageHeight,
+                                    @Rotation int rotation) {
+        float imageAspectRatio = (float) imageWidth / imageHeight;
+        float left = bounds.left;
+        float top = bounds.top;
+        float right = bounds.right;
+        float bottom = bounds.bottom;
+        if (imageAspectRatio > cropAspectRatio) {
+            // the top and the bottom of the crop region are not part of the image
+            float visible = cropAspectRatio / imageAspectRatio;
+            float offset = (1f - visible) / 2f;
+            top = (top - offset) / visible;
+            bottom = (bottom - offset) / visible;
+        } else if (imageAspectRatio < cropAspectRatio) {
+            // the left and the right side of the crop region are not part of the image
+            float visible = imageAspectRatio / cropAspectRatio;
+            float offset = (1f - visible) / 2f;
+            left = (left - offset) / visible;
+            right = (right - offset) / visible;
+        }
+
+        switch (rotation) {
+            case 90:
+                return new FaceBounds(1f - bottom, left, 1f - top, right);
+            case 180:
+                return new FaceBounds(1f - right, 1f - bottom, 1f - left, 1f - top);
+            case 270:
+                return new FaceBounds(top, 1f - right, bottom, 1f - left);
+            default:
+                return new FaceBounds(left, top, right, bottom);
+        }
+    }
+
+    @Override
+    public synchronized void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                              long timestamp, long frameNumber) {
+        frameNumbers[next] = frameNumber;
+        timestamps[next] = timestamp;
+        faceCounts[next] = UNKNOWN_FACE_COUNT;
+        sensorFaceBounds[next] = null;
+        next = (next + 1) % MAX_FRAMES;
+    }
+
+    @Override
+    public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                   @NonNull TotalCaptureResult result) {
+        Face[] faces = result.get(CaptureResult.STATISTICS_FACES);
+        if (faces == null) {
+            return;  // the camera did not detect faces for this frame
+        }
+
+        int faceCount = countFaces(faces);
+        Rect cropRegion = result.get(CaptureResult.SCALER_CROP_REGION);
+        FaceBounds bounds = getLargestFaceBounds(faces, cropRegion);
+        long frameNumber = result.getFrameNumber();
+        synchronized (this) {
+            for (int i = 0; i < MAX_FRAMES; i++) {
+                if (frameNumbers[i] == frameNumber) {
+                    faceCounts[i] = faceCount;
+                    sensorFaceBounds[i] = bounds;
+                    if (bounds != null) {
+                        //noinspection ConstantConditions (the crop region is known if there are bounds)
+                        cropAspectRatios[i] = (float) (cropRegion.right - cropRegion.left) / (cropRegion.bottom - cropRegion.top);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the bounds of the largest confident face relative to the crop region (null if unknown).
+     */
+    @Nullable
+    private static FaceBounds getLargestFaceBounds(@NonNull Face[] faces, @Nullable Rect cropRegion) {
+        if (cropRegion == null || cropRegion.right <= cropRegion.left || cropRegion.bottom <= cropRegion.top) {
+            return null;
+        }
+
+        Rect largest = null;
+        for (Face face : faces) {
+            Rect bounds = isConfident(face) ? face.getBounds() : null;
+            if (bounds != null && (largest == null || area(bounds) > area(largest))) {
+                largest = bounds;
+            }
+        }
+        if (largest == null) {
+            return null;
+        }
+
+        return FaceBounds.fromPixels(largest.left - cropRegion.left, largest.top - cropRegion.top,
+                largest.right - largest.left, largest.bottom - largest.top,
+                cropRegion.right - cropRegion.left, cropRegion.bottom - cropRegion.top);
+    }
+
+    private static long area(@NonNull Rect rect) {
+        return (long) (rect.right - rect.left) * (rect.bottom - rect.top);
+    }
+
+    private static int countFaces(@NonNull Face[] faces) {
+        int count = 0;
+        for (Face face : faces) {
+            if (isConfident(face)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isConfident(@Nullable Face face) {
+        return face != null && face.getScore() >= MIN_FACE_SCORE;
+    }
+
+    @Override
+    public String toString() {
+        return "FaceStatistics{faceDetectMode=" + faceDetectMode + "}";
+    }
+}
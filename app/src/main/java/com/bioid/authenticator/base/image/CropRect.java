@@ -0,0 +1,43 @@
+package com.bioid.authenticator.base.image;
+
+/**
+ * Region of the rotated image which is kept if the image is cropped (in pixels).
+ */
+public final class CropRect {
+
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+
+    public CropRect(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CropRect that = (CropRect) o;
+
+        return x == that.x && y == that.y && width == that.width && height == that.height;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = x;
+        result = 31 * result + y;
+        result = 31 * result + width;
+        result = 31 * result + height;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + x + "," + y;
+    }
+}
@@ -0,0 +1,122 @@
+package com.bioid.authenticator.base.image;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+/**
+ * Describes the format in which an image is encoded before it is transferred (e.g. uploaded to the BWS).
+ * <p>
+ * Lossless formats do preserve every detail of the image, lossy formats result in much smaller payloads and are faster to encode.
+ */
+public final class EncodingFormat {
+
+    /**
+     * Lossless PNG, the format which has always been used for uploads.
+     */
+    public static final EncodingFormat PNG = new EncodingFormat(Type.PNG, 100);
+
+    /**
+     * Lossless WebP.
+     * On devices prior to Android 10 the WebP encoder is not able to encode lossless, the maximum quality is used instead.
+     */
+    public static final EncodingFormat WEBP_LOSSLESS = new EncodingFormat(Type.WEBP_LOSSLESS, 100);
+
+    private enum Type {
+        PNG("image/png", "png"),
+        JPEG("image/jpeg", "jpeg"),
+        WEBP_LOSSLESS("image/webp", "webp-lossless");
+
+        final String mimeType;
+        final String name;
+
+        Type(String mimeType, String name) {
+            this.mimeType = mimeType;
+            this.name = name;
+        }
+    }
+
+    @NonNull
+    private final Type type;
+    private final int quality;
+
+    private EncodingFormat(@NonNull Type type, int quality) {
+        this.type = type;
+        this.quality = quality;
+    }
+
+    /**
+     * Returns a lossy JPEG format with the given quality.
+     *
+     * @param quality from 0 (smallest payload) to 100 (best quality)
+     * @throws IllegalArgumentException if the quality is out of range
+     */
+    @NonNull
+    public static EncodingFormat jpeg(@IntRange(from = 0, to = 100) int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("JPEG quality must be within 0 and 100 but was " + quality);
+        }
+        return new EncodingFormat(Type.JPEG, quality);
+    }
+
+    /**
+     * Returns the MIME type of images encoded in this format.
+     */
+    @NonNull
+    public String getMimeType() {
+        return type.mimeType;
+    }
+
+    /**
+     * Returns the quality hint which is passed to the encoder.
+     */
+    @IntRange(from = 0, to = 100)
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns true if images encoded in this format are identical to the original image.
+     */
+    public boolean isLossless() {
+        return type != Type.JPEG;
+    }
+
+    @NonNull
+    @SuppressWarnings("deprecation")  // Bitmap.CompressFormat.WEBP is required prior to Android 11
+    Bitmap.CompressFormat getCompressFormat() {
+        switch (type) {
+            case JPEG:
+                return Bitmap.CompressFormat.JPEG;
+            case WEBP_LOSSLESS:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    return Bitmap.CompressFormat.WEBP_LOSSLESS;
+                }
+                // quality 100 results in lossless encoding since Android 10
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EncodingFormat that = (EncodingFormat) o;
+
+        return quality == that.quality && type == that.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + quality;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.JPEG ? type.name + "@" + quality : type.name;
+    }
+}
@@ -0,0 +1,65 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Bounding box of a face within an image.
+ * <p>
+ * The coordinates are relative to the size of the rotated image (0 is the left or top border, 1 the right or bottom border).
+ * Therefore the bounds stay valid for other images of the same scene in another resolution,
+ * e.g. a face found within a low resolution detection image can be applied to the image in upload quality.
+ */
+public final class FaceBounds {
+
+    public final float left;
+    public final float top;
+    public final float right;
+    public final float bottom;
+
+    public FaceBounds(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Creates the relative bounds of a face which is given in pixels of the rotated image.
+     *
+     * @param x           left border of the face (might be outside of the image)
+     * @param y           top border of the face (might be outside of the image)
+     * @param width       width of the face
+     * @param height      height of the face
+     * @param imageWidth  width of the rotated image
+     * @param imageHeight height of the rotated image
+     */
+    @NonNull
+    public static FaceBounds fromPixels(float x, float y, float width, float height, int imageWidth, int imageHeight) {
+        return new FaceBounds(x / imageWidth, y / imageHeight, (x + width) / imageWidth, (y + height) / imageHeight);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FaceBounds that = (FaceBounds) o;
+
+        return Float.compare(that.left, left) == 0 && Float.compare(that.top, top) == 0
+                && Float.compare(that.right, right) == 0 && Float.compare(that.bottom, bottom) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(left);
+        result = 31 * result + Float.floatToIntBits(top);
+        result = 31 * result + Float.floatToIntBits(right);
+        result = 31 * result + Float.floatToIntBits(bottom);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "FaceBounds{left=" + left + ", top=" + top + ", right=" + right + ", bottom=" + bottom + "}";
+    }
+}
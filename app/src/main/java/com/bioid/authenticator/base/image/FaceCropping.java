@@ -0,0 +1,204 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Describes how an image is cropped to the face before it is transferred (e.g. uploaded to the BWS).
+ * <p>
+ * The crop does contain the face (or the band of the eyes) plus a margin, so it is not too close to the border of the
+ * cropped image.
+ * Smaller crops result in smaller payloads and are faster to encode, the face itself keeps its resolution.
+ */
+public final class FaceCropping {
+
+    /**
+     * The whole image is kept, the mode which has always been used for uploads.
+     */
+    public static final FaceCropping NONE = new FaceCropping(false, 0f, 1f, 0f, 0, 0);
+
+    /**
+     * Margin which is added on each side of the face, relative to the size of the face.
+     * The head and the shoulders are covered even if the head did move after the face was detected.
+     */
+    public static final float DEFAULT_MARGIN = 0.5f;
+
+    /**
+     * Minimum width and height of the cropped image in pixels.
+     * The BWS quality check does reject images which are too small, even if the face is large enough.
+     */
+    public static final int DEFAULT_MIN_SIZE = 320;
+
+    /**
+     * Margin which is added on each side of the eye band, relative to the size of the band.
+     * The band is located from the bounds of the face within the cropped image itself, the margin does only cover the
+     * inaccuracy of these bounds (turning the head up or down does need the whole face, see BioIdWebserviceClient).
+     */
+    public static final float DEFAULT_EYE_BAND_MARGIN = 0.25f;
+
+    /**
+     * Minimum width of the cropped eye band in pixels.
+     */
+    public static final int DEFAULT_EYE_BAND_MIN_WIDTH = 240;
+
+    /**
+     * Minimum height of the cropped eye band in pixels.
+     */
+    public static final int DEFAULT_EYE_BAND_MIN_HEIGHT = 96;
+
+    // The eyes are located from the bounds of the face instead of detecting landmarks (which would slow down the detector).
+    // Within the bounds reported by the detector the band from the eyebrows to the upper part of the nose is covered by these
+    // fractions of the face height.
+    @VisibleForTesting
+    static final float EYE_BAND_TOP = 0.15f;
+    @VisibleForTesting
+    static final float EYE_BAND_BOTTOM = 0.6f;
+
+    private final boolean enabled;
+    private final float regionTop;
+    private final float regionBottom;
+    private final float margin;
+    private final int minWidth;
+    private final int minHeight;
+
+    private FaceCropping(boolean enabled, float regionTop, float regionBottom, float margin, int minWidth, int minHeight) {
+        this.enabled = enabled;
+        this.regionTop = regionTop;
+        this.regionBottom = regionBottom;
+        this.margin = margin;
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+    }
+
+    /**
+     * Returns a cropping with the {@link #DEFAULT_MARGIN} and the {@link #DEFAULT_MIN_SIZE}.
+     */
+    @NonNull
+    public static FaceCropping withDefaultMargin() {
+        return withMargin(DEFAULT_MARGIN, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * Returns a cropping with the given margin.
+     *
+     * @param margin  added on each side of the face, relative to the size of the face (e.g. 0.5 for half the face width)
+     * @param minSize minimum width and height of the cropped image in pixels
+     * @throws IllegalArgumentException if the margin or the minimum size is negative
+     */
+    @NonNull
+    public static FaceCropping withMargin(float margin, @IntRange(from = 0) int minSize) {
+        checkArguments(margin, minSize, minSize);
+        return new FaceCropping(true, 0f, 1f, margin, minSize, minSize);
+    }
+
+    /**
+     * Returns a cropping of the eye band with the {@link #DEFAULT_EYE_BAND_MARGIN} and the default minimum size
+     * ({@link #DEFAULT_EYE_BAND_MIN_WIDTH} x {@link #DEFAULT_EYE_BAND_MIN_HEIGHT}).
+     */
+    @NonNull
+    public static FaceCropping eyeBandWithDefaultMargin() {
+        return eyeBand(DEFAULT_EYE_BAND_MARGIN, DEFAULT_EYE_BAND_MIN_WIDTH, DEFAULT_EYE_BAND_MIN_HEIGHT);
+    }
+
+    /**
+     * Returns a cropping of the band of the face which does contain both eyes (e.g. for the periocular trait).
+     *
+     * @param margin    added on each side of the band, relative to the size of the band
+     * @param minWidth  minimum width of the cropped image in pixels
+     * @param minHeight minimum height of the cropped image in pixels
+     * @throws IllegalArgumentException if the margin or a minimum size is negative
+     */
+    @NonNull
+    public static FaceCropping eyeBand(float margin, @IntRange(from = 0) int minWidth, @IntRange(from = 0) int minHeight) {
+        checkArguments(margin, minWidth, minHeight);
+        return new FaceCropping(true, EYE_BAND_TOP, EYE_BAND_BOTTOM, margin, minWidth, minHeight);
+    }
+
+    private static void checkArguments(float margin, int minWidth, int minHeight) {
+        if (margin < 0f) {
+            throw new IllegalArgumentException("margin must not be negative but was " + margin);
+        }
+        if (minWidth < 0 || minHeight < 0) {
+            throw new IllegalArgumentException("minimum size must not be negative but was " + minWidth + "x" + minHeight);
+        }
+    }
+
+    /**
+     * Returns the region of the rotated image which has to be kept.
+     *
+     * @param imageWidth  width of the rotated image
+     * @param imageHeight height of the rotated image
+     * @param face        bounds of the face within the image (null if unknown)
+     * @return the crop or null if the whole image has to be kept (disabled, no face known or nothing to crop)
+     */
+    @Nullable
+    public CropRect getCrop(int imageWidth, int imageHeight, @Nullable FaceBounds face) {
+        if (!enabled || face == null) {
+            return null;
+        }
+
+        float faceHeight = face.bottom - face.top;
+        float regionWidth = (face.right - face.left) * imageWidth;
+        float regionHeight = (regionBottom - regionTop) * faceHeight * imageHeight;
+        if (regionWidth <= 0f || regionHeight <= 0f) {
+            return null;
+        }
+
+        int width = cropSize(regionWidth, minWidth, imageWidth);
+        int height = cropSize(regionHeight, minHeight, imageHeight);
+        if (width == imageWidth && height == imageHeight) {
+            return null;
+        }
+
+        // the crop is centered on the region but is moved into the image if the region is close to the border
+        float centerX = (face.left + face.right) / 2 * imageWidth;
+        float centerY = (face.top + (regionTop + regionBottom) / 2 * faceHeight) * imageHeight;
+        int x = clamp(Math.round(centerX - width / 2f), imageWidth - width);
+        int y = clamp(Math.round(centerY - height / 2f), imageHeight - height);
+
+        return new CropRect(x, y, width, height);
+    }
+
+    private int cropSize(float regionSize, int minSize, int imageSize) {
+        int size = (int) Math.ceil(regionSize * (1 + 2 * margin));
+        return Math.min(imageSize, Math.max(size, minSize));
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FaceCropping that = (FaceCropping) o;
+
+        return enabled == that.enabled
+                && Float.compare(that.regionTop, regionTop) == 0 && Float.compare(that.regionBottom, regionBottom) == 0
+                && Float.compare(that.margin, margin) == 0 && minWidth == that.minWidth && minHeight == that.minHeight;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = enabled ? 1 : 0;
+        result = 31 * result + Float.floatToIntBits(regionTop);
+        result = 31 * result + Float.floatToIntBits(regionBottom);
+        result = 31 * result + Float.floatToIntBits(margin);
+        result = 31 * result + minWidth;
+        result = 31 * result + minHeight;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "none";
+        }
+        String region = regionTop == 0f && regionBottom == 1f ? "face" : "eyes";
+        return region + "+" + margin + "@min" + minWidth + "x" + minHeight;
+    }
+}
@@ -0,0 +1,102 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded pool of byte arrays which are used to store the planes of camera frames.
+ * <p>
+ * Reusing the plane buffers avoids allocating several megabytes per second while the preview is running.
+ * Buffers are only handed out if they do match the requested size exactly.
+ * If the pool is full, the oldest pooled buffer is left to the garbage collector.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FrameBufferPool {
+
+    private final int maxPooledBuffers;
+    private final ArrayDeque<byte[]> freeBuffers;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxPooledBuffers maximum number of buffers which are kept for reuse
+     */
+    public FrameBufferPool(@IntRange(from = 0) int maxPooledBuffers) {
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.freeBuffers = new ArrayDeque<>(maxPooledBuffers);
+    }
+
+    /**
+     * Returns a buffer with exactly the requested size.
+     * The content of the buffer is undefined.
+     */
+    @NonNull
+    @AnyThread
+    synchronized byte[] acquire(@IntRange(from = 0) int size) {
+        Iterator<byte[]> iterator = freeBuffers.iterator();
+        while (iterator.hasNext()) {
+            byte[] buffer = iterator.next();
+            if (buffer.length == size) {
+                iterator.remove();
+                hits++;
+                return buffer;
+            }
+        }
+
+        misses++;
+        return new byte[size];
+    }
+
+    /**
+     * Hands a buffer back to the pool.
+     * The buffer must not be used by the caller anymore.
+     */
+    @AnyThread
+    synchronized void release(@NonNull byte[] buffer) {
+        if (maxPooledBuffers == 0) {
+            return;
+        }
+        if (freeBuffers.size() >= maxPooledBuffers) {
+            // drop the oldest buffer because the size of the most recent frames is more likely to be requested again
+            freeBuffers.pollFirst();
+        }
+        freeBuffers.addLast(buffer);
+    }
+
+    /**
+     * Returns the number of acquisitions which could be served by a pooled buffer.
+     */
+    @AnyThread
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of acquisitions which had to allocate a new buffer.
+     */
+    @AnyThread
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Does remove all pooled buffers and resets the statistics.
+     */
+    @AnyThread
+    public synchronized void clear() {
+        freeBuffers.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameBufferPool{hits=" + hits + ", misses=" + misses + ", pooled=" + freeBuffers.size() + "}";
+    }
+}
@@ -0,0 +1,217 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.annotations.Rotation;
+
+import java.util.Arrays;
+
+/**
+ * Downscales and rotates the Y plane of a YUV_420_888 image straight into a {@link GrayscaleImage}.
+ * <p>
+ * A box filter is used, every pixel of the downscaled image is the average of all source pixels it does cover.
+ * No Bitmap or RenderScript is involved, therefore this class can be used on the JVM as well.
+ * <p>
+ * The scratch buffers are kept across invocations, so a instance should be reused for multiple images.
+ * Once warmed up no allocations do happen if a {@link GrayscaleImage} for reuse is passed in.
+ */
+class GrayscaleDownscaler {
+
+    private final int maxSize;
+
+    private int[] columnStart = new int[0];
+    private int[] columnEnd = new int[0];
+    private int[] columnSums = new int[0];
+    private int boundsSourceWidth = -1;
+    private int boundsTargetWidth = -1;
+
+    /**
+     * @param maxSize the maximum width (portrait mode) or height (landscape mode) of the downscaled image
+     */
+    GrayscaleDownscaler(@IntRange(from = 1) int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the width of the downscaled image for a source image of the given size and rotation.
+     */
+    int getTargetWidth(int width, int height, @Rotation int rotation) {
+        int rotatedWidth = isSwappingSides(rotation) ? height : width;
+        int rotatedHeight = isSwappingSides(rotation) ? width : height;
+
+        if (rotatedWidth > rotatedHeight) {
+            // Landscape mode: calculate new width according to aspect ratio of original image
+            return Math.max(1, rotatedWidth * maxSize / rotatedHeight);
+        } else {
+            // Portrait mode
+            return maxSize;
+        }
+    }
+
+    /**
+     * Returns the height of the downscaled image for a source image of the given size and rotation.
+     */
+    int getTargetHeight(int width, int height, @Rotation int rotation) {
+        int rotatedWidth = isSwappingSides(rotation) ? height : width;
+        int rotatedHeight = isSwappingSides(rotation) ? width : height;
+
+        if (rotatedWidth > rotatedHeight) {
+            // Landscape mode
+            return maxSize;
+        } else {
+            // Portrait mode: calculate new height according to aspect ratio of original image
+            return Math.max(1, rotatedHeight * maxSize / rotatedWidth);
+        }
+    }
+
+    /**
+     * Returns true if a source image of the given size is larger than the downscaled image would be.
+     * Both sides of smaller images are at most {@code maxSize} pixels long and there is nothing left to downscale.
+     */
+    boolean isDownscaling(int width, int height) {
+        return Math.min(width, height) > maxSize;
+    }
+
+    /**
+     * Does copy the given Y plane into a {@link GrayscaleImage} without downscaling or rotating it.
+     * The padding at the end of each row is dropped, the pixels of the copy are tightly packed.
+     *
+     * @param yPlane     luminance values of the source image (pixel stride is always 1)
+     * @param width      width of the source image
+     * @param height     height of the source image
+     * @param yRowStride distance in bytes between the start of two consecutive rows within the Y plane
+     * @param reuse      will be filled and returned if the size does match (a new image is allocated otherwise)
+     * @return the packed grayscale image with the size of the source image
+     * @throws IllegalArgumentException if the Y plane is too small for the given dimensions
+     */
+    @NonNull
+    @WorkerThread
+    static GrayscaleImage pack(@NonNull byte[] yPlane, int width, int height, int yRowStride,
+                               @Nullable GrayscaleImage reuse) {
+        checkDimensions(yPlane, width, height, yRowStride);
+
+        GrayscaleImage target = reuse;
+        if (target == null || target.width != width || target.height != height) {
+            target = new GrayscaleImage(new byte[width * height], width, height);
+        }
+
+        byte[] data = target.data;
+        if (yRowStride == width) {
+            System.arraycopy(yPlane, 0, data, 0, data.length);
+        } else {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(yPlane, y * yRowStride, data, y * width, width);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Does downscale and rotate the given Y plane.
+     *
+     * @param yPlane     luminance values of the source image (pixel stride is always 1)
+     * @param width      width of the source image
+     * @param height     height of the source image
+     * @param yRowStride distance in bytes between the start of two consecutive rows within the Y plane
+     * @param rotation   clockwise rotation which will be applied to the source image
+     * @param reuse      will be filled and returned if the size does match (a new image is allocated otherwise)
+     * @return the downscaled and rotated grayscale image
+     * @throws IllegalArgumentException if the Y plane is too small for the given dimensions
+     */
+    @NonNull
+    @WorkerThread
+    synchronized GrayscaleImage downscale(@NonNull byte[] yPlane, int width, int height, int yRowStride,
+                                          @Rotation int rotation, @Nullable GrayscaleImage reuse) {
+        checkDimensions(yPlane, width, height, yRowStride);
+
+        int targetWidth = getTargetWidth(width, height, rotation);
+        int targetHeight = getTargetHeight(width, height, rotation);
+
+        GrayscaleImage target = reuse;
+        if (target == null || target.width != targetWidth || target.height != targetHeight) {
+            target = new GrayscaleImage(new byte[targetWidth * targetHeight], targetWidth, targetHeight);
+        }
+
+        // the downscaled image is computed within the orientation of the source image and is rotated while writing the result
+        int scaledWidth = isSwappingSides(rotation) ? targetHeight : targetWidth;
+        int scaledHeight = isSwappingSides(rotation) ? targetWidth : targetHeight;
+
+        updateColumnBounds(width, scaledWidth);
+
+        byte[] data = target.data;
+        for (int sy = 0; sy < scaledHeight; sy++) {
+            int rowStart = sy * height / scaledHeight;
+            int rowEnd = Math.max(rowStart + 1, (sy + 1) * height / scaledHeight);
+
+            Arrays.fill(columnSums, 0, scaledWidth, 0);
+            for (int y = rowStart; y < rowEnd; y++) {
+                int rowOffset = y * yRowStride;
+                for (int sx = 0; sx < scaledWidth; sx++) {
+                    int sum = 0;
+                    for (int x = rowOffset + columnStart[sx], end = rowOffset + columnEnd[sx]; x < end; x++) {
+                        sum += yPlane[x] & 0xff;
+                    }
+                    columnSums[sx] += sum;
+                }
+            }
+
+            int boxHeight = rowEnd - rowStart;
+            for (int sx = 0; sx < scaledWidth; sx++) {
+                int pixelCount = (columnEnd[sx] - columnStart[sx]) * boxHeight;
+                int average = (columnSums[sx] + pixelCount / 2) / pixelCount;
+                data[targetIndex(sx, sy, scaledWidth, scaledHeight, rotation)] = (byte) average;
+            }
+        }
+
+        return target;
+    }
+
+    private static void checkDimensions(@NonNull byte[] yPlane, int width, int height, int yRowStride) {
+        if (width <= 0 || height <= 0 || yRowStride < width || yPlane.length < (height - 1) * yRowStride + width) {
+            throw new IllegalArgumentException("Y plane does not match the given dimensions");
+        }
+    }
+
+    private void updateColumnBounds(int sourceWidth, int targetWidth) {
+        if (sourceWidth == boundsSourceWidth && targetWidth == boundsTargetWidth) {
+            return;
+        }
+
+        if (columnStart.length < targetWidth) {
+            columnStart = new int[targetWidth];
+            columnEnd = new int[targetWidth];
+            columnSums = new int[targetWidth];
+        }
+
+        for (int sx = 0; sx < targetWidth; sx++) {
+            columnStart[sx] = sx * sourceWidth / targetWidth;
+            columnEnd[sx] = Math.max(columnStart[sx] + 1, (sx + 1) * sourceWidth / targetWidth);
+        }
+
+        boundsSourceWidth = sourceWidth;
+        boundsTargetWidth = targetWidth;
+    }
+
+    /**
+     * Maps a pixel of the unrotated image to the index within the clockwise rotated image.
+     */
+    private static int targetIndex(int x, int y, int width, int height, @Rotation int rotation) {
+        switch (rotation) {
+            case 90:
+                return x * height + (height - 1 - y);
+            case 180:
+                return (height - 1 - y) * width + (width - 1 - x);
+            case 270:
+                return (width - 1 - x) * height + y;
+            default:
+                return y * width + x;
+        }
+    }
+
+    private static boolean isSwappingSides(@Rotation int rotation) {
+        return rotation == 90 || rotation == 270;
+    }
+}
@@ -12,7 +12,7 @@ public class GrayscaleImage {
     public final int width;
     public final int height;
 
-    GrayscaleImage(@NonNull byte[] data, int width, int height) {
+    public GrayscaleImage(@NonNull byte[] data, int width, int height) {
         this.data = data;
         this.width = width;
         this.height = height;
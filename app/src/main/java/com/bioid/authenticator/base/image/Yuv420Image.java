@@ -10,26 +10,42 @@ import android.renderscript.Element;
 import android.renderscript.RenderScript;
 import android.renderscript.ScriptIntrinsicYuvToRGB;
 import android.renderscript.Type;
+import android.support.annotation.AnyThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 
+import com.bioid.authenticator.BuildConfig;
 import com.bioid.authenticator.base.annotations.Rotation;
+import com.bioid.authenticator.base.functional.Function;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Container for YUV_420_888 image data.
  * <p>
  * The main purpose of this container is to provide the raw YUV_420_888 image data in various image formats.
  * Every derived representation of the original image is computed lazily and will be cached within the container.
+ * <p>
+ * Every representation can be requested from multiple threads,
+ * a thread requesting a representation which is currently computed will wait for the result instead of computing it again.
  */
 public class Yuv420Image {
 
+    // configurable because a higher resolution does make the motion detection more sensitive but also slower
+    private static final int DOWNSCALED_SIZE = BuildConfig.MOTION_DETECTION_RESOLUTION;
+    private static final GrayscaleDownscaler DOWNSCALER = new GrayscaleDownscaler(DOWNSCALED_SIZE);
+
+    // configurable because a lower resolution does make the face detection faster but does miss smaller faces
+    private static final int DETECTION_SIZE = BuildConfig.FACE_DETECTION_RESOLUTION;
+    private static final GrayscaleDownscaler DETECTION_DOWNSCALER = new GrayscaleDownscaler(DETECTION_SIZE);
+
     private final LoggingHelper log;
 
     @NonNull
@@ -45,6 +61,7 @@ public class Yuv420Image {
 
     private final int width;
     private final int height;
+    private final long timestamp;
 
     @Rotation
     private final int rotation;
@@ -52,21 +69,37 @@ public class Yuv420Image {
     @NonNull
     private final Context ctx;
 
+    @Nullable
+    private final FrameBufferPool pool;
+    private final AtomicBoolean recycled = new AtomicBoolean();
+    // the owner holds one reference until recycle(), every operation which reads the pooled buffers holds another one
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    @Nullable
+    private volatile FaceBounds faceBounds;
+    private volatile boolean faceLocated;
+
     @Nullable
     private RenderScript rs;
     @Nullable
     private Bitmap bitmapRepresentation;
     @Nullable
-    private byte[] pngRepresentation;
+    private EncodingFormat encodedFormat;
+    @Nullable
+    private CropRect encodedCrop;
+    @Nullable
+    private byte[] encodedRepresentation;
     @Nullable
     private GrayscaleImage downscaledGrayscaleRepresentation;
+    @Nullable
+    private GrayscaleImage detectionRepresentation;
 
     // use copyFrom() instead
     private Yuv420Image(@NonNull byte[] yPlane, @NonNull byte[] uPlane, @NonNull byte[] vPlane,
                         int yRowStride, int uvRowStride, int uvPixelStride,
-                        int width, int height,
+                        int width, int height, long timestamp,
                         @Rotation int rotation,
-                        @NonNull Context ctx) {
+                        @NonNull Context ctx, @Nullable FrameBufferPool pool) {
         this.log = LoggingHelperFactory.create(Yuv420Image.class);
         this.yPlane = yPlane;
         this.uPlane = uPlane;
@@ -76,8 +109,10 @@ public class Yuv420Image {
         this.uvPixelStride = uvPixelStride;
         this.width = width;
         this.height = height;
+        this.timestamp = timestamp;
         this.rotation = rotation;
         this.ctx = ctx;
+        this.pool = pool;
     }
 
     /**
@@ -92,34 +127,190 @@ public class Yuv420Image {
      */
     @NonNull
     public static Yuv420Image copyFrom(@NonNull Image img, @Rotation int rotation, @NonNull Context ctx) {
+        return copyFrom(img, rotation, ctx, null);
+    }
+
+    /**
+     * Does make a copy of the YUV_420_888 image data using buffers from the given pool.
+     * (img will not be closed)
+     * <p>
+     * Call {@link #recycle()} as soon as the copy is not needed anymore to hand the buffers back to the pool.
+     *
+     * @param img      image in YUV_420_888 format
+     * @param rotation rotation in which the image is captured
+     * @param ctx      the Android application context
+     * @param pool     provides the buffers for the image planes (new buffers will be allocated if null)
+     * @return a container object with the copied YUV image data
+     * @throws IllegalArgumentException if the image is not in the YUV_420_888 format
+     * @throws IllegalStateException    if the image was closed already (the buffers are handed back to the pool)
+     */
+    @NonNull
+    public static Yuv420Image copyFrom(@NonNull Image img, @Rotation int rotation, @NonNull Context ctx,
+                                       @Nullable FrameBufferPool pool) {
 
         if (img.getFormat() != ImageFormat.YUV_420_888) {
             throw new IllegalArgumentException("image format must be YUV_420_888");
         }
 
-        Image.Plane[] planes = img.getPlanes();
+        byte[] yPlane = null;
+        byte[] uPlane = null;
+        byte[] vPlane;
+        int yRowStride;
+        int uvRowStride;
+        int uvPixelStride;
+        try {
+            Image.Plane[] planes = img.getPlanes();
+
+            yPlane = copyPlane(planes[0], pool);
+            uPlane = copyPlane(planes[1], pool);
+            vPlane = copyPlane(planes[2], pool);
+
+            // From documentation we know that yPixelStride is always 1 and strides are the same for u and v.
+            yRowStride = planes[0].getRowStride();
+            uvRowStride = planes[1].getRowStride();
+            uvPixelStride = planes[1].getPixelStride();
+        } catch (IllegalStateException e) {
+            // the image was closed in the meantime (e.g. by closing its reader), the pooled buffers are handed back
+            if (pool != null && yPlane != null) {
+                pool.release(yPlane);
+            }
+            if (pool != null && uPlane != null) {
+                pool.release(uPlane);
+            }
+            throw e;
+        }
 
-        ByteBuffer buffer = planes[0].getBuffer();
-        byte[] yPlane = new byte[buffer.remaining()];
-        buffer.get(yPlane);
+        int width = img.getWidth();
+        int height = img.getHeight();
 
-        buffer = planes[1].getBuffer();
-        byte[] uPlane = new byte[buffer.remaining()];
-        buffer.get(uPlane);
+        return new Yuv420Image(yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                width, height, img.getTimestamp(), rotation, ctx, pool);
+    }
 
-        buffer = planes[2].getBuffer();
-        byte[] vPlane = new byte[buffer.remaining()];
-        buffer.get(vPlane);
+    @NonNull
+    private static byte[] copyPlane(@NonNull Image.Plane plane, @Nullable FrameBufferPool pool) {
+        ByteBuffer buffer = plane.getBuffer();
+        int size = buffer.remaining();
+        byte[] copy = pool != null ? pool.acquire(size) : new byte[size];
+        buffer.get(copy);
+        return copy;
+    }
 
-        // From documentation we know that yPixelStride is always 1 and strides are the same for u and v.
-        int yRowStride = planes[0].getRowStride();
-        int uvRowStride = planes[1].getRowStride();
-        int uvPixelStride = planes[1].getPixelStride();
+    /**
+     * Returns the timestamp of the original image in nanoseconds (see {@link Image#getTimestamp()}).
+     * The time base depends on the camera, only timestamps of the same camera can be compared with each other.
+     */
+    @AnyThread
+    public long getTimestamp() {
+        return timestamp;
+    }
 
-        int width = img.getWidth();
-        int height = img.getHeight();
+    /**
+     * Returns the clockwise rotation which has to be applied to the original image to display it upright.
+     */
+    @AnyThread
+    @Rotation
+    public int getRotation() {
+        return rotation;
+    }
 
-        return new Yuv420Image(yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride, width, height, rotation, ctx);
+    /**
+     * Returns the width of the rotated image (e.g. {@link #asBitmap()}).
+     */
+    @AnyThread
+    public int getRotatedWidth() {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    /**
+     * Returns the height of the rotated image (e.g. {@link #asBitmap()}).
+     */
+    @AnyThread
+    public int getRotatedHeight() {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+
+    /**
+     * Returns the bounds of the face within this image or null if no face was found (yet).
+     */
+    @Nullable
+    @AnyThread
+    public FaceBounds getFaceBounds() {
+        return faceBounds;
+    }
+
+    /**
+     * Does attach the bounds of the face which was found within this image.
+     *
+     * @param faceBounds null if the image does not contain a face (or the face could not be located)
+     */
+    @AnyThread
+    public void setFaceBounds(@Nullable FaceBounds faceBounds) {
+        this.faceBounds = faceBounds;
+        this.faceLocated = true;
+    }
+
+    /**
+     * Returns true if the face was located within this image already (see {@link #setFaceBounds(FaceBounds)}),
+     * even if no face was found.
+     */
+    @AnyThread
+    public boolean isFaceLocated() {
+        return faceLocated;
+    }
+
+    /**
+     * Does hand the buffers of the image planes back to the {@link FrameBufferPool} the image was copied with.
+     * <p>
+     * This method does never block. If a representation is computed at the same time (e.g. the image is encoded in advance),
+     * the buffers are handed back by the thread computing it as soon as it is done.
+     * <p>
+     * Already created representations (e.g. {@link #asPNG()}) stay available, representations which would need the image planes
+     * can not be created anymore.
+     * The grayscale representations ({@link #readDownscaledGrayscaleImage(Function)} and {@link #readDetectionImage(Function)})
+     * are backed by pooled buffers as well, readers which are still running keep them from being handed back.
+     * Calling this method multiple times or on an image without pool has no further effect.
+     */
+    @AnyThread
+    public void recycle() {
+        if (recycled.compareAndSet(false, true)) {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Does keep the pooled buffers from being handed back until {@link #releaseReference()} is called.
+     *
+     * @throws IllegalStateException if the image has already been recycled
+     */
+    private void acquireReference() {
+        while (!recycled.get()) {
+            int count = references.get();
+            if (count == 0) {
+                break;  // the buffers have been handed back already
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+        throw new IllegalStateException(this + " has already been recycled");
+    }
+
+    private void releaseReference() {
+        if (references.decrementAndGet() > 0 || pool == null) {
+            return;
+        }
+
+        // neither the owner nor any operation is using the buffers anymore and no operation can acquire them again
+        pool.release(yPlane);
+        pool.release(uPlane);
+        pool.release(vPlane);
+        if (downscaledGrayscaleRepresentation != null) {
+            pool.release(downscaledGrayscaleRepresentation.data);
+        }
+        if (detectionRepresentation != null) {
+            pool.release(detectionRepresentation.data);
+        }
     }
 
     /**
@@ -131,7 +322,7 @@ public class Yuv420Image {
      */
     @NonNull
     @WorkerThread
-    public Bitmap asBitmap() {
+    public synchronized Bitmap asBitmap() {
         if (bitmapRepresentation == null) {
             String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("asBitmap"));
             createBitmapRepresentation();
@@ -141,6 +332,15 @@ public class Yuv420Image {
     }
 
     private void createBitmapRepresentation() {
+        acquireReference();
+        try {
+            createBitmapRepresentationFromPlanes();
+        } finally {
+            releaseReference();
+        }
+    }
+
+    private void createBitmapRepresentationFromPlanes() {
         RenderScript rs = getRenderScript();
 
         // ScriptIntrinsicYuvToRGB works with NV21 - U and V order reversed: it starts with V.
@@ -188,33 +388,85 @@ public class Yuv420Image {
     @NonNull
     @WorkerThread
     public byte[] asPNG() {
-        if (pngRepresentation == null) {
-            String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("asPNG"));
-            createPngRepresentation();
+        return encode(EncodingFormat.PNG);
+    }
+
+    /**
+     * Returns a rotated representation of the whole original YUV_420_888 image encoded in the given format
+     * (see {@link #encode(EncodingFormat, CropRect)}).
+     * <p>
+     * This operation might take some time and should NOT be executed on the application main thread!
+     */
+    @NonNull
+    @WorkerThread
+    public byte[] encode(@NonNull EncodingFormat format) {
+        return encode(format, null);
+    }
+
+    /**
+     * Returns a rotated and cropped representation of the original YUV_420_888 image encoded in the given format.
+     * Only the most recently requested format and crop are cached.
+     * <p>
+     * This operation might take some time and should NOT be executed on the application main thread!
+     * <p>
+     * Currently the encoded image is grayscale only. This will change in future versions.
+     *
+     * @param crop region of the rotated image which will be encoded (null for the whole image)
+     */
+    @NonNull
+    @WorkerThread
+    public synchronized byte[] encode(@NonNull EncodingFormat format, @Nullable CropRect crop) {
+        if (encodedRepresentation == null || !format.equals(encodedFormat) || !Objects.equals(crop, encodedCrop)) {
+            String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("encode as " + format));
+            createEncodedRepresentation(format, crop);
             log.stopStopwatch(stopwatchSessionId);
+            log.d("encoded %s (crop %s) as %s with %d bytes", this, crop, format, encodedRepresentation.length);
         }
-        return pngRepresentation;
+        return encodedRepresentation;
     }
 
-    private void createPngRepresentation() {
+    private void createEncodedRepresentation(@NonNull EncodingFormat format, @Nullable CropRect crop) {
+        Bitmap bitmap = asBitmap();
+        Bitmap cropped = crop == null ? bitmap : Bitmap.createBitmap(bitmap, crop.x, crop.y, crop.width, crop.height);
+
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        asBitmap().compress(Bitmap.CompressFormat.PNG, 100, out);
-        pngRepresentation = out.toByteArray();
+        cropped.compress(format.getCompressFormat(), format.getQuality(), out);
+        if (cropped != bitmap) {
+            cropped.recycle();  // the cropped Bitmap is not cached, only the encoded representation
+        }
+
+        encodedRepresentation = out.toByteArray();
+        encodedFormat = format;
+        encodedCrop = crop;
     }
 
     /**
-     * Returns a downscaled grayscale representation of the original YUV_420_888 image.
-     * The image will have a maximum width (portrait mode) or height (landscape mode) of 96 pixels.
+     * Does pass a downscaled grayscale representation of the original YUV_420_888 image to the reader.
+     * The image will have a maximum width (portrait mode) or height (landscape mode) of {@value #DOWNSCALED_SIZE} pixels
+     * (build config field MOTION_DETECTION_RESOLUTION).
      * <p>
+     * The representation is backed by a pooled buffer, it must not be used after the reader returns.
+     * Only the Y plane is used, neither a Bitmap nor RenderScript is involved.
      * This operation might take some time and should NOT be executed on the application main thread!
-     * <p>
-     * Currently the Bitmap is grayscale only. This will change in future versions.
+     *
+     * @return the result of the reader
+     * @throws IllegalStateException if the image has already been recycled
      */
-    @NonNull
     @WorkerThread
-    public GrayscaleImage asDownscaledGrayscaleImage() {
+    public <R> R readDownscaledGrayscaleImage(@NonNull Function<GrayscaleImage, R> reader) {
+        // the buffer is not handed back to the pool before the reader is done, even if the image is recycled meanwhile
+        acquireReference();
+        try {
+            return reader.apply(getDownscaledGrayscaleImage());
+        } finally {
+            releaseReference();
+        }
+    }
+
+    @NonNull
+    private synchronized GrayscaleImage getDownscaledGrayscaleImage() {
         if (downscaledGrayscaleRepresentation == null) {
-            String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("asDownscaledGrayscaleImage"));
+            String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("readDownscaledGrayscaleImage"));
             createDownscaledGrayscaleImageRepresentation();
             log.stopStopwatch(stopwatchSessionId);
         }
@@ -222,35 +474,68 @@ public class Yuv420Image {
     }
 
     private void createDownscaledGrayscaleImageRepresentation() {
-        Bitmap bitmap = asBitmap();
+        GrayscaleImage target = acquireGrayscaleImage(DOWNSCALER.getTargetWidth(width, height, rotation),
+                DOWNSCALER.getTargetHeight(width, height, rotation));
+        downscaledGrayscaleRepresentation = DOWNSCALER.downscale(yPlane, width, height, yRowStride, rotation, target);
+    }
 
-        int resizeWidth, resizeHeight;
-        if (bitmap.getWidth() > bitmap.getHeight()) {
-            // Landscape mode
-            resizeHeight = 96;
-            // Calculate new width according to aspect ratio of original image
-            resizeWidth = bitmap.getWidth() * resizeHeight / bitmap.getHeight();
-        } else {
-            // Portrait mode
-            resizeWidth = 96;
-            // Calculate new height according to aspect ratio of original image
-            resizeHeight = bitmap.getHeight() * resizeWidth / bitmap.getWidth();
+    /**
+     * Does pass a grayscale representation of the original YUV_420_888 image which is meant for a face detector to the reader.
+     * The image is NOT rotated, apply {@link #getRotation()} as metadata instead.
+     * <p>
+     * Images with a shorter side of more than {@value #DETECTION_SIZE} pixels (build config field FACE_DETECTION_RESOLUTION)
+     * are downscaled to this size, smaller images keep their size.
+     * The pixels are tightly packed, therefore the data is also the luminance part of a NV21 image with the same size.
+     * <p>
+     * The representation is backed by a pooled buffer, it must not be used after the reader returns.
+     * Only the Y plane is used, neither a Bitmap nor RenderScript is involved.
+     * This operation might take some time and should NOT be executed on the application main thread!
+     *
+     * @return the result of the reader
+     * @throws IllegalStateException if the image has already been recycled
+     */
+    @WorkerThread
+    public <R> R readDetectionImage(@NonNull Function<GrayscaleImage, R> reader) {
+        // the buffer is not handed back to the pool before the reader is done, even if the image is recycled meanwhile
+        acquireReference();
+        try {
+            return reader.apply(getDetectionImage());
+        } finally {
+            releaseReference();
         }
+    }
 
-        Bitmap downscaledBitmap = Bitmap.createScaledBitmap(bitmap, resizeWidth, resizeHeight, true);
-
-        int resizeSize = resizeWidth * resizeHeight;
-
-        IntBuffer intBuffer = IntBuffer.allocate(resizeSize);
-        downscaledBitmap.copyPixelsToBuffer(intBuffer);
-        int[] buffer = intBuffer.array();
+    @NonNull
+    private synchronized GrayscaleImage getDetectionImage() {
+        if (detectionRepresentation == null) {
+            String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId("readDetectionImage"));
+            createDetectionRepresentation();
+            log.stopStopwatch(stopwatchSessionId);
+        }
+        return detectionRepresentation;
+    }
 
-        byte[] data = new byte[resizeSize];
-        for (int index = 0; index < resizeSize; index++) {
-            data[index] = (byte) (buffer[index] >> 16);
+    private void createDetectionRepresentation() {
+        if (DETECTION_DOWNSCALER.isDownscaling(width, height)) {
+            GrayscaleImage target = acquireGrayscaleImage(DETECTION_DOWNSCALER.getTargetWidth(width, height, 0),
+                    DETECTION_DOWNSCALER.getTargetHeight(width, height, 0));
+            detectionRepresentation = DETECTION_DOWNSCALER.downscale(yPlane, width, height, yRowStride, 0, target);
+        } else {
+            detectionRepresentation = GrayscaleDownscaler.pack(yPlane, width, height, yRowStride,
+                    acquireGrayscaleImage(width, height));
         }
+    }
 
-        downscaledGrayscaleRepresentation = new GrayscaleImage(data, resizeWidth, resizeHeight);
+    /**
+     * Returns a image with a pooled buffer which the representation is written into (null if the image has no pool).
+     * The buffer is handed back to the pool together with the planes (see {@link #recycle()}).
+     */
+    @Nullable
+    private GrayscaleImage acquireGrayscaleImage(int width, int height) {
+        if (pool == null) {
+            return null;
+        }
+        return new GrayscaleImage(pool.acquire(width * height), width, height);
     }
 
     @NonNull
@@ -0,0 +1,185 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Creates the connections of all {@link HttpRequest HTTP requests} and keeps track of how often pooled connections are reused.
+ * <p>
+ * HttpURLConnection does pool keep-alive connections internally, a request to a host which has been contacted recently
+ * does not need to perform the DNS lookup and the TLS handshake again.
+ * The connection manager makes sure keep-alive is enabled and counts the TLS handshakes,
+ * every HTTPS request without a handshake has been sent over a pooled connection.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ConnectionManager implements HttpRequest.ConnectionFactory {
+
+    private static final int MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+
+    private static ConnectionManager instance;
+
+    private final LoggingHelper log;
+    private final CountingSSLSocketFactory sslSocketFactory;
+    private final AtomicInteger httpsConnections = new AtomicInteger();
+
+    @VisibleForTesting
+    ConnectionManager(LoggingHelper log, SSLSocketFactory sslSocketFactory) {
+        this.log = log;
+        this.sslSocketFactory = new CountingSSLSocketFactory(sslSocketFactory);
+    }
+
+    /**
+     * Does install the connection manager for all HTTP requests, has to be called once per process before any request.
+     * Calling this method multiple times has no further effect.
+     */
+    @AnyThread
+    public static synchronized void init() {
+        if (instance != null) {
+            return;
+        }
+        instance = new ConnectionManager(LoggingHelperFactory.create(ConnectionManager.class),
+                HttpsURLConnection.getDefaultSSLSocketFactory());
+
+        HttpRequest.keepAlive(true);
+        HttpRequest.maxConnections(MAX_IDLE_CONNECTIONS_PER_HOST);
+        HttpRequest.setConnectionFactory(instance);
+    }
+
+    /**
+     * Returns the connection manager which is used for all HTTP requests.
+     *
+     * @throws IllegalStateException if {@link #init()} was not called
+     */
+    @NonNull
+    @AnyThread
+    public static synchronized ConnectionManager getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("ConnectionManager.init() was not called");
+        }
+        return instance;
+    }
+
+    @Override
+    public HttpURLConnection create(URL url) throws IOException {
+        return configure((HttpURLConnection) url.openConnection());
+    }
+
+    @Override
+    public HttpURLConnection create(URL url, Proxy proxy) throws IOException {
+        return configure((HttpURLConnection) url.openConnection(proxy));
+    }
+
+    @NonNull
+    private HttpURLConnection configure(@NonNull HttpURLConnection connection) {
+        if (connection instanceof HttpsURLConnection) {
+            // the same factory instance must be used for every connection, otherwise pooled connections can not be reused
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            httpsConnections.incrementAndGet();
+            log.d("opening connection to %s (%s)", connection.getURL().getHost(), this);
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the number of HTTPS connections which have been opened.
+     */
+    public int getConnectionCount() {
+        return httpsConnections.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes which have been performed (i.e. the number of new sockets).
+     */
+    public int getHandshakeCount() {
+        return sslSocketFactory.createdSockets.get();
+    }
+
+    /**
+     * Returns the number of HTTPS connections which did reuse a pooled connection.
+     * Connections which are about to be established (handshake has not happened yet) are counted as reused.
+     */
+    public int getReusedConnectionCount() {
+        return Math.max(0, getConnectionCount() - getHandshakeCount());
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionManager{connections=" + getConnectionCount() + ", handshakes=" + getHandshakeCount()
+                + ", reused=" + getReusedConnectionCount() + "}";
+    }
+
+    /**
+     * Delegates to the given SSLSocketFactory and counts every created socket.
+     */
+    private static final class CountingSSLSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+        private final AtomicInteger createdSockets = new AtomicInteger();
+
+        private CountingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket(s, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            createdSockets.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
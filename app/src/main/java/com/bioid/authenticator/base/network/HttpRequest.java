@@ -26,6 +26,8 @@
  */
 package com.bioid.authenticator.base.network;
 
+import com.bioid.authenticator.base.threading.CancellationToken;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -1179,6 +1181,48 @@ public class HttpRequest {
         return this;
     }
 
+    /**
+     * Set fixed length streaming mode to the given length
+     * <p>
+     * The request body will not be buffered by the connection but the exact
+     * number of bytes has to be written
+     *
+     * @param length
+     * @return this request
+     */
+    public HttpRequest fixedLengthStreamingMode(final long length) {
+        getConnection().setFixedLengthStreamingMode(length);
+        return this;
+    }
+
+    /**
+     * Disconnect the connection as soon as the given token is cancelled
+     * <p>
+     * Blocking reads and writes of this request will fail with a
+     * {@link HttpRequestException} after the token was cancelled. The
+     * connection is closed on a separate thread because closing a TLS
+     * connection might write to the network.
+     *
+     * @param token
+     * @return this request
+     */
+    public HttpRequest cancelWith(final CancellationToken token) {
+        token.setOnCancelListener(new Runnable() {
+
+            @Override
+            public void run() {
+                new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        disconnect();
+                    }
+                }, "http-request disconnect").start();
+            }
+        });
+        return this;
+    }
+
     /**
      * Set the size used when buffering and copying between streams
      * <p>
@@ -2497,6 +2541,35 @@ public class HttpRequest {
         return this;
     }
 
+    /**
+     * Write streaming body to request body
+     * <p>
+     * The body is written straight into the output stream of the connection.
+     * Fixed length streaming mode is used if the length of the body is known,
+     * chunked streaming mode otherwise. Therefore this must be the only content
+     * of the request body.
+     *
+     * @param body
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public HttpRequest send(final StreamingBody body) throws HttpRequestException {
+        final long length = body.length();
+        if (length >= 0) {
+            fixedLengthStreamingMode(length);
+            incrementTotalSize(length);
+        } else {
+            chunk(bufferSize);
+        }
+        try {
+            openOutput();
+            body.writeTo(output);
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+        return this;
+    }
+
     /**
      * Write reader to request body
      * <p>
@@ -2748,6 +2821,30 @@ public class HttpRequest {
         return this;
     }
 
+    /**
+     * Request body which writes its content on demand instead of providing it
+     * as a whole
+     */
+    public interface StreamingBody {
+
+        /**
+         * Get the number of bytes which will be written
+         *
+         * @return length in bytes or -1 if unknown
+         */
+        long length();
+
+        /**
+         * Write the body to the given stream
+         * <p>
+         * The stream must not be closed
+         *
+         * @param output
+         * @throws IOException
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+
     /**
      * Creates {@link HttpURLConnection HTTP connections} for
      * {@link URL urls}.
@@ -1,11 +1,17 @@
 package com.bioid.authenticator.base.network.bioid.webservice;
 
+import android.support.annotation.AnyThread;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 import android.util.ArrayMap;
 
 import com.bioid.authenticator.BuildConfig;
+import com.bioid.authenticator.base.image.CropRect;
+import com.bioid.authenticator.base.image.EncodingFormat;
+import com.bioid.authenticator.base.image.FaceCropping;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
@@ -17,11 +23,12 @@ import com.bioid.authenticator.base.network.TechnicalException;
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.nio.charset.Charset;
 import java.util.Map;
 
 /**
@@ -32,8 +39,11 @@ public class BioIdWebserviceClient {
     @SuppressWarnings("WeakerAccess")  // used in bws flavor
     static final String BWS_BASE_URL = String.format("https://%s.bioid.com", BuildConfig.BIOID_BWS_INSTANCE_NAME);
 
-    private static final String MIME_TYPE_PNG = "image/png";
-    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Lossless PNG is accepted by every BWS instance and is therefore used by default.
+     */
+    @VisibleForTesting
+    static final EncodingFormat DEFAULT_UPLOAD_FORMAT = EncodingFormat.PNG;
 
     @VisibleForTesting
     static final int HTTP_STATUS_NO_SAMPLES = 400;
@@ -62,21 +72,85 @@ public class BioIdWebserviceClient {
     final HttpRequestHelper httpRequestHelper;
     private final LoggingHelper log;
     private final Encoder encoder;
+    @NonNull
+    private final EncodingFormat uploadFormat;
+    @NonNull
+    private final FaceCropping uploadCropping;
+    @NonNull
+    private final FaceCropping periocularCropping;
 
     /**
-     * Creates a new instance of the BioIdWebserviceClient.
+     * Creates a new instance of the BioIdWebserviceClient which does upload the whole images as lossless PNG.
      */
     public BioIdWebserviceClient() {
+        this(DEFAULT_UPLOAD_FORMAT);
+    }
+
+    /**
+     * Creates a new instance of the BioIdWebserviceClient.
+     *
+     * @param uploadFormat the format in which images will be uploaded (must be supported by the BWS instance)
+     */
+    public BioIdWebserviceClient(@NonNull EncodingFormat uploadFormat) {
+        this(uploadFormat, FaceCropping.NONE);
+    }
+
+    /**
+     * Creates a new instance of the BioIdWebserviceClient.
+     *
+     * @param uploadFormat   the format in which images will be uploaded (must be supported by the BWS instance)
+     * @param uploadCropping the way images are cropped to the face before they are uploaded
+     */
+    public BioIdWebserviceClient(@NonNull EncodingFormat uploadFormat, @NonNull FaceCropping uploadCropping) {
+        this(uploadFormat, uploadCropping, uploadCropping);
+    }
+
+    /**
+     * Creates a new instance of the BioIdWebserviceClient which does crop images depending on the traits of the BWS token.
+     *
+     * @param uploadFormat       the format in which images will be uploaded (must be supported by the BWS instance)
+     * @param uploadCropping     the way images are cropped before they are uploaded for the face trait (or both traits)
+     * @param periocularCropping the way images are cropped before they are uploaded for the periocular trait only
+     *                           (e.g. {@link FaceCropping#eyeBandWithDefaultMargin()}), images of a head turned up or
+     *                           down are cropped with the uploadCropping instead because the eyes could leave the band
+     */
+    public BioIdWebserviceClient(@NonNull EncodingFormat uploadFormat, @NonNull FaceCropping uploadCropping,
+                                 @NonNull FaceCropping periocularCropping) {
         this.httpRequestHelper = new HttpRequestHelper();
         this.log = LoggingHelperFactory.create(BioIdWebserviceClient.class);
         this.encoder = new Encoder();
+        this.uploadFormat = uploadFormat;
+        this.uploadCropping = uploadCropping;
+        this.periocularCropping = periocularCropping;
     }
 
     @VisibleForTesting
     BioIdWebserviceClient(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder) {
+        this(httpRequestHelper, log, encoder, DEFAULT_UPLOAD_FORMAT);
+    }
+
+    @VisibleForTesting
+    BioIdWebserviceClient(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                          @NonNull EncodingFormat uploadFormat) {
+        this(httpRequestHelper, log, encoder, uploadFormat, FaceCropping.NONE);
+    }
+
+    @VisibleForTesting
+    BioIdWebserviceClient(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                          @NonNull EncodingFormat uploadFormat, @NonNull FaceCropping uploadCropping) {
+        this(httpRequestHelper, log, encoder, uploadFormat, uploadCropping, uploadCropping);
+    }
+
+    @VisibleForTesting
+    BioIdWebserviceClient(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                          @NonNull EncodingFormat uploadFormat, @NonNull FaceCropping uploadCropping,
+                          @NonNull FaceCropping periocularCropping) {
         this.httpRequestHelper = httpRequestHelper;
         this.log = log;
         this.encoder = encoder;
+        this.uploadFormat = uploadFormat;
+        this.uploadCropping = uploadCropping;
+        this.periocularCropping = periocularCropping;
     }
 
     /**
@@ -153,6 +227,18 @@ public class BioIdWebserviceClient {
         }
     }
 
+    /**
+     * Does establish a connection to the BWS (DNS lookup and TLS handshake) which will be reused by subsequent requests.
+     * Failures are ignored because the actual requests will report connection problems anyway.
+     */
+    public void warmUpConnection() {
+        try {
+            httpRequestHelper.execute(withDefaultTimeout(HttpRequest.head(BWS_BASE_URL)));
+        } catch (HttpRequest.HttpRequestException | NoConnectionException e) {
+            log.w("warming up the connection to %s failed: %s", BWS_BASE_URL, e);
+        }
+    }
+
     // used in bws flavor
     @SuppressWarnings("WeakerAccess")
     HttpRequest withDefaultTimeout(HttpRequest request) {
@@ -186,13 +272,72 @@ public class BioIdWebserviceClient {
         }
     }
 
+    /**
+     * Returns the format in which images are encoded by {@link #uploadImage(Yuv420Image, BwsToken, MovementDirection, int, CancellationToken)}.
+     */
+    @NonNull
+    public EncodingFormat getUploadFormat() {
+        return uploadFormat;
+    }
+
+    /**
+     * Does encode the image the same way {@link #uploadImage(Yuv420Image, BwsToken, MovementDirection, int, CancellationToken)}
+     * does for the given token and movement direction.
+     * <p>
+     * The encoded representation is cached by the {@link Yuv420Image}, encoding it in advance speeds up the upload.
+     * The image is cropped if a {@link FaceCropping} is used for the traits of the token and the bounds of the face are
+     * attached to the image.
+     */
+    @NonNull
+    @WorkerThread
+    public byte[] encodeForUpload(@NonNull Yuv420Image img, @NonNull BwsToken bwsToken, @NonNull MovementDirection direction) {
+        return img.encode(uploadFormat, getUploadCrop(img, bwsToken, direction));
+    }
+
+    /**
+     * Returns true if images uploaded for the traits of the token and the movement direction are cropped to the face,
+     * in this case the bounds of the face have to be attached to the images before they are encoded.
+     */
+    @AnyThread
+    public boolean isCropping(@NonNull BwsToken bwsToken, @NonNull MovementDirection direction) {
+        return !FaceCropping.NONE.equals(getUploadCropping(bwsToken, direction));
+    }
+
+    /**
+     * Returns the region of the image which is uploaded for the traits of the token.
+     */
+    @Nullable
+    private CropRect getUploadCrop(@NonNull Yuv420Image img, @NonNull BwsToken bwsToken, @NonNull MovementDirection direction) {
+        return getUploadCropping(bwsToken, direction)
+                .getCrop(img.getRotatedWidth(), img.getRotatedHeight(), img.getFaceBounds());
+    }
+
+    /**
+     * Tokens for the periocular trait only do need the eyes only, all other tokens do need the whole face.
+     * <p>
+     * The eye band is derived from the bounds of the face. If the head is turned up or down, the eyes move within
+     * these bounds and could leave the band, therefore the whole face is kept for these movements.
+     */
+    @NonNull
+    private FaceCropping getUploadCropping(@NonNull BwsToken bwsToken, @NonNull MovementDirection direction) {
+        if (!isPeriocularOnly(bwsToken) || direction == MovementDirection.up || direction == MovementDirection.down) {
+            return uploadCropping;
+        }
+        return periocularCropping;
+    }
+
     /**
      * Uploads an image for enrollment or verification.
+     * The image is cropped if a {@link FaceCropping} is used for the traits of the token and the bounds of the face are
+     * attached to the image.
      *
      * @param img       which should be uploaded
      * @param bwsToken  BWS token for enrollment or verification
      * @param direction specifies the movement direction of the head
      * @param index     index of the uploaded image within a series of uploads
+     * @param cancellationToken the connection will be closed as soon as the token is cancelled
+     * @return how much of the image was cropped away
+     * @throws CancelledException          if the upload was cancelled
      * @throws NoFaceFoundException        if the uploaded image did not contain a face
      * @throws MultipleFacesFoundException if the uploaded image did contain multiple faces
      * @throws NoConnectionException       if no connection could be established
@@ -200,13 +345,32 @@ public class BioIdWebserviceClient {
      * @throws ServerErrorException        if the server failed to process the request
      * @throws TechnicalException          if any other technical error occurred
      */
-    public void uploadImage(@NonNull Yuv420Image img, @NonNull BwsToken bwsToken, @NonNull MovementDirection direction,
-                            @IntRange(from = 1) int index) {
+    @NonNull
+    public CropStatistics uploadImage(@NonNull Yuv420Image img, @NonNull BwsToken bwsToken, @NonNull MovementDirection direction,
+                                      @IntRange(from = 1) int index, @NonNull CancellationToken cancellationToken) {
         try {
-            HttpRequest request = createUploadImageRequest(prepareImage(img), bwsToken, direction, index);
+            cancellationToken.throwIfCancelled();  // encoding is not needed anymore
+            CropRect crop = getUploadCrop(img, bwsToken, direction);
+            byte[] encodedImg = img.encode(uploadFormat, crop);
+            boolean cropSkipped = isCropping(bwsToken, direction) && img.getFaceBounds() == null;
+            CropStatistics cropStatistics =
+                    new CropStatistics(img.getRotatedWidth(), img.getRotatedHeight(), crop, cropSkipped, encodedImg.length);
+            if (cropSkipped) {
+                log.w("uploading whole image %s because the face is unknown, %s", img, cropStatistics);
+            } else {
+                log.d("uploading %s with %s", img, cropStatistics);
+            }
+
+            DataUrlBody imgAsDataUrl = new DataUrlBody(uploadFormat.getMimeType(), encodedImg, encoder);
+            HttpRequest request = createUploadImageRequest(imgAsDataUrl, bwsToken, direction, index, cancellationToken);
 
             JSONObject responseBody = httpRequestHelper.asJsonIfOk(request);
             handleImageUploadResult(responseBody);
+            return cropStatistics;
+        } catch (NoConnectionException e) {
+            // the connection has been closed on purpose
+            cancellationToken.throwIfCancelled();
+            throw e;
         } catch (HttpRequestHelper.Non200StatusException e) {
             if (e.getStatus() == HTTP_STATUS_WRONG_CREDENTIALS) {
                 throw new WrongCredentialsException();
@@ -216,27 +380,10 @@ public class BioIdWebserviceClient {
         }
     }
 
-    @NonNull
-    private byte[] prepareImage(@NonNull Yuv420Image img) {
-        byte[] imgAsPNG = img.asPNG();
-        return asDataUrl(MIME_TYPE_PNG, imgAsPNG);
-    }
-
-    @NonNull
-    @SuppressWarnings("SameParameterValue")
-    private byte[] asDataUrl(@NonNull String mimeType, @NonNull byte[] data) {
-        byte[] dataUrlHeader = ("data:" + mimeType + ";base64,").getBytes(UTF_8);
-        byte[] dataAsBase64 = encoder.encodeAsBase64(data);
-
-        byte[] dataUrl = new byte[dataUrlHeader.length + dataAsBase64.length];
-        System.arraycopy(dataUrlHeader, 0, dataUrl, 0, dataUrlHeader.length);
-        System.arraycopy(dataAsBase64, 0, dataUrl, dataUrlHeader.length, dataAsBase64.length);
-        return dataUrl;
-    }
-
     @VisibleForTesting
-    protected HttpRequest createUploadImageRequest(@NonNull byte[] imgAsDataUrl, @NonNull BwsToken token,
-                                                   @NonNull MovementDirection direction, @IntRange(from = 1) int index) {
+    protected HttpRequest createUploadImageRequest(@NonNull DataUrlBody imgAsDataUrl, @NonNull BwsToken token,
+                                                   @NonNull MovementDirection direction, @IntRange(from = 1) int index,
+                                                   @NonNull CancellationToken cancellationToken) {
         try {
             Map<String, String> queryParameters = new ArrayMap<>(3);
             queryParameters.put("tag", direction.name());
@@ -249,6 +396,7 @@ public class BioIdWebserviceClient {
                     .contentType("text/plain", "utf-8")
                     .connectTimeout(20000)
                     .readTimeout(60_000)
+                    .cancelWith(cancellationToken)
                     .send(imgAsDataUrl);
         } catch (HttpRequest.HttpRequestException e) {
             throw new NoConnectionException(e);
@@ -259,13 +407,17 @@ public class BioIdWebserviceClient {
     private String getTraitParamForImageUpload(@NonNull BwsToken token) {
         if (token.hasFaceTrait() && !token.hasPeriocularTrait()) {
             return Trait.Face.name();
-        } else if (!token.hasFaceTrait() && token.hasPeriocularTrait()) {
+        } else if (isPeriocularOnly(token)) {
             return Trait.Periocular.name();
         } else {
             return Trait.Face.name() + ", " + Trait.Periocular.name();
         }
     }
 
+    private static boolean isPeriocularOnly(@NonNull BwsToken token) {
+        return !token.hasFaceTrait() && token.hasPeriocularTrait();
+    }
+
     private void handleImageUploadResult(@NonNull JSONObject json) {
         try {
             boolean accepted = json.getBoolean(JSON_KEY_ACCEPTED);
@@ -0,0 +1,58 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.image.CropRect;
+import com.bioid.authenticator.base.image.FaceCropping;
+
+/**
+ * Describes how much of an uploaded image was cropped away (see {@link FaceCropping}).
+ */
+public final class CropStatistics {
+
+    /**
+     * Width of the rotated image before cropping.
+     */
+    public final int imageWidth;
+    /**
+     * Height of the rotated image before cropping.
+     */
+    public final int imageHeight;
+    /**
+     * The region which was uploaded, null if the whole image was uploaded.
+     */
+    @Nullable
+    public final CropRect crop;
+    /**
+     * True if the image should have been cropped but the whole image was uploaded because the face was not located.
+     */
+    public final boolean cropSkipped;
+    /**
+     * Size of the encoded image in bytes (without the data URL overhead).
+     */
+    public final int encodedSize;
+
+    CropStatistics(int imageWidth, int imageHeight, @Nullable CropRect crop, boolean cropSkipped, int encodedSize) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.crop = crop;
+        this.cropSkipped = cropSkipped;
+        this.encodedSize = encodedSize;
+    }
+
+    /**
+     * Returns the number of uploaded pixels relative to the number of pixels of the whole image (1 if nothing was cropped).
+     */
+    public float getPixelRatio() {
+        if (crop == null || imageWidth <= 0 || imageHeight <= 0) {
+            return 1f;
+        }
+        return (float) crop.width * crop.height / ((float) imageWidth * imageHeight);
+    }
+
+    @Override
+    public String toString() {
+        return "CropStatistics{image=" + imageWidth + "x" + imageHeight + ", crop=" + (crop == null ? "none" : crop)
+                + ", cropSkipped=" + cropSkipped + ", pixelRatio=" + getPixelRatio() + ", encodedSize=" + encodedSize + "}";
+    }
+}
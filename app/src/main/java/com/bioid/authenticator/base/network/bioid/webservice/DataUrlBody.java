@@ -0,0 +1,51 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.network.HttpRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Request body containing data as Base64 encoded data URL (e.g. "data:image/png;base64,...").
+ * <p>
+ * The Base64 representation is never materialized, it is encoded while the body is written to the connection.
+ */
+final class DataUrlBody implements HttpRequest.StreamingBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final String mimeType;
+    @NonNull
+    private final byte[] header;
+    @NonNull
+    private final byte[] data;
+    @NonNull
+    private final Encoder encoder;
+
+    DataUrlBody(@NonNull String mimeType, @NonNull byte[] data, @NonNull Encoder encoder) {
+        this.mimeType = mimeType;
+        this.header = ("data:" + mimeType + ";base64,").getBytes(UTF_8);
+        this.data = data;
+        this.encoder = encoder;
+    }
+
+    @NonNull
+    String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public long length() {
+        return header.length + encoder.getBase64Length(data.length);
+    }
+
+    @Override
+    public void writeTo(@NonNull OutputStream output) throws IOException {
+        output.write(header);
+        encoder.encodeAsBase64(data, output);
+    }
+}
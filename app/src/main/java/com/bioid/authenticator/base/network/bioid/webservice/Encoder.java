@@ -1,32 +1,125 @@
 package com.bioid.authenticator.base.network.bioid.webservice;
 
 import android.support.annotation.NonNull;
-import android.util.Base64;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Provides methods to encode data.
+ * <p>
+ * Base64 is implemented in plain Java (with the same output as android.util.Base64),
+ * therefore the encoder can be used and benchmarked on the JVM as well.
  */
 public class Encoder {
 
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(UTF8);
+    private static final int[] URL_SAFE_VALUES = new int[128];
+    // encoded in chunks to keep the number of write calls low without materializing the whole Base64 representation
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    static {
+        Arrays.fill(URL_SAFE_VALUES, -1);
+        for (int i = 0; i < 62; i++) {
+            URL_SAFE_VALUES[ALPHABET[i]] = i;
+        }
+        URL_SAFE_VALUES['-'] = 62;
+        URL_SAFE_VALUES['_'] = 63;
+    }
+
     /**
-     * Encodes the given bytes as Base64 (omits all line terminators).
+     * Encodes the given bytes as Base64 (omits all line terminators) and writes them to the given stream.
+     * The stream will not be closed.
+     *
+     * @throws IOException if writing to the stream failed
      */
-    @NonNull
-    byte[] encodeAsBase64(@NonNull byte[] bytes) {
-        return Base64.encode(bytes, Base64.NO_WRAP);
+    void encodeAsBase64(@NonNull byte[] bytes, @NonNull OutputStream out) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, getBase64Length(bytes.length))];
+        int position = 0;
+
+        int i = 0;
+        int completeGroupsEnd = bytes.length - bytes.length % 3;
+        while (i < completeGroupsEnd) {
+            int bits = (bytes[i++] & 0xff) << 16 | (bytes[i++] & 0xff) << 8 | (bytes[i++] & 0xff);
+            chunk[position++] = ALPHABET[bits >>> 18];
+            chunk[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            chunk[position++] = ALPHABET[(bits >>> 6) & 0x3f];
+            chunk[position++] = ALPHABET[bits & 0x3f];
+
+            if (position == chunk.length) {
+                out.write(chunk, 0, position);
+                position = 0;
+            }
+        }
+
+        int remaining = bytes.length - completeGroupsEnd;
+        if (remaining > 0) {
+            int bits = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            chunk[position++] = ALPHABET[bits >>> 18];
+            chunk[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            chunk[position++] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+            chunk[position++] = '=';
+        }
+
+        if (position > 0) {
+            out.write(chunk, 0, position);
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@link #encodeAsBase64(byte[], OutputStream)} does write for the given number of bytes.
+     */
+    long getBase64Length(int byteCount) {
+        return 4L * ((byteCount + 2) / 3);
     }
 
     /**
      * Decodes the given Base64 URL compatible string (using UTF-8 only).
+     * Like android.util.Base64 the padding is optional and characters outside of the alphabet are skipped.
+     *
+     * @throws IllegalArgumentException if the string is no valid Base64
      */
     @NonNull
     public String decodeBase64(@NonNull String string) {
-        byte[] encoded = string.getBytes(UTF8);
-        byte[] decoded = Base64.decode(encoded, Base64.URL_SAFE);
-        return new String(decoded, UTF8);
+        byte[] decoded = new byte[string.length() * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = c < URL_SAFE_VALUES.length ? URL_SAFE_VALUES[c] : -1;
+            if (value < 0) {
+                continue;
+            }
+
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                decoded[length++] = (byte) (bits >> 16);
+                decoded[length++] = (byte) (bits >> 8);
+                decoded[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        if (count == 1) {
+            throw new IllegalArgumentException("bad base-64");
+        } else if (count == 2) {
+            decoded[length++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            decoded[length++] = (byte) (bits >> 10);
+            decoded[length++] = (byte) (bits >> 2);
+        }
+
+        return new String(decoded, 0, length, UTF8);
     }
 }
@@ -5,6 +5,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.functional.Function;
 import com.bioid.authenticator.base.functional.Supplier;
 
 /**
@@ -78,9 +79,66 @@ public interface BackgroundHandler {
                               @Nullable final Runnable onSuccess, @Nullable final Consumer<RuntimeException> onError,
                               @Nullable final Runnable onComplete);
 
+    /**
+     * Does execute a CPU bound supplier (e.g. image processing) on a background thread.
+     * <p/>
+     * Same as {@link #runOnBackgroundThread(Supplier, Consumer, Consumer, Runnable)} but implementations may use dedicated threads
+     * so that computations do not queue up behind blocking operations like network requests.
+     */
+    default <T> int runComputationOnBackgroundThread(@NonNull final Supplier<T> supplier,
+                                                     @NonNull final Consumer<T> onSuccess,
+                                                     @Nullable final Consumer<RuntimeException> onError,
+                                                     @Nullable final Runnable onComplete) {
+        return runOnBackgroundThread(supplier, onSuccess, onError, onComplete);
+    }
+
+    /**
+     * Does execute a CPU bound runnable (e.g. image processing) on a background thread.
+     * <p/>
+     * Same as {@link #runOnBackgroundThread(Runnable, Runnable, Consumer, Runnable)} but implementations may use dedicated threads
+     * so that computations do not queue up behind blocking operations like network requests.
+     */
+    default int runComputationOnBackgroundThread(@NonNull final Runnable runnable,
+                                                 @Nullable final Runnable onSuccess,
+                                                 @Nullable final Consumer<RuntimeException> onError,
+                                                 @Nullable final Runnable onComplete) {
+        return runOnBackgroundThread(runnable, onSuccess, onError, onComplete);
+    }
+
+    /**
+     * Does execute a cancellable CPU bound function (e.g. image processing) on a background thread.
+     * <p/>
+     * Same as {@link #runComputationOnBackgroundThread(Supplier, Consumer, Consumer, Runnable)} but the function gets a
+     * {@link CancellationToken} which will be cancelled as soon as the caller unsubscribes from the task.
+     * Implementations which are not able to cancel tasks pass a token which is never cancelled.
+     */
+    default <T> int runComputationOnBackgroundThread(@NonNull final Function<CancellationToken, T> function,
+                                                     @NonNull final Consumer<T> onSuccess,
+                                                     @Nullable final Consumer<RuntimeException> onError,
+                                                     @Nullable final Runnable onComplete) {
+        final CancellationToken neverCancelled = new CancellationToken();
+        return runComputationOnBackgroundThread(() -> function.apply(neverCancelled), onSuccess, onError, onComplete);
+    }
+
+    /**
+     * Does execute a cancellable operation (e.g. a network request) on a background thread.
+     * <p/>
+     * Same as {@link #runOnBackgroundThread(Runnable, Runnable, Consumer, Runnable)} but the operation gets a
+     * {@link CancellationToken} which will be cancelled as soon as the caller unsubscribes from the task.
+     * Implementations which are not able to cancel tasks pass a token which is never cancelled.
+     */
+    default int runOnBackgroundThread(@NonNull final Consumer<CancellationToken> operation,
+                                      @Nullable final Runnable onSuccess, @Nullable final Consumer<RuntimeException> onError,
+                                      @Nullable final Runnable onComplete) {
+        final CancellationToken neverCancelled = new CancellationToken();
+        return runOnBackgroundThread(() -> operation.accept(neverCancelled), onSuccess, onError, onComplete);
+    }
+
     /**
      * Does unsubscribe any callback functions from the background task.
-     * The actual operation in the background will still be executed but no callback (onSuccess, onError or onComplete) will be called.
+     * No callback (onSuccess, onError or onComplete) will be called.
+     * The operation in the background will be cancelled if it does accept a {@link CancellationToken},
+     * otherwise it might still be executed.
      * <p/>
      * If the task has already completed or no task with such an ID is present nothing does happen.
      *
@@ -90,7 +148,9 @@ public interface BackgroundHandler {
 
     /**
      * Does unsubscribe from any background task.
-     * The actual operation in the background will still be executed but no callback (onSuccess, onError or onComplete) will be called.
+     * No callback (onSuccess, onError or onComplete) will be called.
+     * The operations in the background will be cancelled if they do accept a {@link CancellationToken},
+     * otherwise they might still be executed.
      */
     void unsubscribeFromAllBackgroundTasks();
 }
@@ -0,0 +1,83 @@
+package com.bioid.authenticator.base.threading;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.Nullable;
+
+/**
+ * Can be used to stop a long running operation which is no longer needed.
+ * <p>
+ * Cancellation is cooperative, the operation has to check the token regularly (e.g. once per row of an image)
+ * or register a listener which does abort blocking calls (e.g. by closing the connection).
+ * <p>
+ * This class is thread-safe.
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled = false;
+    @Nullable
+    private Runnable onCancelListener;
+
+    /**
+     * Returns true if the operation should stop as soon as possible.
+     */
+    @AnyThread
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Does throw a {@link CancelledException} if the token was cancelled.
+     */
+    @AnyThread
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * Does cancel the token and calls the listener (on the calling thread).
+     * Cancelling an already cancelled token does nothing.
+     */
+    @AnyThread
+    public void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            listener = onCancelListener;
+            onCancelListener = null;
+        }
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Does set the listener which will be called as soon as the token is cancelled (replacing a previously set listener).
+     * If the token is already cancelled the listener will be called immediately on the calling thread.
+     *
+     * @param listener might be null to remove the current listener
+     */
+    @AnyThread
+    public void setOnCancelListener(@Nullable Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancelListener = listener;
+                return;
+            }
+        }
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CancellationToken{cancelled=" + cancelled + "}";
+    }
+}
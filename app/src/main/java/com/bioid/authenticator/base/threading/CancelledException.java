@@ -0,0 +1,7 @@
+package com.bioid.authenticator.base.threading;
+
+/**
+ * Will be thrown by an operation which did stop because its {@link CancellationToken} was cancelled.
+ */
+public class CancelledException extends RuntimeException {
+}
@@ -0,0 +1,43 @@
+package com.bioid.authenticator.base.threading;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.functional.Function;
+import com.bioid.authenticator.base.functional.Supplier;
+
+/**
+ * Decides if an item of a {@link PipelineStage} is not worth processing anymore.
+ * <p>
+ * The policy is checked right before an item would be processed, i.e. after it did wait in the queue of the stage.
+ */
+public interface DropPolicy<T> {
+
+    /**
+     * Returns true if the item should be discarded instead of being processed.
+     */
+    boolean isStale(@NonNull T item);
+
+    /**
+     * Does never drop an item because of its age.
+     * Together with the bounded queue of a {@link PipelineStage} only the latest items are processed (latest wins).
+     */
+    @NonNull
+    static <T> DropPolicy<T> latestWins() {
+        return item -> false;
+    }
+
+    /**
+     * Does drop items which are older than the given age.
+     *
+     * @param maxAgeInMillis maximum age of an item which is still processed
+     * @param timestamp      returns the creation time of an item in nanoseconds
+     * @param clock          returns the current time in nanoseconds (must use the same time base as the timestamps)
+     */
+    @NonNull
+    static <T> DropPolicy<T> olderThan(@IntRange(from = 0) long maxAgeInMillis,
+                                       @NonNull Function<T, Long> timestamp, @NonNull Supplier<Long> clock) {
+        final long maxAgeInNanos = maxAgeInMillis * 1_000_000L;
+        return item -> clock.get() - timestamp.apply(item) > maxAgeInNanos;
+    }
+}
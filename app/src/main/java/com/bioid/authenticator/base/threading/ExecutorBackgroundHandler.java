@@ -0,0 +1,316 @@
+package com.bioid.authenticator.base.threading;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.functional.Function;
+import com.bioid.authenticator.base.functional.Supplier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offloads work to thread pools which are reserved for the facial recognition.
+ * <p>
+ * Computations (e.g. face and motion detection) are executed by a pool sized to the number of CPU cores,
+ * blocking operations (e.g. network requests) are executed by a separate pool.
+ * Therefore image processing does neither queue up behind uploads nor behind unrelated AsyncTasks of the app.
+ * <p>
+ * Unsubscribing from a task does cancel its {@link CancellationToken}, tasks which did not start yet are skipped.
+ * <p>
+ * Callbacks and delayed runnables are executed on the main thread, the handler must only be used from the main thread.
+ */
+public final class ExecutorBackgroundHandler implements BackgroundHandler {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    // leaving one core for the UI and the camera
+    private static final int COMPUTATION_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    private static final int IO_POOL_SIZE = 4;
+    private static final int KEEP_ALIVE_IN_SECONDS = 30;
+
+    private static final Executor COMPUTATION_EXECUTOR = createExecutor(
+            COMPUTATION_POOL_SIZE, "computation", Process.THREAD_PRIORITY_DEFAULT);
+    private static final Executor IO_EXECUTOR = createExecutor(
+            IO_POOL_SIZE, "io", Process.THREAD_PRIORITY_BACKGROUND);
+
+    /**
+     * Executes runnables on the main thread.
+     */
+    @VisibleForTesting
+    interface MainThread {
+
+        void post(@NonNull Runnable runnable);
+
+        void postDelayed(@NonNull Runnable runnable, long delayInMillis);
+
+        void remove(@NonNull Runnable runnable);
+    }
+
+    private final Executor computationExecutor;
+    private final Executor ioExecutor;
+    private final MainThread mainThread;
+
+    private final AtomicInteger nextTaskId = new AtomicInteger();
+    private final Map<Integer, Runnable> scheduledTasks = new HashMap<>();
+    private final Map<Integer, BackgroundTask<?>> backgroundTasks = new HashMap<>();
+
+    public ExecutorBackgroundHandler() {
+        this(COMPUTATION_EXECUTOR, IO_EXECUTOR, createMainThread());
+    }
+
+    @VisibleForTesting
+    ExecutorBackgroundHandler(Executor computationExecutor, Executor ioExecutor, MainThread mainThread) {
+        this.computationExecutor = computationExecutor;
+        this.ioExecutor = ioExecutor;
+        this.mainThread = mainThread;
+    }
+
+    @NonNull
+    private static MainThread createMainThread() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new MainThread() {
+            @Override
+            public void post(@NonNull Runnable runnable) {
+                handler.post(runnable);
+            }
+
+            @Override
+            public void postDelayed(@NonNull Runnable runnable, long delayInMillis) {
+                handler.postDelayed(runnable, delayInMillis);
+            }
+
+            @Override
+            public void remove(@NonNull Runnable runnable) {
+                handler.removeCallbacks(runnable);
+            }
+        };
+    }
+
+    @NonNull
+    private static Executor createExecutor(int poolSize, @NonNull final String name, final int threadPriority) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                return new Thread(() -> {
+                    Process.setThreadPriority(threadPriority);
+                    r.run();
+                }, name + " #" + threadCount.incrementAndGet());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);  // no idle threads if the facial recognition is not used
+        return executor;
+    }
+
+    /**
+     * Returns a new task ID, IDs are shared by scheduled and background tasks.
+     */
+    private int createTaskId() {
+        return nextTaskId.getAndIncrement() & Integer.MAX_VALUE;  // IDs are non negative even after an overflow
+    }
+
+    @Override
+    public int runWithDelay(@NonNull final Runnable runnable, @IntRange(from = 0) long delayInMillis) {
+        final int taskId = createTaskId();
+
+        Runnable scheduledTask = () -> {
+            if (scheduledTasks.remove(taskId) != null) {
+                runnable.run();
+            }
+        };
+        scheduledTasks.put(taskId, scheduledTask);
+        mainThread.postDelayed(scheduledTask, delayInMillis);
+
+        return taskId;
+    }
+
+    @Override
+    public void cancelScheduledTask(int taskId) {
+        Runnable scheduledTask = scheduledTasks.remove(taskId);
+        if (scheduledTask != null) {
+            mainThread.remove(scheduledTask);
+        }
+    }
+
+    @Override
+    public void cancelAllScheduledTasks() {
+        for (Runnable scheduledTask : scheduledTasks.values()) {
+            mainThread.remove(scheduledTask);
+        }
+        scheduledTasks.clear();
+    }
+
+    @Override
+    public <T> int runOnBackgroundThread(@NonNull Supplier<T> supplier,
+                                         @NonNull Consumer<T> onSuccess, @Nullable Consumer<RuntimeException> onError,
+                                         @Nullable Runnable onComplete) {
+        return execute(ioExecutor, ignored -> supplier.get(), onSuccess, onError, onComplete);
+    }
+
+    @Override
+    public int runOnBackgroundThread(@NonNull Runnable runnable,
+                                     @Nullable Runnable onSuccess, @Nullable Consumer<RuntimeException> onError,
+                                     @Nullable Runnable onComplete) {
+        return execute(ioExecutor, asFunction(ignored -> runnable.run()), asConsumer(onSuccess), onError, onComplete);
+    }
+
+    @Override
+    public int runOnBackgroundThread(@NonNull Consumer<CancellationToken> operation,
+                                     @Nullable Runnable onSuccess, @Nullable Consumer<RuntimeException> onError,
+                                     @Nullable Runnable onComplete) {
+        return execute(ioExecutor, asFunction(operation), asConsumer(onSuccess), onError, onComplete);
+    }
+
+    @Override
+    public <T> int runComputationOnBackgroundThread(@NonNull Supplier<T> supplier,
+                                                    @NonNull Consumer<T> onSuccess,
+                                                    @Nullable Consumer<RuntimeException> onError,
+                                                    @Nullable Runnable onComplete) {
+        return execute(computationExecutor, ignored -> supplier.get(), onSuccess, onError, onComplete);
+    }
+
+    @Override
+    public int runComputationOnBackgroundThread(@NonNull Runnable runnable,
+                                                @Nullable Runnable onSuccess,
+                                                @Nullable Consumer<RuntimeException> onError,
+                                                @Nullable Runnable onComplete) {
+        return execute(computationExecutor, asFunction(ignored -> runnable.run()), asConsumer(onSuccess), onError, onComplete);
+    }
+
+    @Override
+    public <T> int runComputationOnBackgroundThread(@NonNull Function<CancellationToken, T> function,
+                                                    @NonNull Consumer<T> onSuccess,
+                                                    @Nullable Consumer<RuntimeException> onError,
+                                                    @Nullable Runnable onComplete) {
+        return execute(computationExecutor, function, onSuccess, onError, onComplete);
+    }
+
+    @NonNull
+    private static Function<CancellationToken, Object> asFunction(@NonNull Consumer<CancellationToken> operation) {
+        return token -> {
+            operation.accept(token);
+            return null;
+        };
+    }
+
+    @NonNull
+    private static Consumer<Object> asConsumer(@Nullable Runnable onSuccess) {
+        return ignored -> {
+            if (onSuccess != null) {
+                onSuccess.run();
+            }
+        };
+    }
+
+    private <T> int execute(@NonNull Executor executor, @NonNull Function<CancellationToken, T> function,
+                            @Nullable Consumer<T> onSuccess, @Nullable Consumer<RuntimeException> onError,
+                            @Nullable Runnable onComplete) {
+        int taskId = createTaskId();
+
+        BackgroundTask<T> backgroundTask = new BackgroundTask<>(taskId, function, onSuccess, onError, onComplete);
+        backgroundTasks.put(taskId, backgroundTask);
+        executor.execute(backgroundTask);
+
+        return taskId;
+    }
+
+    @Override
+    public void unsubscribeFromBackgroundTask(int taskId) {
+        BackgroundTask<?> backgroundTask = backgroundTasks.remove(taskId);
+        if (backgroundTask != null) {
+            backgroundTask.token.cancel();
+        }
+    }
+
+    @Override
+    public void unsubscribeFromAllBackgroundTasks() {
+        for (BackgroundTask<?> backgroundTask : backgroundTasks.values()) {
+            backgroundTask.token.cancel();
+        }
+        backgroundTasks.clear();
+    }
+
+    /**
+     * Does run the function on a background thread and passes the result to the callbacks on the main thread.
+     * Tasks which are cancelled before they are started won't be executed at all.
+     */
+    private final class BackgroundTask<T> implements Runnable {
+
+        private final int taskId;
+        private final CancellationToken token = new CancellationToken();
+        private final Function<CancellationToken, T> function;
+        private final Consumer<T> onSuccess;
+        private final Consumer<RuntimeException> onError;
+        private final Runnable onComplete;
+
+        private BackgroundTask(int taskId, @NonNull Function<CancellationToken, T> function,
+                               @Nullable Consumer<T> onSuccess, @Nullable Consumer<RuntimeException> onError,
+                               @Nullable Runnable onComplete) {
+            this.taskId = taskId;
+            this.function = function;
+            this.onSuccess = onSuccess;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void run() {
+            if (token.isCancelled()) {
+                return;  // nobody is interested in the result anymore
+            }
+
+            T result = null;
+            RuntimeException exception = null;
+            try {
+                result = function.apply(token);
+            } catch (RuntimeException e) {
+                exception = e;
+            }
+
+            final T finalResult = result;
+            final RuntimeException finalException = exception;
+            mainThread.post(() -> deliver(finalResult, finalException));
+        }
+
+        private void deliver(@Nullable T result, @Nullable RuntimeException exception) {
+            if (backgroundTasks.remove(taskId) == null) {
+                return;  // unsubscribed
+            }
+
+            if (onComplete != null) {
+                try {
+                    onComplete.run();
+                } catch (RuntimeException e) {
+                    exception = e;
+                }
+            }
+
+            if (exception != null) {
+                if (onError != null) {
+                    onError.accept(exception);
+                }
+                return;
+            }
+
+            if (onSuccess != null) {
+                onSuccess.accept(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.bioid.authenticator.base.threading;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.functional.Function;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single stage of a processing pipeline (e.g. for camera frames) with a bounded queue in front of it.
+ * <p>
+ * The items are processed one after another on the executor of the stage and the results are passed to the next stage.
+ * Because every stage has its own executor, consecutive items are processed by multiple stages at the same time
+ * and the throughput of the pipeline is limited by its slowest stage instead of the sum of all stages.
+ * <p>
+ * Items are never blocking the producer:
+ * if the queue is full, the oldest queued item is discarded (latest wins),
+ * items which became stale according to the {@link DropPolicy} are discarded instead of being processed.
+ * Discarded items are passed to the discard callback, e.g. to hand buffers back to a pool.
+ * <p>
+ * If the work fails with an exception the item is dropped and the stage continues with the next item,
+ * a single broken item (e.g. a frame of an already closed camera) must not take down the pipeline thread.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class PipelineStage<I, O> {
+
+    private static final int KEEP_ALIVE_IN_SECONDS = 30;
+
+    private final LoggingHelper log;
+    private final String name;
+    private final Executor executor;
+    private final int capacity;
+    private final DropPolicy<I> dropPolicy;
+    private final Function<I, O> work;
+    @Nullable
+    private final Consumer<O> next;
+    private final Consumer<I> discard;
+
+    private final ArrayDeque<I> queue;
+    private boolean draining;
+    private long processed;
+    private long dropped;
+
+    /**
+     * @param name       name of the stage (used by {@link #toString()})
+     * @param executor   executes the work of the stage (should not be shared with other stages)
+     * @param capacity   maximum number of items waiting to be processed
+     * @param dropPolicy decides if a queued item is not worth processing anymore
+     * @param work       processes an item and takes ownership of it, results which are null are not passed on
+     * @param next       receives the results (usually {@link #offer(Object)} of the next stage)
+     * @param discard    receives the items which are dropped without being processed
+     */
+    public PipelineStage(@NonNull String name, @NonNull Executor executor, @IntRange(from = 1) int capacity,
+                         @NonNull DropPolicy<I> dropPolicy, @NonNull Function<I, O> work,
+                         @Nullable Consumer<O> next, @NonNull Consumer<I> discard) {
+        this(LoggingHelperFactory.create(PipelineStage.class), name, executor, capacity, dropPolicy, work, next, discard);
+    }
+
+    @VisibleForTesting
+    PipelineStage(LoggingHelper log, String name, Executor executor, int capacity, DropPolicy<I> dropPolicy,
+                  Function<I, O> work, @Nullable Consumer<O> next, Consumer<I> discard) {
+        this.log = log;
+        this.name = name;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.dropPolicy = dropPolicy;
+        this.work = work;
+        this.next = next;
+        this.discard = discard;
+        this.queue = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Returns an executor with a single thread for a stage, the thread is terminated after being idle for a while.
+     */
+    @NonNull
+    public static Executor createExecutor(@NonNull final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);  // no idle threads if the pipeline is not used
+        return executor;
+    }
+
+    /**
+     * Does enqueue the item for processing, the stage takes ownership of the item.
+     * If the queue is full the oldest queued item will be discarded.
+     */
+    @AnyThread
+    public void offer(@NonNull I item) {
+        I overflow = null;
+        boolean startDraining = false;
+        synchronized (this) {
+            if (queue.size() == capacity) {
+                overflow = queue.pollFirst();
+                dropped++;
+            }
+            queue.addLast(item);
+            if (!draining) {
+                draining = true;
+                startDraining = true;
+            }
+        }
+
+        if (overflow != null) {
+            discard.accept(overflow);
+        }
+        if (startDraining) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Does discard all items which are still waiting to be processed.
+     * An item which is currently processed is not affected.
+     */
+    @AnyThread
+    public void clear() {
+        List<I> discarded;
+        synchronized (this) {
+            discarded = new ArrayList<>(queue);
+            dropped += queue.size();
+            queue.clear();
+        }
+
+        for (I item : discarded) {
+            discard.accept(item);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            I item;
+            synchronized (this) {
+                item = queue.pollFirst();
+                if (item == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (dropPolicy.isStale(item)) {
+                synchronized (this) {
+                    dropped++;
+                }
+                discard.accept(item);
+                continue;
+            }
+
+            O result;
+            try {
+                result = work.apply(item);
+            } catch (RuntimeException e) {
+                // the work did take ownership of the item, therefore it is not passed to the discard callback
+                synchronized (this) {
+                    dropped++;
+                }
+                log.w(e, "%s: processing of item failed, item is dropped", name);
+                continue;
+            }
+            synchronized (this) {
+                processed++;
+            }
+
+            if (result != null && next != null) {
+                next.accept(result);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + "{processed=" + processed + ", dropped=" + dropped + ", queued=" + queue.size() + "}";
+    }
+}
@@ -1,38 +1,75 @@
 package com.bioid.authenticator.facialrecognition;
 
 import android.content.Context;
-import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
 import android.support.annotation.AnyThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.util.SparseArray;
 
+import com.bioid.authenticator.base.annotations.Rotation;
+import com.bioid.authenticator.base.camera.FaceStatistics;
+import com.bioid.authenticator.base.image.FaceBounds;
+import com.bioid.authenticator.base.image.GrayscaleImage;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
 
+import java.nio.ByteBuffer;
+
 /**
  * Uses the Google Mobile Vision API (included within Play Services) for face detection.
  * <p>
+ * If the camera does detect faces itself, the faces reported by the camera are used instead (see {@link FaceStatistics}).
+ * The Google Mobile Vision API is only used for images the camera did not report faces for
+ * (e.g. images in upload quality which are captured outside of the preview).
+ * The detector is fed with the (downscaled) luminance of the image and the rotation as metadata,
+ * the image is neither converted into a Bitmap nor rotated (see {@link Yuv420Image#readDetectionImage}).
+ * The bounds of the largest face are attached to the image (see {@link Yuv420Image#getFaceBounds()}).
+ * <p>
  * A instance of this class should be reused for multiple images.
  */
 class FaceDetection {
 
     private static final String STOPWATCH_SESSION_ID = "face detection algorithm";
 
-    private final LoggingHelper log = LoggingHelperFactory.create(FaceDetection.class);
+    private final LoggingHelper log;
     private final FaceDetector detector;
 
+    @Nullable
+    private volatile FaceStatistics faceStatistics;
+
     FaceDetection(Context ctx) {
+        this.log = LoggingHelperFactory.create(FaceDetection.class);
         this.detector = new FaceDetector.Builder(ctx)
                 .setProminentFaceOnly(true)  // only detect large face that is most central within the frame
                 .setTrackingEnabled(false)
                 .build();
     }
 
+    @VisibleForTesting
+    FaceDetection(LoggingHelper log, FaceDetector detector) {
+        this.log = log;
+        this.detector = detector;
+    }
+
+    /**
+     * Does use the faces detected by the camera for the images of the current preview.
+     *
+     * @param faceStatistics null if the camera does not detect faces
+     */
+    @AnyThread
+    void setFaceStatistics(@Nullable FaceStatistics faceStatistics) {
+        this.faceStatistics = faceStatistics;
+    }
+
     /**
      * Does return true if the detector is operational and can be used.
      * <p>
@@ -45,33 +82,134 @@ class FaceDetection {
 
     /**
      * Can detect if the image contains a human face.
+     * The faces detected by the camera are used if available, otherwise the image is passed to the detector.
+     *
+     * @param img   which might contain a human face
+     * @param token is checked before the image is downscaled and before the detector is called
+     * @return true if the image contains at least one prominent face
+     * @throws NotOperationalException if the binaries needed for Google Mobile Vision API are not downloaded yet
+     * @throws CancelledException      if the token was cancelled
+     */
+    @WorkerThread
+    boolean containsFace(@NonNull Yuv420Image img, @NonNull CancellationToken token) {
+        FaceStatistics statistics = faceStatistics;
+        if (statistics != null) {
+            int faceCount = statistics.getFaceCount(img.getTimestamp());
+            if (faceCount != FaceStatistics.UNKNOWN_FACE_COUNT) {
+                log.d("%d faces detected by the camera within image %s", faceCount, img);
+                FaceBounds bounds = faceCount > 0 ? getCameraFaceBounds(statistics, img) : null;
+                if (bounds != null) {
+                    img.setFaceBounds(bounds);
+                }
+                return faceCount > 0;
+            }
+        }
+
+        token.throwIfCancelled();
+        return locateFace(img, token);
+    }
+
+    /**
+     * Does locate the largest face within the image and attaches its bounds to the image
+     * (see {@link Yuv420Image#getFaceBounds()}, null if the image does not contain a face).
+     * <p>
+     * In contrast to {@link #containsFace(Yuv420Image, CancellationToken)} the bounds are determined in any case,
+     * e.g. to crop an image in upload quality to the face it does actually contain.
+     * The bounds reported by the camera are used if available, otherwise the image is passed to the detector.
      *
      * @param img which might contain a human face
      * @return true if the image contains at least one prominent face
      * @throws NotOperationalException if the binaries needed for Google Mobile Vision API are not downloaded yet
      */
     @WorkerThread
-    boolean containsFace(@NonNull Yuv420Image img) {
+    boolean locateFace(@NonNull Yuv420Image img) {
+        FaceStatistics statistics = faceStatistics;
+        FaceBounds bounds = statistics != null ? getCameraFaceBounds(statistics, img) : null;
+        if (bounds != null) {
+            log.d("face located by the camera within image %s", img);
+            img.setFaceBounds(bounds);
+            return true;
+        }
+
+        return locateFace(img, new CancellationToken());  // the upload does not cancel the location
+    }
+
+    private boolean locateFace(@NonNull Yuv420Image img, @NonNull CancellationToken token) {
         if (!detector.isOperational()) {
             throw new NotOperationalException();
         }
 
         log.startStopwatch(STOPWATCH_SESSION_ID);
-        int faceCount = getFaceCount(img.asBitmap());
+        FaceBounds bounds = img.readDetectionImage(detectionImage -> {
+            token.throwIfCancelled();  // the detector itself can not be interrupted
+            SparseArray<Face> faces = detectFaces(detectionImage, img.getRotation());
+            return faces.size() == 0 ? null : getFaceBounds(faces, detectionImage, img.getRotation());
+        });
         log.stopStopwatch(STOPWATCH_SESSION_ID);
 
-        return faceCount > 0;
+        img.setFaceBounds(bounds);
+        return bounds != null;
     }
 
-    private int getFaceCount(@NonNull Bitmap img) {
+    @NonNull
+    private SparseArray<Face> detectFaces(@NonNull GrayscaleImage img, @Rotation int rotation) {
+        // the detector does only use the luminance which is stored at the beginning of a NV21 image
         Frame frame = new Frame.Builder()
-                .setBitmap(img)
+                .setImageData(ByteBuffer.wrap(img.data), img.width, img.height, ImageFormat.NV21)
+                .setRotation(toFrameRotation(rotation))
                 .build();
 
-        SparseArray<Face> faces = detector.detect(frame);
-        log.d("%d faces detected within image %s", faces.size(), img);
+        SparseArray<Face> faces;
+        synchronized (detector) {  // the images for the upload are located on another thread than the detection images
+            faces = detector.detect(frame);
+        }
+        log.d("%d faces detected within %dx%d image", faces.size(), img.width, img.height);
 
-        return faces.size();
+        return faces;
+    }
+
+    /**
+     * Returns the bounds of the largest face relative to the rotated image (the detector reports faces within the rotated image).
+     */
+    @NonNull
+    private static FaceBounds getFaceBounds(@NonNull SparseArray<Face> faces, @NonNull GrayscaleImage img,
+                                            @Rotation int rotation) {
+        Face largest = faces.valueAt(0);
+        for (int i = 1; i < faces.size(); i++) {
+            Face face = faces.valueAt(i);
+            if (face.getWidth() * face.getHeight() > largest.getWidth() * largest.getHeight()) {
+                largest = face;
+            }
+        }
+
+        boolean swappingSides = rotation == 90 || rotation == 270;
+        int rotatedWidth = swappingSides ? img.height : img.width;
+        int rotatedHeight = swappingSides ? img.width : img.height;
+
+        return FaceBounds.fromPixels(largest.getPosition().x, largest.getPosition().y, largest.getWidth(),
+                largest.getHeight(), rotatedWidth, rotatedHeight);
+    }
+
+    @Nullable
+    private static FaceBounds getCameraFaceBounds(@NonNull FaceStatistics statistics, @NonNull Yuv420Image img) {
+        boolean swappingSides = img.getRotation() == 90 || img.getRotation() == 270;
+        int width = swappingSides ? img.getRotatedHeight() : img.getRotatedWidth();
+        int height = swappingSides ? img.getRotatedWidth() : img.getRotatedHeight();
+        return statistics.getFaceBounds(img.getTimestamp(), width, height, img.getRotation());
+    }
+
+    @VisibleForTesting
+    static int toFrameRotation(@Rotation int rotation) {
+        switch (rotation) {
+            case 90:
+                return Frame.ROTATION_90;
+            case 180:
+                return Frame.ROTATION_180;
+            case 270:
+                return Frame.ROTATION_270;
+            default:
+                return Frame.ROTATION_0;
+        }
     }
 
     /**
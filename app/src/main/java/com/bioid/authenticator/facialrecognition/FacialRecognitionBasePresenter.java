@@ -1,17 +1,25 @@
 package com.bioid.authenticator.facialrecognition;
 
 import android.content.Context;
+import android.support.annotation.AnyThread;
 import android.support.annotation.CallSuper;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 
+import com.bioid.authenticator.BuildConfig;
+import com.bioid.authenticator.base.camera.FaceStatistics;
+import com.bioid.authenticator.base.image.EncodingFormat;
+import com.bioid.authenticator.base.image.FaceCropping;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.network.NoConnectionException;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
 import com.bioid.authenticator.base.network.bioid.webservice.ChallengeResponseException;
+import com.bioid.authenticator.base.network.bioid.webservice.CropStatistics;
 import com.bioid.authenticator.base.network.bioid.webservice.DeviceNotRegisteredException;
 import com.bioid.authenticator.base.network.bioid.webservice.LiveDetectionException;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
@@ -22,8 +30,15 @@ import com.bioid.authenticator.base.network.bioid.webservice.NoSamplesException;
 import com.bioid.authenticator.base.network.bioid.webservice.NotRecognizedException;
 import com.bioid.authenticator.base.network.bioid.webservice.WrongCredentialsException;
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
-import com.bioid.authenticator.base.threading.AsynchronousBackgroundHandler;
 import com.bioid.authenticator.base.threading.BackgroundHandler;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.ExecutorBackgroundHandler;
+import com.bioid.authenticator.base.threading.PipelineStage;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Base presenter to avoid code duplication between different implementations of {@link FacialRecognitionContract.Presenter}.
@@ -40,6 +55,10 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     private static final int DELAY_TO_NAVIGATE_BACK_IN_MILLIS = 3_000;
     private static final int DELAY_TO_CHECK_FOR_MOTION_IN_MILLIS = 1_000;
 
+    // dedicated thread so that encoding does not compete with motion detection for the background thread pool
+    // (daemon thread which is terminated while no image is encoded)
+    private static final Executor ENCODER_EXECUTOR = PipelineStage.createExecutor("image encoder");
+
     protected final Context ctx;
     protected final LoggingHelper log;
     protected final FacialRecognitionContract.View view;
@@ -51,36 +70,63 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
 
     protected T bwsToken;
     protected int failedOperations;
-    protected int successfulUploads;
+    protected final BitSet completedUploads = new BitSet();  // indices of the uploaded images
     protected int failedUploads;
 
     @VisibleForTesting
     int index;
     @VisibleForTesting
     PermissionState permissionState = PermissionState.UNKNOWN;
+    // volatile because isAwaitingFrames() is called by the camera thread
+    @VisibleForTesting
+    volatile ImageDetectionState imageDetectionState = ImageDetectionState.OTHER;
     @VisibleForTesting
-    ImageDetectionState imageDetectionState = ImageDetectionState.OTHER;
+    volatile boolean checkingImage;  // a face or motion detection is running in the background
+    // the image checked in the background, owned by the presenter until it is handed on or recycled
+    @Nullable
+    private Yuv420Image checkedImage;
     @VisibleForTesting
     MovementDirection currentDirection, destinationDirection;
     @VisibleForTesting
     Integer taskIdMotionTimeout;
     @VisibleForTesting
     Integer taskIdFaceTimeout;
+    @VisibleForTesting
+    Executor encoderExecutor = ENCODER_EXECUTOR;
+    // images selected for the upload which are waiting for their counterpart in upload quality (see View#captureUploadImage())
+    @VisibleForTesting
+    final Map<Integer, UploadImageRequest> uploadImageRequests = new HashMap<>();
+    private int nextUploadImageRequestId;
+    private final Object faceLocationLock = new Object();
+
+    private final UploadPipeline uploadPipeline;
 
     protected FacialRecognitionBasePresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view) {
         this.ctx = ctx;
         this.log = log;
         this.view = view;
-        this.backgroundHandler = new AsynchronousBackgroundHandler();
+        this.backgroundHandler = new ExecutorBackgroundHandler();
         this.faceDetection = new FaceDetection(ctx);
         this.motionDetection = new MotionDetection();
-        this.bioIdWebserviceClient = new BioIdWebserviceClient();
+        FaceCropping uploadCropping = BuildConfig.UPLOAD_FACE_CROPPING ? FaceCropping.withDefaultMargin() : FaceCropping.NONE;
+        this.bioIdWebserviceClient = new BioIdWebserviceClient(getUploadFormat(), uploadCropping,
+                BuildConfig.UPLOAD_PERIOCULAR_CROPPING ? FaceCropping.eyeBandWithDefaultMargin() : uploadCropping);
+        // the uploads have their own handler, resetting the image pair must not cancel uploads of previous image pairs
+        this.uploadPipeline = createUploadPipeline(new ExecutorBackgroundHandler());
     }
 
     @VisibleForTesting
     protected FacialRecognitionBasePresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
                                              BackgroundHandler backgroundHandler, FaceDetection faceDetection,
                                              MotionDetection motionDetection, BioIdWebserviceClient bioIdWebserviceClient) {
+        this(ctx, log, view, backgroundHandler, backgroundHandler, faceDetection, motionDetection, bioIdWebserviceClient);
+    }
+
+    @VisibleForTesting
+    protected FacialRecognitionBasePresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
+                                             BackgroundHandler backgroundHandler, BackgroundHandler uploadBackgroundHandler,
+                                             FaceDetection faceDetection, MotionDetection motionDetection,
+                                             BioIdWebserviceClient bioIdWebserviceClient) {
         this.ctx = ctx;
         this.log = log;
         this.view = view;
@@ -88,6 +134,45 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         this.faceDetection = faceDetection;
         this.motionDetection = motionDetection;
         this.bioIdWebserviceClient = bioIdWebserviceClient;
+        this.uploadPipeline = createUploadPipeline(uploadBackgroundHandler);
+    }
+
+    @NonNull
+    private static EncodingFormat getUploadFormat() {
+        switch (BuildConfig.UPLOAD_FORMAT) {
+            case "png":
+                return EncodingFormat.PNG;
+            case "webp-lossless":
+                return EncodingFormat.WEBP_LOSSLESS;
+            case "jpeg":
+                return EncodingFormat.jpeg(BuildConfig.UPLOAD_JPEG_QUALITY);
+            default:
+                throw new IllegalStateException("unsupported upload format: " + BuildConfig.UPLOAD_FORMAT);
+        }
+    }
+
+    private UploadPipeline createUploadPipeline(BackgroundHandler uploadBackgroundHandler) {
+        return new UploadPipeline(log, uploadBackgroundHandler,
+                (job, token) -> {
+                    locateFaceForUpload(job.img, bwsToken, job.direction);  // usually done in advance already
+                    CropStatistics cropStatistics =
+                            bioIdWebserviceClient.uploadImage(job.img, bwsToken, job.direction, job.index, token);
+                    // a crop skipped because of a missing face was already reported by locating the face
+                    log.d("uploaded %s: %s", job.img, cropStatistics);
+                },
+                new UploadPipeline.Listener() {
+                    @Override
+                    public void onUploadSuccessful(@NonNull UploadPipeline.Job job) {
+                        onUploadDone(job);
+                        completeUpload(job.index);
+                    }
+
+                    @Override
+                    public void onUploadFailed(@NonNull UploadPipeline.Job job, @NonNull RuntimeException e) {
+                        onUploadDone(job);
+                        FacialRecognitionBasePresenter.this.onUploadFailed(e, job.index);
+                    }
+                });
     }
 
     @CallSuper
@@ -203,6 +288,33 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         imageDetectionState = ImageDetectionState.WAITING_FOR_REFERENCE_IMAGE;
     }
 
+    @Override
+    public void onPreviewConnected(@Nullable FaceStatistics faceStatistics) {
+        log.d("onPreviewConnected(faceStatistics=%s)", faceStatistics);
+        faceDetection.setFaceStatistics(faceStatistics);
+    }
+
+    @Override
+    public boolean wantsFrame() {
+        switch (imageDetectionState) {
+            case WAITING_FOR_IMAGE_WITH_FACE:
+            case WAITING_FOR_REFERENCE_IMAGE:
+            case WAITING_FOR_IMAGE_WITH_MOTION:
+                return true;
+
+            default:
+                // images will be ignored while background operations are running or no biometric operation is in progress
+                return false;
+        }
+    }
+
+    @AnyThread
+    @Override
+    public boolean isAwaitingFrames() {
+        // if the check fails the presenter is waiting for the next image again
+        return checkingImage || wantsFrame();
+    }
+
     @CallSuper
     @Override
     public void onImageCaptured(@NonNull Yuv420Image img) {
@@ -226,15 +338,19 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
                 break;
 
             default:
-                // nothing to do
+                // image is not needed -> handing the buffers back as soon as possible
+                img.recycle();
         }
     }
 
     private void onPotentialImageWithFaceCaptured(@NonNull final Yuv420Image img) {
         // check for potential face in the image within the background to keep the UI responsive
-        backgroundHandler.runOnBackgroundThread(
-                () -> faceDetection.containsFace(img),
+        checkingImage = true;
+        checkedImage = img;
+        backgroundHandler.runComputationOnBackgroundThread(
+                token -> faceDetection.containsFace(img, token),
                 faceDetected -> {
+                    checkingImage = false;
                     if (faceDetected) {
                         onImageWithFaceCaptured();
                     } else {
@@ -243,7 +359,7 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
                     }
                 }, e -> {
                     throw e;  // should lead to app crash
-                }, null);
+                }, this::recycleCheckedImage);
     }
 
     private void onImageWithFaceCaptured() {
@@ -255,11 +371,14 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     private void onReferenceImageCaptured(@NonNull final Yuv420Image img) {
         log.d("onReferenceImageCaptured(img=%s)", img);
 
+        // the image in upload quality is captured right away, the user is asked to move after the template was created
+        final int uploadImageRequestId = requestUploadImage(img, currentDirection);
+
         // create motion detection template within the background to keep the UI responsive
-        backgroundHandler.runOnBackgroundThread(
+        backgroundHandler.runComputationOnBackgroundThread(
                 () -> motionDetection.createTemplate(img),
                 () -> {
-                    uploadImage(img, currentDirection, index, false);
+                    uploadWhenAvailable(uploadImageRequestId, index, false);
 
                     backgroundHandler.runWithDelay(() -> {
                         // waiting for images with motion using timeout
@@ -271,6 +390,48 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
                 }, null);
     }
 
+    private void encodeInAdvance(@NonNull final Yuv420Image img, @NonNull final MovementDirection direction) {
+        final T token = bwsToken;  // the crop does depend on the traits of the token
+        encoderExecutor.execute(() -> {
+            locateFaceForUpload(img, token, direction);
+            try {
+                bioIdWebserviceClient.encodeForUpload(img, token, direction);
+            } catch (RuntimeException e) {
+                // the upload will encode the image again and does handle the error
+                log.w("encoding %s in advance failed: %s", img, e);
+            }
+        });
+    }
+
+    /**
+     * Does attach the bounds of the face to the image which is about to be uploaded (if the upload is cropped at all).
+     * The face is located within the uploaded image itself, the head might have moved since any earlier detection.
+     * If the face can not be located, the image is uploaded without cropping.
+     */
+    @WorkerThread
+    private void locateFaceForUpload(@NonNull Yuv420Image img, @NonNull T token, @NonNull MovementDirection direction) {
+        if (!bioIdWebserviceClient.isCropping(token, direction)) {
+            return;
+        }
+        // the upload does wait for the location in advance instead of uploading the image before the face is known
+        synchronized (faceLocationLock) {
+            if (!img.isFaceLocated()) {
+                locateFace(img);
+            }
+        }
+    }
+
+    private void locateFace(@NonNull Yuv420Image img) {
+        try {
+            if (!faceDetection.locateFace(img)) {
+                log.w("no face found within %s, the image is not cropped", img);
+            }
+        } catch (RuntimeException e) {
+            img.setFaceBounds(null);
+            log.w("locating the face within %s failed, the image is not cropped: %s", img, e);
+        }
+    }
+
     @VisibleForTesting
     void setupMotionTimeout() {
         taskIdMotionTimeout = backgroundHandler.runWithDelay(() -> {
@@ -283,12 +444,21 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
 
     private void onPotentialImageWithMotionCaptured(@NonNull final Yuv420Image img) {
         // check for potential motion in the image within the background to keep the UI responsive
-        backgroundHandler.runOnBackgroundThread(
-                () -> motionDetection.detect(img),
-                motionDetected -> {
-                    if (motionDetected) {
+        checkingImage = true;
+        checkedImage = img;
+        backgroundHandler.runComputationOnBackgroundThread(
+                token -> motionDetection.detect(img, token),
+                motion -> {
+                    checkingImage = false;
+                    if (motion.isDetected() && motion.matches(destinationDirection)) {
+                        checkedImage = null;  // handed on to the upload
                         onImageWithMotionCaptured(img);
                     } else {
+                        if (motion.isDetected()) {
+                            // uploading a movement into the wrong direction would only be rejected by the server
+                            onMotionIntoWrongDirection(motion);
+                        }
+                        recycleCheckedImage();
                         // again waiting for next potential image with motion
                         imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
                     }
@@ -297,6 +467,26 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
                 }, null);
     }
 
+    private void onMotionIntoWrongDirection(@NonNull Motion motion) {
+        log.d("ignoring %s because the requested direction is %s", motion, destinationDirection);
+        view.showWrongMovementDirectionInfo(destinationDirection);
+
+        // the user does get the full time for another attempt into the requested direction
+        backgroundHandler.cancelScheduledTask(taskIdMotionTimeout);
+        setupMotionTimeout();
+    }
+
+    /**
+     * Does recycle the image checked in the background unless it was handed on already.
+     * Unsubscribed tasks do not call back anymore, therefore the reset of the image pair does recycle the image as well.
+     */
+    private void recycleCheckedImage() {
+        if (checkedImage != null) {
+            checkedImage.recycle();
+            checkedImage = null;
+        }
+    }
+
     private void onImageWithMotionCaptured(@NonNull final Yuv420Image img) {
         log.d("onImageWithMotionCaptured(img=%s)", img);
 
@@ -305,7 +495,7 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         view.hideMessages();
 
         // uploading image with motion
-        uploadImage(img, destinationDirection, index + 1, true);
+        uploadWhenAvailable(requestUploadImage(img, destinationDirection), index + 1, true);
 
         onImageWithMotionProcessed();
     }
@@ -316,6 +506,89 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
      */
     protected abstract void onImageWithMotionProcessed();
 
+    /**
+     * Does request the counterpart of the given detection image in upload quality from the view.
+     * If the view does not capture separate images for the upload, the detection image itself will be uploaded.
+     * <p>
+     * The presenter takes ownership of the detection image.
+     *
+     * @param direction      movement direction the image will be uploaded with
+     * @return the ID which has to be passed to {@link #uploadWhenAvailable(int, int, boolean)}
+     */
+    private int requestUploadImage(@NonNull Yuv420Image detectionImage, @NonNull MovementDirection direction) {
+        int requestId = nextUploadImageRequestId++;
+
+        UploadImageRequest request = new UploadImageRequest(detectionImage, direction);
+        uploadImageRequests.put(requestId, request);
+
+        if (!view.captureUploadImage(requestId)) {
+            // the detection images are already in upload quality
+            onUploadImageAvailable(requestId, request, detectionImage);
+        }
+        return requestId;
+    }
+
+    @Override
+    public void onUploadImageCaptured(int requestId, @NonNull Yuv420Image img) {
+        UploadImageRequest request = uploadImageRequests.get(requestId);
+        if (request == null) {
+            // the image pair was reset in the meantime
+            img.recycle();
+            return;
+        }
+        onUploadImageAvailable(requestId, request, img);
+    }
+
+    @Override
+    public void onUploadImageUnavailable(int requestId) {
+        UploadImageRequest request = uploadImageRequests.get(requestId);
+        if (request == null) {
+            return;  // the image pair was reset in the meantime
+        }
+
+        log.w("image %d could not be captured in upload quality, uploading the detection image instead", requestId);
+        onUploadImageAvailable(requestId, request, request.detectionImage);
+    }
+
+    private void onUploadImageAvailable(int requestId, @NonNull UploadImageRequest request, @NonNull Yuv420Image uploadImage) {
+        request.uploadImage = uploadImage;
+
+        // the upload will pick up the encoded image (or wait for it) instead of encoding it after the template was created
+        encodeInAdvance(uploadImage, request.direction);
+
+        if (request.uploadRequested) {
+            submitUpload(requestId, request);
+        }
+    }
+
+    /**
+     * Does upload the image in upload quality as soon as it is available.
+     */
+    private void uploadWhenAvailable(int requestId, int index, boolean showUploadingInfo) {
+        UploadImageRequest request = uploadImageRequests.get(requestId);
+        if (request == null) {
+            return;  // the image pair was reset in the meantime
+        }
+
+        request.uploadRequested = true;
+        request.index = index;
+        request.showUploadingInfo = showUploadingInfo;
+
+        if (request.uploadImage != null) {
+            submitUpload(requestId, request);
+        }
+    }
+
+    private void submitUpload(int requestId, @NonNull UploadImageRequest request) {
+        uploadImageRequests.remove(requestId);
+
+        if (request.uploadImage != request.detectionImage) {
+            request.detectionImage.recycle();  // the motion detection is already done
+        }
+        //noinspection ConstantConditions (upload image is known at this point)
+        uploadImage(request.uploadImage, request.direction, request.index, request.showUploadingInfo);
+    }
+
     private void uploadImage(final Yuv420Image img, final MovementDirection direction, final int index,
                              final boolean showUploadingInfo) {
         log.d("uploadImage(img=%s, direction=%s, index=%s, showUploadingInfo=%s)", img, direction, index, showUploadingInfo);
@@ -325,31 +598,71 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
             view.showLoadingIndicator();
         }
 
-        backgroundHandler.runOnBackgroundThread(
-                () -> bioIdWebserviceClient.uploadImage(img, bwsToken, direction, index),
-                this::onUploadSuccessful,
-                this::onUploadFailed,
-                () -> {
-                    if (showUploadingInfo) {
-                        view.hideMessages();
-                        view.hideLoadingIndicator();
-                    }
-                });
+        uploadPipeline.submit(new UploadPipeline.Job(img, direction, index, showUploadingInfo));
+    }
+
+    private void onUploadDone(@NonNull UploadPipeline.Job job) {
+        if (job.showUploadingInfo) {
+            view.hideMessages();
+            view.hideLoadingIndicator();
+        }
+    }
+
+    private void completeUpload(int index) {
+        completedUploads.set(index);
+        onUploadCompleted(index);
+    }
+
+    /**
+     * Does proceed as if the image with the given index had been uploaded successfully.
+     * Can be used within {@link #onUploadFailed(RuntimeException, int)} to continue without the failed image.
+     */
+    protected void skipFailedUpload(@IntRange(from = 0) int index) {
+        uploadPipeline.discard(index);
+        completeUpload(index);
+    }
+
+    /**
+     * Returns true if the images with the indices from 0 (inclusive) to the given count (exclusive) are uploaded.
+     */
+    protected boolean areUploadsCompleted(@IntRange(from = 0) int count) {
+        return completedUploads.nextClearBit(0) >= count;
+    }
+
+    /**
+     * Returns the lowest index of an image which has not been uploaded yet.
+     */
+    protected int getFirstMissingUploadIndex() {
+        return completedUploads.nextClearBit(0);
     }
 
     /**
-     * Will be called on every successful image upload.
-     * Called once for the reference image and again for the image with motion.
+     * Returns true if the image with the given index is uploaded.
      */
-    protected abstract void onUploadSuccessful();
+    protected boolean isUploadCompleted(@IntRange(from = 0) int index) {
+        return completedUploads.get(index);
+    }
 
     /**
-     * Will be called on every failed image upload.
+     * Will be called on every completed image upload, the uploads of different images might complete in any order.
      *
-     * @param e the Exception thrown by {@link BioIdWebserviceClient#uploadImage(Yuv420Image, BwsToken, MovementDirection, int)}.
+     * @param index the index of the uploaded image
      */
-    protected void onUploadFailed(RuntimeException e) {
-        log.w("onUploadFailed() [successfulUploads=%d, failedUploads=%d]", successfulUploads, ++failedUploads);
+    protected abstract void onUploadCompleted(@IntRange(from = 0) int index);
+
+    /**
+     * Will be called on every finally failed image upload.
+     * (uploads failing because of temporary problems are retried automatically before)
+     * <p>
+     * If the upload failed because of the connection or the server only the failed image will be uploaded again.
+     * If the image was rejected the current image pair will be captured again.
+     * A rejected image of a previous image pair can not be captured again, the biometric operation is aborted.
+     *
+     * @param e     the Exception thrown by {@link BioIdWebserviceClient#uploadImage(Yuv420Image, BwsToken, MovementDirection, int, CancellationToken)}.
+     * @param index the index of the failed image
+     */
+    protected void onUploadFailed(RuntimeException e, @IntRange(from = 0) int index) {
+        log.w("onUploadFailed(index=%d) [completedUploads=%s, failedUploads=%d]", index, completedUploads, ++failedUploads);
 
         if (failedUploads >= MAX_FAILED_UPLOADS) {
             log.e("exceeded maximum number of failed uploads (MAX_FAILED_UPLOAD=%d)", MAX_FAILED_UPLOADS);
@@ -359,14 +672,33 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
             return;
         }
 
-        final int indexForRetry = index;
+        if (UploadPipeline.isTemporaryProblem(e)) {
+            // uploading the same image again might succeed -> no need to capture the whole pair again
+            showWarningOrError(e);
+            uploadPipeline.resubmit(index, DELAY_TO_RETRY_IN_MILLIS);
+            return;
+        }
+
+        // the image was rejected -> uploading it again would fail again
+        boolean belongsToCurrentPair = index == this.index || index == this.index + 1;
+        if (!belongsToCurrentPair) {
+            // the previous image pair can not be captured again while the current one is captured
+            log.e("image %d of a previous image pair was rejected (current index is %d)", index, this.index);
+            resetBiometricOperation();
+            showWarningOrError(e);
+            navigateBackWithDelay(false);
+            return;
+        }
+
+        final int indexForRetry = this.index;
         final MovementDirection currentDirectionForRetry = currentDirection;
         final MovementDirection destinationDirectionForRetry = destinationDirection;
 
+        // the reference image and the image with motion have to be captured together
+        uploadPipeline.discard(indexForRetry);
+        uploadPipeline.discard(indexForRetry + 1);
+        completedUploads.clear(indexForRetry, indexForRetry + 2);
         resetCaptureImagePair();
-        if (successfulUploads % 2 == 1) {
-            successfulUploads--;  // in case of failed image with motion
-        }
 
         showWarningOrError(e);
         backgroundHandler.runWithDelay(
@@ -383,17 +715,26 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         log.d("resetCaptureImagePair()");
 
         // unsubscribe from eventually still running tasks
+        // (uploads of previous image pairs are not affected because the upload pipeline has its own handler)
         backgroundHandler.unsubscribeFromAllBackgroundTasks();
 
+        // the callbacks of the face or motion detection won't be called anymore
+        recycleCheckedImage();
+
         // cancel eventually scheduled tasks
         backgroundHandler.cancelAllScheduledTasks();
 
         // reset motion detection template
         motionDetection.resetTemplate();
 
+        // images captured for the reset image pair are not uploaded anymore
+        // (not recycled because they might still be used by the background threads)
+        uploadImageRequests.clear();
+
         // reset presenter
         // (do not reset "permissionState" because this is not related to the biometric operation)
         imageDetectionState = ImageDetectionState.OTHER;
+        checkingImage = false;
         index = 0;
         currentDirection = null;
         destinationDirection = null;
@@ -413,11 +754,14 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     protected void resetBiometricOperation() {
         log.d("resetBiometricOperation()");
 
+        // drop all uploads before the image pair is reset, otherwise interrupted uploads would be restarted
+        uploadPipeline.clear();
+
         resetCaptureImagePair();
 
         // reset presenter
         // (do not reset "bwsToken" and "failedOperations" because the token can be used for multiple retries)
-        successfulUploads = 0;
+        completedUploads.clear();
         failedUploads = 0;
 
         // reset ui
@@ -495,6 +839,28 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         backgroundHandler.runWithDelay(() -> view.navigateBack(success), DELAY_TO_NAVIGATE_BACK_IN_MILLIS);
     }
 
+    /**
+     * An image which is selected for the upload, the image in upload quality might still be captured by the view.
+     */
+    @VisibleForTesting
+    static final class UploadImageRequest {
+
+        @NonNull
+        final Yuv420Image detectionImage;
+        @NonNull
+        final MovementDirection direction;
+        @Nullable
+        Yuv420Image uploadImage;  // set as soon as the image is available in upload quality
+        boolean uploadRequested;  // set as soon as the image can be uploaded
+        int index;
+        boolean showUploadingInfo;
+
+        UploadImageRequest(@NonNull Yuv420Image detectionImage, @NonNull MovementDirection direction) {
+            this.detectionImage = detectionImage;
+            this.direction = direction;
+        }
+    }
+
     @VisibleForTesting
     enum PermissionState {
         UNKNOWN,
@@ -1,7 +1,10 @@
 package com.bioid.authenticator.facialrecognition;
 
+import android.support.annotation.AnyThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.bioid.authenticator.base.camera.FaceStatistics;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.mvp.LifecycleAware;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
@@ -59,6 +62,11 @@ public interface FacialRecognitionContract {
          */
         void showMovementInfo(@NonNull MovementDirection direction);
 
+        /**
+         * Show a info message telling the user that the movement went into the wrong direction.
+         */
+        void showWrongMovementDirectionInfo(@NonNull MovementDirection direction);
+
         /**
          * Show initialisation info message.
          */
@@ -186,6 +194,18 @@ public interface FacialRecognitionContract {
          * Stops the camera preview.
          */
         void stopPreview();
+
+        /**
+         * Does capture a single image in upload quality if the images passed to {@link Presenter#onImageCaptured(Yuv420Image)}
+         * are only captured in a lower resolution for the face and motion detection.
+         * <p>
+         * The result is passed to {@link Presenter#onUploadImageCaptured(int, Yuv420Image)} or
+         * {@link Presenter#onUploadImageUnavailable(int)}, requests are completed in the order they are made.
+         *
+         * @param requestId passed back to the presenter together with the result
+         * @return false if no separate image will be captured, the captured images are already in upload quality
+         */
+        boolean captureUploadImage(int requestId);
     }
 
     interface Presenter extends LifecycleAware {
@@ -220,12 +240,56 @@ public interface FacialRecognitionContract {
          */
         void promptToTurn90DegreesRejected();
 
+        /**
+         * Returns true if the presenter would process an image captured right now.
+         * <p>
+         * If false is returned the view should not copy the image and must not pass it to {@link #onImageCaptured(Yuv420Image)}.
+         */
+        boolean wantsFrame();
+
+        /**
+         * Returns true if the presenter does need images right now or as soon as the image which is currently checked in the
+         * background turns out to be unusable.
+         * <p>
+         * The view can use this to prepare images (e.g. copy and downscale them) while the presenter is busy,
+         * prepared images must still only be passed to {@link #onImageCaptured(Yuv420Image)} if {@link #wantsFrame()} is true.
+         * Unlike the other methods of the presenter this method can be called from any thread (e.g. the camera thread).
+         */
+        @AnyThread
+        boolean isAwaitingFrames();
+
+        /**
+         * Callback which is called if the camera preview was connected.
+         *
+         * @param faceStatistics faces detected by the camera for the captured images or null if the camera does not detect faces
+         */
+        void onPreviewConnected(@Nullable FaceStatistics faceStatistics);
+
         /**
          * Callback which is called if an image was captured.
+         * <p>
+         * The presenter takes ownership of the image and does call {@link Yuv420Image#recycle()} as soon as it is not needed anymore.
          *
          * @param img YUV_420_888 image
          */
         void onImageCaptured(@NonNull Yuv420Image img);
 
+        /**
+         * Callback which is called if an image requested with {@link View#captureUploadImage(int)} was captured.
+         * <p>
+         * The presenter takes ownership of the image and does call {@link Yuv420Image#recycle()} as soon as it is not needed anymore.
+         *
+         * @param requestId the ID of the request
+         * @param img       YUV_420_888 image in upload quality
+         */
+        void onUploadImageCaptured(int requestId, @NonNull Yuv420Image img);
+
+        /**
+         * Callback which is called if an image requested with {@link View#captureUploadImage(int)} could not be captured.
+         *
+         * @param requestId the ID of the request
+         */
+        void onUploadImageUnavailable(int requestId);
+
     }
 }
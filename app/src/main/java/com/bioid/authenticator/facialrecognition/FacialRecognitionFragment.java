@@ -9,30 +9,39 @@ import android.content.pm.PackageManager;
 import android.databinding.DataBindingUtil;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
 import android.util.Size;
 import android.view.LayoutInflater;
+import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 
 import com.bioid.authenticator.R;
 import com.bioid.authenticator.base.annotations.ConfigurationOrientation;
+import com.bioid.authenticator.base.annotations.Rotation;
 import com.bioid.authenticator.base.annotations.SurfaceRotation;
+import com.bioid.authenticator.base.camera.CameraController;
 import com.bioid.authenticator.base.camera.CameraException;
 import com.bioid.authenticator.base.camera.CameraHelper;
+import com.bioid.authenticator.base.camera.CameraThread;
+import com.bioid.authenticator.base.camera.FaceStatistics;
+import com.bioid.authenticator.base.functional.Function;
+import com.bioid.authenticator.base.image.FrameBufferPool;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
@@ -42,13 +51,18 @@ import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentTok
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationTokenProvider;
 import com.bioid.authenticator.base.notification.DialogHelper;
 import com.bioid.authenticator.base.opengl.HeadOverlayView.Direction;
+import com.bioid.authenticator.base.threading.DropPolicy;
+import com.bioid.authenticator.base.threading.PipelineStage;
 import com.bioid.authenticator.databinding.FragmentFacialRecognitionBinding;
 import com.bioid.authenticator.facialrecognition.enrollment.EnrollmentPresenter;
 import com.bioid.authenticator.facialrecognition.verification.VerificationPresenter;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 
 /**
  * The FacialRecognitionFragment uses the front-facing camera to either verify or enroll a user via facial recognition.
@@ -63,21 +77,50 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
     // request code for requestPermissions() and onRequestPermissionsResult()
     private static final int REQUEST_CODE_CAMERA_PERMISSION = 0;
 
-    // make sure the camera will not be opened twice because the user rotates the device while the opening callback is still waiting
-    private final Semaphore cameraOpenCloseMutex = new Semaphore(1);
+    // a frame does consist of three planes and up to two grayscale representations
+    private static final int BUFFERS_PER_FRAME = 5;
+    // frames of a reader which are in use at the same time: one within the frame pipeline (or being captured for upload),
+    // one checked by the presenter (or uploaded) and one in between, more frames are dropped anyway
+    private static final int FRAMES_PER_READER = 3;
+    // the preview reader and the reader for the upload images
+    private static final int MAX_POOLED_FRAME_BUFFERS = BUFFERS_PER_FRAME * FRAMES_PER_READER * 2;
+
+    // older frames are not worth processing anymore because the user did already move on
+    private static final long MAX_FRAME_AGE_IN_MILLIS = 150;
+
+    // every stage of the frame pipeline has its own thread, therefore consecutive frames are processed at the same time
+    private static final Executor FRAME_COPY_EXECUTOR = PipelineStage.createExecutor("frame copy");
+    private static final Executor FRAME_DOWNSCALE_EXECUTOR = PipelineStage.createExecutor("frame downscale");
 
     private final LoggingHelper log = LoggingHelperFactory.create(FacialRecognitionFragment.class);
     private final Random random = new Random();
+    private final FrameBufferPool frameBufferPool = new FrameBufferPool(MAX_POOLED_FRAME_BUFFERS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // receives the camera callbacks and the preview frames, views and the presenter are only accessed from the main thread
+    private final CameraThread cameraThread = new CameraThread();
 
     private FacialRecognitionContract.Presenter presenter;
     private DialogHelper dialogHelper;
     private CameraHelper cameraHelper;
+    private CameraController cameraController;
     private FragmentFacialRecognitionBinding binding;
 
-    private CameraDevice openCamera;
-    private CameraCaptureSession openPreviewSession;
+    private boolean previewRequested;
+    private CameraDevice openCamera;  // the camera the preview is connected to (the camera itself is owned by the controller)
     private Size previewSize;
+    @Nullable
+    private Size detectionSize;  // null if the preview frames are used for the detection as well
     private ImageReader imageReader;
+    @Nullable
+    private ImageReader uploadImageReader;  // captures single frames in preview size if a detection size is used
+    // IDs of the presenters requests for images in upload quality, only the first one is captured at a time
+    private final ArrayDeque<Integer> uploadImageRequests = new ArrayDeque<>();
+    private PipelineStage<Image, Yuv420Image> copyStage;
+    private PipelineStage<Yuv420Image, Yuv420Image> downscaleStage;
+    private PipelineStage<Yuv420Image, Void> deliveryStage;
+    // written on the main thread when the preview is connected, read by the copy stage
+    @Rotation
+    private volatile int frameRotation;
 
 
     /**
@@ -150,10 +193,28 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
 
         setRetainInstance(true);  // does retain the presenter to preserve state across configuration changes
 
-        CameraManager cameraManager = (CameraManager) requireContext().getSystemService(Context.CAMERA_SERVICE);
-
         dialogHelper = new DialogHelper(getActivity());
-        cameraHelper = new CameraHelper(cameraManager);
+        cameraHelper = new CameraHelper(requireContext());
+        cameraThread.start();
+        cameraController = new CameraController(cameraHelper, cameraThread.getHandler(), new CameraController.Listener() {
+            @Override
+            public void onCameraOpened(@NonNull CameraDevice camera) {
+                connectPreview(camera);
+            }
+
+            @Override
+            public void onCameraError(@NonNull CameraException e) {
+                cleanup();
+                logErrorAndFinish("camera failed: %s", e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        cameraThread.stop();
     }
 
     @Override
@@ -294,6 +355,11 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
         showUnobtrusiveMessage(R.string.facial_recognition_move);
     }
 
+    @Override
+    public void showWrongMovementDirectionInfo(@NonNull MovementDirection direction) {
+        showUnobtrusiveMessage(R.string.facial_recognition_wrong_direction);
+    }
+
     @Override
     public void showInitialisationInfo() {
         showFullScreenMessage(R.string.facial_recognition_init);
@@ -452,6 +518,8 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
 
     @Override
     public void startPreview() {
+        previewRequested = true;
+
         // if the screen was turned off and on again the TextureView is already available
         if (binding.preview.isAvailable()) {
             openCameraAndConnectPreview();
@@ -467,6 +535,7 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
                 public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
                     try {
                         binding.preview.applyImageTransformation(getRelativeDisplayRotation());
+                        updateFrameRotation();
                     } catch (CameraException e) {
                         logErrorAndFinish("startPreview failed: %s", e.getMessage());
                     }
@@ -486,102 +555,229 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
 
     @Override
     public void stopPreview() {
-        withAcquireMutex(() -> {
-            cleanup();
-            cameraOpenCloseMutex.release();
-        });
-    }
+        log.d("stopping preview, frame buffer statistics: %s", frameBufferPool);
+        if (copyStage != null) {
+            log.d("frame pipeline statistics: %s, %s, %s", copyStage, downscaleStage, deliveryStage);
+        }
 
-    /**
-     * opens the camera and connects the camera to the preview when the camera is ready
-     */
-    private void openCameraAndConnectPreview() {
-        openCamera(this::connectPreview);
+        previewRequested = false;
+        cleanup();
     }
 
-
     /**
-     * does open the camera and runs the callback function as soon as the camera is ready
+     * opens the camera and connects the camera to the preview when the camera is ready
      */
     @SuppressLint("MissingPermission")
-    private void openCamera(@NonNull final Runnable onCameraOpened) {
-        withAcquireMutex(() -> {
-            try {
-                cameraHelper.openFrontFacingCamera(new CameraDevice.StateCallback() {
-                    @Override
-                    public void onOpened(@NonNull CameraDevice camera) {
-                        openCamera = camera;
-                        cameraOpenCloseMutex.release();
-                        onCameraOpened.run();
-                    }
-
-                    @Override
-                    public void onDisconnected(@NonNull CameraDevice camera) {
-                        cleanup();
-                        cameraOpenCloseMutex.release();
-                        logErrorAndFinish("camera %s disconnected", camera.getId());
-                    }
-
-                    @Override
-                    public void onError(@NonNull CameraDevice camera, int error) {
-                        cleanup();
-                        cameraOpenCloseMutex.release();
-                        logErrorAndFinish("error %d for camera %s occurred", error, camera.getId());
-                    }
-                });
-            } catch (CameraException e) {
-                // It is always import to free up the camera!
-                // Sticking with the acquired mutex does not matter because the app  will quit anyway.
-                cleanup();
-                logErrorAndFinish("openCamera failed: %s", e.getMessage());
-            }
-        });
+    private void openCameraAndConnectPreview() {
+        if (!previewRequested) {
+            return;  // the TextureView became available after the preview was stopped
+        }
+        cameraController.open();
     }
 
     /**
      * connects a new camera preview session to the UI
      */
-    private void connectPreview() {
+    private void connectPreview(@NonNull CameraDevice camera) {
+        if (!previewRequested) {
+            return;  // the preview was stopped while the camera was opening, the camera is already closing
+        }
+
         try {
+            openCamera = camera;
+            updateFrameRotation();
             setupPreviewSizeAndImageReader();
-            cameraHelper.startCameraPreview(openCamera, binding.preview, previewSize, getDeviceOrientation(),
-                    getRelativeDisplayRotation(), imageReader, cameraCaptureSession -> openPreviewSession = cameraCaptureSession);
+            Surface previewSurface = cameraHelper.configurePreview(binding.preview, previewSize, getDeviceOrientation(),
+                    getRelativeDisplayRotation());
+            List<Surface> stillSurfaces = uploadImageReader == null
+                    ? Collections.emptyList()
+                    : Collections.singletonList(uploadImageReader.getSurface());
+            // the camera can report the faces within the frames which is a lot cheaper than the face detection in software
+            FaceStatistics faceStatistics = cameraHelper.createFaceStatistics(camera);
+            cameraController.startPreview(camera, Arrays.asList(previewSurface, imageReader.getSurface()), stillSurfaces,
+                    faceStatistics);
+            presenter.onPreviewConnected(faceStatistics);
         } catch (CameraException | IllegalStateException e) {
             cleanup();
             logErrorAndFinish("connectPreview failed: %s", e.getMessage());
         }
     }
 
+    /**
+     * Does precompute the rotation of the frames, must be called whenever the display rotation changes.
+     * The orientation is locked during the biometric operation, so this is not happening for every frame.
+     */
+    private void updateFrameRotation() {
+        if (openCamera != null) {
+            frameRotation = cameraHelper.getImageRotation(openCamera, getRelativeDisplayRotation());
+        }
+    }
+
     /**
      * lazily initialize ImageReader and select preview size
      */
     private void setupPreviewSizeAndImageReader() {
         if (previewSize == null) {
             previewSize = cameraHelper.selectPreviewSize(openCamera);
+            // the face and motion detection do not need the full preview size, images in preview size are captured on demand
+            detectionSize = cameraHelper.selectDetectionSize(openCamera, previewSize);
+            log.d("preview size: %s, detection size: %s", previewSize, detectionSize);
         }
 
         if (imageReader == null) {
-            int maxImages = 2;  // should be at least 2 according to ImageReader.acquireLatestImage() documentation
-            imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, maxImages);
+            setupFramePipeline();
+
+            Size frameSize = detectionSize != null ? detectionSize : previewSize;
+            // one image is copied, one is waiting to be copied and ImageReader.acquireLatestImage() needs a free slot as well
+            int maxImages = 4;
+            imageReader = ImageReader.newInstance(frameSize.getWidth(), frameSize.getHeight(), ImageFormat.YUV_420_888, maxImages);
+            // running on the camera thread, the copy is done by the first stage of the frame pipeline
+            final PipelineStage<Image, Yuv420Image> frameCopyStage = copyStage;
             imageReader.setOnImageAvailableListener(reader -> {
                 Image img = reader.acquireLatestImage();
                 if (img != null) {
+                    if (!presenter.isAwaitingFrames()) {
+                        // the presenter would discard the image anyway -> do not touch the image planes at all
+                        img.close();
+                        return;
+                    }
+                    frameCopyStage.offer(img);
+                }
+            }, cameraThread.getHandler());
+
+            if (detectionSize != null) {
+                uploadImageReader = createUploadImageReader();
+            }
+        }
+    }
+
+    /**
+     * Does create the ImageReader for the single frames in upload quality which are captured on demand.
+     * The frames are rare, therefore they are copied on the camera thread right away.
+     */
+    @NonNull
+    private ImageReader createUploadImageReader() {
+        final Context ctx = requireContext().getApplicationContext();
+
+        final ImageReader reader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
+                ImageFormat.YUV_420_888, 2);
+        reader.setOnImageAvailableListener(r -> {
+            Image img = r.acquireNextImage();
+            if (img != null) {
+                try {
+                    final Yuv420Image copy = Yuv420Image.copyFrom(img, frameRotation, ctx, frameBufferPool);
+                    mainHandler.post(() -> onUploadImageCaptured(reader, copy));
+                } catch (IllegalStateException e) {
+                    // same as for the preview frames, the reader might have been closed during cleanup
+                    log.w("upload image could not be copied, image reader was closed already: %s", e.getMessage());
+                    mainHandler.post(() -> onUploadImageUnavailable(reader));
+                } finally {
+                    img.close();
+                }
+            }
+        }, cameraThread.getHandler());
+        return reader;
+    }
+
+    @Override
+    public boolean captureUploadImage(int requestId) {
+        if (uploadImageReader == null) {
+            return false;  // the frames passed to the presenter are already in preview size
+        }
+
+        uploadImageRequests.addLast(requestId);
+        if (uploadImageRequests.size() == 1) {
+            captureNextUploadImage();
+        }
+        return true;
+    }
+
+    /**
+     * Only one image is captured at a time, therefore the captured image does always belong to the first request.
+     */
+    private void captureNextUploadImage() {
+        final ImageReader reader = uploadImageReader;
+        if (reader == null || uploadImageRequests.isEmpty()) {
+            return;
+        }
+        cameraController.captureStill(reader.getSurface(), () -> onUploadImageUnavailable(reader));
+    }
+
+    private void onUploadImageCaptured(@NonNull ImageReader reader, @NonNull Yuv420Image img) {
+        if (reader != uploadImageReader || uploadImageRequests.isEmpty()) {
+            img.recycle();  // the preview was stopped in the meantime
+            return;
+        }
+
+        presenter.onUploadImageCaptured(uploadImageRequests.removeFirst(), img);
+        captureNextUploadImage();
+    }
+
+    private void onUploadImageUnavailable(@NonNull ImageReader reader) {
+        if (reader != uploadImageReader || uploadImageRequests.isEmpty()) {
+            return;  // the preview was stopped in the meantime
+        }
+
+        presenter.onUploadImageUnavailable(uploadImageRequests.removeFirst());
+        captureNextUploadImage();
+    }
+
+    /**
+     * Does create the stages which are processing the frames of the ImageReader before they are passed to the presenter.
+     * <p>
+     * Copy -> downscale -> delivery on the main thread, every queue does hold a single frame only (latest wins).
+     * If the age of the frames can be determined, frames which are waiting for too long are dropped as well.
+     */
+    private void setupFramePipeline() {
+        final Context ctx = requireContext().getApplicationContext();
+        boolean realtimeTimestamps = cameraHelper.hasRealtimeTimestamps(openCamera);
+
+        deliveryStage = new PipelineStage<>("delivery", mainHandler::post, 1,
+                createFrameDropPolicy(realtimeTimestamps, Yuv420Image::getTimestamp),
+                img -> {
+                    if (presenter.wantsFrame()) {
+                        presenter.onImageCaptured(img);
+                    } else {
+                        // the presenter is still busy with the previous frame
+                        img.recycle();
+                    }
+                    return null;
+                }, null, Yuv420Image::recycle);
+
+        // the motion detection does only use the downscaled image, computing it in advance takes it off the detection thread
+        downscaleStage = new PipelineStage<>("downscale", FRAME_DOWNSCALE_EXECUTOR, 1,
+                createFrameDropPolicy(realtimeTimestamps, Yuv420Image::getTimestamp),
+                img -> {
+                    img.readDownscaledGrayscaleImage(downscaled -> null);  // computed in advance for the motion detection
+                    return img;
+                }, deliveryStage::offer, Yuv420Image::recycle);
+
+        copyStage = new PipelineStage<>("copy", FRAME_COPY_EXECUTOR, 1,
+                createFrameDropPolicy(realtimeTimestamps, Image::getTimestamp),
+                img -> {
                     try {
-                        int imageRotation = cameraHelper.getImageRotation(openCamera, getRelativeDisplayRotation());
-                        Context ctx = requireContext().getApplicationContext();
                         // Make a in memory copy of the image to close the image from the reader as soon as possible.
                         // This helps the thread running the preview staying up to date.
-                        Yuv420Image imgCopy = Yuv420Image.copyFrom(img, imageRotation, ctx);
-
-                        presenter.onImageCaptured(imgCopy);
-                    } catch (NullPointerException e) {
-                        // Fragment is no longer attached to Activity -> no need to process the image anymore
+                        // The plane buffers are pooled, the presenter does hand them back when the copy is not needed anymore.
+                        return Yuv420Image.copyFrom(img, frameRotation, ctx, frameBufferPool);
+                    } catch (IllegalStateException e) {
+                        // the reader is closed on the camera thread during cleanup, a frame which was offered before
+                        // might not be accessible anymore
+                        log.w("frame could not be copied, image reader was closed already: %s", e.getMessage());
+                        return null;
                     } finally {
                         img.close();
                     }
-                }
-            }, null);
+                }, downscaleStage::offer, Image::close);
+    }
+
+    @NonNull
+    private static <T> DropPolicy<T> createFrameDropPolicy(boolean realtimeTimestamps, @NonNull Function<T, Long> timestamp) {
+        if (!realtimeTimestamps) {
+            // the timestamps can not be compared with the current time -> relying on the bounded queues only
+            return DropPolicy.latestWins();
         }
+        return DropPolicy.olderThan(MAX_FRAME_AGE_IN_MILLIS, timestamp, SystemClock::elapsedRealtimeNanos);
     }
 
     /**
@@ -599,40 +795,45 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
     }
 
     /**
-     * does free up all resources
+     * does free up all resources (without waiting for the camera to be closed)
      */
     private void cleanup() {
-        // It is important to close the CameraCaptureSession before closing the CameraDevice.
-        // Not doing so does lead to very slow CameraDevice.close() operations on some devices like for example the Samsung Galaxy S6.
-        if (openPreviewSession != null) {
-            openPreviewSession.close();
-            openPreviewSession = null;
-        }
-        if (openCamera != null) {
-            openCamera.close();
-            openCamera = null;
-        }
+        cameraController.close();
+        openCamera = null;
+
         if (imageReader != null) {
-            imageReader.close();
+            copyStage.clear();
+            downscaleStage.clear();
+            deliveryStage.clear();
+
+            closeImageReader(imageReader);
             imageReader = null;
         }
+
+        if (uploadImageReader != null) {
+            closeImageReader(uploadImageReader);
+            uploadImageReader = null;
+        }
+        // the presenter does upload the detection frames instead (if it is still interested in them)
+        while (!uploadImageRequests.isEmpty()) {
+            presenter.onUploadImageUnavailable(uploadImageRequests.removeFirst());
+        }
     }
 
     /**
-     * helper function to run a camera open/close operation while having exclusive access to the cameraOpenCloseMutex
+     * Closing the reader does invalidate its images, therefore the reader is closed after the image which is currently copied.
+     * The reader is closed on the camera thread after the camera (no more images are produced)
+     * and to not interfere with the acquisition of a new image.
      */
-    private void withAcquireMutex(@NonNull final Runnable runnable) {
-        try {
-            if (!cameraOpenCloseMutex.tryAcquire(3, TimeUnit.SECONDS)) {
-                logErrorAndFinish("could not obtain mutex to open/close camera");
+    private void closeImageReader(@NonNull final ImageReader reader) {
+        final Handler cameraHandler = cameraThread.getHandler();
+        FRAME_COPY_EXECUTOR.execute(() -> {
+            if (!cameraHandler.post(reader::close)) {
+                reader.close();  // the camera thread is already stopped
             }
-            runnable.run();
-        } catch (InterruptedException e) {
-            logErrorAndFinish("interrupted while trying to open/close camera");
-        }
+        });
     }
 
-
     /**
      * Does return the actual orientation of the device.
      */
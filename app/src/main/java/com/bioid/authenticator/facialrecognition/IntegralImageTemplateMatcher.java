@@ -0,0 +1,172 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+import java.util.Arrays;
+
+/**
+ * Template matching which returns exactly the same match as the {@link ReferenceTemplateMatcher} but does less work.
+ * <p>
+ * The sum of squared pixels (denominator) is looked up in an integral image which is built once per image,
+ * therefore the denominator of every candidate position is computed in constant time.
+ * The cross correlation (nominator) is accumulated template pixel by template pixel for a whole row of candidates at once,
+ * which does access the image sequentially and skips black template pixels.
+ * All sums are computed with integers, the correlation of every candidate is bit-identical to the reference implementation.
+ * <p>
+ * Buffers are reused between calls, therefore a single instance must not be used by multiple threads at the same time.
+ */
+final class IntegralImageTemplateMatcher implements TemplateMatcher {
+
+    private long[] squaredSums = new long[0];
+    private int[] nominators = new int[0];
+    private double[] correlations = new double[0];
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public Match match(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                       int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        if (maxX < minX || maxY < minY) {
+            return new Match(0, 0, 0.0);
+        }
+
+        int candidatesPerRow = maxX - minX + 1;
+        if (correlations.length < candidatesPerRow) {
+            correlations = new double[candidatesPerRow];
+        }
+        prepare(img, templateWidth, templateHeight, minX, maxX, minY, maxY);
+
+        int bestHitX = 0;
+        int bestHitY = 0;
+        double maxCorr = 0.0;
+
+        for (int y = minY; y <= maxY; y++) {
+            token.throwIfCancelled();
+            correlateRow(img, template, templateWidth, templateHeight, minX, maxX, minY, y, correlations, 0);
+
+            for (int i = 0; i < candidatesPerRow; i++) {
+                if (correlations[i] > maxCorr) {
+                    maxCorr = correlations[i];
+                    bestHitX = minX + i;
+                    bestHitY = y;
+                }
+            }
+        }
+
+        return new Match(bestHitX, bestHitY, maxCorr);
+    }
+
+    /**
+     * Does compute the correlation of every candidate position within the given bounds (same arguments as
+     * {@link #match(GrayscaleImage, int[], int, int, int, int, int, int, CancellationToken)}).
+     *
+     * @return the correlations row by row, the array might be larger than the number of candidates and will be reused
+     */
+    @NonNull
+    @WorkerThread
+    double[] correlate(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                       int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        int candidatesPerRow = maxX - minX + 1;
+        int candidates = candidatesPerRow * (maxY - minY + 1);
+        if (correlations.length < candidates) {
+            correlations = new double[candidates];
+        }
+        prepare(img, templateWidth, templateHeight, minX, maxX, minY, maxY);
+
+        for (int y = minY; y <= maxY; y++) {
+            token.throwIfCancelled();
+            correlateRow(img, template, templateWidth, templateHeight, minX, maxX, minY, y,
+                    correlations, (y - minY) * candidatesPerRow);
+        }
+
+        return correlations;
+    }
+
+    private void prepare(@NonNull GrayscaleImage img, int templateWidth, int templateHeight,
+                         int minX, int maxX, int minY, int maxY) {
+        int candidatesPerRow = maxX - minX + 1;
+        buildSquaredSums(img, minX, minY, candidatesPerRow + templateWidth - 1, maxY - minY + templateHeight);
+        if (nominators.length < candidatesPerRow) {
+            nominators = new int[candidatesPerRow];
+        }
+    }
+
+    /**
+     * Does compute the correlation of all candidates within the row y.
+     */
+    private void correlateRow(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                              int minX, int maxX, int minY, int y, @NonNull double[] out, int offset) {
+        int candidatesPerRow = maxX - minX + 1;
+        int integralWidth = candidatesPerRow + templateWidth;  // including the leading column of zeros
+        accumulateNominators(img, template, templateWidth, templateHeight, minX, y, candidatesPerRow);
+
+        int top = (y - minY) * integralWidth;
+        int bottom = (y - minY + templateHeight) * integralWidth;
+        for (int i = 0; i < candidatesPerRow; i++) {
+            long denominator = squaredSums[bottom + i + templateWidth] - squaredSums[bottom + i]
+                    - squaredSums[top + i + templateWidth] + squaredSums[top + i];
+
+            double ncc = 0.0;
+            if (denominator > 0) {
+                ncc = (double) nominators[i] * (double) nominators[i] / (double) denominator;
+            }
+            out[offset + i] = ncc;
+        }
+    }
+
+    /**
+     * Does build the integral image of the squared pixels within the given region.
+     * The integral image has an additional leading row and column of zeros.
+     */
+    private void buildSquaredSums(@NonNull GrayscaleImage img, int left, int top, int width, int height) {
+        int integralWidth = width + 1;
+        int size = integralWidth * (height + 1);
+        if (squaredSums.length < size) {
+            squaredSums = new long[size];
+        } else {
+            Arrays.fill(squaredSums, 0, integralWidth, 0L);
+        }
+
+        for (int y = 0; y < height; y++) {
+            int imageIndex = left + (top + y) * img.width;
+            int above = y * integralWidth;
+            int current = above + integralWidth;
+            long rowSum = 0;
+            squaredSums[current] = 0;
+            for (int x = 1; x <= width; x++) {
+                int pixel = img.data[imageIndex++] & 0xff;
+                rowSum += pixel * pixel;
+                squaredSums[current + x] = squaredSums[above + x] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * Does compute the cross correlation of the template for all candidates within a row.
+     */
+    private void accumulateNominators(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth,
+                                      int templateHeight, int minX, int y, int candidatesPerRow) {
+        int[] nominators = this.nominators;
+        Arrays.fill(nominators, 0, candidatesPerRow, 0);
+
+        byte[] data = img.data;
+        int templateIndex = 0;
+        for (int ty = 0; ty < templateHeight; ty++) {
+            int rowStart = minX + (y + ty) * img.width;
+            for (int tx = 0; tx < templateWidth; tx++) {
+                int templatePixel = template[templateIndex++];
+                if (templatePixel == 0) {
+                    continue;
+                }
+                int imageIndex = rowStart + tx;
+                for (int i = 0; i < candidatesPerRow; i++) {
+                    nominators[i] += templatePixel * (data[imageIndex + i] & 0xff);
+                }
+            }
+        }
+    }
+}
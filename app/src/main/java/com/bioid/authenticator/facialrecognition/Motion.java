@@ -0,0 +1,98 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+
+/**
+ * Result of the motion detection.
+ * <p>
+ * The displacement is measured within the downscaled image which is already rotated into the orientation of the display,
+ * therefore the rotation of the camera sensor does not have to be taken into account anymore.
+ * The image of the front camera is not mirrored (unlike the preview), a head movement to the left of the user does
+ * shift the face to the right side of the image.
+ */
+final class Motion {
+
+    // the movement along the requested axis must be at least half of the total movement (at most 60 degrees off the axis)
+    private static final double MIN_SHARE_OF_REQUESTED_AXIS = 0.5;
+
+    /**
+     * Horizontal displacement of the template in pixels of the downscaled image (positive to the right side of the image).
+     */
+    final int distX;
+    /**
+     * Vertical displacement of the template in pixels of the downscaled image (positive to the bottom of the image).
+     */
+    final int distY;
+    /**
+     * Movement in percent of the maximum possible movement (0 - 100).
+     */
+    final double percentage;
+    private final boolean detected;
+
+    Motion(int distX, int distY, double percentage, boolean detected) {
+        this.distX = distX;
+        this.distY = distY;
+        this.percentage = percentage;
+        this.detected = detected;
+    }
+
+    /**
+     * Returns true if the movement did exceed the threshold of the motion detection.
+     */
+    boolean isDetected() {
+        return detected;
+    }
+
+    /**
+     * Does check if the displacement points into the given direction (from the point of view of the user).
+     * A diagonal movement does match both of its directions as long as it is not more than 60 degrees off the requested axis.
+     *
+     * @return true if the direction is {@link MovementDirection#any} or the displacement points into the given direction
+     */
+    boolean matches(@NonNull MovementDirection direction) {
+        switch (direction) {
+            case left:
+                return isShareOfTotalMovement(distX);
+            case right:
+                return isShareOfTotalMovement(-distX);
+            case up:
+                return isShareOfTotalMovement(-distY);
+            case down:
+                return isShareOfTotalMovement(distY);
+            default:
+                return true;
+        }
+    }
+
+    private boolean isShareOfTotalMovement(int distAlongRequestedAxis) {
+        return distAlongRequestedAxis > 0
+                && distAlongRequestedAxis >= MIN_SHARE_OF_REQUESTED_AXIS * Math.hypot(distX, distY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Motion motion = (Motion) o;
+        return distX == motion.distX && distY == motion.distY
+                && Double.compare(motion.percentage, percentage) == 0 && detected == motion.detected;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = distX;
+        result = 31 * result + distY;
+        long temp = Double.doubleToLongBits(percentage);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (detected ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Motion{distX=" + distX + ", distY=" + distY + ", percentage=" + percentage + ", detected=" + detected + "}";
+    }
+}
@@ -0,0 +1,156 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
+
+
+/**
+ * Contains stateful algorithm for motion detection.
+ * <p/>
+ * Because this algorithm is shared across multiple platforms it should not be modified!
+ * Therefore all inspections are disabled.
+ * The search for the template is done by a {@link TemplateMatcher} which must return exactly the same match
+ * as the {@link ReferenceTemplateMatcher} (the original implementation).
+ * The only exceptions are the {@link PyramidTemplateMatcher} and the {@link TrackingTemplateMatcher} which can be enabled
+ * with the build config fields MOTION_DETECTION_PYRAMID_SEARCH and MOTION_DETECTION_TRACKING.
+ * <p/>
+ * Works on plain {@link GrayscaleImage}s without any Android dependencies, therefore it can be benchmarked on the JVM.
+ * Camera images are handed in by {@link MotionDetection}.
+ */
+@SuppressWarnings("ConstantConditions")
+final class MotionDetector {
+
+    private static final int MIN_MOVEMENT_PERCENTAGE = 15;
+
+    private final TemplateMatcher templateMatcher;
+
+    // Template for motion detection
+    private int templateWidth;
+    private int templateHeight;
+    private int templateXpos;
+    private int templateYpos;
+    private int resizeCenterX;
+    private int resizeCenterY;
+    private int[] templateBuffer;
+
+    MotionDetector(@NonNull TemplateMatcher templateMatcher) {
+        this.templateMatcher = templateMatcher;
+    }
+
+    /**
+     * Cut out the template that is used by the motion detection.
+     *
+     * @param resizedGrayImage the downscaled image which is used for the template matching
+     */
+    @WorkerThread
+    void createTemplate(@NonNull GrayscaleImage resizedGrayImage) {
+        resizeCenterX = resizedGrayImage.width / 2;
+        resizeCenterY = resizedGrayImage.height / 2;
+
+        if (resizedGrayImage.width > resizedGrayImage.height) {
+            // Landscape mode
+            templateWidth = resizedGrayImage.width / 10;
+            templateHeight = resizedGrayImage.height / 3;
+        } else {
+            // Portrait mode
+            templateWidth = resizedGrayImage.width / 10 * 4 / 3;
+            templateHeight = resizedGrayImage.height / 4;
+        }
+
+        templateXpos = resizeCenterX - templateWidth / 2;
+        templateYpos = resizeCenterY - templateHeight / 2;
+
+        templateBuffer = new int[templateWidth * templateHeight];
+        templateMatcher.reset();
+
+        int counter = 0;
+        for (int y = templateYpos; y < templateYpos + templateHeight; y++) {
+            int offset = y * resizedGrayImage.width;
+            for (int x = templateXpos; x < templateXpos + templateWidth; x++) {
+                int templatePixel = resizedGrayImage.data[x + offset] & 0xff;
+                templateBuffer[counter++] = templatePixel;
+            }
+        }
+    }
+
+    /**
+     * Does remove the currently stored template.
+     */
+    @AnyThread
+    void resetTemplate() {
+        templateWidth = 0;
+        templateHeight = 0;
+        templateXpos = 0;
+        templateYpos = 0;
+        resizeCenterX = 0;
+        resizeCenterY = 0;
+        templateBuffer = null;
+        templateMatcher.reset();
+    }
+
+    /**
+     * Returns true if a template was created.
+     */
+    @AnyThread
+    boolean hasTemplate() {
+        return templateBuffer != null;
+    }
+
+    /**
+     * Can detect if a change in position did happen.
+     * This algorithm is basically called: "Template Matching" - we use the normalized cross correlation to be independent of lighting images.
+     * We calculate the correlation of template and image over whole image area.
+     *
+     * @param resizedGrayImage the image which might contain a change in position as compared with the first image
+     * @param token            is checked once per row of the search area
+     * @return the displacement of the template and the movement in percent of the maximum possible movement (0 - 100)
+     * @throws IllegalStateException if {@link #createTemplate(GrayscaleImage)} was not called
+     * @throws CancelledException    if the token was cancelled
+     */
+    @NonNull
+    @WorkerThread
+    Motion detect(@NonNull GrayscaleImage resizedGrayImage, @NonNull CancellationToken token) {
+        if (templateBuffer == null) {
+            throw new IllegalStateException("missing template");
+        }
+
+        int searchWidth = resizedGrayImage.width / 4;
+        int searchHeight = resizedGrayImage.height / 4;
+
+        TemplateMatcher.Match bestHit = templateMatcher.match(resizedGrayImage, templateBuffer, templateWidth, templateHeight,
+                resizeCenterX - searchWidth, resizeCenterX + searchWidth - templateWidth,
+                resizeCenterY - searchHeight, resizeCenterY + searchHeight - templateHeight, token);
+        int bestHitX = bestHit.x;
+        int bestHitY = bestHit.y;
+
+        // Now the most similar position of the template is (bestHitX, bestHitY). Calculate the difference from the origin
+        int distX = bestHitX - templateXpos;
+        int distY = bestHitY - templateYpos;
+        double movementDiff = Math.sqrt(distX * distX + distY * distY);
+
+        // The maximum movement possible is a complete shift into one of the corners, i.e.
+        int maxDistX = searchWidth - templateWidth / 2;
+        int maxDistY = searchHeight - templateHeight / 2;
+        double maximumMovement = Math.sqrt((double) maxDistX * maxDistX + (double) maxDistY * maxDistY);
+
+        // The percentage of the detected movement is therefore
+        double movementPercentage = movementDiff / maximumMovement * 100.0;
+
+        if (movementPercentage > 100.0) {
+            movementPercentage = 100.0;
+        }
+
+        // Trigger if movementPercentage is above threshold (default: when 15% of the maximum movement is exceeded)
+        boolean triggered = false;
+        if (movementPercentage > MIN_MOVEMENT_PERCENTAGE) {
+            triggered = true;
+        }
+
+        return new Motion(distX, distY, movementPercentage, triggered);
+    }
+}
@@ -0,0 +1,147 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Template matching which splits the rows of candidates into bands which are searched on multiple cores at the same time.
+ * <p>
+ * Every band is searched by its own {@link IntegralImageTemplateMatcher}, the calling thread does search the first band.
+ * The results are reduced in the order of the bands (top to bottom) and a band only wins with a strictly higher correlation,
+ * therefore the match is exactly the same as the match of the {@link ReferenceTemplateMatcher}
+ * regardless of the number of threads and the order in which the bands are finished.
+ * <p>
+ * A single instance must not be used by multiple threads at the same time.
+ */
+final class ParallelTemplateMatcher implements TemplateMatcher {
+
+    // threads are created on demand and terminated after being idle for a minute
+    private static final Executor BAND_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "motion detection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TemplateMatcher[] bandMatchers;
+    private final Executor executor;
+
+    /**
+     * @param threadCount the maximum number of threads (including the calling thread) which are searching at the same time
+     */
+    ParallelTemplateMatcher(@IntRange(from = 1) int threadCount) {
+        this(threadCount, BAND_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    ParallelTemplateMatcher(@IntRange(from = 1) int threadCount, @NonNull Executor executor) {
+        this.bandMatchers = new TemplateMatcher[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            bandMatchers[i] = new IntegralImageTemplateMatcher();
+        }
+        this.executor = executor;
+    }
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public Match match(@NonNull final GrayscaleImage img, @NonNull final int[] template,
+                       final int templateWidth, final int templateHeight,
+                       final int minX, final int maxX, int minY, int maxY, @NonNull final CancellationToken token) {
+        int rows = maxY - minY + 1;
+        int bands = Math.min(bandMatchers.length, rows);
+        if (bands <= 1 || maxX < minX) {
+            return bandMatchers[0].match(img, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token);
+        }
+
+        int[] bandMinY = new int[bands];
+        int[] bandMaxY = new int[bands];
+        for (int band = 0; band < bands; band++) {
+            bandMinY[band] = minY + band * rows / bands;
+            bandMaxY[band] = minY + (band + 1) * rows / bands - 1;
+        }
+
+        List<FutureTask<Match>> tasks = new ArrayList<>(bands - 1);
+        for (int band = 1; band < bands; band++) {
+            final TemplateMatcher bandMatcher = bandMatchers[band];
+            final int top = bandMinY[band];
+            final int bottom = bandMaxY[band];
+            FutureTask<Match> task = new FutureTask<>(() -> bandMatcher.match(
+                    img, template, templateWidth, templateHeight, minX, maxX, top, bottom, token));
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        Match[] matches = new Match[bands];
+        RuntimeException failure = null;
+        try {
+            matches[0] = bandMatchers[0].match(
+                    img, template, templateWidth, templateHeight, minX, maxX, bandMinY[0], bandMaxY[0], token);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // waiting for every band (even after a failure) because the band matchers will be reused by the next match
+        for (int band = 1; band < bands; band++) {
+            try {
+                matches[band] = await(tasks.get(band - 1));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        // deterministic reduction: the topmost band wins if multiple bands have the same correlation
+        Match best = matches[0];
+        for (int band = 1; band < bands; band++) {
+            if (matches[band].correlation > best.correlation) {
+                best = matches[band];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Does wait for the result of the task, interrupts are delayed until the task is done.
+     */
+    @NonNull
+    private static Match await(@NonNull FutureTask<Match> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+/**
+ * Coarse-to-fine template matching which is several times faster than the exhaustive search but not exact.
+ * <p>
+ * Image and template are halved in size up to {@value #MAX_LEVELS} times (as long as the template does not get too small).
+ * The whole search area is only searched at the coarsest level,
+ * every finer level does only search a small neighbourhood around the position found at the previous level.
+ * The correlation of the match is computed at full resolution.
+ * <p>
+ * The peak of the correlation might be missed if the image does not contain enough coarse structures,
+ * therefore the match might differ from the {@link ReferenceTemplateMatcher}.
+ * <p>
+ * A single instance must not be used by multiple threads at the same time.
+ */
+final class PyramidTemplateMatcher implements TemplateMatcher {
+
+    @VisibleForTesting
+    static final int MAX_LEVELS = 3;
+    @VisibleForTesting
+    static final int MIN_TEMPLATE_SIZE = 4;
+    // positions are doubled from level to level, the rounding error is at most one pixel
+    @VisibleForTesting
+    static final int REFINEMENT_RADIUS = 2;
+    // the highest peak at the coarsest level is not necessarily the highest peak at full resolution
+    @VisibleForTesting
+    static final int PEAK_COUNT = 4;
+
+    private final IntegralImageTemplateMatcher matcher = new IntegralImageTemplateMatcher();
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public Match match(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                       int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        int levels = levelCount(templateWidth, templateHeight);
+        if (levels == 1 || maxX < minX || maxY < minY) {
+            return matcher.match(img, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token);
+        }
+
+        GrayscaleImage[] images = new GrayscaleImage[levels];
+        int[][] templates = new int[levels][];
+        images[0] = img;
+        templates[0] = template;
+        for (int level = 1; level < levels; level++) {
+            images[level] = halve(images[level - 1]);
+            templates[level] = halve(templates[level - 1], templateWidth >> (level - 1), templateHeight >> (level - 1));
+        }
+
+        // exhaustive search at the coarsest level
+        int coarsest = levels - 1;
+        int[] peaks = findPeaks(images[coarsest], templates[coarsest], templateWidth >> coarsest, templateHeight >> coarsest,
+                ceilDiv(minX, coarsest), maxX >> coarsest, ceilDiv(minY, coarsest), maxY >> coarsest, token);
+
+        // refinement around the positions of the previous level
+        Match best = null;
+        for (int peak = 0; peak < peaks.length; peak += 2) {
+            Match match = new Match(peaks[peak], peaks[peak + 1], 0.0);
+            for (int level = coarsest - 1; level >= 0; level--) {
+                int centerX = match.x << 1;
+                int centerY = match.y << 1;
+                match = matcher.match(images[level], templates[level], templateWidth >> level, templateHeight >> level,
+                        Math.max(ceilDiv(minX, level), centerX - REFINEMENT_RADIUS),
+                        Math.min(maxX >> level, centerX + REFINEMENT_RADIUS),
+                        Math.max(ceilDiv(minY, level), centerY - REFINEMENT_RADIUS),
+                        Math.min(maxY >> level, centerY + REFINEMENT_RADIUS),
+                        token);
+            }
+            if (best == null || isBetter(match, best)) {
+                best = match;
+            }
+        }
+
+        return best != null ? best : new Match(0, 0, 0.0);
+    }
+
+    /**
+     * Returns the positions (x and y alternating) of the {@value #PEAK_COUNT} highest local maxima of the correlation.
+     */
+    @NonNull
+    private int[] findPeaks(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                            int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        if (maxX < minX || maxY < minY) {
+            return new int[0];
+        }
+
+        double[] correlations = matcher.correlate(img, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token);
+        int columns = maxX - minX + 1;
+        int rows = maxY - minY + 1;
+
+        int[] peaks = new int[2 * PEAK_COUNT];
+        double[] peakCorrelations = new double[PEAK_COUNT];
+        int peakCount = 0;
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                double correlation = correlations[column + row * columns];
+                if (correlation <= 0.0 || !isLocalMaximum(correlations, columns, rows, column, row)) {
+                    continue;
+                }
+
+                // insertion into the peaks which are sorted by descending correlation (first one wins on equal correlation)
+                int insertAt = peakCount;
+                while (insertAt > 0 && peakCorrelations[insertAt - 1] < correlation) {
+                    insertAt--;
+                }
+                if (insertAt == PEAK_COUNT) {
+                    continue;
+                }
+                int last = Math.min(peakCount, PEAK_COUNT - 1);
+                System.arraycopy(peakCorrelations, insertAt, peakCorrelations, insertAt + 1, last - insertAt);
+                System.arraycopy(peaks, 2 * insertAt, peaks, 2 * insertAt + 2, 2 * (last - insertAt));
+                peakCorrelations[insertAt] = correlation;
+                peaks[2 * insertAt] = minX + column;
+                peaks[2 * insertAt + 1] = minY + row;
+                peakCount = Math.min(peakCount + 1, PEAK_COUNT);
+            }
+        }
+
+        int[] result = new int[2 * peakCount];
+        System.arraycopy(peaks, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static boolean isLocalMaximum(@NonNull double[] correlations, int columns, int rows, int column, int row) {
+        double correlation = correlations[column + row * columns];
+        for (int y = Math.max(0, row - 1); y <= Math.min(rows - 1, row + 1); y++) {
+            for (int x = Math.max(0, column - 1); x <= Math.min(columns - 1, column + 1); x++) {
+                if (correlations[x + y * columns] > correlation) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the candidate has a higher correlation or the same correlation but comes first in scan order.
+     */
+    private static boolean isBetter(@NonNull Match candidate, @NonNull Match current) {
+        if (candidate.correlation != current.correlation) {
+            return candidate.correlation > current.correlation;
+        }
+        return candidate.y < current.y || (candidate.y == current.y && candidate.x < current.x);
+    }
+
+    /**
+     * Returns the number of pyramid levels (including the full resolution) which can be used for the given template size.
+     */
+    @VisibleForTesting
+    static int levelCount(int templateWidth, int templateHeight) {
+        int levels = 1;
+        while (levels < MAX_LEVELS
+                && (templateWidth >> levels) >= MIN_TEMPLATE_SIZE && (templateHeight >> levels) >= MIN_TEMPLATE_SIZE) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Does divide by 2^level and rounds up (for non negative values).
+     */
+    private static int ceilDiv(int value, int level) {
+        return (value + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Does halve the size of the image by averaging 2x2 pixel blocks (a trailing odd row or column is dropped).
+     */
+    @NonNull
+    @VisibleForTesting
+    static GrayscaleImage halve(@NonNull GrayscaleImage img) {
+        int width = img.width / 2;
+        int height = img.height / 2;
+        byte[] data = new byte[width * height];
+
+        for (int y = 0; y < height; y++) {
+            int top = 2 * y * img.width;
+            int bottom = top + img.width;
+            for (int x = 0; x < width; x++) {
+                int sum = (img.data[top + 2 * x] & 0xff) + (img.data[top + 2 * x + 1] & 0xff)
+                        + (img.data[bottom + 2 * x] & 0xff) + (img.data[bottom + 2 * x + 1] & 0xff);
+                data[x + y * width] = (byte) ((sum + 2) >> 2);
+            }
+        }
+
+        return new GrayscaleImage(data, width, height);
+    }
+
+    /**
+     * Does halve the size of the template in the same way as {@link #halve(GrayscaleImage)}.
+     */
+    @NonNull
+    @VisibleForTesting
+    static int[] halve(@NonNull int[] template, @IntRange(from = 2) int templateWidth, @IntRange(from = 2) int templateHeight) {
+        int width = templateWidth / 2;
+        int height = templateHeight / 2;
+        int[] halved = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            int top = 2 * y * templateWidth;
+            int bottom = top + templateWidth;
+            for (int x = 0; x < width; x++) {
+                int sum = template[top + 2 * x] + template[top + 2 * x + 1] + template[bottom + 2 * x] + template[bottom + 2 * x + 1];
+                halved[x + y * width] = (sum + 2) >> 2;
+            }
+        }
+
+        return halved;
+    }
+}
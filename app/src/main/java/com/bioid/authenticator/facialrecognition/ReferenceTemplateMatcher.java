@@ -0,0 +1,60 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+/**
+ * Template matching exactly as it is implemented on all other platforms.
+ * <p>
+ * The sum of squared pixels is recomputed for every candidate position,
+ * therefore the costs are proportional to the size of the search area times the size of the template.
+ * This implementation should not be modified, it is the reference for faster implementations.
+ */
+final class ReferenceTemplateMatcher implements TemplateMatcher {
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public Match match(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                       int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        int bestHitX = 0;
+        int bestHitY = 0;
+        double maxCorr = 0.0;
+
+        for (int y = minY; y <= maxY; y++) {
+            token.throwIfCancelled();
+            for (int x = minX; x <= maxX; x++) {
+                int nominator = 0;
+                int denominator = 0;
+                int templateIndex = 0;
+
+                // Calculate the normalized cross-correlation coefficient for this position
+                for (int ty = 0; ty < templateHeight; ty++) {
+                    int bufferIndex = x + (y + ty) * img.width;
+                    for (int tx = 0; tx < templateWidth; tx++) {
+                        int imagePixel = img.data[bufferIndex++] & 0xff;
+                        nominator += template[templateIndex++] * imagePixel;
+                        denominator += imagePixel * imagePixel;
+                    }
+                }
+
+                // The NCC coefficient is then (watch out for division-by-zero errors for pure black images)
+                double ncc = 0.0;
+                if (denominator > 0) {
+                    ncc = (double) nominator * (double) nominator / (double) denominator;
+                }
+                // Is it higher that what we had before?
+                if (ncc > maxCorr) {
+                    maxCorr = ncc;
+                    bestHitX = x;
+                    bestHitY = y;
+                }
+            }
+        }
+
+        return new Match(bestHitX, bestHitY, maxCorr);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
+
+/**
+ * Searches the position of the motion detection template within an image.
+ * <p>
+ * Every implementation must return exactly the same match as the {@link ReferenceTemplateMatcher}
+ * because the motion detection is shared across multiple platforms.
+ */
+interface TemplateMatcher {
+
+    /**
+     * Position of the template with the highest normalized cross correlation.
+     */
+    final class Match {
+
+        final int x;
+        final int y;
+        final double correlation;
+
+        Match(int x, int y, double correlation) {
+            this.x = x;
+            this.y = y;
+            this.correlation = correlation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Match match = (Match) o;
+            return x == match.x && y == match.y && Double.compare(match.correlation, correlation) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = x;
+            result = 31 * result + y;
+            long temp = Double.doubleToLongBits(correlation);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{x=" + x + ", y=" + y + ", correlation=" + correlation + "}";
+        }
+    }
+
+    /**
+     * Does compare the template with every candidate position (top left corner) within the given bounds.
+     * <p>
+     * Candidates are visited row by row, the first candidate wins if multiple candidates have the same correlation.
+     * If no candidate has a correlation above zero (e.g. a black image) the match is located at (0, 0).
+     *
+     * @param img            the image which is searched (the template must fit into the image at every candidate position)
+     * @param template       the pixels of the template (row by row)
+     * @param templateWidth  width of the template
+     * @param templateHeight height of the template
+     * @param minX           the leftmost candidate position
+     * @param maxX           the rightmost candidate position (inclusive)
+     * @param minY           the topmost candidate position
+     * @param maxY           the bottommost candidate position (inclusive)
+     * @param token          is checked once per row of candidates
+     * @throws CancelledException if the token was cancelled
+     */
+    @NonNull
+    @WorkerThread
+    Match match(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token);
+
+    /**
+     * Does forget any state which was kept between matches (e.g. because the template has changed).
+     */
+    default void reset() {
+    }
+}
@@ -0,0 +1,104 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+/**
+ * Template matching which follows the template from frame to frame instead of searching the whole area every time.
+ * <p>
+ * The head moves smoothly between consecutive frames, therefore the template is searched within a small window
+ * around the previous match first. The window grows with the speed of the movement.
+ * The whole area is only searched by the delegate if
+ * <ul>
+ * <li>there is no previous match (first frame or after {@link #reset()}),</li>
+ * <li>the best position within the window is located at the edge of the window (the peak might be outside)</li>
+ * <li>or the confidence of the match is too low (the template got lost, e.g. because of a sudden movement).</li>
+ * </ul>
+ * The confidence is the correlation divided by the correlation of the template with itself (1.0 is a perfect match).
+ * <p>
+ * A single instance must not be used by multiple threads at the same time.
+ */
+final class TrackingTemplateMatcher implements TemplateMatcher {
+
+    @VisibleForTesting
+    static final int MIN_RADIUS = 3;
+    @VisibleForTesting
+    static final int MAX_RADIUS = 12;
+    // the confidence does not subtract the mean brightness, even wrong positions reach a confidence of about 0.98
+    @VisibleForTesting
+    static final double MIN_CONFIDENCE = 0.997;
+
+    private final TemplateMatcher delegate;
+
+    @Nullable
+    private Match previousMatch;
+    private int radius = MIN_RADIUS;
+
+    TrackingTemplateMatcher(@NonNull TemplateMatcher delegate) {
+        this.delegate = delegate;
+    }
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public Match match(@NonNull GrayscaleImage img, @NonNull int[] template, int templateWidth, int templateHeight,
+                       int minX, int maxX, int minY, int maxY, @NonNull CancellationToken token) {
+        if (previousMatch != null) {
+            int windowMinX = Math.max(minX, previousMatch.x - radius);
+            int windowMaxX = Math.min(maxX, previousMatch.x + radius);
+            int windowMinY = Math.max(minY, previousMatch.y - radius);
+            int windowMaxY = Math.min(maxY, previousMatch.y + radius);
+
+            Match match = delegate.match(img, template, templateWidth, templateHeight,
+                    windowMinX, windowMaxX, windowMinY, windowMaxY, token);
+
+            boolean atEdgeOfWindow = (match.x == windowMinX && windowMinX > minX) || (match.x == windowMaxX && windowMaxX < maxX)
+                    || (match.y == windowMinY && windowMinY > minY) || (match.y == windowMaxY && windowMaxY < maxY);
+            if (!atEdgeOfWindow && confidence(match, template) >= MIN_CONFIDENCE) {
+                follow(match);
+                return match;
+            }
+        }
+
+        Match match = delegate.match(img, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token);
+        previousMatch = match;
+        radius = MIN_RADIUS;
+        return match;
+    }
+
+    /**
+     * Does adapt the radius of the window to the speed of the movement.
+     */
+    private void follow(@NonNull Match match) {
+        //noinspection ConstantConditions (previous match is known at this point)
+        int speed = Math.max(Math.abs(match.x - previousMatch.x), Math.abs(match.y - previousMatch.y));
+        radius = Math.max(MIN_RADIUS, Math.min(MAX_RADIUS, MIN_RADIUS + 2 * speed));
+        previousMatch = match;
+    }
+
+    /**
+     * Returns the correlation relative to the highest possible correlation (the correlation of the template with itself).
+     */
+    @VisibleForTesting
+    static double confidence(@NonNull Match match, @NonNull int[] template) {
+        long templateEnergy = 0;
+        for (int pixel : template) {
+            templateEnergy += pixel * pixel;
+        }
+        return templateEnergy > 0 ? match.correlation / templateEnergy : 0.0;
+    }
+
+    /**
+     * Does forget the previous match, the next match will search the whole area.
+     */
+    @Override
+    public void reset() {
+        previousMatch = null;
+        radius = MIN_RADIUS;
+    }
+}
@@ -0,0 +1,290 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.image.Yuv420Image;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.NoConnectionException;
+import com.bioid.authenticator.base.network.ServerErrorException;
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+import com.bioid.authenticator.base.threading.BackgroundHandler;
+import com.bioid.authenticator.base.threading.CancellationToken;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Uploads captured images in the background.
+ * <p>
+ * At most {@value #MAX_CONCURRENT_UPLOADS} uploads are running at the same time, further images are queued in submission order.
+ * Uploads failing because of temporary problems (no connection or server error) are retried with exponential backoff,
+ * the listener is only notified if the upload succeeded or did fail finally.
+ * Images are recycled once they are not needed anymore, uploads of discarded images are cancelled.
+ * <p>
+ * All methods have to be called on the main thread, the listener will also be called on the main thread.
+ * The pipeline needs a {@link BackgroundHandler} of its own, unsubscribing from all tasks of a shared handler would cancel
+ * the running uploads.
+ */
+class UploadPipeline {
+
+    @VisibleForTesting
+    static final int MAX_CONCURRENT_UPLOADS = 2;
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 3;
+    @VisibleForTesting
+    static final int INITIAL_BACKOFF_IN_MILLIS = 500;
+
+    /**
+     * Does upload the image of a job (runs on a background thread).
+     */
+    interface Uploader {
+
+        /**
+         * @param token will be cancelled if the job is discarded
+         */
+        void upload(@NonNull Job job, @NonNull CancellationToken token);
+    }
+
+    /**
+     * Will be notified about the final result of an upload.
+     */
+    interface Listener {
+
+        void onUploadSuccessful(@NonNull Job job);
+
+        /**
+         * The job is kept by the pipeline until it is passed to {@link #resubmit(int, long)} or {@link #discard(int)}.
+         */
+        void onUploadFailed(@NonNull Job job, @NonNull RuntimeException e);
+    }
+
+    /**
+     * An image which has to be uploaded.
+     */
+    static final class Job {
+
+        @NonNull
+        final Yuv420Image img;
+        @NonNull
+        final MovementDirection direction;
+        final int index;
+        final boolean showUploadingInfo;
+
+        private int attempts;
+        @Nullable
+        private Integer uploadTaskId;
+        @Nullable
+        private Integer retryTaskId;
+
+        Job(@NonNull Yuv420Image img, @NonNull MovementDirection direction, @IntRange(from = 0) int index,
+            boolean showUploadingInfo) {
+            this.img = img;
+            this.direction = direction;
+            this.index = index;
+            this.showUploadingInfo = showUploadingInfo;
+        }
+
+        @Override
+        public String toString() {
+            return "Job{index=" + index + ", direction=" + direction + ", attempts=" + attempts + "}";
+        }
+    }
+
+    private final LoggingHelper log;
+    private final BackgroundHandler backgroundHandler;
+    private final Uploader uploader;
+    private final Listener listener;
+
+    private final ArrayDeque<Job> queued = new ArrayDeque<>();
+    private final List<Job> running = new ArrayList<>(MAX_CONCURRENT_UPLOADS);
+    private final List<Job> waitingForRetry = new ArrayList<>();
+    private final List<Job> failed = new ArrayList<>();
+
+    UploadPipeline(LoggingHelper log, BackgroundHandler backgroundHandler, Uploader uploader, Listener listener) {
+        this.log = log;
+        this.backgroundHandler = backgroundHandler;
+        this.uploader = uploader;
+        this.listener = listener;
+    }
+
+    /**
+     * Does enqueue the job, the upload will start as soon as possible.
+     */
+    void submit(@NonNull Job job) {
+        queued.addLast(job);
+        dispatch();
+    }
+
+    /**
+     * Does submit the finally failed job with the given index again (with the full number of attempts).
+     *
+     * @param delayInMillis time to wait before the job is enqueued again
+     */
+    void resubmit(int index, @IntRange(from = 0) long delayInMillis) {
+        Job job = remove(failed, index);
+        if (job != null) {
+            job.attempts = 0;
+            scheduleRetry(job, delayInMillis);
+        }
+    }
+
+    /**
+     * Does drop all jobs with the given index, regardless of their state.
+     * Running uploads are cancelled.
+     */
+    void discard(int index) {
+        Job job;
+        while ((job = remove(queued, index)) != null) {
+            job.img.recycle();
+        }
+        while ((job = remove(waitingForRetry, index)) != null) {
+            cancelRetry(job);
+            job.img.recycle();
+        }
+        while ((job = remove(failed, index)) != null) {
+            job.img.recycle();
+        }
+        while ((job = remove(running, index)) != null) {
+            // the image might still be used by the background thread until it notices the cancellation -> no recycling
+            log.d("cancelling running upload %s", job);
+            cancelUpload(job);
+        }
+    }
+
+    /**
+     * Does drop all jobs.
+     * Running uploads are cancelled.
+     */
+    void clear() {
+        for (Job job : waitingForRetry) {
+            cancelRetry(job);
+        }
+        for (Job job : running) {
+            cancelUpload(job);
+        }
+        recycleAll(queued);
+        recycleAll(waitingForRetry);
+        recycleAll(failed);
+        running.clear();  // images might still be used by the background threads and must not be recycled
+    }
+
+    /**
+     * Returns true if no job is running, queued, waiting for retry or has failed.
+     */
+    boolean isIdle() {
+        return queued.isEmpty() && running.isEmpty() && waitingForRetry.isEmpty() && failed.isEmpty();
+    }
+
+    private void dispatch() {
+        while (running.size() < MAX_CONCURRENT_UPLOADS && !queued.isEmpty()) {
+            start(queued.pollFirst());
+        }
+    }
+
+    private void start(@NonNull final Job job) {
+        job.attempts++;
+        running.add(job);
+        log.d("starting upload %s", job);
+
+        int taskId = backgroundHandler.runOnBackgroundThread(
+                token -> uploader.upload(job, token),
+                () -> onUploadSuccessful(job),
+                e -> onUploadFailed(job, e),
+                null);
+        if (running.contains(job)) {  // the upload might have been completed immediately
+            job.uploadTaskId = taskId;
+        }
+    }
+
+    private void onUploadSuccessful(@NonNull Job job) {
+        if (!running.remove(job)) {
+            return;  // job has been discarded
+        }
+
+        job.uploadTaskId = null;
+        job.img.recycle();
+        listener.onUploadSuccessful(job);
+        dispatch();
+    }
+
+    private void onUploadFailed(@NonNull final Job job, @NonNull RuntimeException e) {
+        if (!running.remove(job)) {
+            return;  // job has been discarded
+        }
+
+        job.uploadTaskId = null;
+        if (isTemporaryProblem(e) && job.attempts < MAX_ATTEMPTS) {
+            long backoff = INITIAL_BACKOFF_IN_MILLIS * (1L << (job.attempts - 1));
+            log.w("upload %s failed with %s, retrying in %d ms", job, e.getClass().getSimpleName(), backoff);
+
+            scheduleRetry(job, backoff);
+        } else {
+            failed.add(job);
+            listener.onUploadFailed(job, e);
+        }
+
+        dispatch();
+    }
+
+    private void scheduleRetry(@NonNull final Job job, long delayInMillis) {
+        // adding the job first because the delayed runnable might be executed immediately
+        waitingForRetry.add(job);
+        int taskId = backgroundHandler.runWithDelay(() -> {
+            if (waitingForRetry.remove(job)) {
+                job.retryTaskId = null;
+                queued.addFirst(job);
+                dispatch();
+            }
+        }, delayInMillis);
+        if (waitingForRetry.contains(job)) {
+            job.retryTaskId = taskId;
+        }
+    }
+
+    /**
+     * Returns true if the upload failed because of the connection or the server, uploading the same image again might succeed.
+     */
+    static boolean isTemporaryProblem(@NonNull RuntimeException e) {
+        return e instanceof NoConnectionException || e instanceof ServerErrorException;
+    }
+
+    private void cancelUpload(@NonNull Job job) {
+        if (job.uploadTaskId != null) {
+            backgroundHandler.unsubscribeFromBackgroundTask(job.uploadTaskId);
+            job.uploadTaskId = null;
+        }
+    }
+
+    private void cancelRetry(@NonNull Job job) {
+        if (job.retryTaskId != null) {
+            backgroundHandler.cancelScheduledTask(job.retryTaskId);
+            job.retryTaskId = null;
+        }
+    }
+
+    @Nullable
+    private static Job remove(@NonNull Iterable<Job> jobs, int index) {
+        Iterator<Job> iterator = jobs.iterator();
+        while (iterator.hasNext()) {
+            Job job = iterator.next();
+            if (job.index == index) {
+                iterator.remove();
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private static void recycleAll(@NonNull Iterable<Job> jobs) {
+        Iterator<Job> iterator = jobs.iterator();
+        while (iterator.hasNext()) {
+            iterator.next().img.recycle();
+            iterator.remove();
+        }
+    }
+}
@@ -19,6 +19,8 @@ import com.bioid.authenticator.facialrecognition.FacialRecognitionFragment;
  */
 public class EnrollmentPresenter extends FacialRecognitionBasePresenter<EnrollmentToken> {
 
+    private static final int REQUIRED_UPLOADS = 8;  // 4 image pairs
+
     private final EnrollmentTokenProvider tokenProvider;
     private final BioIdWebserviceClient bioIdWebserviceClient;
 
@@ -46,6 +48,9 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
 
         view.showInitialisationInfo();
 
+        // connecting to the BWS while the user is positioning the face
+        backgroundHandler.runOnBackgroundThread(bioIdWebserviceClient::warmUpConnection, null, null, null);
+
         backgroundHandler.runOnBackgroundThread(
                 () -> tokenProvider.requestEnrollmentToken(ctx),
                 token -> {
@@ -95,7 +100,7 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
     public void promptToTurn90DegreesAccepted() {
         log.d("promptToTurn90DegreesAccepted()");
 
-        captureImagePair(successfulUploads, MovementDirection.any, MovementDirection.any);
+        captureImagePair(getFirstMissingUploadIndex(), MovementDirection.any, MovementDirection.any);
     }
 
     @Override
@@ -111,15 +116,16 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
     }
 
     @Override
-    protected void onUploadSuccessful() {
-        log.d("onUploadSuccessful() [successfulUploads=%d, failedUploads=%d]", ++successfulUploads, failedUploads);
+    protected void onUploadCompleted(int index) {
+        log.d("onUploadCompleted(index=%d) [failedUploads=%d]", index, failedUploads);
 
-        if (successfulUploads % 2 == 1) {
+        int indexOfPair = index - index % 2;
+        if (!isUploadCompleted(indexOfPair) || !isUploadCompleted(indexOfPair + 1)) {
             log.d("waiting for second image upload to complete");
             return;
         }
 
-        if (successfulUploads < 8) {
+        if (!areUploadsCompleted(REQUIRED_UPLOADS)) {
             log.i("entering next position");
             view.promptToTurn90Degrees();
             return;
@@ -60,6 +60,9 @@ public class VerificationPresenter extends FacialRecognitionBasePresenter<Verifi
 
         view.showInitialisationInfo();
 
+        // connecting to the BWS while the user is positioning the face
+        backgroundHandler.runOnBackgroundThread(bioIdWebserviceClient::warmUpConnection, null, null, null);
+
         backgroundHandler.runWithDelay(() -> backgroundHandler.runOnBackgroundThread(
                 () -> tokenProvider.requestVerificationToken(ctx),
                 token -> {
@@ -162,40 +165,30 @@ public class VerificationPresenter extends FacialRecognitionBasePresenter<Verifi
     }
 
     @Override
-    protected void onUploadSuccessful() {
-        log.d("onUploadSuccessful() [successfulUploads=%d, failedUploads=%d]", ++successfulUploads, failedUploads);
+    protected void onUploadCompleted(int index) {
+        log.d("onUploadCompleted(index=%d) [failedUploads=%d]", index, failedUploads);
 
-        if (successfulUploads % 2 == 1) {
-            log.d("waiting for second image upload to complete");
-            return;
-        }
+        // using +1 because the first image with direction "any" is never specified in the challenge
+        // (no challenge response -> one image pair is enough)
+        int requiredUploads = bwsToken.isChallengeResponse() ? getCurrentChallenge().length + 1 : 2;
 
-        // reference image and image with motion are uploaded
-        if (bwsToken.isChallengeResponse()) {
-            MovementDirection[] currentChallenge = getCurrentChallenge();
-            if (successfulUploads == currentChallenge.length + 1) {
-                // no more image pairs within challenge
-                // using +1 because the first image with direction "any" is never specified in the challenge
-                verify();
-            } else {
-                log.d("waiting for other image uploads from challenge to complete");
-            }
-        } else {
-            // no challenge response -> one image pair is enough
+        if (areUploadsCompleted(requiredUploads)) {
             verify();
+        } else {
+            log.d("waiting for other image uploads to complete");
         }
     }
 
     @Override
-    protected void onUploadFailed(RuntimeException e) {
+    protected void onUploadFailed(RuntimeException e, int index) {
         if (bwsToken.isChallengeResponse() && (e instanceof NoFaceFoundException || e instanceof LiveDetectionException)) {
             // capturing the image pair again would not work because of the current challenge
             // -> complete the current challenge even if it will fail for sure
             // -> after unsuccessful verification the user can try again with the next challenge
             log.w("got %s during Challenge-Response, proceeding with challenge", e.getClass().getSimpleName());
-            onUploadSuccessful();
+            skipFailedUpload(index);
         } else {
-            super.onUploadFailed(e);
+            super.onUploadFailed(e, index);
         }
     }
 
@@ -0,0 +1,243 @@
+package com.bioid.authenticator.base.camera;
+
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+@SuppressWarnings("MissingPermission")
+public class CameraControllerTest {
+
+    private static final String CAMERA_ID = "front_camera";
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private CameraManager manager;
+    @Mock
+    private CameraCharacteristicsHelper characteristicsHelper;
+    @Mock
+    private CameraPreferences preferences;
+    @Mock
+    private Handler cameraHandler;
+    @Mock
+    private CameraController.Listener listener;
+    @Mock
+    private CameraDevice camera;
+    @Mock
+    private CameraDevice previousCamera;
+    @Mock
+    private CameraCaptureSession session;
+    @Mock
+    private CaptureRequest.Builder captureRequestBuilder;
+    @Mock
+    private Surface surface;
+    @Mock
+    private Surface stillSurface;
+    @Mock
+    private Runnable onStillFailed;
+
+    private List<Surface> surfaces;
+    private CameraController controller;
+
+    @Before
+    public void setUp() {
+        surfaces = Collections.singletonList(surface);
+        CameraHelper cameraHelper = new CameraHelper(log, manager, characteristicsHelper, preferences);
+        // the camera and the main thread are executing the tasks right away
+        controller = new CameraController(log, cameraHelper, cameraHandler, Runnable::run, Runnable::run, listener);
+    }
+
+    @Test
+    public void open_cameraIsOpened_listenerIsNotified() throws Exception {
+        openCamera().onOpened(camera);
+
+        verify(listener).onCameraOpened(camera);
+        assertThat(controller.state, is(CameraController.State.OPENED));
+    }
+
+    @Test
+    public void open_cameraIsAlreadyOpening_cameraIsOpenedOnlyOnce() throws Exception {
+        openCamera();
+
+        controller.open();
+
+        verify(manager).openCamera(eq(CAMERA_ID), any(CameraDevice.StateCallback.class), eq(cameraHandler));
+    }
+
+    @Test
+    public void open_afterClose_cameraIsOpenedAgain() throws Exception {
+        openCamera().onOpened(previousCamera);
+        controller.close();
+
+        controller.open();
+
+        verify(manager, times(2)).openCamera(eq(CAMERA_ID), any(CameraDevice.StateCallback.class), eq(cameraHandler));
+    }
+
+    @Test
+    public void open_noFrontFacingCamera_listenerIsNotified() throws Exception {
+        when(manager.getCameraIdList()).thenReturn(new String[0]);
+
+        controller.open();
+
+        verify(listener).onCameraError(any(CameraException.class));
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    @Test
+    public void close_whileOpening_cameraIsClosedAsSoonAsItIsOpened() throws Exception {
+        CameraDevice.StateCallback callback = openCamera();
+
+        controller.close();
+        callback.onOpened(camera);
+
+        verify(camera).close();
+        verify(listener, never()).onCameraOpened(any(CameraDevice.class));
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    @Test
+    public void close_callbackOfPreviousSession_isIgnored() throws Exception {
+        CameraDevice.StateCallback previousCallback = openCamera();
+        controller.close();
+        controller.open();
+
+        previousCallback.onOpened(previousCamera);
+
+        verify(previousCamera).close();
+        verify(listener, never()).onCameraOpened(any(CameraDevice.class));
+        assertThat(controller.state, is(CameraController.State.OPENING));
+    }
+
+    @Test
+    public void close_previewIsRunning_sessionIsClosedBeforeCamera() throws Exception {
+        openCamera().onOpened(camera);
+        startPreview().onConfigured(session);
+        assertThat(controller.state, is(CameraController.State.PREVIEWING));
+
+        controller.close();
+
+        InOrder closingOrder = inOrder(session, camera);
+        closingOrder.verify(session).close();
+        closingOrder.verify(camera).close();
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    @Test
+    public void startPreview_cameraWasClosedInTheMeantime_isIgnored() throws Exception {
+        openCamera().onOpened(camera);
+        controller.close();
+
+        controller.startPreview(camera, surfaces, Collections.emptyList(), null);
+
+        verify(camera, never()).createCaptureSession(anyList(), any(CameraCaptureSession.StateCallback.class),
+                any(Handler.class));
+    }
+
+    @Test
+    public void startPreview_cameraWasClosedWhileSessionWasConfigured_sessionIsClosed() throws Exception {
+        openCamera().onOpened(camera);
+        CameraCaptureSession.StateCallback sessionCallback = startPreview();
+        controller.close();
+
+        sessionCallback.onConfigured(session);
+
+        verify(session).close();
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    @Test
+    public void captureStill_previewIsRunning_stillIsCapturedWithinPreviewSession() throws Exception {
+        openCamera().onOpened(camera);
+        startPreview().onConfigured(session);
+        when(camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE)).thenReturn(captureRequestBuilder);
+
+        controller.captureStill(stillSurface, onStillFailed);
+
+        verify(captureRequestBuilder).addTarget(stillSurface);
+        verify(session).capture(any(), any(CameraCaptureSession.CaptureCallback.class), eq(cameraHandler));
+        verify(onStillFailed, never()).run();
+    }
+
+    @Test
+    public void captureStill_previewIsNotRunning_onFailedIsCalled() throws Exception {
+        openCamera().onOpened(camera);
+
+        controller.captureStill(stillSurface, onStillFailed);
+
+        verify(onStillFailed).run();
+        verify(camera, never()).createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+    }
+
+    @Test
+    public void onDisconnected_cameraIsClosedAndListenerIsNotified() throws Exception {
+        CameraDevice.StateCallback callback = openCamera();
+        callback.onOpened(camera);
+
+        callback.onDisconnected(camera);
+
+        verify(camera).close();
+        verify(listener).onCameraError(any(CameraException.class));
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    @Test
+    public void onError_whileOpening_cameraIsClosedAndListenerIsNotified() throws Exception {
+        openCamera().onError(camera, CameraDevice.StateCallback.ERROR_CAMERA_IN_USE);
+
+        verify(camera).close();
+        verify(listener).onCameraError(any(CameraException.class));
+        assertThat(controller.state, is(CameraController.State.CLOSED));
+    }
+
+    private CameraDevice.StateCallback openCamera() throws Exception {
+        when(manager.getCameraIdList()).thenReturn(new String[]{CAMERA_ID});
+        when(characteristicsHelper.getLensFacing(CAMERA_ID)).thenReturn(CameraCharacteristics.LENS_FACING_FRONT);
+
+        controller.open();
+
+        ArgumentCaptor<CameraDevice.StateCallback> captor = ArgumentCaptor.forClass(CameraDevice.StateCallback.class);
+        verify(manager).openCamera(eq(CAMERA_ID), captor.capture(), eq(cameraHandler));
+        return captor.getValue();
+    }
+
+    private CameraCaptureSession.StateCallback startPreview() throws Exception {
+        when(camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)).thenReturn(captureRequestBuilder);
+
+        controller.startPreview(camera, surfaces, Collections.emptyList(), null);
+
+        ArgumentCaptor<CameraCaptureSession.StateCallback> captor =
+                ArgumentCaptor.forClass(CameraCaptureSession.StateCallback.class);
+        verify(camera).createCaptureSession(eq(surfaces), captor.capture(), eq(cameraHandler));
+        return captor.getValue();
+    }
+}
@@ -7,7 +7,9 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
+import android.os.Handler;
 import android.util.Size;
 import android.view.Surface;
 
@@ -19,6 +21,7 @@ import com.bioid.authenticator.testutil.Mocks;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -27,10 +30,15 @@ import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.theInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -43,6 +51,10 @@ public class CameraHelperTest {
     private static final Size PREVIEWSIZE_1 = Mocks.size(10, 10);
     private static final Size PREVIEWSIZE_640x480 = Mocks.size(640, 480);
     private static final Size PREVIEWSIZE_2 = Mocks.size(50, 50);
+    private static final Size YUVSIZE_160x120 = Mocks.size(160, 120);
+    private static final Size YUVSIZE_320x240 = Mocks.size(320, 240);
+    private static final Size YUVSIZE_352x288 = Mocks.size(352, 288);
+    private static final Size YUVSIZE_480x360 = Mocks.size(480, 360);
     @Rotation
     private static final int SENSOR_ROTATION = 270;
     @SurfaceRotation
@@ -59,6 +71,8 @@ public class CameraHelperTest {
     @Mock
     private CameraCharacteristicsHelper characteristicsHelper;
     @Mock
+    private CameraPreferences preferences;
+    @Mock
     private CameraDevice.StateCallback stateCallback;
     @Mock
     private CameraDevice camera;
@@ -74,6 +88,10 @@ public class CameraHelperTest {
     private Surface surface2;
     @Mock
     private CaptureRequest.Builder captureRequestBuilder;
+    @Mock
+    private Handler cameraHandler;
+    @Mock
+    private Runnable onStillFailed;
 
     @InjectMocks
     private CameraHelper cameraHelper;
@@ -98,58 +116,106 @@ public class CameraHelperTest {
 
     @Test
     public void testOpenFrontFacingCamera_frontFacingCameraOpened() throws Exception {
-        cameraHelper.openFrontFacingCamera(stateCallback);
-        verify(manager).openCamera(CAMERA_ID_2, stateCallback, null);
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+        verify(manager).openCamera(CAMERA_ID_2, stateCallback, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
     public void testOpenFrontFacingCamera_noFrontFacingCameraOnDeviceThrowsException_onlyOneBackFacingCameraOnly() throws Exception {
         when(manager.getCameraIdList()).thenReturn(new String[]{CAMERA_ID_1});
-        cameraHelper.openFrontFacingCamera(stateCallback);
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
     public void testOpenFrontFacingCamera_noFrontFacingCameraOnDeviceThrowsException_characteristicNotAvailable() {
         doThrow(CameraException.class).when(characteristicsHelper).getLensFacing(CAMERA_ID_2);
-        cameraHelper.openFrontFacingCamera(stateCallback);
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
     public void testOpenFrontFacingCamera_cameraAccessExceptionOnGetCameraIdListThrowsException() throws Exception {
         doThrow(CameraAccessException.class).when(manager).getCameraIdList();
-        cameraHelper.openFrontFacingCamera(stateCallback);
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
     public void testOpenFrontFacingCamera_cameraAccessExceptionOnOpenCameraThrowsException() throws Exception {
-        doThrow(CameraAccessException.class).when(manager).openCamera(CAMERA_ID_2, stateCallback, null);
-        cameraHelper.openFrontFacingCamera(stateCallback);
+        doThrow(CameraAccessException.class).when(manager).openCamera(CAMERA_ID_2, stateCallback, cameraHandler);
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+    }
+
+    @Test
+    public void testOpenFrontFacingCamera_frontFacingCameraIsStored() throws Exception {
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+        verify(preferences).setFrontFacingCameraId(CAMERA_ID_2);
+    }
+
+    @Test
+    public void testOpenFrontFacingCamera_storedFrontFacingCameraIsOpenedWithoutEnumeratingTheCameras() throws Exception {
+        when(preferences.getFrontFacingCameraId()).thenReturn(CAMERA_ID_2);
+
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+
+        verify(manager).openCamera(CAMERA_ID_2, stateCallback, cameraHandler);
+        verify(manager, never()).getCameraIdList();
+        verify(preferences, never()).setFrontFacingCameraId(anyString());
+    }
+
+    @Test
+    public void testOpenFrontFacingCamera_storedCameraIsNotFrontFacing_frontFacingCameraIsSearched() throws Exception {
+        when(preferences.getFrontFacingCameraId()).thenReturn(CAMERA_ID_1);
+
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+
+        verify(manager).openCamera(CAMERA_ID_2, stateCallback, cameraHandler);
+        verify(preferences).setFrontFacingCameraId(CAMERA_ID_2);
+    }
+
+    @Test
+    public void testOpenFrontFacingCamera_storedCameraDoesNotExist_frontFacingCameraIsSearched() throws Exception {
+        when(preferences.getFrontFacingCameraId()).thenReturn("unknown_camera");
+        doThrow(CameraException.class).when(characteristicsHelper).getLensFacing("unknown_camera");
+
+        cameraHelper.openFrontFacingCamera(stateCallback, cameraHandler);
+
+        verify(manager).openCamera(CAMERA_ID_2, stateCallback, cameraHandler);
     }
 
     @Test
     public void testSetupCaptureRequestForPreview_captureRequestBuilderIsObtainedCorrectly() throws Exception {
-        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces);
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, null, cameraHandler);
         verify(camera).createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
     }
 
     @Test
     public void testSetupCaptureRequestForPreview_captureRequestBuilderIsConfiguredCorrectly() {
-        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces);
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, null, cameraHandler);
         verify(captureRequestBuilder).addTarget(surface1);
         verify(captureRequestBuilder).addTarget(surface2);
         verify(captureRequestBuilder).set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
     }
 
+    @Test
+    public void testSetupCaptureRequestForPreview_faceDetectionOfCameraIsEnabledIfFaceStatisticsAreGiven() throws Exception {
+        FaceStatistics faceStatistics = new FaceStatistics(CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE);
+
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, faceStatistics, cameraHandler);
+
+        verify(captureRequestBuilder).set(CaptureRequest.STATISTICS_FACE_DETECT_MODE,
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE);
+        verify(session).setRepeatingRequest(any(), eq(faceStatistics), eq(cameraHandler));
+    }
+
     @Test(expected = CameraException.class)
     public void testSetupCaptureRequestForPreview_cameraAccessExceptionOnCreateCaptureRequestThrowsException() throws Exception {
         doThrow(CameraAccessException.class).when(camera).createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces);
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, null, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
     public void testSetupCaptureRequestForPreview_illegalStateExceptionOnCreateCaptureRequestThrowsException() throws Exception {
         doThrow(IllegalStateException.class).when(camera).createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces);
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, null, cameraHandler);
     }
 
     @Test(expected = CameraException.class)
@@ -159,7 +225,7 @@ public class CameraHelperTest {
             throw new CameraAccessException(CameraAccessException.CAMERA_ERROR);
         });
 
-        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces);
+        cameraHelper.setupCaptureRequestForPreview(session, camera, surfaces, null, cameraHandler);
     }
 
     @Test
@@ -203,6 +269,34 @@ public class CameraHelperTest {
         assertThat(actual, is(theInstance(PREVIEWSIZE_1)));
     }
 
+    @Test
+    public void testSelectPreviewSize_selectedPreviewSizeIsStored() {
+        cameraHelper.selectPreviewSize(camera);
+        verify(preferences).setPreviewSize(CAMERA_ID_1, PREVIEWSIZE_640x480);
+    }
+
+    @Test
+    public void testSelectPreviewSize_storedPreviewSizeIsUsedIfAvailable() {
+        Size storedPreviewSize = Mocks.size(50, 50);
+        when(preferences.getPreviewSize(CAMERA_ID_1)).thenReturn(storedPreviewSize);
+
+        Size actual = cameraHelper.selectPreviewSize(camera);
+
+        assertThat(actual, is(theInstance(PREVIEWSIZE_2)));
+        verify(preferences, never()).setPreviewSize(CAMERA_ID_1, PREVIEWSIZE_2);
+    }
+
+    @Test
+    public void testSelectPreviewSize_storedPreviewSizeIsNotAvailable_choosing640x480() {
+        Size storedPreviewSize = Mocks.size(1920, 1080);
+        when(preferences.getPreviewSize(CAMERA_ID_1)).thenReturn(storedPreviewSize);
+
+        Size actual = cameraHelper.selectPreviewSize(camera);
+
+        assertThat(actual, is(theInstance(PREVIEWSIZE_640x480)));
+        verify(preferences).setPreviewSize(CAMERA_ID_1, PREVIEWSIZE_640x480);
+    }
+
     @Test(expected = CameraException.class)
     public void testSelectPreviewSize_noAvailablePreviewSizeThrowsException_arrayIsNull() {
         when(characteristicsHelper.getPreviewOutputSizes(CAMERA_ID_1)).thenReturn(null);
@@ -215,6 +309,59 @@ public class CameraHelperTest {
         cameraHelper.selectPreviewSize(camera);
     }
 
+    @Test
+    public void testSelectDetectionSize_smallestSizeWithAspectRatioOfPreviewIsChosen() {
+        when(characteristicsHelper.getSupportedHardwareLevel(CAMERA_ID_1))
+                .thenReturn(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL);
+        when(characteristicsHelper.getYuvOutputSizes(CAMERA_ID_1)).thenReturn(
+                new Size[]{PREVIEWSIZE_640x480, YUVSIZE_480x360, YUVSIZE_352x288, YUVSIZE_320x240, YUVSIZE_160x120});
+
+        Size actual = cameraHelper.selectDetectionSize(camera, PREVIEWSIZE_640x480);
+
+        assertThat(actual, is(theInstance(YUVSIZE_320x240)));
+    }
+
+    @Test
+    public void testSelectDetectionSize_noSmallerSizeAvailable_returnsNull() {
+        when(characteristicsHelper.getSupportedHardwareLevel(CAMERA_ID_1))
+                .thenReturn(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3);
+        when(characteristicsHelper.getYuvOutputSizes(CAMERA_ID_1)).thenReturn(
+                new Size[]{PREVIEWSIZE_640x480, YUVSIZE_352x288, YUVSIZE_160x120});
+
+        assertThat(cameraHelper.selectDetectionSize(camera, PREVIEWSIZE_640x480), is(nullValue()));
+    }
+
+    @Test
+    public void testSelectDetectionSize_limitedHardwareLevel_returnsNull() {
+        when(characteristicsHelper.getSupportedHardwareLevel(CAMERA_ID_1))
+                .thenReturn(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED);
+
+        assertThat(cameraHelper.selectDetectionSize(camera, PREVIEWSIZE_640x480), is(nullValue()));
+        verify(characteristicsHelper, never()).getYuvOutputSizes(CAMERA_ID_1);
+    }
+
+    @Test
+    public void testCaptureStill_captureFailed_onFailedIsCalled() throws Exception {
+        when(camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE)).thenReturn(captureRequestBuilder);
+
+        cameraHelper.captureStill(session, camera, surface1, onStillFailed, cameraHandler);
+
+        ArgumentCaptor<CameraCaptureSession.CaptureCallback> captor =
+                ArgumentCaptor.forClass(CameraCaptureSession.CaptureCallback.class);
+        verify(session).capture(any(), captor.capture(), eq(cameraHandler));
+        verify(captureRequestBuilder).addTarget(surface1);
+        verify(onStillFailed, never()).run();
+
+        captor.getValue().onCaptureFailed(session, null, mock(CaptureFailure.class));
+        verify(onStillFailed).run();
+    }
+
+    @Test(expected = CameraException.class)
+    public void testCaptureStill_cameraAccessExceptionOnCreateCaptureRequestThrowsException() throws Exception {
+        doThrow(CameraAccessException.class).when(camera).createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        cameraHelper.captureStill(session, camera, surface1, onStillFailed, cameraHandler);
+    }
+
     @Test
     public void testGetImageRotation_sensorAndDeviceRotationAreInterpretedCorrectly() {
         int result = cameraHelper.getImageRotation(camera, RELATIVE_DISPLAY_ROTATION);
@@ -226,4 +373,66 @@ public class CameraHelperTest {
         doThrow(CameraException.class).when(characteristicsHelper).getSensorOrientation(CAMERA_ID_1);
         cameraHelper.getImageRotation(camera, RELATIVE_DISPLAY_ROTATION);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCreateFaceStatistics_simpleModeIsPreferred() {
+        when(characteristicsHelper.getMaxFaceCount(CAMERA_ID_1)).thenReturn(5);
+        when(characteristicsHelper.getAvailableFaceDetectModes(CAMERA_ID_1)).thenReturn(new int[]{
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_OFF,
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_FULL,
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE});
+
+        FaceStatistics faceStatistics = cameraHelper.createFaceStatistics(camera);
+
+        assertThat(faceStatistics.getFaceDetectMode(), is(CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE));
+    }
+
+    @Test
+    public void testCreateFaceStatistics_fullModeOnly_fullModeIsUsed() {
+        when(characteristicsHelper.getMaxFaceCount(CAMERA_ID_1)).thenReturn(5);
+        when(characteristicsHelper.getAvailableFaceDetectModes(CAMERA_ID_1)).thenReturn(new int[]{
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_OFF,
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_FULL});
+
+        FaceStatistics faceStatistics = cameraHelper.createFaceStatistics(camera);
+
+        assertThat(faceStatistics.getFaceDetectMode(), is(CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_FULL));
+    }
+
+    @Test
+    public void testCreateFaceStatistics_faceDetectionNotSupported_returnsNull() {
+        when(characteristicsHelper.getMaxFaceCount(CAMERA_ID_1)).thenReturn(5);
+        when(characteristicsHelper.getAvailableFaceDetectModes(CAMERA_ID_1)).thenReturn(new int[]{
+                CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_OFF});
+
+        assertThat(cameraHelper.createFaceStatistics(camera), is(nullValue()));
+    }
+
+    @Test
+    public void testCreateFaceStatistics_noFacesReported_returnsNull() {
+        when(characteristicsHelper.getMaxFaceCount(CAMERA_ID_1)).thenReturn(0);
+
+        assertThat(cameraHelper.createFaceStatistics(camera), is(nullValue()));
+    }
+
+    @Test
+    public void testCreateFaceStatistics_characteristicNotAvailable_returnsNull() {
+        doThrow(CameraException.class).when(characteristicsHelper).getMaxFaceCount(CAMERA_ID_1);
+
+        assertThat(cameraHelper.createFaceStatistics(camera), is(nullValue()));
+    }
+
+    @Test
+    public void testHasRealtimeTimestamps_realtimeTimestampSource_returnsTrue() {
+        when(characteristicsHelper.getTimestampSource(CAMERA_ID_1))
+                .thenReturn(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+        assertThat(cameraHelper.hasRealtimeTimestamps(camera), is(true));
+    }
+
+    @Test
+    public void testHasRealtimeTimestamps_unknownTimestampSource_returnsFalse() {
+        when(characteristicsHelper.getTimestampSource(CAMERA_ID_1))
+                .thenReturn(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN);
+        assertThat(cameraHelper.hasRealtimeTimestamps(camera), is(false));
+    }
+}
@@ -0,0 +1,191 @@
+package com.bioid.authenticator.base.camera;
+
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.Face;
+
+import com.bioid.authenticator.base.image.FaceBounds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FaceStatisticsTest {
+
+    private static final long TIMESTAMP = 5_000_000_000L;
+    private static final long FRAME_NUMBER = 42;
+    // 4:3 sensor with a 4000x3000 active pixel array
+    private static final Rect CROP_REGION = rect(0, 0, 4000, 3000);
+
+    @Mock
+    private CameraCaptureSession session;
+    @Mock
+    private CaptureRequest request;
+
+    private final FaceStatistics faceStatistics = new FaceStatistics(CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE);
+
+    @Test
+    public void getFaceCount_facesReportedForFrame_confidentFacesAreCounted() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, face(90), face(50), face(10)));
+
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(2));
+    }
+
+    @Test
+    public void getFaceCount_noFacesReportedForFrame_returnsZero() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER));
+
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(0));
+    }
+
+    @Test
+    public void getFaceCount_captureNotCompletedYet_returnsUnknown() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(FaceStatistics.UNKNOWN_FACE_COUNT));
+    }
+
+    @Test
+    public void getFaceCount_resultWithoutFaceStatistics_returnsUnknown() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        TotalCaptureResult result = mock(TotalCaptureResult.class);
+        when(result.get(CaptureResult.STATISTICS_FACES)).thenReturn(null);
+
+        faceStatistics.onCaptureCompleted(session, request, result);
+
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(FaceStatistics.UNKNOWN_FACE_COUNT));
+    }
+
+    @Test
+    public void getFaceCount_unknownFrame_returnsUnknown() {
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(FaceStatistics.UNKNOWN_FACE_COUNT));
+    }
+
+    @Test
+    public void getFaceCount_frameIsTooOld_returnsUnknown() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, face(90)));
+
+        for (int i = 1; i <= 16; i++) {
+            faceStatistics.onCaptureStarted(session, request, TIMESTAMP + i, FRAME_NUMBER + i);
+        }
+
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(FaceStatistics.UNKNOWN_FACE_COUNT));
+    }
+
+    @Test
+    public void getFaceBounds_largestConfidentFaceIsMappedOntoImage() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, CROP_REGION,
+                face(90, rect(1000, 750, 2000, 1500)), face(60, rect(0, 0, 500, 500)), face(10)));
+
+        assertBounds(faceStatistics.getFaceBounds(TIMESTAMP, 640, 480, 0), new FaceBounds(0.25f, 0.25f, 0.5f, 0.5f));
+    }
+
+    @Test
+    public void getFaceBounds_rotatedImage_boundsAreRelativeToRotatedImage() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, CROP_REGION,
+                face(90, rect(1000, 750, 2000, 1500))));
+
+        // front facing camera in portrait orientation
+        assertBounds(faceStatistics.getFaceBounds(TIMESTAMP, 640, 480, 270), new FaceBounds(0.25f, 0.5f, 0.5f, 0.75f));
+    }
+
+    @Test
+    public void getFaceBounds_imageIsWiderThanCropRegion_boundsAreMappedOntoVisiblePartOfTheCropRegion() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, CROP_REGION,
+                face(90, rect(1000, 1500, 2000, 2625))));
+
+        // a 16:9 image does only cover the center 3/4 of the height of the 4:3 crop region
+        assertBounds(faceStatistics.getFaceBounds(TIMESTAMP, 640, 360, 0), new FaceBounds(0.25f, 0.5f, 0.5f, 1f));
+    }
+
+    @Test
+    public void getFaceBounds_noConfidentFace_returnsNull() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, CROP_REGION, face(10)));
+
+        assertThat(faceStatistics.getFaceBounds(TIMESTAMP, 640, 480, 0), is(nullValue()));
+    }
+
+    @Test
+    public void getFaceBounds_cropRegionNotReported_returnsNullButFacesAreCounted() {
+        faceStatistics.onCaptureStarted(session, request, TIMESTAMP, FRAME_NUMBER);
+        faceStatistics.onCaptureCompleted(session, request, captureResult(FRAME_NUMBER, null, face(90)));
+
+        assertThat(faceStatistics.getFaceBounds(TIMESTAMP, 640, 480, 0), is(nullValue()));
+        assertThat(faceStatistics.getFaceCount(TIMESTAMP), is(1));
+    }
+
+    @Test
+    public void toImageBounds_boundsAreRotatedClockwise() {
+        FaceBounds bounds = new FaceBounds(0.1f, 0.2f, 0.3f, 0.6f);
+
+        assertBounds(FaceStatistics.toImageBounds(bounds, 1f, 100, 100, 90), new FaceBounds(0.4f, 0.1f, 0.8f, 0.3f));
+        assertBounds(FaceStatistics.toImageBounds(bounds, 1f, 100, 100, 180), new FaceBounds(0.7f, 0.4f, 0.9f, 0.8f));
+        assertBounds(FaceStatistics.toImageBounds(bounds, 1f, 100, 100, 270), new FaceBounds(0.2f, 0.7f, 0.6f, 0.9f));
+    }
+
+    @Test
+    public void getFaceDetectMode_returnsModeToSetForTheCaptureRequest() {
+        assertThat(faceStatistics.getFaceDetectMode(), is(CameraCharacteristics.STATISTICS_FACE_DETECT_MODE_SIMPLE));
+    }
+
+    private static TotalCaptureResult captureResult(long frameNumber, Face... faces) {
+        TotalCaptureResult result = mock(TotalCaptureResult.class);
+        when(result.getFrameNumber()).thenReturn(frameNumber);
+        when(result.get(CaptureResult.STATISTICS_FACES)).thenReturn(faces);
+        return result;
+    }
+
+    private static TotalCaptureResult captureResult(long frameNumber, Rect cropRegion, Face... faces) {
+        TotalCaptureResult result = captureResult(frameNumber, faces);
+        when(result.get(CaptureResult.SCALER_CROP_REGION)).thenReturn(cropRegion);
+        return result;
+    }
+
+    private static Face face(int score) {
+        Face face = mock(Face.class);
+        when(face.getScore()).thenReturn(score);
+        return face;
+    }
+
+    private static Face face(int score, Rect bounds) {
+        Face face = face(score);
+        when(face.getBounds()).thenReturn(bounds);
+        return face;
+    }
+
+    private static Rect rect(int left, int top, int right, int bottom) {
+        Rect rect = mock(Rect.class);  // the constructor of the Android stub does not set the fields
+        rect.left = left;
+        rect.top = top;
+        rect.right = right;
+        rect.bottom = bottom;
+        return rect;
+    }
+
+    private static void assertBounds(FaceBounds actual, FaceBounds expected) {
+        assertThat((double) actual.left, is(closeTo(expected.left, 1e-5)));
+        assertThat((double) actual.top, is(closeTo(expected.top, 1e-5)));
+        assertThat((double) actual.right, is(closeTo(expected.right, 1e-5)));
+        assertThat((double) actual.bottom, is(closeTo(expected.bottom, 1e-5)));
+    }
+}
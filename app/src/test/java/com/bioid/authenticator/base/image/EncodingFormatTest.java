@@ -0,0 +1,47 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class EncodingFormatTest {
+
+    @Test
+    public void getMimeType_matchesFormat() {
+        assertThat(EncodingFormat.PNG.getMimeType(), is("image/png"));
+        assertThat(EncodingFormat.jpeg(90).getMimeType(), is("image/jpeg"));
+        assertThat(EncodingFormat.WEBP_LOSSLESS.getMimeType(), is("image/webp"));
+    }
+
+    @Test
+    public void isLossless_onlyJpegIsLossy() {
+        assertThat(EncodingFormat.PNG.isLossless(), is(true));
+        assertThat(EncodingFormat.WEBP_LOSSLESS.isLossless(), is(true));
+        assertThat(EncodingFormat.jpeg(100).isLossless(), is(false));
+    }
+
+    @Test
+    public void jpeg_qualityIsPassedToEncoder() {
+        assertThat(EncodingFormat.jpeg(75).getQuality(), is(75));
+    }
+
+    @Test
+    public void equals_jpegFormatsAreEqualIfQualityIsEqual() {
+        assertThat(EncodingFormat.jpeg(75), is(EncodingFormat.jpeg(75)));
+        assertThat(EncodingFormat.jpeg(75).hashCode(), is(EncodingFormat.jpeg(75).hashCode()));
+        assertThat(EncodingFormat.jpeg(75), is(not(EncodingFormat.jpeg(80))));
+        assertThat(EncodingFormat.jpeg(100), is(not(EncodingFormat.PNG)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jpeg_qualityAbove100ThrowsException() {
+        EncodingFormat.jpeg(101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jpeg_negativeQualityThrowsException() {
+        EncodingFormat.jpeg(-1);
+    }
+}
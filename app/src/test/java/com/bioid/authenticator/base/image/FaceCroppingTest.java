@@ -0,0 +1,116 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FaceCroppingTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+
+    // 120x160 face in the center of the image
+    private static final FaceBounds CENTERED_FACE = new FaceBounds(0.375f, 0.375f, 0.625f, 0.625f);
+
+    @Test
+    public void getCrop_none_wholeImageIsKept() {
+        assertThat(FaceCropping.NONE.getCrop(WIDTH, HEIGHT, CENTERED_FACE), is(nullValue()));
+    }
+
+    @Test
+    public void getCrop_unknownFace_wholeImageIsKept() {
+        assertThat(FaceCropping.withMargin(0.5f, 0).getCrop(WIDTH, HEIGHT, null), is(nullValue()));
+    }
+
+    @Test
+    public void getCrop_marginIsAddedOnEachSide() {
+        CropRect crop = FaceCropping.withMargin(0.5f, 0).getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+
+        assertThat(crop, is(new CropRect(120, 160, 120 * 2, 160 * 2)));
+    }
+
+    @Test
+    public void getCrop_cropIsNotSmallerThanMinimumSize() {
+        CropRect crop = FaceCropping.withMargin(0f, 200).getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+
+        assertThat(crop, is(new CropRect(140, 220, 200, 200)));
+    }
+
+    @Test
+    public void getCrop_faceCloseToBorder_cropIsMovedIntoImage() {
+        FaceBounds faceAtTopLeft = new FaceBounds(0f, 0f, 0.25f, 0.25f);
+
+        CropRect crop = FaceCropping.withMargin(0.5f, 0).getCrop(WIDTH, HEIGHT, faceAtTopLeft);
+
+        assertThat(crop, is(new CropRect(0, 0, 240, 320)));
+    }
+
+    @Test
+    public void getCrop_cropWouldCoverWholeImage_wholeImageIsKept() {
+        assertThat(FaceCropping.withMargin(2f, 0).getCrop(WIDTH, HEIGHT, CENTERED_FACE), is(nullValue()));
+    }
+
+    @Test
+    public void getCrop_emptyFace_wholeImageIsKept() {
+        FaceBounds emptyFace = new FaceBounds(0.5f, 0.5f, 0.5f, 0.5f);
+
+        assertThat(FaceCropping.withMargin(0.5f, 0).getCrop(WIDTH, HEIGHT, emptyFace), is(nullValue()));
+    }
+
+    @Test
+    public void getCrop_eyeBand_bandOfTheEyesWithinTheFaceIsKept() {
+        CropRect crop = FaceCropping.eyeBand(0f, 0, 80).getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+
+        // the face does cover 240 to 400, the center of the band is at 300
+        assertThat(crop, is(new CropRect(180, 260, 120, 80)));
+    }
+
+    @Test
+    public void getCrop_eyeBand_bandIsNarrowerThanTheFace() {
+        CropRect face = FaceCropping.withMargin(0.25f, 0).getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+        CropRect eyes = FaceCropping.eyeBand(0.25f, 0, 0).getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+
+        assertThat(eyes.width, is(face.width));
+        assertThat(eyes.height < face.height / 2, is(true));
+        assertThat(eyes.y > face.y, is(true));
+    }
+
+    @Test
+    public void getCrop_eyeBand_faceMovedBetweenDetectionAndUpload_bandOfTheUploadedImageContainsTheEyes() {
+        FaceCropping eyeBand = FaceCropping.eyeBandWithDefaultMargin();
+        // the face of the detection image does cover 240 to 400 with the eyes at 304,
+        // in the uploaded image the head did move down by 120 pixels
+        FaceBounds movedFace = new FaceBounds(0.375f, 0.5625f, 0.625f, 0.8125f);
+        int eyesInUploadedImage = 304 + 120;
+
+        CropRect staleCrop = eyeBand.getCrop(WIDTH, HEIGHT, CENTERED_FACE);
+        CropRect crop = eyeBand.getCrop(WIDTH, HEIGHT, movedFace);
+
+        assertThat(eyesInUploadedImage < staleCrop.y + staleCrop.height, is(false));
+        assertThat(crop.y < eyesInUploadedImage && eyesInUploadedImage < crop.y + crop.height, is(true));
+    }
+
+    @Test
+    public void fromPixels_boundsAreRelativeToImageSize() {
+        FaceBounds bounds = FaceBounds.fromPixels(180, 240, 120, 160, WIDTH, HEIGHT);
+
+        assertThat(bounds, is(CENTERED_FACE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withMargin_negativeMarginThrowsException() {
+        FaceCropping.withMargin(-0.1f, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withMargin_negativeMinimumSizeThrowsException() {
+        FaceCropping.withMargin(0.5f, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void eyeBand_negativeMinimumHeightThrowsException() {
+        FaceCropping.eyeBand(0.25f, 0, -1);
+    }
+}
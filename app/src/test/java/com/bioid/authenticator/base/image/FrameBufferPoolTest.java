@@ -0,0 +1,73 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class FrameBufferPoolTest {
+
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private FrameBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new FrameBufferPool(MAX_POOLED_BUFFERS);
+    }
+
+    @Test
+    public void acquire_emptyPool_allocatesNewBufferAndCountsMiss() {
+        byte[] buffer = pool.acquire(10);
+
+        assertThat(buffer.length, is(10));
+        assertThat(pool.getMissCount(), is(1L));
+        assertThat(pool.getHitCount(), is(0L));
+    }
+
+    @Test
+    public void acquire_releasedBufferOfSameSize_isReusedAndCountsHit() {
+        byte[] buffer = pool.acquire(10);
+        pool.release(buffer);
+
+        assertThat(pool.acquire(10), is(sameInstance(buffer)));
+        assertThat(pool.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void acquire_releasedBufferOfOtherSize_isNotReused() {
+        byte[] buffer = pool.acquire(10);
+        pool.release(buffer);
+
+        assertThat(pool.acquire(11), is(not(sameInstance(buffer))));
+        assertThat(pool.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void release_fullPool_dropsOldestBuffer() {
+        byte[] oldest = pool.acquire(10);
+        byte[] second = pool.acquire(10);
+        byte[] third = pool.acquire(10);
+        pool.release(oldest);
+        pool.release(second);
+        pool.release(third);
+
+        assertThat(pool.acquire(10), is(sameInstance(second)));
+        assertThat(pool.acquire(10), is(sameInstance(third)));
+        assertThat(pool.acquire(10), is(not(sameInstance(oldest))));
+    }
+
+    @Test
+    public void clear_removesBuffersAndResetsStatistics() {
+        byte[] buffer = pool.acquire(10);
+        pool.release(buffer);
+
+        pool.clear();
+
+        assertThat(pool.getMissCount(), is(0L));
+        assertThat(pool.acquire(10), is(not(sameInstance(buffer))));
+    }
+}
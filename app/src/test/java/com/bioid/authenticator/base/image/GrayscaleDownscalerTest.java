@@ -0,0 +1,183 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class GrayscaleDownscalerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int ROW_STRIDE = 672;
+    private static final int MAX_SIZE = 96;
+
+    private GrayscaleDownscaler downscaler;
+
+    @Before
+    public void setUp() {
+        downscaler = new GrayscaleDownscaler(MAX_SIZE);
+    }
+
+    @Test
+    public void downscale_landscapeImageWithoutRotation_heightIsLimited() {
+        GrayscaleImage img = downscaler.downscale(uniformPlane(100), WIDTH, HEIGHT, ROW_STRIDE, 0, null);
+
+        assertThat(img.width, is(128));
+        assertThat(img.height, is(96));
+    }
+
+    @Test
+    public void downscale_landscapeImageRotatedTo90Degrees_widthIsLimited() {
+        GrayscaleImage img = downscaler.downscale(uniformPlane(100), WIDTH, HEIGHT, ROW_STRIDE, 90, null);
+
+        assertThat(img.width, is(96));
+        assertThat(img.height, is(128));
+    }
+
+    @Test
+    public void downscale_uniformImage_paddingWithinRowStrideIsIgnored() {
+        byte[] yPlane = uniformPlane(100);
+
+        GrayscaleImage img = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 270, null);
+
+        for (byte pixel : img.data) {
+            assertThat(pixel & 0xff, is(100));
+        }
+    }
+
+    @Test
+    public void downscale_boxFilterAveragesAllCoveredPixels() {
+        // alternating columns of 0 and 200 do average to 100 within every 5x5 box
+        byte[] yPlane = new byte[(HEIGHT - 1) * ROW_STRIDE + WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                yPlane[y * ROW_STRIDE + x] = (byte) (x % 2 == 0 ? 0 : 200);
+            }
+        }
+
+        GrayscaleImage img = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 0, null);
+
+        // 5 pixels per box: either 2 or 3 bright pixels
+        for (byte pixel : img.data) {
+            int value = pixel & 0xff;
+            assertThat(value == 80 || value == 120, is(true));
+        }
+    }
+
+    @Test
+    public void downscale_rotationIsAppliedClockwise() {
+        // marking the top left corner of the source image
+        byte[] yPlane = new byte[(HEIGHT - 1) * ROW_STRIDE + WIDTH];
+        for (int y = 0; y < 5; y++) {
+            Arrays.fill(yPlane, y * ROW_STRIDE, y * ROW_STRIDE + 5, (byte) 255);
+        }
+
+        GrayscaleImage rotated0 = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 0, null);
+        GrayscaleImage rotated90 = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 90, null);
+        GrayscaleImage rotated180 = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 180, null);
+        GrayscaleImage rotated270 = downscaler.downscale(yPlane, WIDTH, HEIGHT, ROW_STRIDE, 270, null);
+
+        assertThat(pixel(rotated0, 0, 0), is(255));
+        assertThat(pixel(rotated90, rotated90.width - 1, 0), is(255));
+        assertThat(pixel(rotated180, rotated180.width - 1, rotated180.height - 1), is(255));
+        assertThat(pixel(rotated270, 0, rotated270.height - 1), is(255));
+        assertThat(pixel(rotated90, 0, 0), is(0));
+    }
+
+    @Test
+    public void downscale_matchingImageWillBeReused() {
+        GrayscaleImage first = downscaler.downscale(uniformPlane(10), WIDTH, HEIGHT, ROW_STRIDE, 90, null);
+
+        GrayscaleImage second = downscaler.downscale(uniformPlane(20), WIDTH, HEIGHT, ROW_STRIDE, 90, first);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(second.data[0] & 0xff, is(20));
+    }
+
+    @Test
+    public void downscale_imageWithOtherSizeWillNotBeReused() {
+        GrayscaleImage first = downscaler.downscale(uniformPlane(10), WIDTH, HEIGHT, ROW_STRIDE, 0, null);
+
+        GrayscaleImage second = downscaler.downscale(uniformPlane(20), WIDTH, HEIGHT, ROW_STRIDE, 90, first);
+
+        assertThat(second, is(not(sameInstance(first))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downscale_tooSmallPlaneThrowsException() {
+        downscaler.downscale(new byte[WIDTH], WIDTH, HEIGHT, ROW_STRIDE, 0, null);
+    }
+
+    @Test
+    public void isDownscaling_shorterSideIsLargerThanMaxSize_returnsTrue() {
+        assertThat(downscaler.isDownscaling(WIDTH, HEIGHT), is(true));
+        assertThat(downscaler.isDownscaling(HEIGHT, WIDTH), is(true));
+    }
+
+    @Test
+    public void isDownscaling_shorterSideIsNotLargerThanMaxSize_returnsFalse() {
+        assertThat(downscaler.isDownscaling(WIDTH, MAX_SIZE), is(false));
+        assertThat(downscaler.isDownscaling(MAX_SIZE, HEIGHT), is(false));
+    }
+
+    @Test
+    public void pack_paddingWithinRowStrideIsDropped() {
+        GrayscaleImage img = GrayscaleDownscaler.pack(uniformPlane(100), WIDTH, HEIGHT, ROW_STRIDE, null);
+
+        assertThat(img.width, is(WIDTH));
+        assertThat(img.height, is(HEIGHT));
+        assertThat(img.data.length, is(WIDTH * HEIGHT));
+        for (byte pixel : img.data) {
+            assertThat(pixel & 0xff, is(100));
+        }
+    }
+
+    @Test
+    public void pack_imageIsNotRotated() {
+        // marking the top right corner of the source image
+        byte[] yPlane = uniformPlane(0);
+        yPlane[WIDTH - 1] = (byte) 255;
+
+        GrayscaleImage img = GrayscaleDownscaler.pack(yPlane, WIDTH, HEIGHT, ROW_STRIDE, null);
+
+        assertThat(pixel(img, WIDTH - 1, 0), is(255));
+        assertThat(pixel(img, 0, 0), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pack_tooSmallPlaneThrowsException() {
+        GrayscaleDownscaler.pack(new byte[WIDTH], WIDTH, HEIGHT, ROW_STRIDE, null);
+    }
+
+    @Test
+    public void pack_matchingImageWillBeReused() {
+        GrayscaleImage first = GrayscaleDownscaler.pack(uniformPlane(10), WIDTH, HEIGHT, ROW_STRIDE, null);
+
+        GrayscaleImage second = GrayscaleDownscaler.pack(uniformPlane(20), WIDTH, HEIGHT, ROW_STRIDE, first);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(second.data[0] & 0xff, is(20));
+    }
+
+    private static byte[] uniformPlane(int value) {
+        byte[] yPlane = new byte[(HEIGHT - 1) * ROW_STRIDE + WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(yPlane, y * ROW_STRIDE, y * ROW_STRIDE + WIDTH, (byte) value);
+            if (y < HEIGHT - 1) {
+                // padding bytes must not influence the result
+                Arrays.fill(yPlane, y * ROW_STRIDE + WIDTH, (y + 1) * ROW_STRIDE, (byte) 255);
+            }
+        }
+        return yPlane;
+    }
+
+    private static int pixel(GrayscaleImage img, int x, int y) {
+        return img.data[y * img.width + x] & 0xff;
+    }
+}
@@ -0,0 +1,74 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionManagerTest {
+
+    // opening a connection does not connect, therefore no network is needed
+    private static final String HTTPS_URL = "https://localhost/extension/upload";
+    private static final String HTTP_URL = "http://localhost/extension/upload";
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private SSLSocketFactory sslSocketFactory;
+
+    private ConnectionManager connectionManager;
+
+    @Before
+    public void setUp() {
+        connectionManager = new ConnectionManager(log, sslSocketFactory);
+    }
+
+    @Test
+    public void create_httpsConnectionsAreCounted() throws Exception {
+        connectionManager.create(new URL(HTTPS_URL));
+        connectionManager.create(new URL(HTTPS_URL));
+
+        assertThat(connectionManager.getConnectionCount(), is(2));
+    }
+
+    @Test
+    public void create_httpConnectionsAreNotCounted() throws Exception {
+        connectionManager.create(new URL(HTTP_URL));
+
+        assertThat(connectionManager.getConnectionCount(), is(0));
+    }
+
+    @Test
+    public void create_allConnectionsShareTheSameSocketFactory() throws Exception {
+        HttpsURLConnection first = (HttpsURLConnection) connectionManager.create(new URL(HTTPS_URL));
+        HttpsURLConnection second = (HttpsURLConnection) connectionManager.create(new URL(HTTPS_URL));
+
+        assertThat(first.getSSLSocketFactory(), is(sameInstance(second.getSSLSocketFactory())));
+    }
+
+    @Test
+    public void getReusedConnectionCount_connectionsWithoutHandshakeAreCountedAsReused() throws Exception {
+        HttpsURLConnection connection = (HttpsURLConnection) connectionManager.create(new URL(HTTPS_URL));
+        connectionManager.create(new URL(HTTPS_URL));
+        connectionManager.create(new URL(HTTPS_URL));
+
+        // only the first connection had to perform a TLS handshake
+        connection.getSSLSocketFactory().createSocket(null, "localhost", 443, true);
+
+        assertThat(connectionManager.getHandshakeCount(), is(1));
+        assertThat(connectionManager.getReusedConnectionCount(), is(2));
+    }
+}
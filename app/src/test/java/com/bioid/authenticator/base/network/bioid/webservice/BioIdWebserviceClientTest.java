@@ -3,6 +3,10 @@ package com.bioid.authenticator.base.network.bioid.webservice;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 
+import com.bioid.authenticator.base.image.CropRect;
+import com.bioid.authenticator.base.image.EncodingFormat;
+import com.bioid.authenticator.base.image.FaceBounds;
+import com.bioid.authenticator.base.image.FaceCropping;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.network.HttpRequest;
@@ -13,6 +17,8 @@ import com.bioid.authenticator.base.network.TechnicalException;
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
 import com.bioid.authenticator.testutil.Mocks;
 
 import org.json.JSONException;
@@ -23,6 +29,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 
@@ -37,9 +47,27 @@ public class BioIdWebserviceClientTest {
             super(httpRequestHelper, log, encoder);
         }
 
+        BioIdWebserviceClientForTest(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                                     EncodingFormat uploadFormat) {
+            super(httpRequestHelper, log, encoder, uploadFormat);
+        }
+
+        BioIdWebserviceClientForTest(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                                     EncodingFormat uploadFormat, FaceCropping uploadCropping) {
+            super(httpRequestHelper, log, encoder, uploadFormat, uploadCropping);
+        }
+
+        BioIdWebserviceClientForTest(HttpRequestHelper httpRequestHelper, LoggingHelper log, Encoder encoder,
+                                     EncodingFormat uploadFormat, FaceCropping uploadCropping,
+                                     FaceCropping periocularCropping) {
+            super(httpRequestHelper, log, encoder, uploadFormat, uploadCropping, periocularCropping);
+        }
+
         @Override
-        protected HttpRequest createUploadImageRequest(@NonNull byte[] imgAsDataUrl, @NonNull BwsToken token,
-                                                       @NonNull MovementDirection direction, @IntRange(from = 1) int index) {
+        protected HttpRequest createUploadImageRequest(@NonNull DataUrlBody imgAsDataUrl, @NonNull BwsToken token,
+                                                       @NonNull MovementDirection direction, @IntRange(from = 1) int index,
+                                                       @NonNull CancellationToken cancellationToken) {
+            uploadedDataUrl = imgAsDataUrl;
             return uploadImageRequest;
         }
 
@@ -59,7 +87,9 @@ public class BioIdWebserviceClientTest {
     private static final MovementDirection DIRECTION = MovementDirection.any;
     private static final int UPLOAD_INDEX = 1;
     private static final byte[] PNG = {1, 2, 3};
-    private static final byte[] PNG_AS_BASE64 = {4, 5, 6};
+    private static final byte[] CROPPED_PNG = {1, 2};
+    private static final CropRect FACE_CROP = new CropRect(0, 80, 480, 320);
+    private static final CropRect EYE_BAND_CROP = new CropRect(120, 170, 240, 100);
 
     @Mock
     private HttpRequestHelper httpRequestHelper;
@@ -85,6 +115,7 @@ public class BioIdWebserviceClientTest {
     private BwsToken bwsToken;
 
     private BioIdWebserviceClient bioIdWebserviceClient;
+    private DataUrlBody uploadedDataUrl;
 
     @Before
     public void setUp() throws Exception {
@@ -94,9 +125,7 @@ public class BioIdWebserviceClientTest {
         when(httpRequestHelper.asJsonIfOk(enrollmentResultRequest)).thenReturn(enrollmentResult);
         when(httpRequestHelper.asJsonIfOk(uploadImageRequest)).thenReturn(uploadResult);
 
-        when(img.asPNG()).thenReturn(PNG);
-
-        when(encoder.encodeAsBase64(PNG)).thenReturn(PNG_AS_BASE64);
+        when(img.encode(EncodingFormat.PNG, null)).thenReturn(PNG);
 
         when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(true);
         when(enrollmentResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(true);
@@ -273,6 +302,25 @@ public class BioIdWebserviceClientTest {
         uploadImage();
     }
 
+    @Test(expected = CancelledException.class)
+    public void testUploadImage_throwsExceptionIfCancelledBeforeUpload() {
+        CancellationToken cancellationToken = new CancellationToken();
+        cancellationToken.cancel();
+
+        bioIdWebserviceClient.uploadImage(img, bwsToken, DIRECTION, UPLOAD_INDEX, cancellationToken);
+    }
+
+    @Test(expected = CancelledException.class)
+    public void testUploadImage_throwsExceptionIfConnectionWasClosedBecauseOfCancellation() {
+        CancellationToken cancellationToken = new CancellationToken();
+        doAnswer(invocation -> {
+            cancellationToken.cancel();
+            throw new NoConnectionException(null);
+        }).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+
+        bioIdWebserviceClient.uploadImage(img, bwsToken, DIRECTION, UPLOAD_INDEX, cancellationToken);
+    }
+
     @Test(expected = ServerErrorException.class)
     public void testUpload_throwsExceptionIfServerCouldNotProcessTheRequest() {
         doThrow(ServerErrorException.class).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
@@ -291,6 +339,172 @@ public class BioIdWebserviceClientTest {
         uploadImage();
     }
 
+    @Test
+    public void testUploadImage_uploadsPngDataUrlByDefault() {
+        uploadImage();
+
+        assertThat(uploadedDataUrl.getMimeType(), is("image/png"));
+    }
+
+    @Test
+    public void testUploadImage_uploadsImageInConfiguredFormat() {
+        EncodingFormat jpeg = EncodingFormat.jpeg(80);
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, jpeg);
+        when(img.encode(jpeg, null)).thenReturn(PNG);
+
+        uploadImage();
+
+        assertThat(uploadedDataUrl.getMimeType(), is("image/jpeg"));
+    }
+
+    @Test
+    public void testUploadImage_withFaceCropping_uploadsRegionAroundTheFace() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0));
+        mockFaceWithinImage();
+        when(img.encode(EncodingFormat.PNG, FACE_CROP)).thenReturn(CROPPED_PNG);
+
+        CropStatistics statistics = uploadImage();
+
+        assertThat(uploadedDataUrl.getMimeType(), is("image/png"));
+        assertThat(statistics.crop, is(FACE_CROP));
+        assertThat(statistics.cropSkipped, is(false));
+        assertThat(statistics.encodedSize, is(CROPPED_PNG.length));
+        assertThat(statistics.getPixelRatio(), is(0.5f));
+    }
+
+    @Test
+    public void testUploadImage_withFaceCroppingButUnknownFace_uploadsWholeImage() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withDefaultMargin());
+
+        CropStatistics statistics = uploadImage();
+
+        assertThat(statistics.crop, is(nullValue()));
+        assertThat(statistics.cropSkipped, is(true));
+        assertThat(statistics.encodedSize, is(PNG.length));
+        assertThat(statistics.getPixelRatio(), is(1f));
+    }
+
+    @Test
+    public void testUploadImage_withoutFaceCropping_cropIsNotSkipped() {
+        CropStatistics statistics = uploadImage();
+
+        assertThat(statistics.crop, is(nullValue()));
+        assertThat(statistics.cropSkipped, is(false));
+    }
+
+    @Test
+    public void testEncodeForUpload_encodesTheRegionWhichIsUploaded() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0));
+        mockFaceWithinImage();
+        when(img.encode(EncodingFormat.PNG, FACE_CROP)).thenReturn(CROPPED_PNG);
+
+        assertThat(bioIdWebserviceClient.encodeForUpload(img, bwsToken, DIRECTION), is(CROPPED_PNG));
+    }
+
+    @Test
+    public void testUploadImage_periocularOnlyToken_uploadsEyeBand() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.eyeBand(0f, 0, 100));
+        mockFaceWithinImage();
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+        when(img.encode(EncodingFormat.PNG, EYE_BAND_CROP)).thenReturn(CROPPED_PNG);
+
+        CropStatistics statistics = uploadImage();
+
+        assertThat(statistics.crop, is(EYE_BAND_CROP));
+    }
+
+    @Test
+    public void testUploadImage_periocularOnlyTokenAndHeadMovedUp_uploadsRegionAroundTheFace() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.eyeBand(0f, 0, 100));
+        mockFaceWithinImage();
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+        when(img.encode(EncodingFormat.PNG, FACE_CROP)).thenReturn(CROPPED_PNG);
+
+        CropStatistics statistics = bioIdWebserviceClient.uploadImage(img, bwsToken, MovementDirection.up, UPLOAD_INDEX,
+                new CancellationToken());
+
+        assertThat(statistics.crop, is(FACE_CROP));
+    }
+
+    @Test
+    public void testUploadImage_periocularOnlyTokenAndHeadMovedDown_uploadsRegionAroundTheFace() {
+        // intended fallback, the eyes could leave a band derived from the bounds of a face turned up or down
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.eyeBand(0f, 0, 100));
+        mockFaceWithinImage();
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+        when(img.encode(EncodingFormat.PNG, FACE_CROP)).thenReturn(CROPPED_PNG);
+
+        CropStatistics statistics = bioIdWebserviceClient.uploadImage(img, bwsToken, MovementDirection.down, UPLOAD_INDEX,
+                new CancellationToken());
+
+        assertThat(statistics.crop, is(FACE_CROP));
+    }
+
+    @Test
+    public void testIsCropping_periocularOnlyTokenAndHeadMovedUpWithoutFaceCropping_returnsFalse() {
+        // the whole image is uploaded for up and down movements if only the eye band cropping is used
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.NONE, FaceCropping.eyeBand(0f, 0, 100));
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+
+        assertThat(bioIdWebserviceClient.isCropping(bwsToken, MovementDirection.up), is(false));
+        assertThat(bioIdWebserviceClient.isCropping(bwsToken, MovementDirection.left), is(true));
+    }
+
+    @Test
+    public void testUploadImage_faceAndPeriocularToken_uploadsRegionAroundTheFace() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.eyeBand(0f, 0, 100));
+        mockFaceWithinImage();
+        when(bwsToken.hasFaceTrait()).thenReturn(true);
+        when(img.encode(EncodingFormat.PNG, FACE_CROP)).thenReturn(CROPPED_PNG);
+
+        CropStatistics statistics = uploadImage();
+
+        assertThat(statistics.crop, is(FACE_CROP));
+    }
+
+    @Test
+    public void testEncodeForUpload_periocularOnlyToken_encodesEyeBand() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.eyeBand(0f, 0, 100));
+        mockFaceWithinImage();
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+        when(img.encode(EncodingFormat.PNG, EYE_BAND_CROP)).thenReturn(CROPPED_PNG);
+
+        assertThat(bioIdWebserviceClient.encodeForUpload(img, bwsToken, DIRECTION), is(CROPPED_PNG));
+    }
+
+    @Test
+    public void testIsCropping_periocularOnlyTokenWithoutEyeBandCropping_returnsFalse() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.NONE);
+        when(bwsToken.hasFaceTrait()).thenReturn(false);
+        when(bwsToken.hasPeriocularTrait()).thenReturn(true);
+
+        assertThat(bioIdWebserviceClient.isCropping(bwsToken, DIRECTION), is(false));
+    }
+
+    @Test
+    public void testIsCropping_faceTokenWithFaceCropping_returnsTrue() {
+        bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, EncodingFormat.PNG,
+                FaceCropping.withMargin(0.5f, 0), FaceCropping.NONE);
+        when(bwsToken.hasFaceTrait()).thenReturn(true);
+
+        assertThat(bioIdWebserviceClient.isCropping(bwsToken, DIRECTION), is(true));
+    }
+
     @Test(expected = TechnicalException.class)
     public void testUploadImage_throwsExceptionIfJsonHasMissingKeys() throws Exception {
         doThrow(JSONException.class).when(uploadResult).getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED);
@@ -307,8 +521,15 @@ public class BioIdWebserviceClientTest {
         bioIdWebserviceClient.enroll(ENROLLMENT_TOKEN);
     }
 
-    private void uploadImage() {
+    private CropStatistics uploadImage() {
         // actual values are not relevant for test
-        bioIdWebserviceClient.uploadImage(img, bwsToken, DIRECTION, UPLOAD_INDEX);
+        return bioIdWebserviceClient.uploadImage(img, bwsToken, DIRECTION, UPLOAD_INDEX, new CancellationToken());
+    }
+
+    private void mockFaceWithinImage() {
+        // 240x160 face in the upper half of a 480x640 image, the crop is kept within the image
+        when(img.getRotatedWidth()).thenReturn(480);
+        when(img.getRotatedHeight()).thenReturn(640);
+        when(img.getFaceBounds()).thenReturn(new FaceBounds(0.25f, 0.25f, 0.75f, 0.5f));
     }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DataUrlBodyTest {
+
+    private final Encoder encoder = new Encoder();
+
+    @Test
+    public void writeTo_writesBase64EncodedDataUrl() throws IOException {
+        DataUrlBody body = new DataUrlBody("image/png", new byte[]{'a', 'b', 'c', 'd'}, encoder);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        body.writeTo(out);
+
+        assertThat(out.toString("UTF-8"), is("data:image/png;base64,YWJjZA=="));
+    }
+
+    @Test
+    public void length_matchesNumberOfWrittenBytes() throws IOException {
+        for (int size = 0; size < 10; size++) {
+            DataUrlBody body = new DataUrlBody("image/jpeg", new byte[size], encoder);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            body.writeTo(out);
+
+            assertThat(body.length(), is((long) out.size()));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EncoderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Encoder encoder = new Encoder();
+
+    @Test
+    public void encodeAsBase64_sameOutputAsJdkEncoder() throws IOException {
+        Random random = new Random(42);
+        for (int size = 0; size < 20_000; size += 1 + random.nextInt(500)) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            assertThat(encode(bytes), is(Base64.getEncoder().encodeToString(bytes)));
+        }
+    }
+
+    @Test
+    public void encodeAsBase64_withPadding() throws IOException {
+        assertThat(encode("a".getBytes(UTF8)), is("YQ=="));
+        assertThat(encode("ab".getBytes(UTF8)), is("YWI="));
+        assertThat(encode("abc".getBytes(UTF8)), is("YWJj"));
+    }
+
+    @Test
+    public void encodeAsBase64_noBytes_nothingIsWritten() throws IOException {
+        assertThat(encode(new byte[0]), is(""));
+    }
+
+    @Test
+    public void encodeAsBase64_streamIsNotClosed() throws IOException {
+        final boolean[] closed = {false};
+        OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        encoder.encodeAsBase64(new byte[100], out);
+
+        assertThat(closed[0], is(false));
+    }
+
+    @Test
+    public void getBase64Length_matchesNumberOfWrittenBytes() throws IOException {
+        for (int size = 0; size < 10; size++) {
+            assertThat(encoder.getBase64Length(size), is((long) encode(new byte[size]).length()));
+        }
+    }
+
+    @Test
+    public void decodeBase64_urlSafeAlphabet() {
+        String json = "{\"task\":\"<?>\",\"traits\":\"~~~\"}";
+        String encoded = Base64.getUrlEncoder().encodeToString(json.getBytes(UTF8));
+
+        assertThat(encoder.decodeBase64(encoded), is(json));
+    }
+
+    @Test
+    public void decodeBase64_paddingIsOptional() {
+        assertThat(encoder.decodeBase64("YQ"), is("a"));
+        assertThat(encoder.decodeBase64("YWI"), is("ab"));
+        assertThat(encoder.decodeBase64("YWI="), is("ab"));
+    }
+
+    @Test
+    public void decodeBase64_charactersOutsideOfTheAlphabetAreSkipped() {
+        assertThat(encoder.decodeBase64("YW\nJj\r\n"), is("abc"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeBase64_incompleteGroup_throwsException() {
+        encoder.decodeBase64("YWJjZ");
+    }
+
+    private String encode(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encodeAsBase64(bytes, out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,59 @@
+package com.bioid.authenticator.base.threading;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CancellationTokenTest {
+
+    private final CancellationToken token = new CancellationToken();
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void newToken_isNotCancelled() {
+        assertThat(token.isCancelled(), is(false));
+        token.throwIfCancelled();
+    }
+
+    @Test(expected = CancelledException.class)
+    public void throwIfCancelled_throwsExceptionIfCancelled() {
+        token.cancel();
+
+        token.throwIfCancelled();
+    }
+
+    @Test
+    public void cancel_listenerIsCalledOnce() {
+        token.setOnCancelListener(() -> calls.add("cancelled"));
+
+        token.cancel();
+        token.cancel();
+
+        assertThat(token.isCancelled(), is(true));
+        assertThat(calls, is(Arrays.asList("cancelled")));
+    }
+
+    @Test
+    public void setOnCancelListener_ifAlreadyCancelled_listenerIsCalledImmediately() {
+        token.cancel();
+
+        token.setOnCancelListener(() -> calls.add("cancelled"));
+
+        assertThat(calls, is(Arrays.asList("cancelled")));
+    }
+
+    @Test
+    public void setOnCancelListener_replacesPreviousListener() {
+        token.setOnCancelListener(() -> calls.add("first"));
+        token.setOnCancelListener(() -> calls.add("second"));
+
+        token.cancel();
+
+        assertThat(calls, is(Arrays.asList("second")));
+    }
+}
@@ -0,0 +1,33 @@
+package com.bioid.authenticator.base.threading;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DropPolicyTest {
+
+    private static final long NOW_IN_NANOS = 5_000_000_000L;
+
+    private final DropPolicy<Long> olderThan100ms = DropPolicy.olderThan(100, timestamp -> timestamp, () -> NOW_IN_NANOS);
+
+    @Test
+    public void latestWins_itemIsNeverStale() {
+        assertThat(DropPolicy.<Long>latestWins().isStale(0L), is(false));
+    }
+
+    @Test
+    public void olderThan_recentItem_isNotStale() {
+        assertThat(olderThan100ms.isStale(NOW_IN_NANOS - 20_000_000L), is(false));
+    }
+
+    @Test
+    public void olderThan_itemWithMaximumAge_isNotStale() {
+        assertThat(olderThan100ms.isStale(NOW_IN_NANOS - 100_000_000L), is(false));
+    }
+
+    @Test
+    public void olderThan_olderItem_isStale() {
+        assertThat(olderThan100ms.isStale(NOW_IN_NANOS - 100_000_001L), is(true));
+    }
+}
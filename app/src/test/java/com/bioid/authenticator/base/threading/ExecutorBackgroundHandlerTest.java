@@ -0,0 +1,249 @@
+package com.bioid.authenticator.base.threading;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ExecutorBackgroundHandlerTest {
+
+    /**
+     * Does collect all runnables until they are executed explicitly.
+     */
+    private static class QueueingExecutor implements Executor {
+
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queued.add(runnable);
+        }
+
+        void runAll() {
+            List<Runnable> runnables = new ArrayList<>(queued);
+            queued.clear();
+            for (Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Does collect all runnables posted to the main thread until they are executed explicitly.
+     */
+    private static class FakeMainThread extends QueueingExecutor implements ExecutorBackgroundHandler.MainThread {
+
+        private final Map<Runnable, Long> delayed = new LinkedHashMap<>();
+
+        @Override
+        public void post(Runnable runnable) {
+            execute(runnable);
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayInMillis) {
+            delayed.put(runnable, delayInMillis);
+        }
+
+        @Override
+        public void remove(Runnable runnable) {
+            delayed.remove(runnable);
+        }
+    }
+
+    private final QueueingExecutor computationExecutor = new QueueingExecutor();
+    private final QueueingExecutor ioExecutor = new QueueingExecutor();
+    private final FakeMainThread mainThread = new FakeMainThread();
+    private final List<String> calls = new ArrayList<>();
+
+    private ExecutorBackgroundHandler backgroundHandler;
+
+    @Before
+    public void setUp() {
+        backgroundHandler = new ExecutorBackgroundHandler(computationExecutor, ioExecutor, mainThread);
+    }
+
+    private void record(String call) {
+        calls.add(call);
+    }
+
+    @Test
+    public void runOnBackgroundThread_supplierIsExecutedByIoExecutor() {
+        backgroundHandler.runOnBackgroundThread(() -> "result", result -> calls.add(result), null, null);
+
+        assertThat(ioExecutor.queued.size(), is(1));
+        assertThat(computationExecutor.queued.size(), is(0));
+    }
+
+    @Test
+    public void runComputationOnBackgroundThread_supplierIsExecutedByComputationExecutor() {
+        backgroundHandler.runComputationOnBackgroundThread(() -> "result", result -> calls.add(result), null, null);
+
+        assertThat(computationExecutor.queued.size(), is(1));
+        assertThat(ioExecutor.queued.size(), is(0));
+    }
+
+    @Test
+    public void runOnBackgroundThread_callbacksAreExecutedOnMainThreadInOrder() {
+        backgroundHandler.runOnBackgroundThread(() -> "result", result -> calls.add("onSuccess: " + result),
+                e -> calls.add("onError"), () -> record("onComplete"));
+
+        ioExecutor.runAll();
+        assertThat(calls.isEmpty(), is(true));  // callbacks are not executed by the background thread
+
+        mainThread.runAll();
+        assertThat(calls, is(Arrays.asList("onComplete", "onSuccess: result")));
+    }
+
+    @Test
+    public void runOnBackgroundThread_ifRunnableFailed_onErrorIsCalled() {
+        RuntimeException exception = new RuntimeException("failed");
+        backgroundHandler.runOnBackgroundThread(() -> {
+            throw exception;
+        }, () -> record("onSuccess"), e -> calls.add("onError: " + e.getMessage()), () -> record("onComplete"));
+
+        ioExecutor.runAll();
+        mainThread.runAll();
+
+        assertThat(calls, is(Arrays.asList("onComplete", "onError: failed")));
+    }
+
+    @Test
+    public void runOnBackgroundThread_ifOnCompleteFailed_onErrorIsCalledInsteadOfOnSuccess() {
+        backgroundHandler.runOnBackgroundThread(() -> record("runnable"), () -> record("onSuccess"),
+                e -> calls.add("onError: " + e.getMessage()), () -> {
+                    throw new RuntimeException("onComplete failed");
+                });
+
+        ioExecutor.runAll();
+        mainThread.runAll();
+
+        assertThat(calls, is(Arrays.asList("runnable", "onError: onComplete failed")));
+    }
+
+    @Test
+    public void unsubscribeFromBackgroundTask_callbacksAreNotExecuted() {
+        int taskId = backgroundHandler.runOnBackgroundThread(() -> record("runnable"), () -> record("onSuccess"),
+                e -> calls.add("onError"), () -> record("onComplete"));
+
+        ioExecutor.runAll();
+        backgroundHandler.unsubscribeFromBackgroundTask(taskId);
+        mainThread.runAll();
+
+        assertThat(calls, is(Arrays.asList("runnable")));  // runnables can not be interrupted
+    }
+
+    @Test
+    public void unsubscribeFromAllBackgroundTasks_callbacksAreNotExecuted() {
+        backgroundHandler.runOnBackgroundThread(() -> record("io"), () -> record("onSuccess io"), null, null);
+        backgroundHandler.runComputationOnBackgroundThread(() -> record("computation"),
+                () -> record("onSuccess computation"), null, null);
+
+        ioExecutor.runAll();
+        computationExecutor.runAll();
+        backgroundHandler.unsubscribeFromAllBackgroundTasks();
+        mainThread.runAll();
+
+        assertThat(calls, is(Arrays.asList("io", "computation")));
+    }
+
+    @Test
+    public void unsubscribeFromBackgroundTask_tokenOfStartedOperationIsCancelled() {
+        List<CancellationToken> tokens = new ArrayList<>();
+        int taskId = backgroundHandler.runComputationOnBackgroundThread(token -> tokens.add(token),
+                result -> record("onSuccess"), null, null);
+        computationExecutor.runAll();
+
+        backgroundHandler.unsubscribeFromBackgroundTask(taskId);
+        mainThread.runAll();
+
+        assertThat(tokens.get(0).isCancelled(), is(true));
+        assertThat(calls.isEmpty(), is(true));
+    }
+
+    @Test
+    public void unsubscribeFromBackgroundTask_operationWhichDidNotStartYetIsNotExecuted() {
+        int taskId = backgroundHandler.runOnBackgroundThread((CancellationToken token) -> record("operation"),
+                () -> record("onSuccess"), null, null);
+
+        backgroundHandler.unsubscribeFromBackgroundTask(taskId);
+        ioExecutor.runAll();
+        mainThread.runAll();
+
+        assertThat(calls.isEmpty(), is(true));
+    }
+
+    @Test
+    public void unsubscribeFromAllBackgroundTasks_tokensAreCancelled() {
+        List<CancellationToken> tokens = new ArrayList<>();
+        backgroundHandler.runOnBackgroundThread((CancellationToken token) -> tokens.add(token), null, null, null);
+        backgroundHandler.runComputationOnBackgroundThread(token -> tokens.add(token), result -> record("onSuccess"),
+                null, null);
+        ioExecutor.runAll();
+        computationExecutor.runAll();
+
+        backgroundHandler.unsubscribeFromAllBackgroundTasks();
+
+        assertThat(tokens.size(), is(2));
+        assertThat(tokens.get(0).isCancelled(), is(true));
+        assertThat(tokens.get(1).isCancelled(), is(true));
+    }
+
+    @Test
+    public void taskIdsAreUnique() {
+        int first = backgroundHandler.runOnBackgroundThread(() -> record("runnable"), null, null, null);
+        int second = backgroundHandler.runWithDelay(() -> record("delayed"), 100);
+        int third = backgroundHandler.runComputationOnBackgroundThread(() -> record("computation"), null, null, null);
+
+        assertThat(first, is(not(second)));
+        assertThat(second, is(not(third)));
+        assertThat(first, is(not(third)));
+    }
+
+    @Test
+    public void runWithDelay_runnableIsExecutedOnMainThreadAfterDelay() {
+        backgroundHandler.runWithDelay(() -> record("delayed"), 100);
+
+        assertThat(new ArrayList<>(mainThread.delayed.values()), is(Arrays.asList(100L)));
+        assertThat(calls.isEmpty(), is(true));
+
+        mainThread.delayed.keySet().iterator().next().run();
+        assertThat(calls, is(Arrays.asList("delayed")));
+    }
+
+    @Test
+    public void cancelScheduledTask_runnableIsNotExecuted() {
+        int taskId = backgroundHandler.runWithDelay(() -> record("delayed"), 100);
+        Runnable scheduledTask = mainThread.delayed.keySet().iterator().next();
+
+        backgroundHandler.cancelScheduledTask(taskId);
+
+        assertThat(mainThread.delayed.isEmpty(), is(true));
+        scheduledTask.run();  // even if the main thread did already pick up the runnable
+        assertThat(calls.isEmpty(), is(true));
+    }
+
+    @Test
+    public void cancelAllScheduledTasks_runnablesAreNotExecuted() {
+        backgroundHandler.runWithDelay(() -> record("first"), 100);
+        backgroundHandler.runWithDelay(() -> record("second"), 200);
+        List<Runnable> scheduledTasks = new ArrayList<>(mainThread.delayed.keySet());
+
+        backgroundHandler.cancelAllScheduledTasks();
+
+        assertThat(mainThread.delayed.isEmpty(), is(true));
+        for (Runnable scheduledTask : scheduledTasks) {
+            scheduledTask.run();
+        }
+        assertThat(calls.isEmpty(), is(true));
+    }
+}
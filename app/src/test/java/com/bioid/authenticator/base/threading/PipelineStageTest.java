@@ -0,0 +1,218 @@
+package com.bioid.authenticator.base.threading;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PipelineStageTest {
+
+    /**
+     * Does collect all runnables until they are executed explicitly.
+     */
+    private static class QueueingExecutor implements Executor {
+
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queued.add(runnable);
+        }
+
+        void runAll() {
+            List<Runnable> runnables = new ArrayList<>(queued);
+            queued.clear();
+            for (Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+
+    @Mock
+    private LoggingHelper log;
+
+    private final QueueingExecutor executor = new QueueingExecutor();
+    private final List<Integer> processed = new ArrayList<>();
+    private final List<Integer> passedOn = new ArrayList<>();
+    private final List<Integer> discarded = new ArrayList<>();
+
+    private PipelineStage<Integer, Integer> createStage(int capacity, DropPolicy<Integer> dropPolicy) {
+        return new PipelineStage<>(log, "test", executor, capacity, dropPolicy, item -> {
+            processed.add(item);
+            return item * 10;
+        }, passedOn::add, discarded::add);
+    }
+
+    @Test
+    public void offer_itemsAreProcessedOnTheExecutorInOrderAndPassedOn() {
+        PipelineStage<Integer, Integer> stage = createStage(3, DropPolicy.latestWins());
+
+        stage.offer(1);
+        stage.offer(2);
+        assertThat(processed.isEmpty(), is(true));
+        executor.runAll();
+
+        assertThat(processed, is(Arrays.asList(1, 2)));
+        assertThat(passedOn, is(Arrays.asList(10, 20)));
+        assertThat(discarded.isEmpty(), is(true));
+    }
+
+    @Test
+    public void offer_stageIsScheduledOnlyOnceWhileItemsAreQueued() {
+        PipelineStage<Integer, Integer> stage = createStage(3, DropPolicy.latestWins());
+
+        stage.offer(1);
+        stage.offer(2);
+
+        assertThat(executor.queued.size(), is(1));
+    }
+
+    @Test
+    public void offer_queueIsFull_oldestItemIsDiscarded() {
+        PipelineStage<Integer, Integer> stage = createStage(1, DropPolicy.latestWins());
+
+        stage.offer(1);
+        stage.offer(2);
+        stage.offer(3);
+        executor.runAll();
+
+        assertThat(discarded, is(Arrays.asList(1, 2)));
+        assertThat(processed, is(Collections.singletonList(3)));
+        assertThat(stage.toString(), is("test{processed=1, dropped=2, queued=0}"));
+    }
+
+    @Test
+    public void offer_staleItem_isDiscardedInsteadOfProcessed() {
+        PipelineStage<Integer, Integer> stage = createStage(3, item -> item % 2 == 0);
+
+        stage.offer(1);
+        stage.offer(2);
+        stage.offer(3);
+        executor.runAll();
+
+        assertThat(processed, is(Arrays.asList(1, 3)));
+        assertThat(discarded, is(Collections.singletonList(2)));
+    }
+
+    @Test
+    public void offer_resultIsNull_nothingIsPassedOn() {
+        PipelineStage<Integer, Integer> stage = new PipelineStage<>(log, "test", executor, 1, DropPolicy.latestWins(),
+                item -> null, passedOn::add, discarded::add);
+
+        stage.offer(1);
+        executor.runAll();
+
+        assertThat(passedOn.isEmpty(), is(true));
+        assertThat(discarded.isEmpty(), is(true));
+    }
+
+    @Test
+    public void offer_failedWork_itemIsDroppedAndNextItemIsProcessed() {
+        PipelineStage<Integer, Integer> stage = new PipelineStage<>(log, "test", executor, 2, DropPolicy.latestWins(),
+                item -> {
+                    if (item == 1) {
+                        throw new IllegalStateException();
+                    }
+                    return item;
+                }, passedOn::add, discarded::add);
+
+        stage.offer(1);
+        stage.offer(2);
+        executor.runAll();
+
+        assertThat(passedOn, is(Collections.singletonList(2)));
+        assertThat(discarded.isEmpty(), is(true));
+        assertThat(stage.toString(), is("test{processed=1, dropped=1, queued=0}"));
+        verify(log).w(any(IllegalStateException.class), anyString(), any());
+    }
+
+    @Test
+    public void offer_afterFailedWork_stageIsRestarted() {
+        PipelineStage<Integer, Integer> stage = new PipelineStage<>(log, "test", executor, 1, DropPolicy.latestWins(),
+                item -> {
+                    if (item == 1) {
+                        throw new IllegalStateException();
+                    }
+                    return item;
+                }, passedOn::add, discarded::add);
+
+        stage.offer(1);
+        executor.runAll();
+        stage.offer(2);
+        executor.runAll();
+
+        assertThat(passedOn, is(Collections.singletonList(2)));
+    }
+
+    @Test
+    public void clear_queuedItemsAreDiscarded() {
+        PipelineStage<Integer, Integer> stage = createStage(3, DropPolicy.latestWins());
+        stage.offer(1);
+        stage.offer(2);
+
+        stage.clear();
+        executor.runAll();
+
+        assertThat(discarded, is(Arrays.asList(1, 2)));
+        assertThat(processed.isEmpty(), is(true));
+    }
+
+    @Test(timeout = 5000)
+    public void offer_consecutiveItemsAreProcessedByMultipleStagesAtTheSameTime() throws InterruptedException {
+        final CountDownLatch secondItemIsProcessedByFirstStage = new CountDownLatch(1);
+        final CountDownLatch firstItemIsProcessedBySecondStage = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+
+        PipelineStage<Integer, Integer> second = new PipelineStage<>(log, "second", PipelineStage.createExecutor("second"), 1,
+                DropPolicy.latestWins(), item -> {
+            if (item == 1) {
+                firstItemIsProcessedBySecondStage.countDown();
+                await(secondItemIsProcessedByFirstStage);
+            }
+            done.countDown();
+            return null;
+        }, null, discarded::add);
+        PipelineStage<Integer, Integer> first = new PipelineStage<>(log, "first", PipelineStage.createExecutor("first"), 1,
+                DropPolicy.latestWins(), item -> {
+            if (item == 2) {
+                secondItemIsProcessedByFirstStage.countDown();
+                await(firstItemIsProcessedBySecondStage);
+            }
+            return item;
+        }, second::offer, discarded::add);
+
+        first.offer(1);
+        await(firstItemIsProcessedBySecondStage);
+        first.offer(2);
+
+        assertThat(done.await(4, TimeUnit.SECONDS), is(true));
+        assertThat(discarded.isEmpty(), is(true));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(4, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("stages are not running at the same time");
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.camera.FaceStatistics;
+import com.bioid.authenticator.base.image.FaceBounds;
+import com.bioid.authenticator.base.image.Yuv420Image;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.FaceDetector;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FaceDetectionTest {
+
+    private static final long TIMESTAMP = 5_000_000_000L;
+    private static final FaceBounds FACE_BOUNDS = new FaceBounds(0.25f, 0.2f, 0.75f, 0.6f);
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private FaceDetector detector;
+    @Mock
+    private FaceStatistics faceStatistics;
+    @Mock
+    private Yuv420Image img;
+
+    private final CancellationToken token = new CancellationToken();
+    private FaceDetection faceDetection;
+
+    @Before
+    public void setUp() {
+        faceDetection = new FaceDetection(log, detector);
+    }
+
+    @Test
+    public void containsFace_cameraDidDetectFace_detectorIsNotUsed() {
+        mockFaceCountReportedByCamera(1);
+
+        assertThat(faceDetection.containsFace(img, token), is(true));
+        verify(img, never()).readDetectionImage(any());
+        verify(detector, never()).detect(any(Frame.class));
+    }
+
+    @Test
+    public void containsFace_cameraDidDetectFace_boundsReportedByTheCameraAreAttached() {
+        mockFaceCountReportedByCamera(1);
+        mockFaceBoundsReportedByCamera();
+
+        faceDetection.containsFace(img, token);
+
+        verify(img).setFaceBounds(FACE_BOUNDS);
+    }
+
+    @Test
+    public void containsFace_cameraDidNotDetectFace_detectorIsNotUsed() {
+        mockFaceCountReportedByCamera(0);
+
+        assertThat(faceDetection.containsFace(img, token), is(false));
+        verify(img, never()).readDetectionImage(any());
+        verify(detector, never()).detect(any(Frame.class));
+    }
+
+    @Test(expected = FaceDetection.NotOperationalException.class)
+    public void containsFace_cameraDidNotReportFaces_detectorIsUsed() {
+        mockFaceCountReportedByCamera(FaceStatistics.UNKNOWN_FACE_COUNT);
+        when(detector.isOperational()).thenReturn(false);
+
+        faceDetection.containsFace(img, token);
+    }
+
+    @Test(expected = FaceDetection.NotOperationalException.class)
+    public void containsFace_cameraDoesNotDetectFaces_detectorIsUsed() {
+        when(detector.isOperational()).thenReturn(false);
+
+        faceDetection.containsFace(img, token);
+    }
+
+    @Test
+    public void locateFace_cameraDidReportFace_detectorIsNotUsed() {
+        mockFaceBoundsReportedByCamera();
+        faceDetection.setFaceStatistics(faceStatistics);
+
+        assertThat(faceDetection.locateFace(img), is(true));
+        verify(img).setFaceBounds(FACE_BOUNDS);
+        verify(detector, never()).detect(any(Frame.class));
+    }
+
+    @Test(expected = FaceDetection.NotOperationalException.class)
+    public void locateFace_cameraDidNotReportFace_detectorIsUsed() {
+        when(img.getTimestamp()).thenReturn(TIMESTAMP);
+        faceDetection.setFaceStatistics(faceStatistics);
+        when(detector.isOperational()).thenReturn(false);
+
+        faceDetection.locateFace(img);
+    }
+
+    @Test(expected = FaceDetection.NotOperationalException.class)
+    public void locateFace_cameraDoesNotDetectFaces_detectorIsUsed() {
+        when(detector.isOperational()).thenReturn(false);
+
+        faceDetection.locateFace(img);
+    }
+
+    @Test
+    public void toFrameRotation_rotationIsPassedAsMetadata() {
+        assertThat(FaceDetection.toFrameRotation(0), is(Frame.ROTATION_0));
+        assertThat(FaceDetection.toFrameRotation(90), is(Frame.ROTATION_90));
+        assertThat(FaceDetection.toFrameRotation(180), is(Frame.ROTATION_180));
+        assertThat(FaceDetection.toFrameRotation(270), is(Frame.ROTATION_270));
+    }
+
+    private void mockFaceCountReportedByCamera(int faceCount) {
+        when(img.getTimestamp()).thenReturn(TIMESTAMP);
+        when(faceStatistics.getFaceCount(TIMESTAMP)).thenReturn(faceCount);
+        faceDetection.setFaceStatistics(faceStatistics);
+    }
+
+    private void mockFaceBoundsReportedByCamera() {
+        // front facing camera in portrait orientation
+        when(img.getTimestamp()).thenReturn(TIMESTAMP);
+        when(img.getRotation()).thenReturn(270);
+        when(img.getRotatedWidth()).thenReturn(480);
+        when(img.getRotatedHeight()).thenReturn(640);
+        when(faceStatistics.getFaceBounds(TIMESTAMP, 640, 480, 270)).thenReturn(FACE_BOUNDS);
+    }
+}
@@ -2,6 +2,8 @@ package com.bioid.authenticator.facialrecognition;
 
 import android.content.Context;
 
+import com.bioid.authenticator.base.camera.FaceStatistics;
+import com.bioid.authenticator.base.image.FaceBounds;
 import com.bioid.authenticator.base.image.Yuv420Image;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.network.NoConnectionException;
@@ -21,6 +23,7 @@ import com.bioid.authenticator.base.network.bioid.webservice.WrongCredentialsExc
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
 import com.bioid.authenticator.base.threading.BackgroundHandler;
+import com.bioid.authenticator.base.threading.CancellationToken;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionBasePresenter.ImageDetectionState;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionBasePresenter.PermissionState;
 import com.bioid.authenticator.testutil.Mocks;
@@ -42,8 +45,11 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
@@ -57,9 +63,12 @@ public class FacialRecognitionBasePresenterTest {
     private static final int INDEX = 4;
     private static final MovementDirection CURRENT_DIRECTION = MovementDirection.any;
     private static final MovementDirection DESTINATION_DIRECTION = MovementDirection.left;
+    private static final Motion MOTION_TO_DESTINATION = new Motion(8, -2, 40.0, true);
+    private static final Motion MOTION_TO_OPPOSITE_DIRECTION = new Motion(-8, 2, 40.0, true);
+    private static final Motion NO_MOTION = new Motion(1, 0, 5.0, false);
     private static final int TASK_ID_MOTION_TIMEOUT = 99;
     private static final int TASK_ID_FACE_TIMEOUT = 88;
-    private static final int SUCCESSFUL_IMAGE_UPLOADS = 2;
+    private static final int COMPLETED_IMAGE_UPLOADS = 2;
     private static final int FAILED_IMAGE_UPLOADS = 1;
 
     @Mock
@@ -70,6 +79,8 @@ public class FacialRecognitionBasePresenterTest {
     private FacialRecognitionContract.View view;
     @Spy
     private SynchronousBackgroundHandler backgroundHandler;
+    @Spy
+    private SynchronousBackgroundHandler uploadBackgroundHandler;
     @Mock
     private FaceDetection faceDetection;
     @Mock
@@ -78,6 +89,8 @@ public class FacialRecognitionBasePresenterTest {
     private BioIdWebserviceClient bioIdWebserviceClient;
     @Mock
     private Yuv420Image img;
+    @Mock
+    private Yuv420Image uploadImg;
 
     private FacialRecognitionBasePresenterForTest presenter;
 
@@ -86,21 +99,23 @@ public class FacialRecognitionBasePresenterTest {
         private boolean startBiometricOperationCalled = false;
         private boolean onFaceDetectedCalled = false;
         private boolean onNoFaceDetectedCalled = false;
-        private boolean onUploadSuccessfulCalled = false;
+        private Integer onUploadCompletedIndex = null;
         private boolean onImageWithMotionProcessedCalled = false;
         private boolean disableMotionTimeout = true;
 
         private FacialRecognitionBasePresenterForTest(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
-                                                      BackgroundHandler backgroundHandler, FaceDetection faceDetection,
-                                                      MotionDetection motionDetection, BioIdWebserviceClient bioIdWebserviceClient) {
-            super(ctx, log, view, backgroundHandler, faceDetection, motionDetection, bioIdWebserviceClient);
+                                                      BackgroundHandler backgroundHandler, BackgroundHandler uploadBackgroundHandler,
+                                                      FaceDetection faceDetection, MotionDetection motionDetection,
+                                                      BioIdWebserviceClient bioIdWebserviceClient) {
+            super(ctx, log, view, backgroundHandler, uploadBackgroundHandler, faceDetection, motionDetection,
+                    bioIdWebserviceClient);
 
             this.bwsToken = BWS_TOKEN;
             this.currentDirection = CURRENT_DIRECTION;
             this.destinationDirection = DESTINATION_DIRECTION;
             this.taskIdMotionTimeout = TASK_ID_MOTION_TIMEOUT;
             this.taskIdFaceTimeout = TASK_ID_FACE_TIMEOUT;
-            this.successfulUploads = SUCCESSFUL_IMAGE_UPLOADS;
+            this.completedUploads.set(0, COMPLETED_IMAGE_UPLOADS);
             this.failedUploads = FAILED_IMAGE_UPLOADS;
         }
 
@@ -132,8 +147,8 @@ public class FacialRecognitionBasePresenterTest {
         }
 
         @Override
-        protected void onUploadSuccessful() {
-            onUploadSuccessfulCalled = true;
+        protected void onUploadCompleted(int index) {
+            onUploadCompletedIndex = index;
         }
 
         @Override
@@ -155,8 +170,9 @@ public class FacialRecognitionBasePresenterTest {
 
     @Before
     public void setUp() {
-        presenter = new FacialRecognitionBasePresenterForTest(ctx, log, view, backgroundHandler, faceDetection, motionDetection,
-                bioIdWebserviceClient);
+        presenter = new FacialRecognitionBasePresenterForTest(ctx, log, view, backgroundHandler, uploadBackgroundHandler,
+                faceDetection, motionDetection, bioIdWebserviceClient);
+        presenter.encoderExecutor = Runnable::run;
     }
 
     @Test
@@ -321,9 +337,89 @@ public class FacialRecognitionBasePresenterTest {
         assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_REFERENCE_IMAGE));
     }
 
+    @Test
+    public void wantsFrame_ifWaitingForImageWithFace_returnsTrue() {
+        mockStateWaitingForImageWithFace();
+
+        assertThat(presenter.wantsFrame(), is(true));
+    }
+
+    @Test
+    public void onPreviewConnected_faceStatisticsAreUsedByFaceDetection() {
+        FaceStatistics faceStatistics = mock(FaceStatistics.class);
+
+        presenter.onPreviewConnected(faceStatistics);
+
+        verify(faceDetection).setFaceStatistics(faceStatistics);
+    }
+
+    @Test
+    public void wantsFrame_ifWaitingForReferenceImage_returnsTrue() {
+        mockStateWaitingForReferenceImage();
+
+        assertThat(presenter.wantsFrame(), is(true));
+    }
+
+    @Test
+    public void wantsFrame_ifWaitingForImageWithMotion_returnsTrue() {
+        presenter.imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
+
+        assertThat(presenter.wantsFrame(), is(true));
+    }
+
+    @Test
+    public void wantsFrame_ifStateIsOther_returnsFalse() {
+        presenter.imageDetectionState = ImageDetectionState.OTHER;
+
+        assertThat(presenter.wantsFrame(), is(false));
+    }
+
+    @Test
+    public void wantsFrame_whileCheckingImageInBackground_returnsFalse() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        mockStateWaitingForImageWithFace();
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.wantsFrame(), is(false));
+    }
+
+    @Test
+    public void isAwaitingFrames_ifWaitingForImageWithMotion_returnsTrue() {
+        presenter.imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
+
+        assertThat(presenter.isAwaitingFrames(), is(true));
+    }
+
+    @Test
+    public void isAwaitingFrames_ifStateIsOther_returnsFalse() {
+        presenter.imageDetectionState = ImageDetectionState.OTHER;
+
+        assertThat(presenter.isAwaitingFrames(), is(false));
+    }
+
+    @Test
+    public void isAwaitingFrames_whileCheckingImageInBackground_returnsTrue() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        mockStateWaitingForImageWithFace();
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.isAwaitingFrames(), is(true));
+    }
+
+    @Test
+    public void isAwaitingFrames_afterImageWithMotionWasFound_returnsFalse() {
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.isAwaitingFrames(), is(false));
+    }
+
     @Test
     public void onImageCaptured_ifWaitingForImageWithFace_findFaceInfoMessageWillBeHidden() {
-        when(faceDetection.containsFace(img)).thenReturn(true);
+        when(faceDetection.containsFace(eq(img), any(CancellationToken.class))).thenReturn(true);
         mockStateWaitingForImageWithFace();
 
         presenter.onImageCaptured(img);
@@ -333,7 +429,7 @@ public class FacialRecognitionBasePresenterTest {
 
     @Test
     public void onImageCaptured_ifWaitingForImageWithFace_onFaceDetectedWillBeCalled() {
-        when(faceDetection.containsFace(img)).thenReturn(true);
+        when(faceDetection.containsFace(eq(img), any(CancellationToken.class))).thenReturn(true);
         mockStateWaitingForImageWithFace();
 
         presenter.onImageCaptured(img);
@@ -343,7 +439,7 @@ public class FacialRecognitionBasePresenterTest {
 
     @Test
     public void onImageCaptured_ifWaitingForImageWithFace_faceDetectionTimeoutIsCanceled() {
-        when(faceDetection.containsFace(img)).thenReturn(true);
+        when(faceDetection.containsFace(eq(img), any(CancellationToken.class))).thenReturn(true);
         mockStateWaitingForImageWithFace();
 
         presenter.onImageCaptured(img);
@@ -353,7 +449,7 @@ public class FacialRecognitionBasePresenterTest {
 
     @Test
     public void onImageCaptured_ifNoFaceWasDetected_stateIsResetToWaitingForImageWithFace() {
-        when(faceDetection.containsFace(img)).thenReturn(false);
+        when(faceDetection.containsFace(eq(img), any(CancellationToken.class))).thenReturn(false);
         mockStateWaitingForImageWithFace();
 
         presenter.onImageCaptured(img);
@@ -385,8 +481,35 @@ public class FacialRecognitionBasePresenterTest {
 
         presenter.onImageCaptured(img);
 
-        verify(bioIdWebserviceClient).uploadImage(img, BWS_TOKEN, CURRENT_DIRECTION, INDEX);
-        assertThat(presenter.onUploadSuccessfulCalled, is(true));
+        verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(CURRENT_DIRECTION), eq(INDEX),
+                any(CancellationToken.class));
+        assertThat(presenter.onUploadCompletedIndex, is(INDEX));
+        assertThat(presenter.completedUploads.get(INDEX), is(true));
+    }
+
+    @Test
+    public void onImageCaptured_ifWaitingForReferenceImage_imageWillBeEncodedBeforeTemplateIsCreated() {
+        mockStateWaitingForReferenceImage();
+
+        presenter.onImageCaptured(img);
+
+        InOrder inOrder = inOrder(motionDetection, bioIdWebserviceClient);
+        inOrder.verify(bioIdWebserviceClient).encodeForUpload(img, BWS_TOKEN, CURRENT_DIRECTION);
+        inOrder.verify(motionDetection).createTemplate(img);
+        inOrder.verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(CURRENT_DIRECTION), eq(INDEX),
+                any(CancellationToken.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifWaitingForReferenceImage_imageWillBeUploadedEvenIfEncodingInAdvanceFailed() {
+        doThrow(IllegalStateException.class).when(bioIdWebserviceClient)
+                .encodeForUpload(img, BWS_TOKEN, CURRENT_DIRECTION);
+        mockStateWaitingForReferenceImage();
+
+        presenter.onImageCaptured(img);
+
+        verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(CURRENT_DIRECTION), eq(INDEX),
+                any(CancellationToken.class));
     }
 
     @Test
@@ -431,8 +554,10 @@ public class FacialRecognitionBasePresenterTest {
 
         presenter.onImageCaptured(img);
 
-        verify(bioIdWebserviceClient).uploadImage(img, BWS_TOKEN, DESTINATION_DIRECTION, INDEX + 1);
-        assertThat(presenter.onUploadSuccessfulCalled, is(true));
+        verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(DESTINATION_DIRECTION), eq(INDEX + 1),
+                any(CancellationToken.class));
+        assertThat(presenter.onUploadCompletedIndex, is(INDEX + 1));
+        assertThat(presenter.completedUploads.get(INDEX + 1), is(true));
     }
 
     @Test
@@ -460,21 +585,94 @@ public class FacialRecognitionBasePresenterTest {
     @Test
     public void onImageCaptured_ifNoMotionWasDetected_stateIsSetToWaitingForImageWithMotion() {
         mockStateWaitingForImageWithMotion();
-        when(motionDetection.detect(img)).thenReturn(false);
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(NO_MOTION);
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION));
+        verify(bioIdWebserviceClient, never()).uploadImage(any(Yuv420Image.class), any(BwsToken.class),
+                any(MovementDirection.class), anyInt(), any(CancellationToken.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifMotionIntoWrongDirectionWasDetected_stateIsSetToWaitingForImageWithMotion() {
+        mockStateWaitingForImageWithMotion();
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_OPPOSITE_DIRECTION);
 
         presenter.onImageCaptured(img);
 
         assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION));
+        assertThat(presenter.onImageWithMotionProcessedCalled, is(false));
         verify(bioIdWebserviceClient, never()).uploadImage(any(Yuv420Image.class), any(BwsToken.class),
-                any(MovementDirection.class), anyInt());
+                any(MovementDirection.class), anyInt(), any(CancellationToken.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifMotionIntoWrongDirectionWasDetected_imageWillBeRecycled() {
+        mockStateWaitingForImageWithMotion();
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_OPPOSITE_DIRECTION);
+
+        presenter.onImageCaptured(img);
+
+        verify(img).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifMotionIntoWrongDirectionWasDetected_userIsToldThatTheDirectionIsWrong() {
+        mockStateWaitingForImageWithMotion();
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_OPPOSITE_DIRECTION);
+
+        presenter.onImageCaptured(img);
+
+        verify(view).showWrongMovementDirectionInfo(DESTINATION_DIRECTION);
+    }
+
+    @Test
+    public void onImageCaptured_ifMotionIntoWrongDirectionWasDetected_motionTimeoutIsRestarted() {
+        presenter.disableMotionTimeout = false;
+        backgroundHandler.doNothingOnRunWithDelay();
+        mockStateWaitingForImageWithMotion();
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_OPPOSITE_DIRECTION);
+
+        presenter.onImageCaptured(img);
+
+        InOrder inOrder = inOrder(backgroundHandler);
+        inOrder.verify(backgroundHandler).cancelScheduledTask(TASK_ID_MOTION_TIMEOUT);
+        inOrder.verify(backgroundHandler).runWithDelay(any(Runnable.class), anyLong());
+        assertThat(presenter.taskIdMotionTimeout, is(SynchronousBackgroundHandler.TASK_ID));
+    }
+
+    @Test
+    public void onImageCaptured_ifDiagonalMotionTowardsDestinationWasDetected_motionIsAccepted() {
+        mockStateWaitingForImageWithMotion();
+        // left and down, slightly more down than left
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(new Motion(6, 7, 40, true));
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.onImageWithMotionProcessedCalled, is(true));
+        verify(view, never()).showWrongMovementDirectionInfo(any(MovementDirection.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifAnyDirectionIsRequested_motionIntoEveryDirectionIsAccepted() {
+        mockStateWaitingForImageWithMotion();
+        presenter.destinationDirection = MovementDirection.any;
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_OPPOSITE_DIRECTION);
+
+        presenter.onImageCaptured(img);
+
+        assertThat(presenter.onImageWithMotionProcessedCalled, is(true));
     }
 
     @Test
     public void onImageCaptured_ifImageUploadFailed_failedUploadCounterDoesIncrement() {
+        backgroundHandler.doNothingOnRunWithDelay();  // no upload retry
         presenter.failedUploads = 0;
         mockStateWaitingForReferenceImage();
         doThrow(new NotRecognizedException()).when(bioIdWebserviceClient)
-                .uploadImage(any(Yuv420Image.class), any(BwsToken.class), any(MovementDirection.class), anyInt());
+                .uploadImage(any(Yuv420Image.class), any(BwsToken.class), any(MovementDirection.class), anyInt(),
+                        any(CancellationToken.class));
 
         presenter.onImageCaptured(img);
 
@@ -486,7 +684,200 @@ public class FacialRecognitionBasePresenterTest {
         presenter.onImageCaptured(img);
 
         verify(bioIdWebserviceClient, never()).uploadImage(any(Yuv420Image.class), any(BwsToken.class),
-                any(MovementDirection.class), anyInt());
+                any(MovementDirection.class), anyInt(), any(CancellationToken.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifStateIsOther_imageWillBeRecycled() {
+        presenter.onImageCaptured(img);
+
+        verify(img).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifWaitingForImageWithFace_imageWillBeRecycledAfterFaceDetection() {
+        when(faceDetection.containsFace(eq(img), any(CancellationToken.class))).thenReturn(false);
+        mockStateWaitingForImageWithFace();
+
+        presenter.onImageCaptured(img);
+
+        InOrder inOrder = inOrder(faceDetection, img);
+        inOrder.verify(faceDetection).containsFace(eq(img), any(CancellationToken.class));
+        inOrder.verify(img).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifWaitingForReferenceImage_imageWillBeRecycledAfterUpload() {
+        mockStateWaitingForReferenceImage();
+
+        presenter.onImageCaptured(img);
+
+        InOrder inOrder = inOrder(bioIdWebserviceClient, img);
+        inOrder.verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(CURRENT_DIRECTION), eq(INDEX),
+                any(CancellationToken.class));
+        inOrder.verify(img).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifNoMotionWasDetected_imageWillBeRecycled() {
+        mockStateWaitingForImageWithMotion();
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(NO_MOTION);
+
+        presenter.onImageCaptured(img);
+
+        verify(img).recycle();
+    }
+
+    @Test
+    public void resetCaptureImagePair_whileMotionDetectionIsRunning_imageWillBeRecycled() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        presenter.imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
+        presenter.onImageCaptured(img);
+
+        presenter.resetCaptureImagePair();
+
+        verify(img).recycle();
+    }
+
+    @Test
+    public void resetCaptureImagePair_whileFaceDetectionIsRunning_imageWillBeRecycled() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        mockStateWaitingForImageWithFace();
+        presenter.onImageCaptured(img);
+
+        presenter.resetCaptureImagePair();
+
+        verify(img).recycle();
+    }
+
+    @Test
+    public void resetCaptureImagePair_whileUploadIsRunning_uploadIsNeitherCancelledNorRestarted() {
+        uploadBackgroundHandler.doNothingOnRunOnBackgroundThread();
+        mockStateWaitingForReferenceImage();
+        presenter.onImageCaptured(img);
+
+        presenter.resetCaptureImagePair();
+
+        verify(uploadBackgroundHandler, never()).unsubscribeFromAllBackgroundTasks();
+        verify(uploadBackgroundHandler, never()).unsubscribeFromBackgroundTask(anyInt());
+        verify(uploadBackgroundHandler, never()).cancelAllScheduledTasks();
+        // every start of the upload does count as attempt
+        verify(uploadBackgroundHandler, times(1))
+                .runOnBackgroundThread(any(Runnable.class), any(Runnable.class), any(), isNull());
+    }
+
+    @Test
+    public void resetCaptureImagePair_afterImageWithMotionWasHandedOn_imageIsOnlyRecycledByTheUpload() {
+        mockStateWaitingForImageWithMotion();
+        presenter.onImageCaptured(img);
+
+        presenter.resetCaptureImagePair();
+
+        verify(img, times(1)).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifViewCapturesUploadImages_referenceImageInUploadQualityWillBeUploaded() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        mockStateWaitingForReferenceImage();
+
+        presenter.onImageCaptured(img);
+        verify(bioIdWebserviceClient, never()).uploadImage(any(Yuv420Image.class), any(BwsToken.class),
+                any(MovementDirection.class), anyInt(), any(CancellationToken.class));
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        verify(motionDetection).createTemplate(img);
+        verify(bioIdWebserviceClient).uploadImage(eq(uploadImg), eq(BWS_TOKEN), eq(CURRENT_DIRECTION), eq(INDEX),
+                any(CancellationToken.class));
+        verify(img).recycle();
+        assertThat(presenter.uploadImageRequests.isEmpty(), is(true));
+    }
+
+    @Test
+    public void onImageCaptured_ifViewCapturesUploadImages_imageWithMotionInUploadQualityWillBeUploaded() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        verify(bioIdWebserviceClient).uploadImage(eq(uploadImg), eq(BWS_TOKEN), eq(DESTINATION_DIRECTION), eq(INDEX + 1),
+                any(CancellationToken.class));
+        assertThat(presenter.onImageWithMotionProcessedCalled, is(true));
+    }
+
+    @Test
+    public void onImageCaptured_ifUploadIsCropped_faceIsLocatedWithinUploadImageBeforeItIsEncoded() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        when(bioIdWebserviceClient.isCropping(BWS_TOKEN, DESTINATION_DIRECTION)).thenReturn(true);
+        when(uploadImg.isFaceLocated()).thenReturn(false, true);
+        when(faceDetection.locateFace(uploadImg)).thenReturn(true);
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        InOrder inOrder = inOrder(faceDetection, bioIdWebserviceClient);
+        inOrder.verify(faceDetection).locateFace(uploadImg);
+        inOrder.verify(bioIdWebserviceClient).encodeForUpload(uploadImg, BWS_TOKEN, DESTINATION_DIRECTION);
+        inOrder.verify(bioIdWebserviceClient).uploadImage(eq(uploadImg), eq(BWS_TOKEN), eq(DESTINATION_DIRECTION),
+                eq(INDEX + 1), any(CancellationToken.class));
+        verify(faceDetection, never()).locateFace(img);
+    }
+
+    @Test
+    public void onImageCaptured_ifUploadIsNotCropped_faceIsNotLocated() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        verify(faceDetection, never()).locateFace(any(Yuv420Image.class));
+        verify(uploadImg, never()).setFaceBounds(any(FaceBounds.class));
+    }
+
+    @Test
+    public void onImageCaptured_ifFaceCanNotBeLocated_imageIsUploadedWithoutBounds() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        when(bioIdWebserviceClient.isCropping(BWS_TOKEN, DESTINATION_DIRECTION)).thenReturn(true);
+        when(uploadImg.isFaceLocated()).thenReturn(false, true);
+        when(faceDetection.locateFace(uploadImg)).thenThrow(FaceDetection.NotOperationalException.class);
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        InOrder inOrder = inOrder(uploadImg, bioIdWebserviceClient);
+        inOrder.verify(uploadImg).setFaceBounds(null);
+        inOrder.verify(bioIdWebserviceClient).uploadImage(eq(uploadImg), eq(BWS_TOKEN), eq(DESTINATION_DIRECTION),
+                eq(INDEX + 1), any(CancellationToken.class));
+    }
+
+    @Test
+    public void onUploadImageUnavailable_detectionImageWillBeUploadedInstead() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        mockStateWaitingForImageWithMotion();
+
+        presenter.onImageCaptured(img);
+        presenter.onUploadImageUnavailable(getUploadImageRequestId());
+
+        verify(bioIdWebserviceClient).uploadImage(eq(img), eq(BWS_TOKEN), eq(DESTINATION_DIRECTION), eq(INDEX + 1),
+                any(CancellationToken.class));
+    }
+
+    @Test
+    public void onUploadImageCaptured_ifImagePairWasResetInTheMeantime_imageWillBeRecycled() {
+        when(view.captureUploadImage(anyInt())).thenReturn(true);
+        mockStateWaitingForImageWithMotion();
+        presenter.onImageCaptured(img);
+
+        presenter.resetCaptureImagePair();
+        presenter.onUploadImageCaptured(getUploadImageRequestId(), uploadImg);
+
+        verify(uploadImg).recycle();
+        verify(bioIdWebserviceClient, never()).uploadImage(any(Yuv420Image.class), any(BwsToken.class),
+                any(MovementDirection.class), anyInt(), any(CancellationToken.class));
     }
 
     @Test
@@ -515,7 +906,7 @@ public class FacialRecognitionBasePresenterTest {
     public void onUploadFailed_ifThreeUploadsDidFail_biometricOperationWillBeAborted() {
         presenter.failedUploads = 3;
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(new NotRecognizedException(), INDEX);
 
         assertBiometricOperationReset();
         verify(view).showNotRecognizedWarning();  // exception is used as an example, showWarningOrError() is tested separately
@@ -523,20 +914,71 @@ public class FacialRecognitionBasePresenterTest {
     }
 
     @Test
-    public void onUploadFailed_ifThreeOrLessUploadsDidFailAndTheReferenceImageUploadWasSuccessful_decreaseTheCounter() {
-        presenter.failedOperations = 1;
-        presenter.successfulUploads = 3;
+    public void onUploadFailed_warningIsShown() {
+        presenter.onUploadFailed(new NotRecognizedException(), INDEX);
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        verify(view).showNotRecognizedWarning();  // exception is used as an example, showWarningOrError() is tested separately
+    }
 
-        assertThat(presenter.successfulUploads, is(2));
+    @Test
+    public void onUploadFailed_ifServerErrorOccurred_imagePairWillNotBeCapturedAgain() {
+        presenter.index = 42;
+        presenter.imageDetectionState = ImageDetectionState.OTHER;
+        presenter.failedUploads = 1;
+
+        presenter.onUploadFailed(new ServerErrorException(), 43);
+
+        assertThat(presenter.index, is(42));
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.OTHER));
+        verify(backgroundHandler, never()).unsubscribeFromAllBackgroundTasks();
     }
 
     @Test
-    public void onUploadFailed_warningIsShown() {
-        presenter.onUploadFailed(new NotRecognizedException());
+    public void onUploadFailed_ifNoConnectionWasAvailable_imageOfPreviousPairWillNotBeCapturedAgain() {
+        presenter.index = 42;
+        presenter.imageDetectionState = ImageDetectionState.OTHER;
+        presenter.failedUploads = 1;
 
-        verify(view).showNotRecognizedWarning();  // exception is used as an example, showWarningOrError() is tested separately
+        presenter.onUploadFailed(new NoConnectionException(), 40);
+
+        assertThat(presenter.index, is(42));
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.OTHER));
+        verify(backgroundHandler, never()).unsubscribeFromAllBackgroundTasks();
+    }
+
+    @Test
+    public void onUploadFailed_ifImageOfPreviousPairWasRejected_biometricOperationWillBeAborted() {
+        presenter.index = 42;
+        presenter.failedUploads = 1;
+
+        presenter.onUploadFailed(new NoFaceFoundException(), 40);
+
+        assertBiometricOperationReset();
+        verify(view).showNoFaceFoundWarning();
+        verify(view).navigateBack(false);
+    }
+
+    @Test
+    public void onUploadFailed_ifImageOfCurrentPairWasNotRecognized_retryCapturingImagePair() {
+        backgroundHandler.doNothingOnRunWithDelay();
+        presenter.index = 42;
+        presenter.failedUploads = 1;
+
+        presenter.onUploadFailed(new NotRecognizedException(), 43);
+
+        verify(backgroundHandler).unsubscribeFromAllBackgroundTasks();
+        verify(view, never()).navigateBack(false);
+    }
+
+    @Test
+    public void onUploadFailed_ifImageOfCurrentPairWasUnusable_completedUploadsOfPairAreReset() {
+        backgroundHandler.doNothingOnRunWithDelay();
+        presenter.index = 0;
+        presenter.failedUploads = 1;
+
+        presenter.onUploadFailed(new NoFaceFoundException(), 1);
+
+        assertThat(presenter.completedUploads.isEmpty(), is(true));
     }
 
     @Test
@@ -546,7 +988,7 @@ public class FacialRecognitionBasePresenterTest {
         presenter.destinationDirection = MovementDirection.up;
         presenter.failedUploads = 1;
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(new NoFaceFoundException(), 42);
 
         assertThat(presenter.index, is(42));
         assertThat(presenter.currentDirection, is(MovementDirection.right));
@@ -681,7 +1123,13 @@ public class FacialRecognitionBasePresenterTest {
     private void mockStateWaitingForImageWithMotion() {
         presenter.index = INDEX;
         presenter.imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
-        when(motionDetection.detect(img)).thenReturn(true);
+        when(motionDetection.detect(eq(img), any(CancellationToken.class))).thenReturn(MOTION_TO_DESTINATION);
+    }
+
+    private int getUploadImageRequestId() {
+        ArgumentCaptor<Integer> captor = ArgumentCaptor.forClass(Integer.class);
+        verify(view).captureUploadImage(captor.capture());
+        return captor.getValue();
     }
 
     private void assertCaptureImagePairReset() {
@@ -691,6 +1139,8 @@ public class FacialRecognitionBasePresenterTest {
         verify(motionDetection).resetTemplate();
 
         assertThat(presenter.imageDetectionState, is(ImageDetectionState.OTHER));
+        assertThat(presenter.checkingImage, is(false));
+        assertThat(presenter.uploadImageRequests.isEmpty(), is(true));
         assertThat(presenter.index, is(0));
         assertThat(presenter.currentDirection, is(nullValue()));
         assertThat(presenter.destinationDirection, is(nullValue()));
@@ -705,7 +1155,7 @@ public class FacialRecognitionBasePresenterTest {
         assertCaptureImagePairReset();
 
         assertThat(presenter.bwsToken, is(BWS_TOKEN));   // no reset
-        assertThat(presenter.successfulUploads, is(0));  // reset to 0
+        assertThat(presenter.completedUploads.isEmpty(), is(true));  // reset
         assertThat(presenter.failedUploads, is(0));      // reset to 0
 
         verify(view).hideMessages();
@@ -0,0 +1,133 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IntegralImageTemplateMatcherTest {
+
+    // smaller than the downscaled preview of the motion detection, but landscape and portrait with the same code paths
+    private static final int[][] SIZES = {{64, 48}, {48, 64}};
+    // horizontal and vertical movement per frame
+    private static final double[][] MOVEMENTS = {{0.0, 0.0}, {-0.02, 0.0}, {0.02, 0.0}, {0.0, -0.02}, {0.0, 0.02},
+            {0.015, 0.015}, {-0.04, 0.01}};
+    private static final int FRAME_COUNT = 4;
+
+    private final TemplateMatcher reference = new ReferenceTemplateMatcher();
+    private final IntegralImageTemplateMatcher matcher = new IntegralImageTemplateMatcher();
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void motionDetector_recordedSequences_sameMovementAsReference() {
+        for (long seed = 1; seed <= 2; seed++) {
+            SyntheticFrames scene = new SyntheticFrames(seed);
+            for (int[] size : SIZES) {
+                for (double[] movement : MOVEMENTS) {
+                    List<GrayscaleImage> frames = scene.sequence(size[0], size[1], movement[0], movement[1], FRAME_COUNT);
+
+                    MotionDetector expected = new MotionDetector(reference);
+                    MotionDetector actual = new MotionDetector(matcher);
+                    expected.createTemplate(frames.get(0));
+                    actual.createTemplate(frames.get(0));
+
+                    for (GrayscaleImage frame : frames) {
+                        assertThat(actual.detect(frame, token),
+                                is(expected.detect(frame, token)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void match_randomTemplatesAndSearchAreas_sameMatchAsReference() {
+        // the same matcher instance is used for all sizes to make sure reused buffers do not leak into the next match
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int[] size = SIZES[i % SIZES.length];
+            SyntheticFrames scene = new SyntheticFrames(random.nextLong());
+            GrayscaleImage first = scene.frame(size[0], size[1], 0.0, 0.0, 1.0, 0);
+            GrayscaleImage current = scene.frame(size[0], size[1],
+                    random.nextDouble() * 0.2 - 0.1, random.nextDouble() * 0.2 - 0.1, 0.9 + random.nextDouble() * 0.2, 1);
+
+            int templateWidth = 1 + random.nextInt(size[0] / 3);
+            int templateHeight = 1 + random.nextInt(size[1] / 3);
+            int[] template = cutOut(first, random.nextInt(size[0] - templateWidth + 1),
+                    random.nextInt(size[1] - templateHeight + 1), templateWidth, templateHeight);
+
+            int minX = random.nextInt(size[0] - templateWidth + 1);
+            int maxX = minX + random.nextInt(size[0] - templateWidth - minX + 1);
+            int minY = random.nextInt(size[1] - templateHeight + 1);
+            int maxY = minY + random.nextInt(size[1] - templateHeight - minY + 1);
+
+            assertThat(matcher.match(current, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token),
+                    is(reference.match(current, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token)));
+        }
+    }
+
+    @Test
+    public void correlate_sameCorrelationsAsReference() {
+        GrayscaleImage first = new SyntheticFrames(5).frame(96, 128, 0.0, 0.0, 1.0, 0);
+        GrayscaleImage current = new SyntheticFrames(5).frame(96, 128, 0.03, -0.02, 1.0, 1);
+        int[] template = cutOut(first, 42, 48, 12, 32);
+
+        double[] correlations = matcher.correlate(current, template, 12, 32, 24, 60, 32, 64, token);
+
+        for (int y = 32; y <= 64; y++) {
+            for (int x = 24; x <= 60; x++) {
+                double expected = reference.match(current, template, 12, 32, x, x, y, y, token).correlation;
+                assertThat(correlations[(x - 24) + (y - 32) * 37], is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void match_blackImage_matchIsAtOrigin() {
+        GrayscaleImage black = SyntheticFrames.uniform(128, 96, 0);
+        int[] template = cutOut(new SyntheticFrames(1).frame(128, 96, 0.0, 0.0, 1.0, 0), 58, 32, 12, 32);
+
+        TemplateMatcher.Match match = matcher.match(black, template, 12, 32, 32, 84, 24, 40, token);
+
+        assertThat(match, is(new TemplateMatcher.Match(0, 0, 0.0)));
+        assertThat(match, is(reference.match(black, template, 12, 32, 32, 84, 24, 40, token)));
+    }
+
+    @Test
+    public void match_uniformImage_firstCandidateWins() {
+        GrayscaleImage uniform = SyntheticFrames.uniform(128, 96, 255);
+        int[] template = cutOut(uniform, 58, 32, 12, 32);
+
+        TemplateMatcher.Match match = matcher.match(uniform, template, 12, 32, 32, 84, 24, 40, token);
+
+        assertThat(match.x, is(32));
+        assertThat(match.y, is(24));
+        assertThat(match, is(reference.match(uniform, template, 12, 32, 32, 84, 24, 40, token)));
+    }
+
+    @Test(expected = CancelledException.class)
+    public void match_cancelledToken_throwsException() {
+        GrayscaleImage img = new SyntheticFrames(1).frame(128, 96, 0.0, 0.0, 1.0, 0);
+        token.cancel();
+
+        matcher.match(img, cutOut(img, 58, 32, 12, 32), 12, 32, 32, 84, 24, 40, token);
+    }
+
+    private static int[] cutOut(GrayscaleImage img, int left, int top, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[x + y * width] = img.data[left + x + (top + y) * img.width] & 0xff;
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,75 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.functional.Function;
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.image.Yuv420Image;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MotionDetectionTest {
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private Yuv420Image first;
+    @Mock
+    private Yuv420Image current;
+
+    private final CancellationToken token = new CancellationToken();
+
+    private MotionDetection motionDetection;
+
+    @Before
+    public void setUp() {
+        motionDetection = new MotionDetection(log, new MotionDetector(new IntegralImageTemplateMatcher()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void detect_withoutTemplate_throwsException() {
+        motionDetection.detect(current, token);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void detect_afterTemplateWasReset_throwsException() {
+        mockDownscaledGrayscaleImage(first, new SyntheticFrames(1).frame(128, 96, 0.0, 0.0, 1.0, 0));
+        motionDetection.createTemplate(first);
+        motionDetection.resetTemplate();
+
+        motionDetection.detect(current, token);
+    }
+
+    @Test
+    public void detect_downscaledImagesAreCompared() {
+        SyntheticFrames scene = new SyntheticFrames(1);
+        GrayscaleImage firstDownscaled = scene.frame(128, 96, 0.0, 0.0, 1.0, 0);
+        GrayscaleImage currentDownscaled = scene.frame(128, 96, 0.1, 0.0, 1.0, 1);
+        mockDownscaledGrayscaleImage(first, firstDownscaled);
+        mockDownscaledGrayscaleImage(current, currentDownscaled);
+        MotionDetector expected = new MotionDetector(new IntegralImageTemplateMatcher());
+        expected.createTemplate(firstDownscaled);
+
+        motionDetection.createTemplate(first);
+        Motion motion = motionDetection.detect(current, token);
+
+        assertThat(motion, is(expected.detect(currentDownscaled, token)));
+        assertThat(motion.isDetected(), is(true));
+    }
+
+    private static void mockDownscaledGrayscaleImage(Yuv420Image img, GrayscaleImage downscaled) {
+        when(img.readDownscaledGrayscaleImage(any())).thenAnswer(
+                invocation -> invocation.<Function<GrayscaleImage, ?>>getArgument(0).apply(downscaled));
+    }
+}
@@ -0,0 +1,60 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class MotionDetectorTest {
+
+    // downscaled preview sizes of the motion detection
+    private static final int[][] SIZES = {{96, 128}, {128, 96}};
+    // horizontal and vertical movement below and above the threshold of the motion detection
+    private static final double[][] MOVEMENTS = {{0.0, 0.0}, {0.02, 0.0}, {0.04, 0.03}, {0.06, -0.06}, {0.08, 0.09},
+            {0.1, 0.0}, {-0.05, 0.03}, {0.0, 0.09}};
+
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void detect_lumaInsteadOfChannelOfRgbConversion_sameDecision() {
+        // Until the downscaled image was computed from the Y plane, the motion detection did use a color channel of the
+        // RenderScript YUV to RGB conversion. For the grayscale scene this channel is 1.164 * (Y - 16) (BT.601, limited range).
+        // The correlation is invariant to the gain but not to the offset, therefore only the decision and the displacement
+        // (within a pixel) have to be the same.
+        for (long seed = 1; seed <= 5; seed++) {
+            SyntheticFrames scene = new SyntheticFrames(seed);
+            for (int[] size : SIZES) {
+                for (double[] movement : MOVEMENTS) {
+                    GrayscaleImage first = scene.frame(size[0], size[1], 0.0, 0.0, 1.0, 0);
+                    GrayscaleImage current = scene.frame(size[0], size[1], movement[0], movement[1], 1.0, 1);
+
+                    MotionDetector luma = new MotionDetector(new ReferenceTemplateMatcher());
+                    MotionDetector rgb = new MotionDetector(new ReferenceTemplateMatcher());
+                    luma.createTemplate(first);
+                    rgb.createTemplate(toRgbChannel(first));
+
+                    Motion expected = rgb.detect(toRgbChannel(current), token);
+                    Motion actual = luma.detect(current, token);
+
+                    assertThat(actual.isDetected(), is(expected.isDetected()));
+                    assertThat(Math.abs(actual.distX - expected.distX), is(lessThanOrEqualTo(1)));
+                    assertThat(Math.abs(actual.distY - expected.distY), is(lessThanOrEqualTo(1)));
+                }
+            }
+        }
+    }
+
+    private static GrayscaleImage toRgbChannel(GrayscaleImage luma) {
+        byte[] data = new byte[luma.data.length];
+        for (int i = 0; i < data.length; i++) {
+            int y = luma.data[i] & 0xff;
+            data[i] = (byte) Math.max(0, Math.min(255, Math.round(1.164f * (y - 16))));
+        }
+        return new GrayscaleImage(data, luma.width, luma.height);
+    }
+}
@@ -0,0 +1,96 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MotionTest {
+
+    @Test
+    public void matches_anyDirection_everyMotionMatches() {
+        assertThat(motion(0, 0).matches(MovementDirection.any), is(true));
+        assertThat(motion(-5, 3).matches(MovementDirection.any), is(true));
+    }
+
+    @Test
+    public void matches_left_faceIsShiftedToTheRightSideOfTheImage() {
+        assertThat(motion(6, 2).matches(MovementDirection.left), is(true));
+        assertThat(motion(-6, 2).matches(MovementDirection.left), is(false));
+    }
+
+    @Test
+    public void matches_right_faceIsShiftedToTheLeftSideOfTheImage() {
+        assertThat(motion(-6, -2).matches(MovementDirection.right), is(true));
+        assertThat(motion(6, -2).matches(MovementDirection.right), is(false));
+    }
+
+    @Test
+    public void matches_up_faceIsShiftedToTheTopOfTheImage() {
+        assertThat(motion(1, -4).matches(MovementDirection.up), is(true));
+        assertThat(motion(1, 4).matches(MovementDirection.up), is(false));
+    }
+
+    @Test
+    public void matches_down_faceIsShiftedToTheBottomOfTheImage() {
+        assertThat(motion(-1, 4).matches(MovementDirection.down), is(true));
+        assertThat(motion(-1, -4).matches(MovementDirection.down), is(false));
+    }
+
+    @Test
+    public void matches_diagonalMovement_matchesBothDirections() {
+        // user moves left and down
+        assertThat(motion(4, 4).matches(MovementDirection.left), is(true));
+        assertThat(motion(4, 4).matches(MovementDirection.down), is(true));
+        assertThat(motion(4, 4).matches(MovementDirection.right), is(false));
+        assertThat(motion(4, 4).matches(MovementDirection.up), is(false));
+        // user moves right and up, mostly right
+        assertThat(motion(-5, -3).matches(MovementDirection.right), is(true));
+        assertThat(motion(-5, -3).matches(MovementDirection.up), is(true));
+    }
+
+    @Test
+    public void matches_movementMostlyAlongOtherAxis_doesNotMatch() {
+        assertThat(motion(2, 6).matches(MovementDirection.left), is(false));
+        assertThat(motion(6, 2).matches(MovementDirection.down), is(false));
+        assertThat(motion(-1, -4).matches(MovementDirection.right), is(false));
+    }
+
+    @Test
+    public void matches_noDisplacement_onlyAnyDirectionMatches() {
+        for (MovementDirection direction : MovementDirection.values()) {
+            assertThat(motion(0, 0).matches(direction), is(direction == MovementDirection.any));
+        }
+    }
+
+    @Test
+    public void motionDetector_shiftedScene_displacementPointsIntoTheDirectionOfTheShift() {
+        double[][] movements = {{0.03, 0.0}, {-0.03, 0.0}, {0.0, 0.03}, {0.0, -0.03}};
+        MovementDirection[] expectedDirections = {
+                MovementDirection.left, MovementDirection.right, MovementDirection.down, MovementDirection.up};
+
+        for (int i = 0; i < movements.length; i++) {
+            List<GrayscaleImage> frames = new SyntheticFrames(3).sequence(128, 96, movements[i][0], movements[i][1], 3);
+            MotionDetector motionDetector = new MotionDetector(new IntegralImageTemplateMatcher());
+            motionDetector.createTemplate(frames.get(0));
+
+            Motion motion = motionDetector.detect(frames.get(2), new CancellationToken());
+
+            assertThat(motion.isDetected(), is(true));
+            for (MovementDirection direction : MovementDirection.values()) {
+                assertThat(motion.matches(direction), is(direction == MovementDirection.any || direction == expectedDirections[i]));
+            }
+        }
+    }
+
+    private static Motion motion(int distX, int distY) {
+        return new Motion(distX, distY, 50.0, true);
+    }
+}
@@ -0,0 +1,139 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ParallelTemplateMatcherTest {
+
+    // landscape images smaller than the motion detection does use, the rows are not split evenly for every thread count
+    private static final int[] RESOLUTIONS = {36, 47, 60};
+    private static final int[] THREAD_COUNTS = {1, 2, 4};
+
+    private final TemplateMatcher reference = new ReferenceTemplateMatcher();
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void match_randomTemplatesAndSearchAreas_sameMatchAsReference() {
+        Random random = new Random(42);
+        for (int threadCount = 1; threadCount <= 5; threadCount++) {
+            ParallelTemplateMatcher matcher = new ParallelTemplateMatcher(threadCount);
+            for (int i = 0; i < 30; i++) {
+                int height = RESOLUTIONS[i % RESOLUTIONS.length];
+                int width = height * 4 / 3;
+                SyntheticFrames scene = new SyntheticFrames(random.nextLong());
+                GrayscaleImage first = scene.frame(width, height, 0.0, 0.0, 1.0, 0);
+                GrayscaleImage current = scene.frame(width, height,
+                        random.nextDouble() * 0.2 - 0.1, random.nextDouble() * 0.2 - 0.1, 0.9 + random.nextDouble() * 0.2, 1);
+
+                int templateWidth = 1 + random.nextInt(width / 3);
+                int templateHeight = 1 + random.nextInt(height / 3);
+                int[] template = cutOut(first, random.nextInt(width - templateWidth + 1),
+                        random.nextInt(height - templateHeight + 1), templateWidth, templateHeight);
+
+                int minX = random.nextInt(width - templateWidth + 1);
+                int maxX = minX + random.nextInt(width - templateWidth - minX + 1);
+                int minY = random.nextInt(height - templateHeight + 1);
+                int maxY = minY + random.nextInt(height - templateHeight - minY + 1);
+
+                assertThat(matcher.match(current, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token),
+                        is(reference.match(current, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token)));
+            }
+        }
+    }
+
+    @Test
+    public void match_lowerBandsAreFinishedFirst_sameMatchAsReference() {
+        // the bands are searched while they are submitted, i.e. before the calling thread searches the first band
+        ParallelTemplateMatcher matcher = new ParallelTemplateMatcher(4, Runnable::run);
+        GrayscaleImage first = new SyntheticFrames(9).frame(213, 160, 0.0, 0.0, 1.0, 0);
+        GrayscaleImage current = new SyntheticFrames(9).frame(213, 160, -0.02, 0.03, 1.0, 1);
+        int[] template = cutOut(first, 96, 54, 21, 53);
+
+        assertThat(matcher.match(current, template, 21, 53, 53, 139, 40, 67, token),
+                is(reference.match(current, template, 21, 53, 53, 139, 40, 67, token)));
+    }
+
+    @Test
+    public void match_sameCorrelationInEveryBand_topmostCandidateWins() {
+        GrayscaleImage uniform = SyntheticFrames.uniform(128, 96, 255);
+        int[] template = cutOut(uniform, 58, 32, 12, 32);
+
+        TemplateMatcher.Match match = new ParallelTemplateMatcher(4).match(uniform, template, 12, 32, 32, 84, 24, 40, token);
+
+        assertThat(match.x, is(32));
+        assertThat(match.y, is(24));
+    }
+
+    @Test
+    public void match_blackImage_matchIsAtOrigin() {
+        GrayscaleImage black = SyntheticFrames.uniform(128, 96, 0);
+        int[] template = cutOut(new SyntheticFrames(1).frame(128, 96, 0.0, 0.0, 1.0, 0), 58, 32, 12, 32);
+
+        TemplateMatcher.Match match = new ParallelTemplateMatcher(3).match(black, template, 12, 32, 32, 84, 24, 40, token);
+
+        assertThat(match, is(new TemplateMatcher.Match(0, 0, 0.0)));
+    }
+
+    @Test
+    public void match_moreThreadsThanRows_sameMatchAsReference() {
+        GrayscaleImage img = new SyntheticFrames(2).frame(128, 96, 0.01, 0.0, 1.0, 1);
+        int[] template = cutOut(new SyntheticFrames(2).frame(128, 96, 0.0, 0.0, 1.0, 0), 58, 32, 12, 32);
+
+        assertThat(new ParallelTemplateMatcher(8).match(img, template, 12, 32, 32, 84, 30, 32, token),
+                is(reference.match(img, template, 12, 32, 32, 84, 30, 32, token)));
+    }
+
+    @Test(expected = CancelledException.class)
+    public void match_cancelledToken_throwsException() {
+        GrayscaleImage img = new SyntheticFrames(1).frame(128, 96, 0.0, 0.0, 1.0, 0);
+        token.cancel();
+
+        new ParallelTemplateMatcher(4).match(img, cutOut(img, 58, 32, 12, 32), 12, 32, 32, 84, 24, 40, token);
+    }
+
+    @Test
+    public void motionDetector_everyThreadCount_sameMotions() {
+        // the latency per thread count is measured by the MotionDetectorBenchmark of the benchmark module
+        int frameCount = 5;
+        for (int resolution : RESOLUTIONS) {
+            List<GrayscaleImage> frames = new SyntheticFrames(resolution).sequence(
+                    resolution * 4 / 3, resolution, 0.01, -0.005, frameCount);
+            Motion[] expected = null;
+
+            for (int threadCount : THREAD_COUNTS) {
+                MotionDetector motionDetector = new MotionDetector(new ParallelTemplateMatcher(threadCount));
+                motionDetector.createTemplate(frames.get(0));
+
+                Motion[] motions = new Motion[frameCount];
+                for (int i = 0; i < frameCount; i++) {
+                    motions[i] = motionDetector.detect(frames.get(i), token);
+                }
+
+                if (expected == null) {
+                    expected = motions;
+                }
+                assertThat(motions, is(expected));
+            }
+        }
+    }
+
+    private static int[] cutOut(GrayscaleImage img, int left, int top, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[x + y * width] = img.data[left + x + (top + y) * img.width] & 0xff;
+            }
+        }
+        return pixels;
+    }
+}
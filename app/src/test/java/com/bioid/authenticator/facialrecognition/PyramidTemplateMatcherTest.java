@@ -0,0 +1,144 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.base.threading.CancelledException;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PyramidTemplateMatcherTest {
+
+    private static final int MIN_MOVEMENT_PERCENTAGE = 15;
+
+    private final PyramidTemplateMatcher matcher = new PyramidTemplateMatcher();
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void levelCount_templateMustNotGetTooSmall() {
+        assertThat(PyramidTemplateMatcher.levelCount(6, 20), is(1));
+        assertThat(PyramidTemplateMatcher.levelCount(12, 32), is(2));  // 96 pixel landscape preview
+        assertThat(PyramidTemplateMatcher.levelCount(30, 80), is(3));
+        assertThat(PyramidTemplateMatcher.levelCount(300, 800), is(PyramidTemplateMatcher.MAX_LEVELS));
+    }
+
+    @Test
+    public void halve_imageIsAveragedWithin2x2Blocks() {
+        GrayscaleImage img = new GrayscaleImage(new byte[]{
+                0, 2, 10, 10, 7,
+                4, 6, 10, 11, 7,
+                (byte) 255, (byte) 255, 1, 1, 7}, 5, 3);
+
+        GrayscaleImage halved = PyramidTemplateMatcher.halve(img);
+
+        assertThat(halved.width, is(2));
+        assertThat(halved.height, is(1));
+        assertThat(halved.data[0] & 0xff, is(3));
+        assertThat(halved.data[1] & 0xff, is(10));  // 10.25 is rounded
+    }
+
+    @Test
+    public void halve_templateIsAveragedWithin2x2Blocks() {
+        int[] template = {
+                0, 2, 10, 10, 7,
+                4, 6, 10, 11, 7,
+                255, 255, 1, 1, 7};
+
+        int[] halved = PyramidTemplateMatcher.halve(template, 5, 3);
+
+        assertThat(halved, is(new int[]{3, 10}));
+    }
+
+    @Test
+    public void match_shiftedScene_sameMatchAsExhaustiveSearch() {
+        // smallest landscape image with a template for all pyramid levels
+        List<GrayscaleImage> frames = new SyntheticFrames(7).sequence(160, 120, 0.01, -0.01, 5);
+        MotionDetector expected = new MotionDetector(new ReferenceTemplateMatcher());
+        MotionDetector actual = new MotionDetector(matcher);
+        expected.createTemplate(frames.get(0));
+        actual.createTemplate(frames.get(0));
+
+        for (GrayscaleImage frame : frames) {
+            assertThat(actual.detect(frame, token),
+                    is(expected.detect(frame, token)));
+        }
+    }
+
+    @Test
+    public void match_templateTooSmallForPyramid_exhaustiveSearchIsUsed() {
+        GrayscaleImage img = new SyntheticFrames(3).frame(128, 96, 0.02, 0.0, 1.0, 1);
+        int[] template = new int[6 * 6];
+        for (int i = 0; i < template.length; i++) {
+            template[i] = img.data[40 + i % 6 + (30 + i / 6) * 128] & 0xff;
+        }
+
+        assertThat(matcher.match(img, template, 6, 6, 20, 80, 10, 60, token),
+                is(new ReferenceTemplateMatcher().match(img, template, 6, 6, 20, 80, 10, 60, token)));
+    }
+
+    @Test
+    public void match_blackImage_matchIsAtOrigin() {
+        GrayscaleImage black = SyntheticFrames.uniform(160, 120, 0);
+        int[] template = new int[16 * 40];
+        for (int i = 0; i < template.length; i++) {
+            template[i] = 100;
+        }
+
+        assertThat(matcher.match(black, template, 16, 40, 40, 104, 30, 50, token), is(new TemplateMatcher.Match(0, 0, 0.0)));
+    }
+
+    @Test(expected = CancelledException.class)
+    public void match_cancelledToken_throwsException() {
+        GrayscaleImage img = new SyntheticFrames(1).frame(160, 120, 0.0, 0.0, 1.0, 0);
+        token.cancel();
+
+        matcher.match(img, new int[16 * 40], 16, 40, 40, 104, 30, 50, token);
+    }
+
+    /**
+     * The exhaustive search is the reference, deviations are expected but must not change the outcome of the motion detection.
+     * (the speedup is measured by the MotionDetectorBenchmark of the benchmark module)
+     */
+    @Test
+    public void motionDetector_recordedSequences_sameOutcomeAsExhaustiveSearch() {
+        // two pyramid levels in portrait mode, three levels in landscape mode
+        int[][] sizes = {{96, 128}, {160, 120}};
+        double[][] movements = {{0.0, 0.0}, {-0.02, 0.0}, {0.02, 0.0}, {0.0, -0.02}, {0.0, 0.02}, {0.015, 0.015},
+                {-0.04, 0.01}, {0.03, -0.03}};
+
+        for (int[] size : sizes) {
+            int frameCount = 0;
+            int sameHits = 0;
+            int sameDecisions = 0;
+
+            for (long seed = 1; seed <= 2; seed++) {
+                SyntheticFrames scene = new SyntheticFrames(seed);
+                for (double[] movement : movements) {
+                    List<GrayscaleImage> frames = scene.sequence(size[0], size[1], movement[0], movement[1], 6);
+                    MotionDetector exhaustive = new MotionDetector(new IntegralImageTemplateMatcher());
+                    MotionDetector pyramid = new MotionDetector(matcher);
+                    exhaustive.createTemplate(frames.get(0));
+                    pyramid.createTemplate(frames.get(0));
+
+                    for (GrayscaleImage frame : frames) {
+                        double expected = exhaustive.detect(frame, token).percentage;
+                        double actual = pyramid.detect(frame, token).percentage;
+
+                        frameCount++;
+                        sameHits += expected == actual ? 1 : 0;
+                        sameDecisions += (expected > MIN_MOVEMENT_PERCENTAGE) == (actual > MIN_MOVEMENT_PERCENTAGE) ? 1 : 0;
+                    }
+                }
+            }
+
+            assertThat((double) sameHits / frameCount, is(greaterThanOrEqualTo(0.95)));
+            assertThat((double) sameDecisions / frameCount, is(greaterThanOrEqualTo(0.99)));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrackingTemplateMatcherTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    // template and search area as used by the motion detection for the landscape preview
+    private static final int TEMPLATE_X = 58;
+    private static final int TEMPLATE_Y = 32;
+    private static final int TEMPLATE_WIDTH = 12;
+    private static final int TEMPLATE_HEIGHT = 32;
+    private static final int MIN_X = 32;
+    private static final int MAX_X = 84;
+    private static final int MIN_Y = 24;
+    private static final int MAX_Y = 40;
+
+    /**
+     * Does record the bounds of every search and delegates to the exhaustive search.
+     */
+    private static class RecordingMatcher implements TemplateMatcher {
+
+        private final TemplateMatcher delegate = new IntegralImageTemplateMatcher();
+        private final List<List<Integer>> searches = new ArrayList<>();
+
+        @Override
+        public Match match(GrayscaleImage img, int[] template, int templateWidth, int templateHeight,
+                           int minX, int maxX, int minY, int maxY, CancellationToken token) {
+            searches.add(Arrays.asList(minX, maxX, minY, maxY));
+            return delegate.match(img, template, templateWidth, templateHeight, minX, maxX, minY, maxY, token);
+        }
+
+        List<Integer> lastSearch() {
+            return searches.get(searches.size() - 1);
+        }
+    }
+
+    @Mock
+    private TemplateMatcher templateMatcher;
+
+    private final CancellationToken token = new CancellationToken();
+    private final SyntheticFrames scene = new SyntheticFrames(11);
+
+    private RecordingMatcher delegate;
+    private TrackingTemplateMatcher matcher;
+    private int[] template;
+
+    @Before
+    public void setUp() {
+        delegate = new RecordingMatcher();
+        matcher = new TrackingTemplateMatcher(delegate);
+        template = cutOutTemplate(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 0));
+    }
+
+    @Test
+    public void match_withoutPreviousMatch_wholeAreaIsSearched() {
+        TemplateMatcher.Match match = match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+
+        assertThat(delegate.searches.size(), is(1));
+        assertThat(delegate.lastSearch(), is(Arrays.asList(MIN_X, MAX_X, MIN_Y, MAX_Y)));
+        assertThat(match.x, is(TEMPLATE_X));
+        assertThat(match.y, is(TEMPLATE_Y));
+    }
+
+    @Test
+    public void match_withPreviousMatch_onlyWindowAroundPreviousMatchIsSearched() {
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+
+        TemplateMatcher.Match match = match(scene.frame(WIDTH, HEIGHT, 1.0 / WIDTH, 0.0, 0.98, 2));
+
+        int radius = TrackingTemplateMatcher.MIN_RADIUS;
+        assertThat(delegate.searches.size(), is(2));
+        assertThat(delegate.lastSearch(),
+                is(Arrays.asList(TEMPLATE_X - radius, TEMPLATE_X + radius, TEMPLATE_Y - radius, TEMPLATE_Y + radius)));
+        assertThat(match.x, is(TEMPLATE_X + 1));
+        assertThat(match.y, is(TEMPLATE_Y));
+    }
+
+    @Test
+    public void match_fasterMovement_windowIsEnlarged() {
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+        match(scene.frame(WIDTH, HEIGHT, 2.0 / WIDTH, 0.0, 1.0, 2));
+
+        TemplateMatcher.Match match = match(scene.frame(WIDTH, HEIGHT, 4.0 / WIDTH, 0.0, 1.0, 3));
+
+        int radius = TrackingTemplateMatcher.MIN_RADIUS + 2 * 2;
+        assertThat(delegate.lastSearch(), is(Arrays.asList(TEMPLATE_X + 2 - radius, TEMPLATE_X + 2 + radius,
+                TEMPLATE_Y - radius, TEMPLATE_Y + radius)));
+        assertThat(match.x, is(TEMPLATE_X + 4));
+    }
+
+    @Test
+    public void match_peakOutsideOfWindow_wholeAreaIsSearched() {
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+
+        TemplateMatcher.Match match = match(scene.frame(WIDTH, HEIGHT, 8.0 / WIDTH, 0.0, 1.0, 2));
+
+        assertThat(delegate.searches.size(), is(3));
+        assertThat(delegate.lastSearch(), is(Arrays.asList(MIN_X, MAX_X, MIN_Y, MAX_Y)));
+        assertThat(match.x, is(TEMPLATE_X + 8));
+    }
+
+    @Test
+    public void match_templateLost_wholeAreaIsSearched() {
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+
+        match(new SyntheticFrames(12).frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 2));  // another scene
+
+        assertThat(delegate.searches.size(), is(3));
+        assertThat(delegate.lastSearch(), is(Arrays.asList(MIN_X, MAX_X, MIN_Y, MAX_Y)));
+    }
+
+    @Test
+    public void reset_wholeAreaIsSearchedAgain() {
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 1));
+
+        matcher.reset();
+        match(scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 2));
+
+        assertThat(delegate.searches.size(), is(2));
+        assertThat(delegate.lastSearch(), is(Arrays.asList(MIN_X, MAX_X, MIN_Y, MAX_Y)));
+    }
+
+    @Test
+    public void motionDetector_resetTemplate_trackingStateIsCleared() {
+        new MotionDetector(templateMatcher).resetTemplate();
+
+        verify(templateMatcher).reset();
+    }
+
+    @Test
+    public void motionDetector_createTemplate_trackingStateIsCleared() {
+        GrayscaleImage first = scene.frame(WIDTH, HEIGHT, 0.0, 0.0, 1.0, 0);
+        MotionDetector motionDetector = new MotionDetector(matcher);
+        motionDetector.createTemplate(first);
+        motionDetector.detect(first, token);
+
+        motionDetector.createTemplate(first);
+        motionDetector.detect(first, token);
+
+        assertThat(delegate.searches.size(), is(2));
+        assertThat(delegate.searches.get(1), is(delegate.searches.get(0)));
+    }
+
+    @Test
+    public void motionDetector_recordedSequences_sameMovementAsExhaustiveSearchUntilMotionIsDetected() {
+        double[][] movements = {{0.0, 0.0}, {-0.01, 0.0}, {0.01, 0.0}, {0.0, -0.01}, {0.0, 0.01}, {0.015, 0.015},
+                {-0.04, 0.01}, {0.005, 0.002}};
+        for (long seed = 1; seed <= 3; seed++) {
+            for (double[] movement : movements) {
+                List<GrayscaleImage> frames = new SyntheticFrames(seed).sequence(WIDTH, HEIGHT, movement[0], movement[1], 12);
+                MotionDetector expected = new MotionDetector(new IntegralImageTemplateMatcher());
+                MotionDetector actual = new MotionDetector(new TrackingTemplateMatcher(new IntegralImageTemplateMatcher()));
+                expected.createTemplate(frames.get(0));
+                actual.createTemplate(frames.get(0));
+
+                for (GrayscaleImage frame : frames) {
+                    Motion expectedMotion = expected.detect(frame, token);
+                    assertThat(actual.detect(frame, token), is(expectedMotion));
+                    if (expectedMotion.isDetected()) {
+                        break;  // the motion detection is done
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void confidence_perfectMatchHasConfidenceOfOne() {
+        int[] template = {10, 20, 30, 40};
+        TemplateMatcher.Match match = new TemplateMatcher.Match(0, 0, 3000.0 * 3000.0 / 3000.0);  // image equals template
+
+        assertThat(TrackingTemplateMatcher.confidence(match, template), is(1.0));
+    }
+
+    @Test
+    public void confidence_blackTemplateHasNoConfidence() {
+        assertThat(TrackingTemplateMatcher.confidence(new TemplateMatcher.Match(0, 0, 0.0), new int[4]), is(0.0));
+    }
+
+    private TemplateMatcher.Match match(GrayscaleImage img) {
+        return matcher.match(img, template, TEMPLATE_WIDTH, TEMPLATE_HEIGHT, MIN_X, MAX_X, MIN_Y, MAX_Y, token);
+    }
+
+    private static int[] cutOutTemplate(GrayscaleImage img) {
+        int[] pixels = new int[TEMPLATE_WIDTH * TEMPLATE_HEIGHT];
+        for (int y = 0; y < TEMPLATE_HEIGHT; y++) {
+            for (int x = 0; x < TEMPLATE_WIDTH; x++) {
+                pixels[x + y * TEMPLATE_WIDTH] = img.data[TEMPLATE_X + x + (TEMPLATE_Y + y) * img.width] & 0xff;
+            }
+        }
+        return pixels;
+    }
+}
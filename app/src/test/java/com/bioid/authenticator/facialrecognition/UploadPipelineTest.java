@@ -0,0 +1,178 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.Yuv420Image;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.NoConnectionException;
+import com.bioid.authenticator.base.network.ServerErrorException;
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+import com.bioid.authenticator.base.network.bioid.webservice.NotRecognizedException;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SynchronousBackgroundHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UploadPipelineTest {
+
+    @Mock
+    private LoggingHelper log;
+    @Spy
+    private SynchronousBackgroundHandler backgroundHandler;
+    @Mock
+    private UploadPipeline.Uploader uploader;
+    @Mock
+    private UploadPipeline.Listener listener;
+    @Mock
+    private Yuv420Image img1, img2, img3;
+
+    private UploadPipeline.Job job1, job2, job3;
+    private UploadPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        job1 = new UploadPipeline.Job(img1, MovementDirection.any, 0, false);
+        job2 = new UploadPipeline.Job(img2, MovementDirection.left, 1, true);
+        job3 = new UploadPipeline.Job(img3, MovementDirection.any, 2, false);
+
+        pipeline = new UploadPipeline(log, backgroundHandler, uploader, listener);
+    }
+
+    @Test
+    public void submit_imageWillBeUploaded() {
+        pipeline.submit(job1);
+
+        verify(uploader).upload(eq(job1), any(CancellationToken.class));
+        verify(listener).onUploadSuccessful(job1);
+        assertThat(pipeline.isIdle(), is(true));
+    }
+
+    @Test
+    public void submit_imageWillBeRecycledAfterSuccessfulUpload() {
+        pipeline.submit(job1);
+
+        verify(img1).recycle();
+    }
+
+    @Test
+    public void submit_limitedNumberOfUploadsAreRunningAtTheSameTime() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+
+        pipeline.submit(job1);
+        pipeline.submit(job2);
+        pipeline.submit(job3);
+
+        verify(backgroundHandler, times(UploadPipeline.MAX_CONCURRENT_UPLOADS))
+                .runOnBackgroundThread(any(Runnable.class), any(Runnable.class), any(), isNull());
+    }
+
+    @Test
+    public void upload_ifConnectionFailed_uploadWillBeRetriedWithDelay() {
+        doThrow(new NoConnectionException(null)).doNothing().when(uploader).upload(eq(job1), any(CancellationToken.class));
+
+        pipeline.submit(job1);
+
+        verify(backgroundHandler).runWithDelay(any(Runnable.class), eq((long) UploadPipeline.INITIAL_BACKOFF_IN_MILLIS));
+        verify(uploader, times(2)).upload(eq(job1), any(CancellationToken.class));
+        verify(listener).onUploadSuccessful(job1);
+        verify(listener, never()).onUploadFailed(any(UploadPipeline.Job.class), any(RuntimeException.class));
+    }
+
+    @Test
+    public void upload_ifServerErrorPersists_listenerIsNotifiedAfterMaxAttempts() {
+        doThrow(new ServerErrorException()).when(uploader).upload(eq(job1), any(CancellationToken.class));
+
+        pipeline.submit(job1);
+
+        verify(uploader, times(UploadPipeline.MAX_ATTEMPTS)).upload(eq(job1), any(CancellationToken.class));
+        verify(listener).onUploadFailed(eq(job1), any(ServerErrorException.class));
+        verify(img1, never()).recycle();  // job is kept for resubmission
+    }
+
+    @Test
+    public void upload_ifImageWasNotAccepted_uploadWillNotBeRetried() {
+        doThrow(new NotRecognizedException()).when(uploader).upload(eq(job1), any(CancellationToken.class));
+
+        pipeline.submit(job1);
+
+        verify(uploader).upload(eq(job1), any(CancellationToken.class));
+        verify(listener).onUploadFailed(eq(job1), any(NotRecognizedException.class));
+    }
+
+    @Test
+    public void resubmit_failedImageWillBeUploadedAgain() {
+        doThrow(new NotRecognizedException()).doNothing().when(uploader).upload(eq(job1), any(CancellationToken.class));
+        pipeline.submit(job1);
+
+        pipeline.resubmit(job1.index, 1000);
+
+        verify(backgroundHandler).runWithDelay(any(Runnable.class), eq(1000L));
+        verify(uploader, times(2)).upload(eq(job1), any(CancellationToken.class));
+        verify(listener).onUploadSuccessful(job1);
+    }
+
+    @Test
+    public void discard_failedImageWillBeRecycled() {
+        doThrow(new NotRecognizedException()).when(uploader).upload(eq(job1), any(CancellationToken.class));
+        pipeline.submit(job1);
+
+        pipeline.discard(job1.index);
+
+        verify(img1).recycle();
+        assertThat(pipeline.isIdle(), is(true));
+    }
+
+    @Test
+    public void discard_queuedImageWillBeRecycledButRunningImageNot() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        pipeline.submit(job1);
+        pipeline.submit(job2);
+        pipeline.submit(job3);
+
+        pipeline.discard(job1.index);
+        pipeline.discard(job3.index);
+
+        verify(img1, never()).recycle();  // might still be used by the running upload
+        verify(img3).recycle();
+    }
+
+    @Test
+    public void discard_runningUploadWillBeCancelled() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        pipeline.submit(job1);
+
+        pipeline.discard(job1.index);
+
+        verify(backgroundHandler).unsubscribeFromBackgroundTask(SynchronousBackgroundHandler.TASK_ID);
+        assertThat(pipeline.isIdle(), is(true));
+    }
+
+    @Test
+    public void clear_pipelineIsIdle() {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+        pipeline.submit(job1);
+        pipeline.submit(job2);
+        pipeline.submit(job3);
+
+        pipeline.clear();
+
+        verify(backgroundHandler, times(UploadPipeline.MAX_CONCURRENT_UPLOADS))
+                .unsubscribeFromBackgroundTask(SynchronousBackgroundHandler.TASK_ID);
+        verify(img3).recycle();
+        assertThat(pipeline.isIdle(), is(true));
+    }
+}
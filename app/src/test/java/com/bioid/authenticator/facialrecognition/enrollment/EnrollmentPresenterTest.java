@@ -23,6 +23,8 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.BitSet;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -98,12 +100,8 @@ public class EnrollmentPresenterTest {
             this.bwsToken = bwsToken;
         }
 
-        private void setSuccessfulUploads(int successfulUploads) {
-            this.successfulUploads = successfulUploads;
-        }
-
-        private int getSuccessfulUploads() {
-            return this.successfulUploads;
+        private BitSet getCompletedUploads() {
+            return this.completedUploads;
         }
 
         private int getFailedOperations() {
@@ -129,6 +127,13 @@ public class EnrollmentPresenterTest {
         messageOrder.verify(view).hideMessages();
     }
 
+    @Test
+    public void startBiometricOperation_connectionIsWarmedUp() {
+        presenter.startBiometricOperation();
+
+        verify(bioIdWebserviceClient).warmUpConnection();
+    }
+
     @Test
     public void startBiometricOperation_tokenIsFetchedAndSet() {
         presenter.setBwsToken(null);
@@ -193,10 +198,10 @@ public class EnrollmentPresenterTest {
 
     @Test
     public void promptToTurn90DegreesAccepted_captureImagePairSessionTriggered() {
-        presenter.setSuccessfulUploads(42);
+        presenter.getCompletedUploads().set(0, 4);  // two pairs already uploaded
         presenter.promptToTurn90DegreesAccepted();
 
-        assertThat(presenter.captureImagePairCalledWithFirstParam, is(42));
+        assertThat(presenter.captureImagePairCalledWithFirstParam, is(4));
         assertThat(presenter.captureImagePairCalledWithSecondParam, is(MovementDirection.any));
         assertThat(presenter.captureImagePairCalledWithThirdParam, is(MovementDirection.any));
     }
@@ -216,62 +221,53 @@ public class EnrollmentPresenterTest {
     }
 
     @Test
-    public void onUploadSuccessful_counterIsIncremented() {
-        presenter.setSuccessfulUploads(10);
-
-        presenter.onUploadSuccessful();
-
-        assertThat(presenter.getSuccessfulUploads(), is(11));
-    }
-
-    @Test
-    public void onUploadSuccessful_enrollingInfoIsShown() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_enrollingInfoIsShown() {
+        presenter.getCompletedUploads().set(0, 8);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         verify(view).showEnrollingInfo();
     }
 
     @Test
-    public void onUploadSuccessful_resetBiometricOperation() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_resetBiometricOperation() {
+        presenter.getCompletedUploads().set(0, 8);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         assertThat(presenter.resetBiometricOperationCalled, is(true));
     }
 
     @Test
-    public void onUploadSuccessful_ifEnrollmentWasSuccessful_successWillBeShownBeforeNavigatingBack() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_ifEnrollmentWasSuccessful_successWillBeShownBeforeNavigatingBack() {
+        presenter.getCompletedUploads().set(0, 8);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         verify(view).showEnrollmentSuccess();
         verify(view).navigateBack(true);
     }
 
     @Test
-    public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_warningWillBeShown() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_ifEnrollmentWasNotSuccessful_warningWillBeShown() {
+        presenter.getCompletedUploads().set(0, 8);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         assertThat(presenter.showWarningCalledWith, is(e));
     }
 
     @Test
-    public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_operationWillBeRestarted() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_ifEnrollmentWasNotSuccessful_operationWillBeRestarted() {
+        presenter.getCompletedUploads().set(0, 8);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(0);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(3);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         assertThat(presenter.captureImagePairCalledWithFirstParam, is(0));
         assertThat(presenter.captureImagePairCalledWithSecondParam, is(MovementDirection.any));
@@ -279,46 +275,57 @@ public class EnrollmentPresenterTest {
     }
 
     @Test
-    public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_failedOperationCounterIsIncremented() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_ifEnrollmentWasNotSuccessful_failedOperationCounterIsIncremented() {
+        presenter.getCompletedUploads().set(0, 8);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(0);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(3);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         assertThat(presenter.getFailedOperations(), is(1));
     }
 
     @Test
-    public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_maxTriesAreExceeded_navigateBackWithoutSuccess() {
-        presenter.setSuccessfulUploads(7);
+    public void onUploadCompleted_ifEnrollmentWasNotSuccessful_maxTriesAreExceeded_navigateBackWithoutSuccess() {
+        presenter.getCompletedUploads().set(0, 8);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(1);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(2);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(7);
 
         verify(view).navigateBack(false);
     }
 
     @Test
-    public void onUploadSuccessful_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() {
-        presenter.setSuccessfulUploads(2);  // one pair already uploaded + reference image of second pair
+    public void onUploadCompleted_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() {
+        presenter.getCompletedUploads().set(0, 3);  // one pair already uploaded + reference image of second pair
+
+        presenter.onUploadCompleted(2);
+
+        verify(view, never()).promptToTurn90Degrees();
+        verify(bioIdWebserviceClient, never()).enroll(any(EnrollmentToken.class));
+    }
+
+    @Test
+    public void onUploadCompleted_ifSecondImageOfPairWasUploadedFirst_waitForFirstImageUploadToComplete() {
+        presenter.getCompletedUploads().set(0, 2);  // one pair already uploaded
+        presenter.getCompletedUploads().set(3);     // image with motion of second pair
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(3);
 
         verify(view, never()).promptToTurn90Degrees();
         verify(bioIdWebserviceClient, never()).enroll(any(EnrollmentToken.class));
     }
 
     @Test
-    public void onUploadSuccessful_ifLessThanFourImagePairsAreUploaded_promptToTurn90Degrees() {
-        presenter.setSuccessfulUploads(5);  // three pairs already uploaded -> one missing
+    public void onUploadCompleted_ifLessThanFourImagePairsAreUploaded_promptToTurn90Degrees() {
+        presenter.getCompletedUploads().set(0, 6);  // three pairs already uploaded -> one missing
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(5);
 
         verify(view).promptToTurn90Degrees();
         verify(bioIdWebserviceClient, never()).enroll(any(EnrollmentToken.class));
@@ -27,6 +27,8 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.BitSet;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
@@ -116,12 +118,8 @@ public class VerificationPresenterTest {
             this.bwsToken = bwsToken;
         }
 
-        private void setSuccessfulUploads(int successfulUploads) {
-            this.successfulUploads = successfulUploads;
-        }
-
-        private int getSuccessfulUploads() {
-            return this.successfulUploads;
+        private BitSet getCompletedUploads() {
+            return this.completedUploads;
         }
 
         private void setFailedUploads(int failedUploads) {
@@ -163,6 +161,13 @@ public class VerificationPresenterTest {
         messageOrder.verify(view).hideMessages();
     }
 
+    @Test
+    public void startBiometricOperation_connectionIsWarmedUp() {
+        presenter.startBiometricOperation();
+
+        verify(bioIdWebserviceClient).warmUpConnection();
+    }
+
     @Test
     public void startBiometricOperation_tokenIsFetchedAndSet() {
         presenter.setBwsToken(null);
@@ -311,48 +316,59 @@ public class VerificationPresenterTest {
     }
 
     @Test
-    public void onUploadSuccessful_counterIsIncremented() {
-        presenter.setSuccessfulUploads(10);
+    public void onUploadCompleted_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() {
+        presenter.getCompletedUploads().set(0);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(0);
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.verifyCalled, is(false));
     }
 
     @Test
-    public void onUploadSuccessful_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() {
-        presenter.setSuccessfulUploads(2);  // one pair already uploaded + reference image of second pair
+    public void onUploadCompleted_ifSecondImageOfPairWasUploadedFirst_waitForFirstImageUploadToComplete() {
+        presenter.getCompletedUploads().set(1);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(1);
 
         assertThat(presenter.verifyCalled, is(false));
     }
 
     @Test
-    public void onUploadSuccessful_verifyWillBeCalled() {
-        presenter.setSuccessfulUploads(1);
+    public void onUploadCompleted_verifyWillBeCalled() {
+        presenter.getCompletedUploads().set(0, 2);
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(1);
 
         assertThat(presenter.verifyCalled, is(true));
     }
 
     @Test
-    public void onUploadSuccessful_withChallengeResponse_ifLastImageOfChallengeWasUploaded_verifyWillBeCalled() {
+    public void onUploadCompleted_withChallengeResponse_ifLastImageOfChallengeWasUploaded_verifyWillBeCalled() {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(3);  // mocked challenge: left, right, up
+        presenter.getCompletedUploads().set(0, 4);  // mocked challenge: left, right, up
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(3);
 
         assertThat(presenter.verifyCalled, is(true));
     }
 
     @Test
-    public void onUploadSuccessful_withChallengeResponse_ifNotLastImageOfChallengeWasUploaded_verifyNotWillBeCalled() {
+    public void onUploadCompleted_withChallengeResponse_ifImagesOfChallengeAreUploadedOutOfOrder_verifyWillBeCalledAfterAll() {
+        presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
+        presenter.getCompletedUploads().set(0, 4);  // mocked challenge: left, right, up
+        presenter.getCompletedUploads().clear(2);
+
+        presenter.onUploadCompleted(3);
+
+        assertThat(presenter.verifyCalled, is(false));
+    }
+
+    @Test
+    public void onUploadCompleted_withChallengeResponse_ifNotLastImageOfChallengeWasUploaded_verifyNotWillBeCalled() {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(1);  // mocked challenge: left, right, up
+        presenter.getCompletedUploads().set(0, 2);  // mocked challenge: left, right, up
 
-        presenter.onUploadSuccessful();
+        presenter.onUploadCompleted(1);
 
         assertThat(presenter.verifyCalled, is(false));
     }
@@ -455,36 +471,33 @@ public class VerificationPresenterTest {
     @Test
     public void onUploadFailed_noFaceFoundErrorWillBeSuppressedWithinChallengeResponse() {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new NoFaceFoundException());
+        presenter.onUploadFailed(new NoFaceFoundException(), 2);
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.getCompletedUploads().get(2), is(true));
         assertThat(presenter.getFailedUploads(), is(10));
     }
 
     @Test
     public void onUploadFailed_liveDetectionErrorWillBeSuppressedWithinChallengeResponse() {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new LiveDetectionException());
+        presenter.onUploadFailed(new LiveDetectionException(), 2);
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.getCompletedUploads().get(2), is(true));
         assertThat(presenter.getFailedUploads(), is(10));
     }
 
     @Test
     public void onUploadFailed_otherErrorsWillNotBeSuppressedWithinChallengeResponse() {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new ServerErrorException());
+        presenter.onUploadFailed(new ServerErrorException(), 2);
 
-        assertThat(presenter.getSuccessfulUploads(), is(10));
+        assertThat(presenter.getCompletedUploads().get(2), is(false));
         assertThat(presenter.getFailedUploads(), is(11));
     }
 
@@ -0,0 +1,129 @@
+package com.bioid.authenticator.testutil;
+
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic grayscale frames which resemble the downscaled camera preview of a moving head.
+ * <p>
+ * A scene is textured with smooth value noise of different scales (coarse shapes and fine details) which is rendered
+ * in normalized coordinates, therefore the same scene can be rendered in every resolution.
+ * Every frame does get its own sensor noise, frames of a sequence are shifted and the exposure might drift.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class SyntheticFrames {
+
+    // grid cells per frame width and the amplitude of the texture of that scale
+    private static final int[] CELLS = {3, 6, 12, 24};
+    private static final double[] AMPLITUDES = {55.0, 35.0, 22.0, 12.0};
+    private static final int BACKGROUND = 120;
+    private static final int NOISE = 4;
+
+    private final long seed;
+
+    /**
+     * @param seed scenes with the same seed do look the same
+     */
+    public SyntheticFrames(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Does render a single frame of the scene.
+     *
+     * @param shiftX     horizontal movement of the scene relative to the frame width (0.1 does shift by 10% to the right)
+     * @param shiftY     vertical movement of the scene relative to the frame height (0.1 does shift by 10% to the bottom)
+     * @param exposure   factor which is applied to every pixel (1.0 does not change the brightness)
+     * @param frameIndex determines the sensor noise
+     */
+    @NonNull
+    public GrayscaleImage frame(int width, int height, double shiftX, double shiftY, double exposure, int frameIndex) {
+        Random noise = new Random(seed * 31 + frameIndex);
+        byte[] data = new byte[width * height];
+
+        for (int y = 0; y < height; y++) {
+            double v = (double) y / height - shiftY;
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / width - shiftX;
+
+                double value = BACKGROUND;
+                for (int octave = 0; octave < CELLS.length; octave++) {
+                    value += AMPLITUDES[octave] * valueNoise(octave, u * CELLS[octave], v * CELLS[octave]);
+                }
+                value = value * exposure + noise.nextInt(2 * NOISE + 1) - NOISE;
+
+                data[x + y * width] = (byte) Math.max(0, Math.min(255, (int) Math.round(value)));
+            }
+        }
+
+        return new GrayscaleImage(data, width, height);
+    }
+
+    /**
+     * Returns smoothly interpolated random values between -1 and 1 for the given grid coordinates.
+     */
+    private double valueNoise(int octave, double gridX, double gridY) {
+        int cellX = (int) Math.floor(gridX);
+        int cellY = (int) Math.floor(gridY);
+        double fx = smoothstep(gridX - cellX);
+        double fy = smoothstep(gridY - cellY);
+
+        double top = lerp(random(octave, cellX, cellY), random(octave, cellX + 1, cellY), fx);
+        double bottom = lerp(random(octave, cellX, cellY + 1), random(octave, cellX + 1, cellY + 1), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    /**
+     * Returns a random value between -1 and 1 which only depends on the seed and the given grid point.
+     */
+    private double random(int octave, int cellX, int cellY) {
+        long hash = seed * 0x9E3779B97F4A7C15L + octave * 0xC2B2AE3D27D4EB4FL + cellX * 0x165667B19E3779F9L
+                + cellY * 0x27D4EB2F165667C5L;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return (hash & 0xFFFF) / 32767.5 - 1.0;
+    }
+
+    private static double smoothstep(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Does render a sequence of frames which are shifted by the same amount from frame to frame.
+     * The exposure drifts slightly (like the auto exposure of the camera would do).
+     *
+     * @param stepX horizontal movement per frame relative to the frame width
+     * @param stepY vertical movement per frame relative to the frame height
+     */
+    @NonNull
+    public List<GrayscaleImage> sequence(int width, int height, double stepX, double stepY, int frameCount) {
+        List<GrayscaleImage> frames = new ArrayList<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            double exposure = 1.0 - 0.01 * (i % 5);
+            frames.add(frame(width, height, i * stepX, i * stepY, exposure, i));
+        }
+        return frames;
+    }
+
+    /**
+     * Returns a frame where every pixel has the same value (e.g. a covered camera).
+     */
+    @NonNull
+    public static GrayscaleImage uniform(int width, int height, int value) {
+        byte[] data = new byte[width * height];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) value;
+        }
+        return new GrayscaleImage(data, width, height);
+    }
+}
@@ -0,0 +1,50 @@
+package com.bioid.authenticator.base.image;
+
+import com.bioid.authenticator.benchmark.CameraFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downscaling of a 640x480 camera frame into the grayscale image of the motion detection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GrayscaleDownscalerBenchmark {
+
+    @Param({"96", "160", "240"})
+    private int size;
+    // 270 degrees is the usual orientation of the front camera sensor
+    @Param({"0", "270"})
+    private int rotation;
+
+    private GrayscaleDownscaler downscaler;
+    private byte[] yPlane;
+    private GrayscaleImage reuse;
+
+    @Setup
+    public void setUp() {
+        downscaler = new GrayscaleDownscaler(size);
+        yPlane = CameraFrames.yPlane(1, 0.0, 0.0, 0);
+        reuse = downscaler.downscale(yPlane, CameraFrames.WIDTH, CameraFrames.HEIGHT, CameraFrames.ROW_STRIDE, rotation, null);
+    }
+
+    @Benchmark
+    public GrayscaleImage downscale() {
+        return downscaler.downscale(yPlane, CameraFrames.WIDTH, CameraFrames.HEIGHT, CameraFrames.ROW_STRIDE, rotation, null);
+    }
+
+    @Benchmark
+    public GrayscaleImage downscaleIntoReusedImage() {
+        return downscaler.downscale(yPlane, CameraFrames.WIDTH, CameraFrames.HEIGHT, CameraFrames.ROW_STRIDE, rotation, reuse);
+    }
+}
@@ -0,0 +1,80 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 encoding of uploaded images (the size of a 640x480 JPEG or PNG) and decoding of JWT payloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncoderBenchmark {
+
+    /**
+     * Does only count the written bytes, therefore the benchmark does not measure the memory bandwidth of a buffer.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Param({"30000", "120000"})
+    private int imageSize;
+
+    private final Encoder encoder = new Encoder();
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    private byte[] image;
+    private String jwtPayload;
+
+    @Setup
+    public void setUp() {
+        image = new byte[imageSize];
+        new Random(42).nextBytes(image);
+
+        String claims = "{\"iss\":\"BWS\",\"sub\":\"bws.12.4711\",\"aud\":\"app\",\"task\":512,\"traits\":1,"
+                + "\"challenge\":\"[[\\\"up\\\",\\\"down\\\"],[\\\"left\\\",\\\"right\\\"]]\",\"exp\":1893456000}";
+        jwtPayload = Base64.getUrlEncoder().withoutPadding().encodeToString(claims.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Benchmark
+    public long encodeAsBase64() throws IOException {
+        encoder.encodeAsBase64(image, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeDataUrl() throws IOException {
+        new DataUrlBody("image/png", image, encoder).writeTo(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public String decodeBase64() {
+        return encoder.decodeBase64(jwtPayload);
+    }
+}
@@ -0,0 +1,51 @@
+package com.bioid.authenticator.base.network.bioid.webservice.token;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a challenge-response verification token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BwsTokenBenchmark {
+
+    private final JwtParser jwtParser = new JwtParser();
+    private final BwsTokenFactory tokenFactory = new BwsTokenFactory();
+
+    private String jwt;
+
+    @Setup
+    public void setUp() {
+        String header = "{\"alg\":\"HS256\",\"typ\":\"JWT\"}";
+        String claims = "{\"iss\":\"BWS\",\"sub\":\"bws.12.4711\",\"aud\":\"app\",\"task\":512,\"traits\":1,"
+                + "\"challenge\":\"[[\\\"up\\\",\\\"down\\\"],[\\\"left\\\",\\\"right\\\"],[\\\"right\\\",\\\"up\\\"]]\","
+                + "\"exp\":1893456000}";
+        jwt = encode(header) + "." + encode(claims) + ".c2lnbmF0dXJlLW5vdC12ZXJpZmllZC1ieS10aGUtY2xpZW50";
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Benchmark
+    public JSONObject parsePayload() {
+        return jwtParser.getPayload(jwt);
+    }
+
+    @Benchmark
+    public VerificationToken newVerificationToken() {
+        return tokenFactory.newVerificationToken(jwt);
+    }
+}
@@ -0,0 +1,36 @@
+package com.bioid.authenticator.benchmark;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+/**
+ * Provides synthetic Y planes which look like YUV_420_888 preview frames of the front camera.
+ */
+public final class CameraFrames {
+
+    public static final int WIDTH = 640;
+    public static final int HEIGHT = 480;
+    // camera buffers are usually aligned, therefore the rows are padded
+    public static final int ROW_STRIDE = 704;
+
+    private CameraFrames() {
+    }
+
+    /**
+     * Returns the Y plane of a 640x480 frame including the row padding.
+     *
+     * @param seed       frames with the same seed show the same scene
+     * @param shiftX     horizontal movement of the scene relative to the frame width
+     * @param shiftY     vertical movement of the scene relative to the frame height
+     * @param frameIndex determines the sensor noise
+     */
+    public static byte[] yPlane(long seed, double shiftX, double shiftY, int frameIndex) {
+        GrayscaleImage frame = new SyntheticFrames(seed).frame(WIDTH, HEIGHT, shiftX, shiftY, 1.0, frameIndex);
+
+        byte[] yPlane = new byte[ROW_STRIDE * (HEIGHT - 1) + WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(frame.data, y * WIDTH, yPlane, y * ROW_STRIDE, WIDTH);
+        }
+        return yPlane;
+    }
+}
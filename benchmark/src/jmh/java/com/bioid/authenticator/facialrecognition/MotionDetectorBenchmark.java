@@ -0,0 +1,72 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.threading.CancellationToken;
+import com.bioid.authenticator.testutil.SyntheticFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Motion detection of a slowly moving head with every template matcher and resolution.
+ * The downscaled frames are in portrait mode like the preview of the front camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MotionDetectorBenchmark {
+
+    private static final int FRAME_COUNT = 16;
+
+    @Param({"reference", "integralImage", "pyramid", "tracking", "parallel2", "parallel4"})
+    private String matcher;
+    @Param({"96", "160", "240"})
+    private int resolution;
+
+    private final CancellationToken token = new CancellationToken();
+
+    private MotionDetector motionDetector;
+    private List<GrayscaleImage> frames;
+    private int frameIndex;
+
+    @Setup
+    public void setUp() {
+        frames = new SyntheticFrames(1).sequence(resolution, resolution * 4 / 3, 0.004, -0.002, FRAME_COUNT);
+        motionDetector = new MotionDetector(createTemplateMatcher(matcher));
+        motionDetector.createTemplate(frames.get(0));
+    }
+
+    private static TemplateMatcher createTemplateMatcher(String name) {
+        switch (name) {
+            case "reference":
+                return new ReferenceTemplateMatcher();
+            case "integralImage":
+                return new IntegralImageTemplateMatcher();
+            case "pyramid":
+                return new PyramidTemplateMatcher();
+            case "tracking":
+                return new TrackingTemplateMatcher(new IntegralImageTemplateMatcher());
+            case "parallel2":
+                return new ParallelTemplateMatcher(2);
+            case "parallel4":
+                return new ParallelTemplateMatcher(4);
+            default:
+                throw new IllegalArgumentException("unknown template matcher: " + name);
+        }
+    }
+
+    @Benchmark
+    public Motion detect() {
+        frameIndex = (frameIndex + 1) % FRAME_COUNT;
+        return motionDetector.detect(frames.get(frameIndex), token);
+    }
+}